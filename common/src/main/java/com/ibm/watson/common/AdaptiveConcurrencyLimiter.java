@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+
+/**
+ * Limits the number of requests in flight, adapting the limit to the service with additive
+ * increase and multiplicative decrease (AIMD).
+ *
+ * <p>Every request calls {@link #acquire()} before it is sent and exactly one of {@link
+ * #onSuccess()}, {@link #onOverload()} or {@link #onFailure()} once it completes. Each success
+ * raises the limit by {@code 1 / limit}, so the limit grows by about one per round of requests. An
+ * overload response, such as 429 Too Many Requests, halves it.
+ */
+public final class AdaptiveConcurrencyLimiter {
+  private final int minLimit;
+  private final int maxLimit;
+  private double limit;
+  private int inFlight;
+
+  /**
+   * Instantiates a new limiter.
+   *
+   * @param initialLimit the initial number of requests allowed in flight
+   * @param minLimit the lowest the limit can drop to, at least 1
+   * @param maxLimit the highest the limit can grow to
+   */
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    Validator.isTrue(minLimit >= 1, "minLimit must be at least 1");
+    Validator.isTrue(
+        minLimit <= initialLimit && initialLimit <= maxLimit,
+        "initialLimit must be between minLimit and maxLimit");
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Waits until a request may be sent and reserves a slot for it.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public synchronized void acquire() throws InterruptedException {
+    while (inFlight >= (int) limit) {
+      wait();
+    }
+    inFlight++;
+  }
+
+  /**
+   * Reserves a slot if one is free, without waiting.
+   *
+   * @return true if a slot was reserved
+   */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /** Releases a slot after a successful request and raises the limit. */
+  public synchronized void onSuccess() {
+    limit = Math.min(maxLimit, limit + 1 / limit);
+    release();
+  }
+
+  /** Releases a slot after the service asked the client to slow down and halves the limit. */
+  public synchronized void onOverload() {
+    limit = Math.max(minLimit, limit / 2);
+    release();
+  }
+
+  /** Releases a slot after a request failed for a reason unrelated to load. */
+  public synchronized void onFailure() {
+    release();
+  }
+
+  /**
+   * Releases a slot, adjusting the limit according to the outcome of the request.
+   *
+   * @param error the failure of the request, or null if it succeeded
+   */
+  public void onComplete(Throwable error) {
+    if (error == null) {
+      onSuccess();
+    } else if (RetryPolicy.isOverload(error)) {
+      onOverload();
+    } else {
+      onFailure();
+    }
+  }
+
+  /**
+   * Returns the current number of requests allowed in flight.
+   *
+   * @return the limit
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Returns the number of requests in flight.
+   *
+   * @return the number of reserved slots
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  private void release() {
+    inFlight--;
+    notifyAll();
+  }
+}
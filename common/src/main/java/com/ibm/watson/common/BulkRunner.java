@@ -0,0 +1,307 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the requests of one run of a bulk helper, limiting how many are in flight with an {@link
+ * AdaptiveConcurrencyLimiter} and retrying failed ones according to a {@link RetryPolicy}.
+ *
+ * <p>A subclass turns each unit of work into a call with {@link #newCall(Object)} and receives the
+ * outcome in {@link #complete(Object, Object)} or, once the retries are exhausted, in {@link
+ * #fail(Object, Exception)}. A retry that is due is sent by the thread that feeds the run, the next
+ * time it calls {@link #submit(Object)}, {@link #awaitRoom()} or {@link #awaitIdle()}, so no
+ * request is sent from a callback thread.
+ *
+ * <p>The state of the subclass is guarded by the lock of the runner: {@link #complete(Object,
+ * Object)}, {@link #fail(Object, Exception)}, {@link #isFull()} and {@link #isIdle()} run with it
+ * held or take it themselves, and a change that makes room or finishes the run must call {@link
+ * #notifyAll()} on it.
+ *
+ * @param <W> the type of a unit of work
+ * @param <T> the type of the result of a call
+ */
+public abstract class BulkRunner<W, T> {
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final RetryPolicy retryPolicy;
+  private final ScheduledExecutorService timer;
+  private final ArrayDeque<Attempt<W>> retries = new ArrayDeque<Attempt<W>>();
+  private final Set<ServiceCall<?>> calls = new HashSet<ServiceCall<?>>();
+  private boolean closed;
+
+  /**
+   * Instantiates a new runner.
+   *
+   * @param name the name of the thread that schedules retries
+   * @param initialConcurrency the number of concurrent requests to start with
+   * @param maxConcurrency the largest number of concurrent requests
+   * @param retryPolicy how failed requests are retried
+   */
+  protected BulkRunner(
+      String name, int initialConcurrency, int maxConcurrency, RetryPolicy retryPolicy) {
+    this.limiter = new AdaptiveConcurrencyLimiter(initialConcurrency, 1, maxConcurrency);
+    this.retryPolicy = retryPolicy;
+    this.timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name));
+  }
+
+  /**
+   * Creates the call that sends a unit of work. Called once per attempt.
+   *
+   * @param work the unit of work
+   * @return the call, not yet enqueued
+   */
+  protected abstract ServiceCall<? extends T> newCall(W work);
+
+  /**
+   * Handles the response to a unit of work.
+   *
+   * @param work the unit of work
+   * @param result the result of the call
+   */
+  protected abstract void complete(W work, T result);
+
+  /**
+   * Handles a unit of work that failed and will not be retried.
+   *
+   * @param work the unit of work
+   * @param e the error of the last attempt
+   */
+  protected abstract void fail(W work, Exception e);
+
+  /**
+   * Returns whether every unit of work submitted is done. Called with the lock held.
+   *
+   * @return true if the run is idle
+   */
+  protected abstract boolean isIdle();
+
+  /**
+   * Returns whether no more work should be read until some completes. Called with the lock held.
+   * Defaults to false.
+   *
+   * @return true if the run is full
+   */
+  protected boolean isFull() {
+    return false;
+  }
+
+  /**
+   * Called when a request completes, before its outcome is handled.
+   *
+   * @param elapsedNanos the time the request took, in nanoseconds
+   */
+  protected void onRequestComplete(long elapsedNanos) {
+  }
+
+  /**
+   * Called when a failed unit of work is scheduled to be sent again.
+   *
+   * @param work the unit of work
+   * @param e the error of the attempt
+   */
+  protected void onRetry(W work, Exception e) {
+  }
+
+  /**
+   * Sends a unit of work once a request may be sent, after any retry that is due.
+   *
+   * @param work the unit of work
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void submit(W work) throws InterruptedException {
+    sendRetries();
+    send(new Attempt<W>(work));
+  }
+
+  /**
+   * Queues a unit of work to be sent again, with its attempts reset, by the thread that feeds the
+   * run. Unlike {@link #submit(Object)}, this does not wait and may be called from a callback.
+   *
+   * @param work the unit of work
+   */
+  protected synchronized void resubmit(W work) {
+    if (!closed) {
+      retries.add(new Attempt<W>(work));
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the run is no longer full, sending retries as they become due.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void awaitRoom() throws InterruptedException {
+    while (true) {
+      sendRetries();
+      synchronized (this) {
+        while (retries.isEmpty() && isFull()) {
+          wait();
+        }
+        if (retries.isEmpty()) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until every unit of work submitted is done, sending retries as they become due.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void awaitIdle() throws InterruptedException {
+    while (true) {
+      sendRetries();
+      synchronized (this) {
+        while (retries.isEmpty() && !isIdle()) {
+          wait();
+        }
+        if (isIdle()) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the current number of concurrent requests allowed.
+   *
+   * @return the concurrency limit
+   */
+  public int getConcurrencyLimit() {
+    return limiter.getLimit();
+  }
+
+  /** Cancels the requests in flight and drops the retries that are not due yet. */
+  public void close() {
+    List<ServiceCall<?>> inFlight;
+    synchronized (this) {
+      closed = true;
+      inFlight = new ArrayList<ServiceCall<?>>(calls);
+      calls.clear();
+      retries.clear();
+    }
+    for (ServiceCall<?> call : inFlight) {
+      call.cancel();
+    }
+    timer.shutdownNow();
+  }
+
+  /**
+   * Sends every retry that is due.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  protected void sendRetries() throws InterruptedException {
+    while (true) {
+      Attempt<W> retry;
+      synchronized (this) {
+        retry = retries.poll();
+      }
+      if (retry == null) {
+        return;
+      }
+      send(retry);
+    }
+  }
+
+  private void send(Attempt<W> attempt) throws InterruptedException {
+    limiter.acquire();
+    ServiceCall<? extends T> call;
+    try {
+      call = newCall(attempt.work);
+    } catch (RuntimeException e) {
+      limiter.onFailure();
+      throw e;
+    }
+    enqueue(attempt, call);
+  }
+
+  private <R extends T> void enqueue(final Attempt<W> attempt, final ServiceCall<R> call) {
+    final long sent = System.nanoTime();
+    synchronized (this) {
+      calls.add(call);
+    }
+    call.enqueue(
+        new ServiceCallback<R>() {
+          @Override
+          public void onResponse(Response<R> response) {
+            limiter.onSuccess();
+            onRequestComplete(System.nanoTime() - sent);
+            if (finished(call)) {
+              complete(attempt.work, response.getResult());
+            }
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            limiter.onComplete(e);
+            onRequestComplete(System.nanoTime() - sent);
+            if (finished(call)) {
+              retryOrFail(attempt, e);
+            }
+          }
+        });
+  }
+
+  /** Forgets a call that completed and returns whether the run is still open. */
+  private synchronized boolean finished(ServiceCall<?> call) {
+    calls.remove(call);
+    return !closed;
+  }
+
+  private void retryOrFail(final Attempt<W> attempt, Exception e) {
+    attempt.count++;
+    if (!retryPolicy.shouldRetry(e, attempt.count)) {
+      fail(attempt.work, e);
+      return;
+    }
+    onRetry(attempt.work, e);
+    timer.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (BulkRunner.this) {
+              if (!closed) {
+                retries.add(attempt);
+                BulkRunner.this.notifyAll();
+              }
+            }
+          }
+        },
+        retryPolicy.delayMillis(e, attempt.count),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /** A unit of work and the number of times it was sent. */
+  private static final class Attempt<W> {
+    private final W work;
+    private int count;
+
+    private Attempt(W work) {
+      this.work = work;
+    }
+  }
+}
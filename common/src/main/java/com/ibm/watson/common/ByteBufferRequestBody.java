@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that writes the remaining bytes of a {@link ByteBuffer}, such as a memory-mapped
+ * file, while the request is written.
+ *
+ * <p>The buffer is never copied into a byte array: every write works on a duplicate of it, so the
+ * body can be sent again when the HTTP client retries the request, and several requests can share
+ * one buffer concurrently. The buffer must not be modified while requests are using it.
+ */
+public final class ByteBufferRequestBody extends RequestBody {
+  private final ByteBuffer buffer;
+  private final MediaType contentType;
+
+  private ByteBufferRequestBody(ByteBuffer buffer, MediaType contentType) {
+    this.buffer = buffer;
+    this.contentType = contentType;
+  }
+
+  /**
+   * Creates a request body for the remaining bytes of a buffer. The position and limit of the
+   * buffer are not changed, neither now nor when the body is written.
+   *
+   * @param buffer the buffer
+   * @param contentType the media type of the content, or null to leave it unspecified
+   * @return the request body
+   */
+  public static ByteBufferRequestBody create(ByteBuffer buffer, String contentType) {
+    return new ByteBufferRequestBody(
+        buffer.duplicate(), contentType != null ? MediaType.parse(contentType) : null);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#contentType()
+   */
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#contentLength()
+   */
+  @Override
+  public long contentLength() {
+    return buffer.remaining();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#writeTo(okio.BufferedSink)
+   */
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    ByteBuffer source = buffer.duplicate();
+    while (source.hasRemaining()) {
+      sink.write(source);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+/**
+ * A bounded key-value cache used by the client-side caching helpers of the services. Implementations
+ * must be safe for use by multiple threads.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ * @see LruCache
+ */
+public interface Cache<K, V> {
+
+  /**
+   * Returns the value cached for a key.
+   *
+   * @param key the key
+   * @return the cached value, or null if there is none or it has expired
+   */
+  V get(K key);
+
+  /**
+   * Caches a value.
+   *
+   * @param key the key
+   * @param value the value
+   * @param ttlMillis how long the value stays valid, in milliseconds. Zero or less never expires
+   */
+  void put(K key, V value, long ttlMillis);
+
+  /**
+   * Removes the value cached for a key.
+   *
+   * @param key the key
+   */
+  void remove(K key);
+
+  /** Removes every cached value. */
+  void clear();
+
+  /**
+   * Returns the number of cached values, including expired values not evicted yet.
+   *
+   * @return the number of cached values
+   */
+  int size();
+}
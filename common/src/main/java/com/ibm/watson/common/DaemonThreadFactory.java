@@ -0,0 +1,45 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so that the worker pools of the bulk helpers do not keep the JVM
+ * alive once the caller is done with them.
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+  private final String name;
+  private final AtomicInteger count = new AtomicInteger();
+
+  /**
+   * Instantiates a new thread factory.
+   *
+   * @param name the prefix of the thread names, followed by a sequence number
+   */
+  public DaemonThreadFactory(String name) {
+    this.name = name;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+   */
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
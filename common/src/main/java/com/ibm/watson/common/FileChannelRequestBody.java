@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A request body that streams a file from a {@link FileChannel} while the request is written.
+ *
+ * <p>Unlike a body created from an {@code InputStream}, which the SDK reads into memory up front,
+ * the file never has to fit in the heap. The file is opened on every write, so the body can be
+ * sent again when the HTTP client retries the request. Its length is fixed when the body is
+ * created; a file that shrinks in the meantime fails the request.
+ */
+public final class FileChannelRequestBody extends RequestBody {
+  private final Path file;
+  private final MediaType contentType;
+  private final long length;
+
+  private FileChannelRequestBody(Path file, MediaType contentType, long length) {
+    this.file = file;
+    this.contentType = contentType;
+    this.length = length;
+  }
+
+  /**
+   * Creates a request body for a file.
+   *
+   * @param file the file
+   * @param contentType the media type of the file, or null to leave it unspecified
+   * @return the request body
+   * @throws IOException if the size of the file cannot be read
+   */
+  public static FileChannelRequestBody create(Path file, String contentType) throws IOException {
+    return new FileChannelRequestBody(
+        file, contentType != null ? MediaType.parse(contentType) : null, Files.size(file));
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#contentType()
+   */
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#contentLength()
+   */
+  @Override
+  public long contentLength() {
+    return length;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see okhttp3.RequestBody#writeTo(okio.BufferedSink)
+   */
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long position = 0;
+      while (position < length) {
+        long transferred = channel.transferTo(position, length - position, sink);
+        if (transferred <= 0 && position >= channel.size()) {
+          throw new EOFException(file + " was truncated while it was being sent");
+        }
+        position += transferred;
+      }
+    }
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.cloud.sdk.core.util.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a binary response body, such as a model file, straight to disk.
+ *
+ * <p>The body is copied from the response stream into a {@link FileChannel} with {@link
+ * FileChannel#transferFrom}, in blocks of {@code blockSize} bytes, so it never has to fit in the
+ * heap. It is written to a {@code .part} file next to the destination, which is renamed atomically
+ * once its size and checksum are verified; readers of the destination never see a partial file.
+ *
+ * <p>When the connection fails part way, or a previous process left a {@code .part} file behind,
+ * the download resumes from the end of the partial file with an HTTP {@code Range} request. The
+ * {@code ETag}, or else the {@code Last-Modified} date, of the response that started the partial
+ * file is kept in a {@code .part.validator} file next to it and sent as {@code If-Range}, so that
+ * the service sends the whole body again if the file changed in between. A partial file without a
+ * validator is discarded. If the service ignores the range and sends the whole body, or answers
+ * that the range cannot be satisfied and the partial file is not known to be complete, the partial
+ * file is discarded and the download starts over.
+ */
+public final class FileDownloader {
+  private static final long DEFAULT_BLOCK_SIZE = 8 * 1024 * 1024;
+  private static final int PARTIAL_CONTENT = 206;
+  private static final int RANGE_NOT_SATISFIABLE = 416;
+  private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+  private static final String PARTIAL_SUFFIX = ".part";
+  private static final String VALIDATOR_SUFFIX = ".validator";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+  private static final Pattern UNSATISFIED_RANGE = Pattern.compile("bytes \\*/(\\d+)");
+
+  private final long blockSize;
+  private final boolean resume;
+  private final RetryPolicy retryPolicy;
+  private final long expectedSize;
+  private final String checksumAlgorithm;
+  private final String expectedChecksum;
+
+  /**
+   * Creates the call that fetches the body. A new call is created for every attempt, since a call
+   * can only be executed once.
+   */
+  public interface Request {
+
+    /**
+     * Creates a call that fetches the whole body.
+     *
+     * @return the call
+     */
+    ServiceCall<InputStream> newCall();
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private long blockSize = DEFAULT_BLOCK_SIZE;
+    private boolean resume = true;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private long expectedSize = -1;
+    private String checksumAlgorithm;
+    private String expectedChecksum;
+
+    /**
+     * Builds a FileDownloader.
+     *
+     * @return the file downloader
+     */
+    public FileDownloader build() {
+      return new FileDownloader(this);
+    }
+
+    /**
+     * Set the largest number of bytes copied by a single transfer. Defaults to 8 MB.
+     *
+     * @param blockSize the block size in bytes
+     * @return the FileDownloader builder
+     */
+    public Builder blockSize(long blockSize) {
+      this.blockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * Set whether an existing {@code .part} file is resumed with a range request rather than
+     * discarded. Defaults to true.
+     *
+     * @param resume whether to resume partial downloads
+     * @return the FileDownloader builder
+     */
+    public Builder resume(boolean resume) {
+      this.resume = resume;
+      return this;
+    }
+
+    /**
+     * Set the policy that decides whether a failed attempt is retried. A retried attempt resumes
+     * where the failed one stopped. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the FileDownloader builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Set the size the downloaded file must have. By default the size announced by the service is
+     * checked, if any.
+     *
+     * @param expectedSize the size in bytes
+     * @return the FileDownloader builder
+     */
+    public Builder expectedSize(long expectedSize) {
+      this.expectedSize = expectedSize;
+      return this;
+    }
+
+    /**
+     * Set the checksum the downloaded file must have. By default no checksum is verified.
+     *
+     * @param algorithm the {@link MessageDigest} algorithm, for example {@code SHA-256}
+     * @param checksum the expected digest as a hexadecimal string
+     * @return the FileDownloader builder
+     */
+    public Builder checksum(String algorithm, String checksum) {
+      this.checksumAlgorithm = algorithm;
+      this.expectedChecksum = checksum;
+      return this;
+    }
+  }
+
+  private FileDownloader(Builder builder) {
+    Validator.isTrue(builder.blockSize > 0, "blockSize must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    Validator.isTrue(
+        (builder.checksumAlgorithm == null) == (builder.expectedChecksum == null),
+        "checksum algorithm and value must be set together");
+    blockSize = builder.blockSize;
+    resume = builder.resume;
+    retryPolicy = builder.retryPolicy;
+    expectedSize = builder.expectedSize;
+    checksumAlgorithm = builder.checksumAlgorithm;
+    expectedChecksum =
+        builder.expectedChecksum != null ? builder.expectedChecksum.toLowerCase(Locale.ROOT) : null;
+    if (checksumAlgorithm != null) {
+      newDigest();
+    }
+  }
+
+  /**
+   * Returns the partial file a download to the given destination is written to.
+   *
+   * @param destination the destination file
+   * @return the partial file
+   */
+  public static Path partialFile(Path destination) {
+    return destination.resolveSibling(destination.getFileName() + PARTIAL_SUFFIX);
+  }
+
+  /**
+   * Returns the file that holds the {@code If-Range} validator of a partial file.
+   *
+   * @param partial the partial file
+   * @return the validator file
+   */
+  public static Path validatorFile(Path partial) {
+    return partial.resolveSibling(partial.getFileName() + VALIDATOR_SUFFIX);
+  }
+
+  /**
+   * Downloads a body to a file, replacing the file if it exists.
+   *
+   * @param request creates the call that fetches the body
+   * @param destination the destination file
+   * @return the destination file
+   * @throws IOException if the body cannot be written, or fails the size or checksum check
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   */
+  public Path download(Request request, Path destination)
+      throws IOException, InterruptedException {
+    Validator.notNull(request, "request cannot be null");
+    Validator.notNull(destination, "destination cannot be null");
+    Path partial = partialFile(destination);
+    if (!resume) {
+      discard(partial);
+    }
+    boolean completed = false;
+    try {
+      long size = fetch(request, partial);
+      verify(partial, size);
+      try {
+        Files.move(
+            partial,
+            destination,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(partial, destination, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.deleteIfExists(validatorFile(partial));
+      completed = true;
+    } finally {
+      if (!completed && !resume) {
+        discard(partial);
+      }
+    }
+    return destination;
+  }
+
+  /** Fetches the body into the partial file, resuming after failures; returns its total size. */
+  private long fetch(Request request, Path partial) throws IOException, InterruptedException {
+    int attempt = 0;
+    while (true) {
+      attempt++;
+      try {
+        return transfer(request, partial);
+      } catch (IOException | RuntimeException e) {
+        if (!retryPolicy.shouldRetry(e, attempt)) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(e, attempt));
+      }
+    }
+  }
+
+  /**
+   * Makes one attempt at fetching the rest of the body.
+   *
+   * @return the total size announced by the service, or -1 if it is unknown
+   */
+  private long transfer(Request request, Path partial) throws IOException {
+    Path validatorFile = validatorFile(partial);
+    String validator =
+        Files.exists(validatorFile) ? new String(Files.readAllBytes(validatorFile), UTF_8) : null;
+    if (validator == null || validator.isEmpty()) {
+      // Without a validator the partial file cannot be matched with the current body.
+      discard(partial);
+      validator = null;
+    }
+    long offset = Files.exists(partial) ? Files.size(partial) : 0;
+    ServiceCall<InputStream> call = request.newCall();
+    if (offset > 0) {
+      call.addHeader("Range", "bytes=" + offset + "-");
+      call.addHeader("If-Range", validator);
+    }
+    Response<InputStream> response;
+    try {
+      response = call.execute();
+    } catch (ServiceResponseException e) {
+      if (offset > 0 && e.getStatusCode() == RANGE_NOT_SATISFIABLE) {
+        long total = unsatisfiedRangeTotal(e);
+        if (total < 0) {
+          total = expectedSize;
+        }
+        if (total >= 0 && total == offset) {
+          // The partial file already holds the whole body.
+          return total;
+        }
+        discard(partial);
+        return transfer(request, partial);
+      }
+      throw e;
+    }
+    long total = -1;
+    if (offset > 0 && response.getStatusCode() == PARTIAL_CONTENT) {
+      Matcher range = contentRange(response);
+      if (range == null || Long.parseLong(range.group(1)) != offset) {
+        response.getResult().close();
+        discard(partial);
+        throw new IOException("Unexpected Content-Range in a response to a resumed download");
+      }
+      if (!"*".equals(range.group(3))) {
+        total = Long.parseLong(range.group(3));
+      }
+    } else {
+      // The service sent the whole body, because the file changed or ranges are not supported.
+      offset = 0;
+      total = contentLength(response);
+      String newValidator = validator(response);
+      if (newValidator != null) {
+        Files.write(validatorFile, newValidator.getBytes(UTF_8));
+      } else {
+        Files.deleteIfExists(validatorFile);
+      }
+    }
+    try (InputStream body = response.getResult();
+        ReadableByteChannel source = Channels.newChannel(body);
+        FileChannel target =
+            FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      target.truncate(offset);
+      long position = offset;
+      long transferred;
+      while ((transferred = target.transferFrom(source, position, blockSize)) > 0) {
+        position += transferred;
+      }
+      target.force(false);
+    }
+    return total;
+  }
+
+  private static void discard(Path partial) throws IOException {
+    Files.deleteIfExists(partial);
+    Files.deleteIfExists(validatorFile(partial));
+  }
+
+  private void verify(Path partial, long announcedSize) throws IOException {
+    long size = Files.size(partial);
+    long expected = expectedSize >= 0 ? expectedSize : announcedSize;
+    if (expected >= 0 && size != expected) {
+      discard(partial);
+      throw new IOException(
+          "Downloaded " + size + " bytes to " + partial + ", expected " + expected);
+    }
+    if (checksumAlgorithm != null) {
+      String checksum = checksum(partial);
+      if (!checksum.equals(expectedChecksum)) {
+        discard(partial);
+        throw new IOException(
+            checksumAlgorithm + " of " + partial + " is " + checksum + ", expected "
+                + expectedChecksum);
+      }
+    }
+  }
+
+  private String checksum(Path file) throws IOException {
+    MessageDigest digest = newDigest();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(DIGEST_BUFFER_SIZE);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(checksumAlgorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Unknown checksum algorithm " + checksumAlgorithm, e);
+    }
+  }
+
+  private static Matcher contentRange(Response<?> response) {
+    List<String> values = response.getHeaders().values("Content-Range");
+    if (values == null || values.isEmpty()) {
+      return null;
+    }
+    Matcher matcher = CONTENT_RANGE.matcher(values.get(0).trim());
+    return matcher.matches() ? matcher : null;
+  }
+
+  /** Returns the total size in the Content-Range of a 416 response, or -1 if it is unknown. */
+  private static long unsatisfiedRangeTotal(ServiceResponseException e) {
+    List<String> values = e.getHeaders() != null ? e.getHeaders().values("Content-Range") : null;
+    if (values == null || values.isEmpty()) {
+      return -1;
+    }
+    Matcher matcher = UNSATISFIED_RANGE.matcher(values.get(0).trim());
+    return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+  }
+
+  /**
+   * Returns the strong entity tag of a response, or else its modification date, or null. Weak
+   * entity tags cannot be used in {@code If-Range}.
+   */
+  private static String validator(Response<?> response) {
+    List<String> etags = response.getHeaders().values("ETag");
+    if (etags != null && !etags.isEmpty() && !etags.get(0).trim().startsWith("W/")) {
+      return etags.get(0).trim();
+    }
+    List<String> dates = response.getHeaders().values("Last-Modified");
+    return dates != null && !dates.isEmpty() ? dates.get(0).trim() : null;
+  }
+
+  private static long contentLength(Response<?> response) {
+    List<String> values = response.getHeaders().values("Content-Length");
+    if (values == null || values.isEmpty()) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(values.get(0).trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
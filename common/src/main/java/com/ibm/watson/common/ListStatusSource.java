@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link StatusPoller.StatusSource} for services that report the statuses of many jobs with one
+ * list request, such as recent batches, documents or recognition jobs.
+ *
+ * <p>Each fetch makes one list request and returns every listed status, so the poller also applies
+ * the statuses of watched jobs that were not due yet. Jobs missing from the list, for example
+ * because the list only holds the most recent jobs, are fetched one at a time. A job whose own
+ * request fails with an error that is not retryable, such as 404, fails its future; a retryable
+ * error fails the whole fetch, which the poller retries.
+ *
+ * @param <K> the type of the job IDs
+ * @param <S> the type of the job statuses
+ */
+public abstract class ListStatusSource<K, S> extends StatusPoller.StatusSource<K, S> {
+
+  /**
+   * Lists the statuses of the jobs the service reports together.
+   *
+   * @return the statuses, or null if there are none
+   */
+  protected abstract List<S> list();
+
+  /**
+   * Returns the ID of the job a status belongs to.
+   *
+   * @param status the status
+   * @return the job ID
+   */
+  protected abstract K getId(S status);
+
+  /**
+   * Fetches the status of a single job that is missing from the list.
+   *
+   * @param id the job ID
+   * @return the status
+   */
+  protected abstract S get(K id);
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.StatusPoller.StatusSource#fetch(java.util.List)
+   */
+  @Override
+  public Map<K, S> fetch(List<K> ids) {
+    Map<K, S> statuses = new HashMap<K, S>();
+    List<S> listed = list();
+    if (listed != null) {
+      for (S status : listed) {
+        K id = getId(status);
+        if (id != null) {
+          statuses.put(id, status);
+        }
+      }
+    }
+    for (K id : ids) {
+      if (statuses.containsKey(id)) {
+        continue;
+      }
+      try {
+        S status = get(id);
+        if (status != null) {
+          statuses.put(id, status);
+        }
+      } catch (RuntimeException e) {
+        if (RetryPolicy.isRetryable(e)) {
+          throw e;
+        }
+        fail(id, e);
+      }
+    }
+    return statuses;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import io.reactivex.Single;
+import io.reactivex.functions.Consumer;
+
+/**
+ * A {@link ServiceCall} that notifies a {@link ResponseListener} of every successful response of
+ * the call it wraps, however the call is executed. It is used to populate or invalidate client-side
+ * caches without changing how callers use the returned call.
+ *
+ * @param <T> the type of the response result
+ */
+public final class ListenableServiceCall<T> implements ServiceCall<T> {
+
+  /**
+   * Receives the successful responses of a {@link ListenableServiceCall}.
+   *
+   * @param <T> the type of the response result
+   */
+  public interface ResponseListener<T> {
+
+    /**
+     * Called with a successful response before it is returned to the caller.
+     *
+     * @param response the response
+     */
+    void onResponse(Response<T> response);
+  }
+
+  private final ServiceCall<T> delegate;
+  private final ResponseListener<T> listener;
+
+  /**
+   * Instantiates a new listenable service call.
+   *
+   * @param delegate the call that performs the request
+   * @param listener the listener notified of successful responses
+   */
+  public ListenableServiceCall(ServiceCall<T> delegate, ResponseListener<T> listener) {
+    this.delegate = delegate;
+    this.listener = listener;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#addHeader(java.lang.String, java.lang.String)
+   */
+  @Override
+  public ServiceCall<T> addHeader(String name, String value) {
+    delegate.addHeader(name, value);
+    return this;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#execute()
+   */
+  @Override
+  public Response<T> execute() {
+    Response<T> response = delegate.execute();
+    listener.onResponse(response);
+    return response;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#enqueue(com.ibm.cloud.sdk.core.http.ServiceCallback)
+   */
+  @Override
+  public void enqueue(final ServiceCallback<T> callback) {
+    delegate.enqueue(
+        new ServiceCallback<T>() {
+          @Override
+          public void onResponse(Response<T> response) {
+            listener.onResponse(response);
+            callback.onResponse(response);
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            callback.onFailure(e);
+          }
+        });
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#reactiveRequest()
+   */
+  @Override
+  public Single<Response<T>> reactiveRequest() {
+    return delegate
+        .reactiveRequest()
+        .doOnSuccess(
+            new Consumer<Response<T>>() {
+              @Override
+              public void accept(Response<T> response) {
+                listener.onResponse(response);
+              }
+            });
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#cancel()
+   */
+  @Override
+  public void cancel() {
+    delegate.cancel();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Cache} that holds up to a fixed number of entries and evicts the least recently used
+ * entry when full. Expired entries are dropped when they are read or evicted.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public class LruCache<K, V> implements Cache<K, V> {
+  private final Map<K, Entry<V>> entries;
+
+  /**
+   * Instantiates a new LRU cache.
+   *
+   * @param maximumSize the maximum number of entries
+   */
+  public LruCache(final int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be greater than 0");
+    }
+    entries =
+        new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            return size() > maximumSize;
+          }
+        };
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#get(java.lang.Object)
+   */
+  @Override
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.isExpired(System.nanoTime())) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#put(java.lang.Object, java.lang.Object, long)
+   */
+  @Override
+  public synchronized void put(K key, V value, long ttlMillis) {
+    entries.put(key, new Entry<V>(value, ttlMillis));
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#remove(java.lang.Object)
+   */
+  @Override
+  public synchronized void remove(K key) {
+    entries.remove(key);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#clear()
+   */
+  @Override
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#size()
+   */
+  @Override
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    Entry(V value, long ttlMillis) {
+      this.value = value;
+      this.expiresAt = ttlMillis > 0 ? System.nanoTime() + ttlMillis * 1000000L : 0;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt != 0 && now - expiresAt >= 0;
+    }
+  }
+}
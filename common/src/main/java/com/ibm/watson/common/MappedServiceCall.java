@@ -0,0 +1,159 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.http.Headers;
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * A {@link ServiceCall} whose result is derived from the result of the call it wraps, for example
+ * to merge a response with values answered from a client-side cache. The status and headers of the
+ * wrapped response are kept.
+ *
+ * @param <S> the type of the result of the wrapped call
+ * @param <T> the type of the derived result
+ */
+public final class MappedServiceCall<S, T> implements ServiceCall<T> {
+  private static final String LOCAL_URL = "http://localhost/";
+
+  /**
+   * Derives the result of a {@link MappedServiceCall} from the result of the call it wraps.
+   *
+   * @param <S> the type of the result of the wrapped call
+   * @param <T> the type of the derived result
+   */
+  public interface Mapper<S, T> {
+
+    /**
+     * Derives a result. Runtime exceptions are reported to the caller as failures of the call.
+     *
+     * @param result the result of the wrapped call
+     * @return the derived result
+     */
+    T map(S result);
+  }
+
+  private final ServiceCall<S> delegate;
+  private final Mapper<S, T> mapper;
+
+  /**
+   * Instantiates a new mapped service call.
+   *
+   * @param delegate the call that performs the request
+   * @param mapper the mapper that derives the result
+   */
+  public MappedServiceCall(ServiceCall<S> delegate, Mapper<S, T> mapper) {
+    this.delegate = delegate;
+    this.mapper = mapper;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#addHeader(java.lang.String, java.lang.String)
+   */
+  @Override
+  public ServiceCall<T> addHeader(String name, String value) {
+    delegate.addHeader(name, value);
+    return this;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#execute()
+   */
+  @Override
+  public Response<T> execute() {
+    return map(delegate.execute());
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#enqueue(com.ibm.cloud.sdk.core.http.ServiceCallback)
+   */
+  @Override
+  public void enqueue(final ServiceCallback<T> callback) {
+    delegate.enqueue(
+        new ServiceCallback<S>() {
+          @Override
+          public void onResponse(Response<S> response) {
+            Response<T> mapped;
+            try {
+              mapped = map(response);
+            } catch (RuntimeException e) {
+              callback.onFailure(e);
+              return;
+            }
+            callback.onResponse(mapped);
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            callback.onFailure(e);
+          }
+        });
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#reactiveRequest()
+   */
+  @Override
+  public Single<Response<T>> reactiveRequest() {
+    return delegate
+        .reactiveRequest()
+        .map(
+            new Function<Response<S>, Response<T>>() {
+              @Override
+              public Response<T> apply(Response<S> response) {
+                return map(response);
+              }
+            });
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.cloud.sdk.core.http.ServiceCall#cancel()
+   */
+  @Override
+  public void cancel() {
+    delegate.cancel();
+  }
+
+  private Response<T> map(Response<S> response) {
+    T result = mapper.map(response.getResult());
+    okhttp3.Headers.Builder headers = new okhttp3.Headers.Builder();
+    Headers original = response.getHeaders();
+    if (original != null) {
+      for (String name : original.names()) {
+        for (String value : original.values(name)) {
+          headers.add(name, value);
+        }
+      }
+    }
+    okhttp3.Response httpResponse =
+        new okhttp3.Response.Builder()
+            .request(new Request.Builder().url(LOCAL_URL).build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(response.getStatusCode())
+            .message(response.getStatusMessage() != null ? response.getStatusMessage() : "")
+            .headers(headers.build())
+            .build();
+    return new Response<T>(result, httpResponse);
+  }
+}
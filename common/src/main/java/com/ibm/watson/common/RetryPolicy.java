@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before the next attempt.
+ *
+ * <p>Network errors, 429 Too Many Requests and 5xx responses are retried with exponential backoff.
+ * When a 429 or 503 response carries a {@code Retry-After} header in seconds, that delay is used
+ * instead. Other client errors are never retried.
+ */
+public final class RetryPolicy {
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int SERVER_ERROR = 500;
+  private static final int SERVICE_UNAVAILABLE = 503;
+
+  private final int maxRetries;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+
+  /** Builder. */
+  public static class Builder {
+    private int maxRetries = 3;
+    private long initialDelayMillis = 1000;
+    private long maxDelayMillis = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Builds a RetryPolicy.
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+
+    /**
+     * Set the maximum number of retries after the first attempt. Defaults to 3.
+     *
+     * @param maxRetries the maximum number of retries
+     * @return the RetryPolicy builder
+     */
+    public Builder maxRetries(int maxRetries) {
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    /**
+     * Set the delay before the first retry. Each further retry doubles it. Defaults to one second.
+     *
+     * @param delay the delay
+     * @param unit the unit of delay
+     * @return the RetryPolicy builder
+     */
+    public Builder initialDelay(long delay, TimeUnit unit) {
+      this.initialDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    /**
+     * Set the longest delay between two attempts. Defaults to 30 seconds.
+     *
+     * @param delay the delay
+     * @param unit the unit of delay
+     * @return the RetryPolicy builder
+     */
+    public Builder maxDelay(long delay, TimeUnit unit) {
+      this.maxDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+  }
+
+  protected RetryPolicy(Builder builder) {
+    maxRetries = builder.maxRetries;
+    initialDelayMillis = builder.initialDelayMillis;
+    maxDelayMillis = builder.maxDelayMillis;
+  }
+
+  /**
+   * Returns a policy with the default settings.
+   *
+   * @return the retry policy
+   */
+  public static RetryPolicy defaults() {
+    return new Builder().build();
+  }
+
+  /**
+   * Returns whether a request that failed on the given attempt should be tried again.
+   *
+   * @param e the failure
+   * @param attempt the number of attempts made so far, starting at 1
+   * @return true if the request should be retried
+   */
+  public boolean shouldRetry(Throwable e, int attempt) {
+    return attempt <= maxRetries && isRetryable(e);
+  }
+
+  /**
+   * Returns how long to wait before the next attempt.
+   *
+   * @param e the failure
+   * @param attempt the number of attempts made so far, starting at 1
+   * @return the delay in milliseconds
+   */
+  public long delayMillis(Throwable e, int attempt) {
+    long retryAfter = retryAfterMillis(e);
+    if (retryAfter > 0) {
+      return Math.min(retryAfter, maxDelayMillis);
+    }
+    long delay = initialDelayMillis;
+    for (int i = 1; i < attempt && delay < maxDelayMillis; i++) {
+      delay *= 2;
+    }
+    return Math.min(delay, maxDelayMillis);
+  }
+
+  /**
+   * Returns whether a failure is transient: a network error, 429 Too Many Requests or a 5xx
+   * response.
+   *
+   * @param e the failure
+   * @return true if the failure is transient
+   */
+  public static boolean isRetryable(Throwable e) {
+    if (e instanceof ServiceResponseException) {
+      int status = ((ServiceResponseException) e).getStatusCode();
+      return status == TOO_MANY_REQUESTS || status >= SERVER_ERROR;
+    }
+    return e instanceof IOException || e.getCause() instanceof IOException;
+  }
+
+  /**
+   * Returns whether a failure means the service is overloaded: 429 Too Many Requests or 503
+   * Service Unavailable.
+   *
+   * @param e the failure
+   * @return true if the service asked the client to slow down
+   */
+  public static boolean isOverload(Throwable e) {
+    if (e instanceof ServiceResponseException) {
+      int status = ((ServiceResponseException) e).getStatusCode();
+      return status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE;
+    }
+    return false;
+  }
+
+  private static long retryAfterMillis(Throwable e) {
+    if (!isOverload(e) || ((ServiceResponseException) e).getHeaders() == null) {
+      return 0;
+    }
+    for (String value : ((ServiceResponseException) e).getHeaders().values("Retry-After")) {
+      try {
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+      } catch (NumberFormatException ignored) {
+        // An HTTP date rather than a number of seconds; fall back to exponential backoff.
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} over a {@link ServiceCall} that has been enqueued on the HTTP client. Cancelling
+ * the future cancels the underlying HTTP call, so no thread is held while the request is in flight.
+ *
+ * @param <T> the type of the response result
+ */
+public final class ServiceCallFuture<T> implements Future<T> {
+  private final ServiceCall<T> call;
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private T result;
+  private Exception error;
+  private boolean done;
+  private boolean cancelled;
+
+  private ServiceCallFuture(ServiceCall<T> call) {
+    this.call = call;
+  }
+
+  /**
+   * Enqueues the service call and returns a future for its result.
+   *
+   * @param call the service call
+   * @param <T> the type of the response result
+   * @return the future
+   */
+  public static <T> ServiceCallFuture<T> enqueue(ServiceCall<T> call) {
+    final ServiceCallFuture<T> future = new ServiceCallFuture<T>(call);
+    call.enqueue(
+        new ServiceCallback<T>() {
+          @Override
+          public void onResponse(Response<T> response) {
+            future.complete(response.getResult(), null);
+          }
+
+          @Override
+          public void onFailure(Exception e) {
+            future.complete(null, e);
+          }
+        });
+    return future;
+  }
+
+  private synchronized boolean complete(T value, Exception e) {
+    if (done) {
+      return false;
+    }
+    result = value;
+    error = e;
+    done = true;
+    latch.countDown();
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#cancel(boolean)
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      cancelled = true;
+      complete(null, null);
+    }
+    call.cancel();
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#isCancelled()
+   */
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#isDone()
+   */
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#get()
+   */
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return report();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public T get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException("Service call did not complete within " + timeout + " " + unit);
+    }
+    return report();
+  }
+
+  /**
+   * Waits for the call to complete and returns its result, rethrowing service errors unchanged.
+   *
+   * <p>Unlike {@link #get()}, a {@link RuntimeException} raised by the service (for example a
+   * {@code ServiceResponseException}) is thrown as-is rather than wrapped in an {@link
+   * ExecutionException}.
+   *
+   * @return the response result
+   */
+  public T join() {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel(true);
+      throw new CancellationException("Interrupted while waiting for the service call");
+    }
+    synchronized (this) {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error != null) {
+        throw new RuntimeException(error);
+      }
+      return result;
+    }
+  }
+
+  private synchronized T report() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} that is completed explicitly by whoever produces its result, such as a poller or
+ * a batching facade. Listeners added with {@link #addListener(Runnable)} run once the future is
+ * completed, on the thread that completes it.
+ *
+ * @param <T> the type of the result
+ */
+public final class SettableFuture<T> implements Future<T> {
+  private final CountDownLatch latch = new CountDownLatch(1);
+  private final List<Runnable> listeners = new ArrayList<Runnable>();
+  private T result;
+  private Throwable error;
+  private boolean done;
+  private boolean cancelled;
+
+  /**
+   * Completes the future with a result.
+   *
+   * @param value the result
+   * @return true if this call completed the future, false if it was already complete
+   */
+  public boolean set(T value) {
+    return complete(value, null, false);
+  }
+
+  /**
+   * Completes the future with an error.
+   *
+   * @param e the error
+   * @return true if this call completed the future, false if it was already complete
+   */
+  public boolean setException(Throwable e) {
+    return complete(null, e, false);
+  }
+
+  /**
+   * Adds a listener that runs once the future is complete. If the future is already complete the
+   * listener runs immediately on the calling thread.
+   *
+   * @param listener the listener
+   */
+  public void addListener(Runnable listener) {
+    synchronized (this) {
+      if (!done) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  private boolean complete(T value, Throwable e, boolean cancel) {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (done) {
+        return false;
+      }
+      result = value;
+      error = e;
+      cancelled = cancel;
+      done = true;
+      toRun = new ArrayList<Runnable>(listeners);
+      listeners.clear();
+    }
+    latch.countDown();
+    for (Runnable listener : toRun) {
+      listener.run();
+    }
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#cancel(boolean)
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return complete(null, null, true);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#isCancelled()
+   */
+  @Override
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#isDone()
+   */
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#get()
+   */
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return report();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+   */
+  @Override
+  public T get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(timeout, unit)) {
+      throw new TimeoutException("Result was not available within " + timeout + " " + unit);
+    }
+    return report();
+  }
+
+  /**
+   * Waits for the future to complete and returns its result, rethrowing errors unchanged.
+   *
+   * <p>Unlike {@link #get()}, a {@link RuntimeException} (for example a {@code
+   * ServiceResponseException}) is thrown as-is rather than wrapped in an {@link
+   * ExecutionException}.
+   *
+   * @return the result
+   */
+  public T join() {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted while waiting for the result");
+    }
+    synchronized (this) {
+      if (cancelled) {
+        throw new CancellationException();
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      }
+      if (error != null) {
+        throw new RuntimeException(error);
+      }
+      return result;
+    }
+  }
+
+  private synchronized T report() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return result;
+  }
+}
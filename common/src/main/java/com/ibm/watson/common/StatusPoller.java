@@ -0,0 +1,518 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Polls the status of many asynchronous jobs, such as ingested documents or batch jobs, from a
+ * single scheduled task.
+ *
+ * <p>Each watched ID gets a {@link SettableFuture} that completes with its first finished status.
+ * On every tick the poller collects the IDs that are due and asks the {@link StatusSource} for
+ * their statuses in batches, so one request can serve many jobs when the service offers a list
+ * operation. The interval of an ID grows by the backoff multiplier each time it is polled without
+ * finishing; sources can override {@link StatusSource#pollIntervalMillis} to adapt it, for example
+ * to the progress reported by the job.
+ *
+ * @param <K> the type of the job IDs
+ * @param <S> the type of the job statuses
+ */
+public final class StatusPoller<K, S> implements Closeable {
+  private static final Logger LOG = Logger.getLogger(StatusPoller.class.getName());
+
+  /**
+   * Fetches job statuses for a {@link StatusPoller}. A source belongs to the one poller it is
+   * passed to.
+   *
+   * @param <K> the type of the job IDs
+   * @param <S> the type of the job statuses
+   * @see ListStatusSource
+   */
+  public abstract static class StatusSource<K, S> {
+    private StatusPoller<K, S> poller;
+
+    /**
+     * Fetches the current status of a batch of jobs. IDs missing from the returned map are polled
+     * again later. The map may also hold the statuses of other watched jobs, for example when one
+     * list request returns every job: those are passed to the listener, and finished ones complete
+     * their futures without waiting for their next poll. An exception fails the whole batch, which
+     * is retried according to the poller's {@link RetryPolicy}.
+     *
+     * @param ids the IDs to fetch, never more than the poller's batch size
+     * @return the statuses by ID
+     */
+    public abstract Map<K, S> fetch(List<K> ids);
+
+    /**
+     * Returns whether a status is final, completing the job's future.
+     *
+     * @param status the status
+     * @return true if the job will not change any more
+     */
+    public abstract boolean isFinished(S status);
+
+    /**
+     * Returns how long to wait before polling a job that has not finished again. The default
+     * implementation returns the poller's backoff interval unchanged.
+     *
+     * @param id the job ID
+     * @param previous the status seen by the previous poll, or null on the first poll
+     * @param current the status just fetched
+     * @param backoffMillis the previous interval multiplied by the backoff multiplier, capped at
+     *     the maximum interval
+     * @return the interval in milliseconds
+     */
+    public long pollIntervalMillis(K id, S previous, S current, long backoffMillis) {
+      return backoffMillis;
+    }
+
+    /**
+     * Stops watching a job and completes its future with an error, for example when the service
+     * reports that the job no longer exists. Can be called from {@link #fetch}.
+     *
+     * @param id the job ID
+     * @param error the error
+     * @see StatusPoller#fail(Object, Throwable)
+     */
+    protected final void fail(K id, Throwable error) {
+      if (poller != null) {
+        poller.fail(id, error);
+      }
+    }
+  }
+
+  /**
+   * Receives every status fetched by a {@link StatusPoller}, finished or not, to report progress.
+   *
+   * @param <K> the type of the job IDs
+   * @param <S> the type of the job statuses
+   */
+  public interface StatusListener<K, S> {
+
+    /**
+     * Called on the poller thread with each fetched status.
+     *
+     * @param id the job ID
+     * @param status the status
+     */
+    void onStatus(K id, S status);
+  }
+
+  private final StatusSource<K, S> source;
+  private final StatusListener<K, S> listener;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  private final long initialIntervalMillis;
+  private final long maxIntervalMillis;
+  private final double backoffMultiplier;
+  private final int batchSize;
+  private final RetryPolicy retryPolicy;
+
+  private final Map<K, Watch> watches = new HashMap<K, Watch>();
+  private final PriorityQueue<Watch> due = new PriorityQueue<Watch>();
+  private final ScheduledFuture<?> ticker;
+  private long sequence;
+  private boolean closed;
+
+  /** Builder. */
+  public static class Builder<K, S> {
+    private StatusSource<K, S> source;
+    private StatusListener<K, S> listener;
+    private ScheduledExecutorService scheduler;
+    private long initialIntervalMillis = TimeUnit.SECONDS.toMillis(2);
+    private long maxIntervalMillis = TimeUnit.SECONDS.toMillis(60);
+    private double backoffMultiplier = 1.5;
+    private int batchSize = 50;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param source the source that fetches job statuses
+     */
+    public Builder(StatusSource<K, S> source) {
+      this.source = source;
+    }
+
+    /**
+     * Builds a StatusPoller and starts polling.
+     *
+     * @return the status poller
+     */
+    public StatusPoller<K, S> build() {
+      return new StatusPoller<K, S>(this);
+    }
+
+    /**
+     * Set the listener notified of every fetched status.
+     *
+     * @param listener the listener
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> listener(StatusListener<K, S> listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Set the scheduler that runs the polling task, so that several pollers and other periodic
+     * work can share one thread. The scheduler is not shut down when the poller is closed. By
+     * default the poller uses its own daemon thread.
+     *
+     * @param scheduler the scheduler
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Set the interval before the first poll of a job and between polling ticks. Defaults to two
+     * seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> initialInterval(long interval, TimeUnit unit) {
+      this.initialIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the longest interval between two polls of a job. Defaults to 60 seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> maxInterval(long interval, TimeUnit unit) {
+      this.maxIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the factor the interval of a job grows by after each poll that does not finish it.
+     * Defaults to 1.5.
+     *
+     * @param backoffMultiplier the multiplier, at least 1
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> backoffMultiplier(double backoffMultiplier) {
+      this.backoffMultiplier = backoffMultiplier;
+      return this;
+    }
+
+    /**
+     * Set the largest number of IDs passed to one {@link StatusSource#fetch} call. Defaults to 50.
+     *
+     * @param batchSize the batch size
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Set how failed fetches are retried. The jobs of a batch whose fetch fails for good complete
+     * exceptionally. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the StatusPoller builder
+     */
+    public Builder<K, S> retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected StatusPoller(Builder<K, S> builder) {
+    Validator.notNull(builder.source, "source cannot be null");
+    Validator.isTrue(builder.initialIntervalMillis > 0, "initialInterval must be positive");
+    Validator.isTrue(builder.backoffMultiplier >= 1, "backoffMultiplier must be at least 1");
+    Validator.isTrue(builder.batchSize > 0, "batchSize must be positive");
+    Validator.isTrue(builder.source.poller == null, "source already belongs to a poller");
+    source = builder.source;
+    source.poller = this;
+    listener = builder.listener;
+    initialIntervalMillis = builder.initialIntervalMillis;
+    maxIntervalMillis = Math.max(builder.maxIntervalMillis, builder.initialIntervalMillis);
+    backoffMultiplier = builder.backoffMultiplier;
+    batchSize = builder.batchSize;
+    retryPolicy = builder.retryPolicy;
+    ownsScheduler = builder.scheduler == null;
+    scheduler =
+        ownsScheduler
+            ? Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("status-poller"))
+            : builder.scheduler;
+    ticker =
+        scheduler.scheduleWithFixedDelay(
+            new Runnable() {
+              @Override
+              public void run() {
+                tick();
+              }
+            },
+            initialIntervalMillis,
+            initialIntervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts watching a job. Watching an ID that is already watched returns its existing future.
+   *
+   * @param id the job ID
+   * @return a future that completes with the first finished status of the job
+   */
+  public SettableFuture<S> watch(K id) {
+    Validator.notNull(id, "id cannot be null");
+    synchronized (this) {
+      Watch watch = watches.get(id);
+      if (watch != null) {
+        return watch.future;
+      }
+      watch = new Watch(id);
+      if (closed) {
+        watch.future.cancel(false);
+        return watch.future;
+      }
+      watches.put(id, watch);
+      schedule(watch, initialIntervalMillis);
+      return watch.future;
+    }
+  }
+
+  /**
+   * Stops watching a job and completes its future with an error, for example when the source
+   * learns that the job no longer exists.
+   *
+   * @param id the job ID
+   * @param error the error
+   */
+  public void fail(K id, Throwable error) {
+    Watch watch;
+    synchronized (this) {
+      watch = watches.remove(id);
+    }
+    if (watch != null) {
+      watch.future.setException(error);
+    }
+  }
+
+  /**
+   * Returns the number of jobs that have not finished yet.
+   *
+   * @return the number of watched jobs
+   */
+  public synchronized int getPendingCount() {
+    return watches.size();
+  }
+
+  /**
+   * Stops polling and cancels the futures of the jobs that have not finished. A scheduler passed
+   * to the builder is left running.
+   */
+  @Override
+  public void close() {
+    List<Watch> pending;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      pending = new ArrayList<Watch>(watches.values());
+      watches.clear();
+      due.clear();
+    }
+    ticker.cancel(false);
+    if (ownsScheduler) {
+      scheduler.shutdownNow();
+    }
+    for (Watch watch : pending) {
+      watch.future.cancel(false);
+    }
+  }
+
+  private void tick() {
+    try {
+      List<Watch> batch;
+      while (!(batch = nextBatch()).isEmpty()) {
+        poll(batch);
+      }
+    } catch (RuntimeException e) {
+      // An exception would cancel the periodic task, so it is logged and polling continues.
+      LOG.log(Level.WARNING, "Status polling failed", e);
+    }
+  }
+
+  private synchronized List<Watch> nextBatch() {
+    List<Watch> batch = new ArrayList<Watch>();
+    long now = System.nanoTime();
+    while (batch.size() < batchSize && !due.isEmpty() && due.peek().dueNanos - now <= 0) {
+      Watch watch = due.poll();
+      if (watch.future.isDone()) {
+        if (watches.get(watch.id) == watch) {
+          watches.remove(watch.id);
+        }
+      } else if (watches.get(watch.id) == watch) {
+        batch.add(watch);
+      }
+    }
+    return batch;
+  }
+
+  private void poll(List<Watch> batch) {
+    List<K> ids = new ArrayList<K>(batch.size());
+    for (Watch watch : batch) {
+      ids.add(watch.id);
+    }
+    Map<K, S> statuses;
+    try {
+      statuses = source.fetch(Collections.unmodifiableList(ids));
+    } catch (RuntimeException e) {
+      for (Watch watch : batch) {
+        watch.failures++;
+        if (retryPolicy.shouldRetry(e, watch.failures)) {
+          reschedule(watch, retryPolicy.delayMillis(e, watch.failures));
+        } else {
+          fail(watch.id, e);
+        }
+      }
+      return;
+    }
+    for (Watch watch : batch) {
+      S status = statuses != null ? statuses.get(watch.id) : null;
+      watch.failures = 0;
+      if (status != null) {
+        report(watch.id, status);
+      }
+      if (status != null && source.isFinished(status)) {
+        synchronized (this) {
+          watches.remove(watch.id);
+        }
+        watch.future.set(status);
+        continue;
+      }
+      long backoff =
+          Math.min(maxIntervalMillis, (long) (watch.intervalMillis * backoffMultiplier));
+      long interval =
+          status != null
+              ? source.pollIntervalMillis(watch.id, watch.status, status, backoff)
+              : backoff;
+      if (status != null) {
+        watch.status = status;
+      }
+      watch.intervalMillis = Math.max(1, interval);
+      reschedule(watch, watch.intervalMillis);
+    }
+    if (statuses != null) {
+      applyOthers(ids, statuses);
+    }
+  }
+
+  /**
+   * Applies the statuses a fetch returned for watched jobs that were not due. Their schedule is
+   * left alone so that {@link StatusSource#pollIntervalMillis} keeps comparing the statuses of
+   * regular polls.
+   */
+  private void applyOthers(List<K> polled, Map<K, S> statuses) {
+    Set<K> skip = new HashSet<K>(polled);
+    for (Map.Entry<K, S> entry : statuses.entrySet()) {
+      K id = entry.getKey();
+      S status = entry.getValue();
+      if (status == null || skip.contains(id)) {
+        continue;
+      }
+      Watch watch;
+      synchronized (this) {
+        watch = watches.get(id);
+      }
+      if (watch == null) {
+        continue;
+      }
+      report(id, status);
+      if (source.isFinished(status)) {
+        synchronized (this) {
+          if (watches.get(id) != watch) {
+            continue;
+          }
+          watches.remove(id);
+        }
+        watch.future.set(status);
+      }
+    }
+  }
+
+  private void report(K id, S status) {
+    if (listener != null) {
+      try {
+        listener.onStatus(id, status);
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Status listener failed", e);
+      }
+    }
+  }
+
+  private synchronized void reschedule(Watch watch, long delayMillis) {
+    if (!closed && watches.get(watch.id) == watch) {
+      schedule(watch, delayMillis);
+    }
+  }
+
+  private void schedule(Watch watch, long delayMillis) {
+    watch.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    watch.sequence = sequence++;
+    due.add(watch);
+  }
+
+  private final class Watch implements Comparable<Watch> {
+    private final K id;
+    private final SettableFuture<S> future = new SettableFuture<S>();
+    private S status;
+    private long intervalMillis = initialIntervalMillis;
+    private long dueNanos;
+    private long sequence;
+    private int failures;
+
+    private Watch(K id) {
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(Watch other) {
+      long diff = dueNanos - other.dueNanos;
+      if (diff != 0) {
+        return diff < 0 ? -1 : 1;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Cache} with W-TinyLFU eviction, for workloads where a small set of keys is requested
+ * far more often than the rest.
+ *
+ * <p>New entries go to a small LRU admission window of about 1% of the cache. An entry evicted from
+ * the window is only admitted to the main cache if it was requested more often than the entry it
+ * would replace, as estimated by a count-min sketch over recent requests, so a burst of one-off
+ * keys cannot flush the popular ones. The main cache is a segmented LRU: entries start in a
+ * probation segment and move to a protected segment of about 80% of the main cache once they are
+ * read again. The sketch halves its counters periodically, so keys that stop being popular age
+ * out. Expired entries are dropped when they are read or evicted.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ * @see LruCache
+ */
+public class TinyLfuCache<K, V> implements Cache<K, V> {
+  private static final int MAX_FREQUENCY = 15;
+
+  private final int windowCapacity;
+  private final int mainCapacity;
+  private final int protectedCapacity;
+  private final Map<K, Entry<V>> window = new LinkedHashMap<K, Entry<V>>();
+  private final Map<K, Entry<V>> probation = new LinkedHashMap<K, Entry<V>>();
+  private final Map<K, Entry<V>> protectedSegment = new LinkedHashMap<K, Entry<V>>();
+  private final FrequencySketch sketch;
+
+  /**
+   * Instantiates a new W-TinyLFU cache.
+   *
+   * @param maximumSize the maximum number of entries
+   */
+  public TinyLfuCache(int maximumSize) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be greater than 0");
+    }
+    windowCapacity = Math.max(1, maximumSize / 100);
+    mainCapacity = maximumSize - windowCapacity;
+    protectedCapacity = (int) (mainCapacity * 0.8);
+    sketch = new FrequencySketch(maximumSize);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#get(java.lang.Object)
+   */
+  @Override
+  public synchronized V get(K key) {
+    sketch.increment(key);
+    Entry<V> entry = find(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.isExpired(System.nanoTime())) {
+      remove(key);
+      return null;
+    }
+    touch(key, entry);
+    return entry.value;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#put(java.lang.Object, java.lang.Object, long)
+   */
+  @Override
+  public synchronized void put(K key, V value, long ttlMillis) {
+    sketch.increment(key);
+    Entry<V> entry = new Entry<V>(value, ttlMillis);
+    if (window.containsKey(key)) {
+      window.remove(key);
+      window.put(key, entry);
+    } else if (probation.containsKey(key) || protectedSegment.containsKey(key)) {
+      touch(key, entry);
+    } else {
+      window.put(key, entry);
+      if (window.size() > windowCapacity) {
+        Iterator<Map.Entry<K, Entry<V>>> eldest = window.entrySet().iterator();
+        Map.Entry<K, Entry<V>> candidate = eldest.next();
+        eldest.remove();
+        admit(candidate.getKey(), candidate.getValue());
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#remove(java.lang.Object)
+   */
+  @Override
+  public synchronized void remove(K key) {
+    if (window.remove(key) == null && probation.remove(key) == null) {
+      protectedSegment.remove(key);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#clear()
+   */
+  @Override
+  public synchronized void clear() {
+    window.clear();
+    probation.clear();
+    protectedSegment.clear();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.common.Cache#size()
+   */
+  @Override
+  public synchronized int size() {
+    return window.size() + probation.size() + protectedSegment.size();
+  }
+
+  private Entry<V> find(K key) {
+    Entry<V> entry = window.get(key);
+    if (entry == null) {
+      entry = probation.get(key);
+    }
+    if (entry == null) {
+      entry = protectedSegment.get(key);
+    }
+    return entry;
+  }
+
+  /** Records a read or update of a cached entry, promoting it from probation if needed. */
+  private void touch(K key, Entry<V> entry) {
+    if (window.remove(key) != null) {
+      window.put(key, entry);
+    } else if (protectedSegment.remove(key) != null) {
+      protectedSegment.put(key, entry);
+    } else if (probation.remove(key) != null) {
+      protectedSegment.put(key, entry);
+      if (protectedSegment.size() > protectedCapacity) {
+        Iterator<Map.Entry<K, Entry<V>>> eldest = protectedSegment.entrySet().iterator();
+        Map.Entry<K, Entry<V>> demoted = eldest.next();
+        eldest.remove();
+        probation.put(demoted.getKey(), demoted.getValue());
+      }
+    }
+  }
+
+  /** Moves an entry evicted from the window to probation if it beats the entry it would evict. */
+  private void admit(K key, Entry<V> entry) {
+    if (mainCapacity <= 0 || entry.isExpired(System.nanoTime())) {
+      return;
+    }
+    if (probation.size() + protectedSegment.size() >= mainCapacity) {
+      Map<K, Entry<V>> segment = probation.isEmpty() ? protectedSegment : probation;
+      Iterator<Map.Entry<K, Entry<V>>> eldest = segment.entrySet().iterator();
+      Map.Entry<K, Entry<V>> victim = eldest.next();
+      if (!victim.getValue().isExpired(System.nanoTime())
+          && sketch.frequency(key) <= sketch.frequency(victim.getKey())) {
+        return;
+      }
+      eldest.remove();
+    }
+    probation.put(key, entry);
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+    private final long expiresAt;
+
+    Entry(V value, long ttlMillis) {
+      this.value = value;
+      this.expiresAt = ttlMillis > 0 ? System.nanoTime() + ttlMillis * 1000000L : 0;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt != 0 && now - expiresAt >= 0;
+    }
+  }
+
+  /**
+   * A count-min sketch of 4-bit counters that estimates how often each key was requested. Every
+   * counter is halved once the number of recorded requests reaches ten times the cache size.
+   */
+  private static final class FrequencySketch {
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+      int width = Integer.highestOneBit(Math.max(16, Math.min(maximumSize, 1 << 24)) - 1) << 1;
+      counters = new byte[width * SEEDS.length];
+      mask = width - 1;
+      sampleSize = maximumSize >= Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : maximumSize * 10;
+    }
+
+    int frequency(Object key) {
+      int hash = key.hashCode();
+      int frequency = MAX_FREQUENCY;
+      for (int row = 0; row < SEEDS.length; row++) {
+        frequency = Math.min(frequency, counters[index(hash, row)]);
+      }
+      return frequency;
+    }
+
+    void increment(Object key) {
+      int hash = key.hashCode();
+      boolean added = false;
+      for (int row = 0; row < SEEDS.length; row++) {
+        int index = index(hash, row);
+        if (counters[index] < MAX_FREQUENCY) {
+          counters[index]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        for (int i = 0; i < counters.length; i++) {
+          counters[i] = (byte) (counters[i] >> 1);
+        }
+        additions /= 2;
+      }
+    }
+
+    private int index(int hash, int row) {
+      int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+      h ^= h >>> 15;
+      return row * (mask + 1) + (h & mask);
+    }
+  }
+}
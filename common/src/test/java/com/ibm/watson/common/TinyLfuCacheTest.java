@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** The Class TinyLfuCacheTest. */
+public class TinyLfuCacheTest {
+
+  /** Test that a burst of one-off keys does not evict the keys that are requested often. */
+  @Test
+  public void testAdmission() {
+    TinyLfuCache<Integer, String> cache = new TinyLfuCache<Integer, String>(1000);
+    for (int key = 0; key < 100; key++) {
+      cache.put(key, "hot " + key, 0);
+      for (int i = 0; i < 10; i++) {
+        cache.get(key);
+      }
+    }
+    for (int key = 1000; key < 3000; key++) {
+      cache.put(key, "cold " + key, 0);
+    }
+
+    for (int key = 0; key < 100; key++) {
+      assertEquals("hot " + key, cache.get(key));
+    }
+    assertTrue(cache.size() <= 1000);
+  }
+
+  /** Test that the cache never holds more than its maximum size and drops expired entries. */
+  @Test
+  public void testEviction() throws InterruptedException {
+    TinyLfuCache<Integer, String> cache = new TinyLfuCache<Integer, String>(100);
+    for (int key = 0; key < 500; key++) {
+      cache.put(key, "value " + key, 0);
+      assertTrue(cache.size() <= 100);
+    }
+    assertEquals(100, cache.size());
+
+    cache.clear();
+    cache.put(1, "short", 1);
+    cache.put(2, "long", 0);
+    Thread.sleep(10);
+    assertNull(cache.get(1));
+    assertEquals("long", cache.get(2));
+    assertEquals(1, cache.size());
+    cache.remove(2);
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * Test that keys that stop being requested age out of the frequency sketch, so that keys that
+   * became popular since can replace them even once the old keys had reached the highest count.
+   */
+  @Test
+  public void testFrequencyAging() {
+    TinyLfuCache<Integer, String> cache = new TinyLfuCache<Integer, String>(100);
+    for (int key = 0; key < 99; key++) {
+      cache.put(key, "old " + key, 0);
+      for (int i = 0; i < 20; i++) {
+        cache.get(key);
+      }
+    }
+    for (int round = 0; round < 50; round++) {
+      for (int key = 1000; key < 1099; key++) {
+        if (cache.get(key) == null) {
+          cache.put(key, "new " + key, 0);
+        }
+      }
+    }
+
+    int newCached = 0;
+    int oldCached = 0;
+    for (int key = 1000; key < 1099; key++) {
+      if (cache.get(key) != null) {
+        newCached++;
+      }
+    }
+    for (int key = 0; key < 99; key++) {
+      if (cache.get(key) != null) {
+        oldCached++;
+      }
+    }
+    assertTrue("new keys cached: " + newCached, newCached > 90);
+    assertTrue("old keys cached: " + oldCached, oldCached < 10);
+  }
+}
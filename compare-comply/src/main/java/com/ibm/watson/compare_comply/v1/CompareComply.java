@@ -21,6 +21,7 @@ import com.ibm.cloud.sdk.core.security.ConfigBasedAuthenticatorFactory;
 import com.ibm.cloud.sdk.core.service.BaseService;
 import com.ibm.cloud.sdk.core.util.RequestUtils;
 import com.ibm.cloud.sdk.core.util.ResponseConverterUtils;
+import com.ibm.watson.common.ByteBufferRequestBody;
 import com.ibm.watson.common.SdkCommon;
 import com.ibm.watson.compare_comply.v1.model.AddFeedbackOptions;
 import com.ibm.watson.compare_comply.v1.model.BatchStatus;
@@ -44,6 +45,8 @@ import com.ibm.watson.compare_comply.v1.model.ListBatchesOptions;
 import com.ibm.watson.compare_comply.v1.model.ListFeedbackOptions;
 import com.ibm.watson.compare_comply.v1.model.TableReturn;
 import com.ibm.watson.compare_comply.v1.model.UpdateBatchOptions;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Map.Entry;
 import okhttp3.MultipartBody;
@@ -156,6 +159,30 @@ public class CompareComply extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Convert document to HTML, sending its content from a buffer.
+   *
+   * <p>Behaves like {@link #convertToHtml(ConvertToHtmlOptions)}, except that the remaining bytes
+   * of the buffer, for example a memory-mapped file, are written to the request as it is sent
+   * instead of being read into memory first. The same buffer can be shared by concurrent requests;
+   * its position and limit are not changed.
+   *
+   * @param file the document content
+   * @param fileContentType the content type of the file, or null to let the service detect it
+   * @param model the analysis model to be used by the service, or null for the default model
+   * @return a {@link ServiceCall} with a response type of {@link HTMLReturn}
+   */
+  public ServiceCall<HTMLReturn> convertToHtml(
+      ByteBuffer file, String fileContentType, String model) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(file, "file cannot be null");
+    RequestBuilder builder =
+        documentRequest("v1/html_conversion", "convertToHtml", file, fileContentType, model);
+    ResponseConverter<HTMLReturn> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<HTMLReturn>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Classify the elements of a document.
    *
@@ -195,6 +222,71 @@ public class CompareComply extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Classify the elements of a document, returning the raw JSON response.
+   *
+   * <p>Behaves like {@link #classifyElements(ClassifyElementsOptions)}, except that the response
+   * body is returned unparsed, so that large responses can be read incrementally, for example with
+   * a {@link com.ibm.watson.compare_comply.v1.util.ClassifyReturnReader}. The caller must close the
+   * stream.
+   *
+   * @param classifyElementsOptions the {@link ClassifyElementsOptions} containing the options for
+   *     the call
+   * @return a {@link ServiceCall} with a response type of {@link InputStream}
+   */
+  public ServiceCall<InputStream> classifyElementsAsStream(
+      ClassifyElementsOptions classifyElementsOptions) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        classifyElementsOptions, "classifyElementsOptions cannot be null");
+    String[] pathSegments = {"v1/element_classification"};
+    RequestBuilder builder =
+        RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders =
+        SdkCommon.getSdkHeaders("compare-comply", "v1", "classifyElements");
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    if (classifyElementsOptions.model() != null) {
+      builder.query("model", classifyElementsOptions.model());
+    }
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    okhttp3.RequestBody fileBody =
+        RequestUtils.inputStreamBody(
+            classifyElementsOptions.file(), classifyElementsOptions.fileContentType());
+    multipartBuilder.addFormDataPart("file", "filename", fileBody);
+    builder.body(multipartBuilder.build());
+    ResponseConverter<InputStream> responseConverter = ResponseConverterUtils.getInputStream();
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
+  /**
+   * Classify the elements of a document, sending its content from a buffer.
+   *
+   * <p>Behaves like {@link #classifyElements(ClassifyElementsOptions)}, except that the remaining
+   * bytes of the buffer, for example a memory-mapped file, are written to the request as it is sent
+   * instead of being read into memory first. The same buffer can be shared by concurrent requests;
+   * its position and limit are not changed.
+   *
+   * @param file the document content
+   * @param fileContentType the content type of the file, or null to let the service detect it
+   * @param model the analysis model to be used by the service, or null for the default model
+   * @return a {@link ServiceCall} with a response type of {@link ClassifyReturn}
+   */
+  public ServiceCall<ClassifyReturn> classifyElements(
+      ByteBuffer file, String fileContentType, String model) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(file, "file cannot be null");
+    RequestBuilder builder =
+        documentRequest(
+            "v1/element_classification", "classifyElements", file, fileContentType, model);
+    ResponseConverter<ClassifyReturn> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<ClassifyReturn>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Extract a document's tables.
    *
@@ -233,6 +325,30 @@ public class CompareComply extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Extract a document's tables, sending its content from a buffer.
+   *
+   * <p>Behaves like {@link #extractTables(ExtractTablesOptions)}, except that the remaining bytes
+   * of the buffer, for example a memory-mapped file, are written to the request as it is sent
+   * instead of being read into memory first. The same buffer can be shared by concurrent requests;
+   * its position and limit are not changed.
+   *
+   * @param file the document content
+   * @param fileContentType the content type of the file, or null to let the service detect it
+   * @param model the analysis model to be used by the service, or null for the default model
+   * @return a {@link ServiceCall} with a response type of {@link TableReturn}
+   */
+  public ServiceCall<TableReturn> extractTables(
+      ByteBuffer file, String fileContentType, String model) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(file, "file cannot be null");
+    RequestBuilder builder =
+        documentRequest("v1/tables", "extractTables", file, fileContentType, model);
+    ResponseConverter<TableReturn> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<TableReturn>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Compare two documents.
    *
@@ -625,4 +741,27 @@ public class CompareComply extends BaseService {
             new com.google.gson.reflect.TypeToken<BatchStatus>() {}.getType());
     return createServiceCall(builder.build(), responseConverter);
   }
+
+  /** Builds a request that posts a document from a buffer to one of the analysis operations. */
+  private RequestBuilder documentRequest(
+      String path, String operationId, ByteBuffer file, String fileContentType, String model) {
+    String[] pathSegments = {path};
+    RequestBuilder builder =
+        RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders = SdkCommon.getSdkHeaders("compare-comply", "v1", operationId);
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    if (model != null) {
+      builder.query("model", model);
+    }
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    multipartBuilder.addFormDataPart(
+        "file", "filename", ByteBufferRequestBody.create(file, fileContentType));
+    builder.body(multipartBuilder.build());
+    return builder;
+  }
 }
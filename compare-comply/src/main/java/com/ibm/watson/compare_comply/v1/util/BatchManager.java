@@ -0,0 +1,381 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.compare_comply.v1.util;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.ListStatusSource;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.SettableFuture;
+import com.ibm.watson.common.StatusPoller;
+import com.ibm.watson.compare_comply.v1.CompareComply;
+import com.ibm.watson.compare_comply.v1.model.BatchStatus;
+import com.ibm.watson.compare_comply.v1.model.Batches;
+import com.ibm.watson.compare_comply.v1.model.CreateBatchOptions;
+import com.ibm.watson.compare_comply.v1.model.DocCounts;
+import com.ibm.watson.compare_comply.v1.model.GetBatchOptions;
+import com.ibm.watson.compare_comply.v1.model.ListBatchesOptions;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Submits and tracks Compare and Comply batch jobs.
+ *
+ * <p>The statuses of all tracked batches are refreshed from one scheduled task, with a single
+ * {@link CompareComply#listBatches()} request per poll; {@link CompareComply#getBatch} is only used
+ * for batches missing from the list. The interval of each batch adapts to the progress reported in
+ * its {@link DocCounts}: a batch that processes documents quickly is polled again around the time
+ * it is expected to finish, while a batch that makes no progress backs off up to the maximum
+ * interval. Thousands of batches in flight only need the polling thread.
+ *
+ * <pre>
+ * BatchManager batches = new BatchManager.Builder(compareComply).build();
+ * SettableFuture&lt;BatchStatus&gt; done = batches.submit(createBatchOptions);
+ * </pre>
+ */
+public class BatchManager implements Closeable {
+  private static final Logger LOG = Logger.getLogger(BatchManager.class.getName());
+
+  /** The number of batches polled together, all answered by one list request. */
+  private static final int STATUS_BATCH_SIZE = 1000;
+
+  private static final Set<String> FINISHED =
+      new HashSet<String>(Arrays.asList("completed", "failed", "cancelled", "canceled"));
+
+  private final CompareComply compareComply;
+  private final ProgressListener listener;
+  private final long pollIntervalMillis;
+  private final long maxPollIntervalMillis;
+  private final StatusPoller<String, BatchStatus> poller;
+  private final Map<String, Long> polledAt = new ConcurrentHashMap<String, Long>();
+  private final Map<String, String> reported = new ConcurrentHashMap<String, String>();
+
+  /** Receives the progress of the tracked batches. */
+  public interface ProgressListener {
+
+    /**
+     * Called on the polling thread when the document counts or the status of a batch change,
+     * including the first time a batch is polled.
+     *
+     * @param status the status of the batch
+     */
+    void onProgress(BatchStatus status);
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private CompareComply compareComply;
+    private ProgressListener listener;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private ScheduledExecutorService scheduler;
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+    private long maxPollIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param compareComply the Compare and Comply service
+     */
+    public Builder(CompareComply compareComply) {
+      this.compareComply = compareComply;
+    }
+
+    /**
+     * Builds a BatchManager and starts polling.
+     *
+     * @return the batch manager
+     */
+    public BatchManager build() {
+      return new BatchManager(this);
+    }
+
+    /**
+     * Set the listener notified when a batch makes progress.
+     *
+     * @param listener the listener
+     * @return the BatchManager builder
+     */
+    public Builder listener(ProgressListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Set how failed status requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the BatchManager builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Set the scheduler that polls batch statuses, so that it can be shared with other work. It is
+     * not shut down by {@link BatchManager#close()}. By default the manager uses its own daemon
+     * thread.
+     *
+     * @param scheduler the scheduler
+     * @return the BatchManager builder
+     */
+    public Builder scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Set how long to wait before first polling the status of a batch, and the shortest interval
+     * between two polls of a batch. Defaults to 10 seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the BatchManager builder
+     */
+    public Builder pollInterval(long interval, TimeUnit unit) {
+      this.pollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the longest interval between two polls of a batch. Defaults to five minutes.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the BatchManager builder
+     */
+    public Builder maxPollInterval(long interval, TimeUnit unit) {
+      this.maxPollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+  }
+
+  protected BatchManager(Builder builder) {
+    Validator.notNull(builder.compareComply, "compareComply cannot be null");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    Validator.isTrue(builder.pollIntervalMillis > 0, "pollInterval must be positive");
+    compareComply = builder.compareComply;
+    listener = builder.listener;
+    pollIntervalMillis = builder.pollIntervalMillis;
+    maxPollIntervalMillis = Math.max(builder.maxPollIntervalMillis, builder.pollIntervalMillis);
+    StatusPoller.Builder<String, BatchStatus> pollerBuilder =
+        new StatusPoller.Builder<String, BatchStatus>(new BatchListSource())
+            .listener(new ProgressReporter())
+            .initialInterval(pollIntervalMillis, TimeUnit.MILLISECONDS)
+            .maxInterval(maxPollIntervalMillis, TimeUnit.MILLISECONDS)
+            .batchSize(STATUS_BATCH_SIZE)
+            .retryPolicy(builder.retryPolicy);
+    if (builder.scheduler != null) {
+      pollerBuilder.scheduler(builder.scheduler);
+    }
+    poller = pollerBuilder.build();
+  }
+
+  /**
+   * Creates a batch and tracks it until it finishes.
+   *
+   * <p>The batch is created with an asynchronous request, so this method does not block. The
+   * returned future completes with the final status of the batch, whether it completed, failed or
+   * was cancelled, and completes exceptionally if the batch cannot be created or polled.
+   *
+   * @param createBatchOptions the {@link CreateBatchOptions} containing the options for the call
+   * @return a future that completes with the final status of the batch
+   */
+  public SettableFuture<BatchStatus> submit(CreateBatchOptions createBatchOptions) {
+    Validator.notNull(createBatchOptions, "createBatchOptions cannot be null");
+    final SettableFuture<BatchStatus> future = new SettableFuture<BatchStatus>();
+    compareComply
+        .createBatch(createBatchOptions)
+        .enqueue(
+            new ServiceCallback<BatchStatus>() {
+              @Override
+              public void onResponse(Response<BatchStatus> response) {
+                forward(watch(response.getResult().getBatchId()), future);
+              }
+
+              @Override
+              public void onFailure(Exception e) {
+                future.setException(e);
+              }
+            });
+    return future;
+  }
+
+  /**
+   * Tracks an existing batch until it finishes. Tracking a batch that is already tracked returns
+   * its existing future.
+   *
+   * @param batchId the batch ID
+   * @return a future that completes with the final status of the batch
+   */
+  public SettableFuture<BatchStatus> watch(String batchId) {
+    Validator.notNull(batchId, "batchId cannot be null");
+    return poller.watch(batchId);
+  }
+
+  /**
+   * Returns the number of tracked batches that have not finished yet.
+   *
+   * @return the number of batches being polled
+   */
+  public int getPendingCount() {
+    return poller.getPendingCount();
+  }
+
+  /**
+   * Stops polling. The futures of batches that have not finished are cancelled; the batches
+   * themselves keep running on the service.
+   */
+  @Override
+  public void close() {
+    poller.close();
+  }
+
+  /**
+   * Returns whether a batch status is final.
+   *
+   * @param status the status
+   * @return true if the batch completed, failed or was cancelled
+   */
+  public static boolean isFinished(BatchStatus status) {
+    return status.getStatus() != null
+        && FINISHED.contains(status.getStatus().toLowerCase(Locale.ROOT));
+  }
+
+  private static void forward(
+      final SettableFuture<BatchStatus> from, final SettableFuture<BatchStatus> to) {
+    from.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              to.set(from.get());
+            } catch (ExecutionException e) {
+              to.setException(e.getCause());
+            } catch (CancellationException | InterruptedException e) {
+              to.cancel(false);
+            }
+          }
+        });
+  }
+
+  private static long processed(BatchStatus status) {
+    DocCounts counts = status != null ? status.getDocumentCounts() : null;
+    if (counts == null) {
+      return 0;
+    }
+    return (counts.getSuccessful() != null ? counts.getSuccessful() : 0)
+        + (counts.getFailed() != null ? counts.getFailed() : 0);
+  }
+
+  private static long remaining(BatchStatus status) {
+    DocCounts counts = status.getDocumentCounts();
+    if (counts == null) {
+      return -1;
+    }
+    if (counts.getPending() != null) {
+      return counts.getPending();
+    }
+    return counts.getTotal() != null ? counts.getTotal() - processed(status) : -1;
+  }
+
+  private static String progressKey(BatchStatus status) {
+    DocCounts counts = status.getDocumentCounts();
+    return status.getStatus()
+        + (counts != null
+            ? "|" + counts.getTotal() + "|" + counts.getPending() + "|" + processed(status)
+            : "");
+  }
+
+  /** Reports batches whose counts or status changed and forgets finished batches. */
+  private final class ProgressReporter implements StatusPoller.StatusListener<String, BatchStatus> {
+    @Override
+    public void onStatus(String id, BatchStatus status) {
+      String key = progressKey(status);
+      boolean changed = !key.equals(reported.put(id, key));
+      if (isFinished(status)) {
+        reported.remove(id);
+        polledAt.remove(id);
+      }
+      if (changed && listener != null) {
+        try {
+          listener.onProgress(status);
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Progress listener failed for batch " + id, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fetches the statuses of all polled batches with one list request, falling back to a status
+   * request for batches missing from the list, and schedules each batch from its progress.
+   */
+  private final class BatchListSource extends ListStatusSource<String, BatchStatus> {
+    @Override
+    protected List<BatchStatus> list() {
+      Batches list =
+          compareComply.listBatches(new ListBatchesOptions.Builder().build()).execute().getResult();
+      return list != null ? list.getBatches() : null;
+    }
+
+    @Override
+    protected String getId(BatchStatus status) {
+      return status.getBatchId();
+    }
+
+    @Override
+    protected BatchStatus get(String id) {
+      return compareComply.getBatch(new GetBatchOptions.Builder(id).build()).execute().getResult();
+    }
+
+    @Override
+    public boolean isFinished(BatchStatus status) {
+      return BatchManager.isFinished(status);
+    }
+
+    /**
+     * Estimates the time the batch needs to finish from the documents it processed since the
+     * previous poll, and polls again after half of that time. Batches without measurable progress
+     * back off.
+     */
+    @Override
+    public long pollIntervalMillis(
+        String id, BatchStatus previous, BatchStatus current, long backoffMillis) {
+      long now = System.nanoTime();
+      Long previousNanos = polledAt.put(id, now);
+      long progress = processed(current) - processed(previous);
+      long remaining = remaining(current);
+      if (previous == null || previousNanos == null || progress <= 0 || remaining <= 0) {
+        return backoffMillis;
+      }
+      double millisPerDocument =
+          TimeUnit.NANOSECONDS.toMillis(now - previousNanos) / (double) progress;
+      long estimate = (long) (millisPerDocument * remaining / 2);
+      return Math.max(pollIntervalMillis, Math.min(maxPollIntervalMillis, estimate));
+    }
+  }
+}
@@ -0,0 +1,377 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.compare_comply.v1.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.compare_comply.v1.model.Category;
+import com.ibm.watson.compare_comply.v1.model.Element;
+import com.ibm.watson.compare_comply.v1.model.KeyValuePair;
+import com.ibm.watson.compare_comply.v1.model.Parties;
+import com.ibm.watson.compare_comply.v1.model.Tables;
+import com.ibm.watson.compare_comply.v1.model.TypeLabel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the elements, tables, key-value pairs and parties of a {@code ClassifyReturn} response
+ * incrementally, instead of binding the whole response into one object graph.
+ *
+ * <p>Each category is read by its own {@link EntryIterator}, which streams through the JSON and
+ * decodes one entry at a time; the other categories are skipped without being decoded. Memory use
+ * therefore depends on the size of the largest single entry, not on the size of the response.
+ * Categories can be read in any order, and more than once: a response body is first copied to a
+ * temporary file, and each iterator reads that file from the start.
+ *
+ * <pre>
+ * try (ClassifyReturnReader reader =
+ *         ClassifyReturnReader.open(
+ *             compareComply.classifyElementsAsStream(options).execute().getResult());
+ *     ClassifyReturnReader.EntryIterator&lt;Element&gt; obligations =
+ *         reader.elements(ClassifyReturnReader.withNature("Obligation"))) {
+ *   while (obligations.hasNext()) {
+ *     Element element = obligations.next();
+ *   }
+ * }
+ * </pre>
+ */
+public class ClassifyReturnReader implements Closeable {
+  private static final Gson GSON = GsonSingleton.getGson();
+
+  private final Path file;
+  private final boolean temporary;
+
+  /**
+   * Selects the entries returned by an {@link EntryIterator}.
+   *
+   * @param <T> the type of the entries
+   */
+  public interface Filter<T> {
+
+    /**
+     * Returns whether an entry is returned.
+     *
+     * @param entry the decoded entry
+     * @return true to return the entry, false to skip it
+     */
+    boolean accept(T entry);
+  }
+
+  /**
+   * Iterates over the entries of one category of the response. Closing the iterator releases the
+   * file it reads, so callers that stop early should close it.
+   *
+   * @param <T> the type of the entries
+   */
+  public static final class EntryIterator<T> implements Iterator<T>, Closeable {
+    private final JsonReader reader;
+    private final String[] path;
+    private final Class<T> type;
+    private final Filter<? super T> filter;
+    private int level;
+    private boolean inArray;
+    private boolean finished;
+    private T next;
+
+    private EntryIterator(Path file, String[] path, Class<T> type, Filter<? super T> filter)
+        throws IOException {
+      this.reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+      this.path = path;
+      this.type = type;
+      this.filter = filter;
+      try {
+        reader.beginObject();
+      } catch (IOException | RuntimeException e) {
+        reader.close();
+        throw e;
+      }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+      if (next == null && !finished) {
+        try {
+          next = fetch();
+        } catch (IOException e) {
+          throw new JsonIOException("Could not read the classify response", e);
+        }
+        if (next == null) {
+          finished = true;
+          close();
+        }
+      }
+      return next != null;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      T entry = next;
+      next = null;
+      return entry;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+      finished = true;
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // Nothing was written, so there is nothing to lose.
+      }
+    }
+
+    /**
+     * Advances to the next accepted entry. The reader is either scanning the members of the object
+     * at {@code level}, looking for the member named {@code path[level]}, or iterating over that
+     * member's array; the objects of an array that is not the last in the path are scanned one
+     * level deeper.
+     */
+    private T fetch() throws IOException {
+      while (true) {
+        if (inArray) {
+          if (!reader.hasNext()) {
+            reader.endArray();
+            inArray = false;
+          } else if (level == path.length - 1) {
+            T entry = GSON.fromJson(reader, type);
+            if (entry != null && (filter == null || filter.accept(entry))) {
+              return entry;
+            }
+          } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            level++;
+            inArray = false;
+          } else {
+            reader.skipValue();
+          }
+        } else if (reader.hasNext()) {
+          String name = reader.nextName();
+          if (name.equals(path[level]) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            inArray = true;
+          } else {
+            reader.skipValue();
+          }
+        } else {
+          reader.endObject();
+          if (level == 0) {
+            return null;
+          }
+          level--;
+          inArray = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Instantiates a new reader of a classify response stored in a file. The file is left in place
+   * when the reader is closed.
+   *
+   * @param file the file holding the JSON response
+   */
+  public ClassifyReturnReader(Path file) {
+    this(file, false);
+  }
+
+  private ClassifyReturnReader(Path file, boolean temporary) {
+    Validator.notNull(file, "file cannot be null");
+    this.file = file;
+    this.temporary = temporary;
+  }
+
+  /**
+   * Opens a reader over a response body, such as the result of {@link
+   * com.ibm.watson.compare_comply.v1.CompareComply#classifyElementsAsStream}. The body is copied to
+   * a temporary file and closed; the file is deleted when the reader is closed.
+   *
+   * @param body the JSON response body
+   * @return the reader
+   * @throws IOException if the body cannot be copied
+   */
+  public static ClassifyReturnReader open(InputStream body) throws IOException {
+    Validator.notNull(body, "body cannot be null");
+    Path file = Files.createTempFile("classify-return", ".json");
+    try (InputStream in = body) {
+      Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+    return new ClassifyReturnReader(file, true);
+  }
+
+  /**
+   * Returns a filter that accepts the elements with a category label, such as {@link
+   * Category.Label#AMENDMENTS}.
+   *
+   * @param label the category label
+   * @return the filter
+   */
+  public static Filter<Element> withCategory(final String label) {
+    return new Filter<Element>() {
+      @Override
+      public boolean accept(Element element) {
+        if (element.getCategories() != null) {
+          for (Category category : element.getCategories()) {
+            if (label.equals(category.label())) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns a filter that accepts the elements with a type of the given nature, such as {@code
+   * Obligation} or {@code Right}.
+   *
+   * @param nature the nature
+   * @return the filter
+   */
+  public static Filter<Element> withNature(final String nature) {
+    return new Filter<Element>() {
+      @Override
+      public boolean accept(Element element) {
+        if (element.getTypes() != null) {
+          for (TypeLabel type : element.getTypes()) {
+            if (type.label() != null && nature.equals(type.label().nature())) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Iterates over the elements of the document.
+   *
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<Element> elements() throws IOException {
+    return elements(null);
+  }
+
+  /**
+   * Iterates over the elements of the document that a filter accepts.
+   *
+   * @param filter the filter, or null to return every element
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<Element> elements(Filter<? super Element> filter) throws IOException {
+    return iterate(Element.class, filter, "elements");
+  }
+
+  /**
+   * Iterates over the tables of the document.
+   *
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<Tables> tables() throws IOException {
+    return tables(null);
+  }
+
+  /**
+   * Iterates over the tables of the document that a filter accepts.
+   *
+   * @param filter the filter, or null to return every table
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<Tables> tables(Filter<? super Tables> filter) throws IOException {
+    return iterate(Tables.class, filter, "tables");
+  }
+
+  /**
+   * Iterates over the key-value pairs of every table of the document, without decoding the rest
+   * of the tables.
+   *
+   * @param filter the filter, or null to return every key-value pair
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<KeyValuePair> keyValuePairs(Filter<? super KeyValuePair> filter)
+      throws IOException {
+    return iterate(KeyValuePair.class, filter, "tables", "key_value_pairs");
+  }
+
+  /**
+   * Iterates over the parties of the document.
+   *
+   * @return the iterator
+   * @throws IOException if the response cannot be opened
+   */
+  public EntryIterator<Parties> parties() throws IOException {
+    return iterate(Parties.class, null, "parties");
+  }
+
+  /**
+   * Deletes the temporary copy of the response, if the reader was opened over a response body.
+   * Iterators should be closed first.
+   *
+   * @throws IOException if the temporary file cannot be deleted
+   */
+  @Override
+  public void close() throws IOException {
+    if (temporary) {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private <T> EntryIterator<T> iterate(Class<T> type, Filter<? super T> filter, String... path)
+      throws IOException {
+    return new EntryIterator<T>(file, path, type, filter);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.compare_comply.v1.util;
+
+import com.ibm.watson.compare_comply.v1.model.ClassifyReturn;
+import com.ibm.watson.compare_comply.v1.model.HTMLReturn;
+import com.ibm.watson.compare_comply.v1.model.TableReturn;
+import java.nio.file.Path;
+
+/** The results of the Compare and Comply analyses of one document by a {@link DocumentPipeline}. */
+public class DocumentAnalysis {
+  private final Path file;
+  private final HTMLReturn html;
+  private final ClassifyReturn elements;
+  private final TableReturn tables;
+
+  DocumentAnalysis(Path file, HTMLReturn html, ClassifyReturn elements, TableReturn tables) {
+    this.file = file;
+    this.html = html;
+    this.elements = elements;
+    this.tables = tables;
+  }
+
+  /**
+   * Gets the analyzed file.
+   *
+   * @return the file
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Gets the HTML conversion of the document.
+   *
+   * @return the HTML conversion, or null if the pipeline does not convert documents to HTML
+   */
+  public HTMLReturn getHtml() {
+    return html;
+  }
+
+  /**
+   * Gets the classified elements of the document.
+   *
+   * @return the element classification, or null if the pipeline does not classify elements
+   */
+  public ClassifyReturn getElements() {
+    return elements;
+  }
+
+  /**
+   * Gets the tables of the document.
+   *
+   * @return the extracted tables, or null if the pipeline does not extract tables
+   */
+  public TableReturn getTables() {
+    return tables;
+  }
+}
@@ -0,0 +1,406 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.compare_comply.v1.util;
+
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.ServiceCallFuture;
+import com.ibm.watson.compare_comply.v1.CompareComply;
+import com.ibm.watson.compare_comply.v1.model.ClassifyReturn;
+import com.ibm.watson.compare_comply.v1.model.HTMLReturn;
+import com.ibm.watson.compare_comply.v1.model.TableReturn;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the Compare and Comply analyses of a document, HTML conversion, element classification and
+ * table extraction, concurrently and combines their results.
+ *
+ * <p>Each document is memory-mapped once and every analysis sends it from the same mapped buffer
+ * with a {@link com.ibm.watson.common.ByteBufferRequestBody}, so the document is neither read into
+ * the heap nor read from disk once per request. The requests of a document are enqueued on the
+ * HTTP client together and the calling thread only waits for them; failed requests are retried
+ * according to the {@link RetryPolicy}. {@link #analyzeDirectory} analyzes the files of a
+ * directory with a bounded number of documents in flight.
+ *
+ * <pre>
+ * DocumentPipeline pipeline = new DocumentPipeline.Builder(compareComply).build();
+ * DocumentAnalysis analysis = pipeline.analyze(Paths.get("contract.pdf"));
+ * </pre>
+ */
+public class DocumentPipeline {
+  private static final Logger LOG = Logger.getLogger(DocumentPipeline.class.getName());
+  private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+  static {
+    CONTENT_TYPES.put("pdf", "application/pdf");
+    CONTENT_TYPES.put("doc", "application/msword");
+    CONTENT_TYPES.put(
+        "docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+    CONTENT_TYPES.put("png", "image/png");
+    CONTENT_TYPES.put("jpg", "image/jpeg");
+    CONTENT_TYPES.put("jpeg", "image/jpeg");
+    CONTENT_TYPES.put("gif", "image/gif");
+    CONTENT_TYPES.put("tif", "image/tiff");
+    CONTENT_TYPES.put("tiff", "image/tiff");
+    CONTENT_TYPES.put("bmp", "image/bmp");
+  }
+
+  private final CompareComply compareComply;
+  private final String model;
+  private final boolean convertToHtml;
+  private final boolean classifyElements;
+  private final boolean extractTables;
+  private final int maxConcurrentDocuments;
+  private final RetryPolicy retryPolicy;
+
+  /**
+   * Receives the outcome of each document analyzed by {@link #analyzeDirectory}. An exception
+   * thrown by a callback method is logged and does not change the outcome of the document.
+   */
+  public interface Callback {
+
+    /**
+     * Called with the results of a document, on one of the pipeline's threads.
+     *
+     * @param analysis the results
+     */
+    void onDocument(DocumentAnalysis analysis);
+
+    /**
+     * Called when a document cannot be read or analyzed, on one of the pipeline's threads.
+     *
+     * @param file the document
+     * @param e the failure
+     */
+    void onFailure(Path file, Exception e);
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private CompareComply compareComply;
+    private String model;
+    private boolean convertToHtml = true;
+    private boolean classifyElements = true;
+    private boolean extractTables = true;
+    private int maxConcurrentDocuments = 4;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param compareComply the Compare and Comply service
+     */
+    public Builder(CompareComply compareComply) {
+      this.compareComply = compareComply;
+    }
+
+    /**
+     * Builds a DocumentPipeline.
+     *
+     * @return the document pipeline
+     */
+    public DocumentPipeline build() {
+      return new DocumentPipeline(this);
+    }
+
+    /**
+     * Set the analysis model used by every request. By default the service uses its default model.
+     *
+     * @param model the model
+     * @return the DocumentPipeline builder
+     */
+    public Builder model(String model) {
+      this.model = model;
+      return this;
+    }
+
+    /**
+     * Set whether documents are converted to HTML. Defaults to true.
+     *
+     * @param convertToHtml whether to convert documents to HTML
+     * @return the DocumentPipeline builder
+     */
+    public Builder convertToHtml(boolean convertToHtml) {
+      this.convertToHtml = convertToHtml;
+      return this;
+    }
+
+    /**
+     * Set whether the elements of documents are classified. Defaults to true.
+     *
+     * @param classifyElements whether to classify elements
+     * @return the DocumentPipeline builder
+     */
+    public Builder classifyElements(boolean classifyElements) {
+      this.classifyElements = classifyElements;
+      return this;
+    }
+
+    /**
+     * Set whether the tables of documents are extracted. Defaults to true.
+     *
+     * @param extractTables whether to extract tables
+     * @return the DocumentPipeline builder
+     */
+    public Builder extractTables(boolean extractTables) {
+      this.extractTables = extractTables;
+      return this;
+    }
+
+    /**
+     * Set the largest number of documents analyzed at the same time by {@link
+     * DocumentPipeline#analyzeDirectory}. Each document has up to three requests in flight.
+     * Defaults to 4.
+     *
+     * @param maxConcurrentDocuments the maximum number of concurrent documents
+     * @return the DocumentPipeline builder
+     */
+    public Builder maxConcurrentDocuments(int maxConcurrentDocuments) {
+      this.maxConcurrentDocuments = maxConcurrentDocuments;
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the DocumentPipeline builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected DocumentPipeline(Builder builder) {
+    Validator.notNull(builder.compareComply, "compareComply cannot be null");
+    Validator.isTrue(
+        builder.convertToHtml || builder.classifyElements || builder.extractTables,
+        "at least one analysis must be enabled");
+    Validator.isTrue(builder.maxConcurrentDocuments > 0, "maxConcurrentDocuments must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    compareComply = builder.compareComply;
+    model = builder.model;
+    convertToHtml = builder.convertToHtml;
+    classifyElements = builder.classifyElements;
+    extractTables = builder.extractTables;
+    maxConcurrentDocuments = builder.maxConcurrentDocuments;
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Analyzes a document, running the enabled analyses concurrently.
+   *
+   * @param file the document; its content type is derived from its extension, and left to the
+   *     service to detect for unknown extensions
+   * @return the combined results
+   * @throws IOException if the document cannot be mapped
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   */
+  public DocumentAnalysis analyze(Path file) throws IOException, InterruptedException {
+    Validator.notNull(file, "file cannot be null");
+    final ByteBuffer content = map(file);
+    final String contentType = contentType(file);
+    Analysis<HTMLReturn> html = null;
+    Analysis<ClassifyReturn> elements = null;
+    Analysis<TableReturn> tables = null;
+    if (convertToHtml) {
+      html =
+          new Analysis<HTMLReturn>() {
+            @Override
+            ServiceCall<HTMLReturn> newCall() {
+              return compareComply.convertToHtml(content, contentType, model);
+            }
+          };
+    }
+    if (classifyElements) {
+      elements =
+          new Analysis<ClassifyReturn>() {
+            @Override
+            ServiceCall<ClassifyReturn> newCall() {
+              return compareComply.classifyElements(content, contentType, model);
+            }
+          };
+    }
+    if (extractTables) {
+      tables =
+          new Analysis<TableReturn>() {
+            @Override
+            ServiceCall<TableReturn> newCall() {
+              return compareComply.extractTables(content, contentType, model);
+            }
+          };
+    }
+    start(html);
+    start(elements);
+    start(tables);
+    try {
+      return new DocumentAnalysis(file, await(html), await(elements), await(tables));
+    } finally {
+      cancel(html);
+      cancel(elements);
+      cancel(tables);
+    }
+  }
+
+  /**
+   * Analyzes the files of a directory that match a glob pattern, with at most {@code
+   * maxConcurrentDocuments} documents in flight. Subdirectories are not visited.
+   *
+   * @param directory the directory
+   * @param glob the glob pattern the file names must match, for example {@code *.pdf}
+   * @param callback the callback that receives the outcome of each document
+   * @return the number of documents analyzed successfully
+   * @throws IOException if the directory cannot be listed
+   * @throws InterruptedException if the thread is interrupted while waiting for documents
+   */
+  public int analyzeDirectory(Path directory, String glob, final Callback callback)
+      throws IOException, InterruptedException {
+    Validator.notNull(directory, "directory cannot be null");
+    Validator.notNull(glob, "glob cannot be null");
+    Validator.notNull(callback, "callback cannot be null");
+    final Semaphore permits = new Semaphore(maxConcurrentDocuments);
+    final AtomicInteger analyzed = new AtomicInteger();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            maxConcurrentDocuments, new DaemonThreadFactory("document-pipeline"));
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+      for (final Path file : files) {
+        if (!Files.isRegularFile(file)) {
+          continue;
+        }
+        permits.acquire();
+        workers.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  DocumentAnalysis analysis;
+                  try {
+                    analysis = analyze(file);
+                  } catch (IOException | RuntimeException e) {
+                    fail(e);
+                    return;
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(e);
+                    return;
+                  }
+                  analyzed.incrementAndGet();
+                  try {
+                    callback.onDocument(analysis);
+                  } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Document pipeline callback failed", e);
+                  }
+                } finally {
+                  permits.release();
+                }
+              }
+
+              private void fail(Exception e) {
+                try {
+                  callback.onFailure(file, e);
+                } catch (RuntimeException callbackError) {
+                  LOG.log(Level.WARNING, "Document pipeline callback failed", callbackError);
+                }
+              }
+            });
+      }
+      permits.acquire(maxConcurrentDocuments);
+    } finally {
+      workers.shutdownNow();
+    }
+    return analyzed.get();
+  }
+
+  private static ByteBuffer map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to be mapped");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  private static String contentType(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 ? CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT)) : null;
+  }
+
+  /** Waits for an analysis, retrying it while the retry policy allows. */
+  private <T> T await(Analysis<T> analysis) throws InterruptedException {
+    if (analysis == null) {
+      return null;
+    }
+    int attempts = 0;
+    while (true) {
+      try {
+        return analysis.future().join();
+      } catch (RuntimeException e) {
+        attempts++;
+        if (!retryPolicy.shouldRetry(e, attempts)) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(e, attempts));
+        analysis.restart();
+      }
+    }
+  }
+
+  private static void start(Analysis<?> analysis) {
+    if (analysis != null) {
+      analysis.restart();
+    }
+  }
+
+  private static void cancel(Analysis<?> analysis) {
+    if (analysis != null) {
+      analysis.future().cancel(true);
+    }
+  }
+
+  /** One analysis of a document, which can be enqueued again when it fails. */
+  private abstract static class Analysis<T> {
+    private ServiceCallFuture<T> future;
+
+    abstract ServiceCall<T> newCall();
+
+    ServiceCallFuture<T> future() {
+      return future;
+    }
+
+    void restart() {
+      future = ServiceCallFuture.enqueue(newCall());
+    }
+  }
+}
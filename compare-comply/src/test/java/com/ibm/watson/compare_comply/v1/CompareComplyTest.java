@@ -13,10 +13,17 @@
 package com.ibm.watson.compare_comply.v1;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
+import com.ibm.cloud.sdk.core.service.exception.NotFoundException;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.SettableFuture;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.compare_comply.v1.model.AddFeedbackOptions;
 import com.ibm.watson.compare_comply.v1.model.BatchStatus;
@@ -57,15 +64,30 @@ import com.ibm.watson.compare_comply.v1.model.TypeLabel;
 import com.ibm.watson.compare_comply.v1.model.UpdateBatchOptions;
 import com.ibm.watson.compare_comply.v1.model.UpdatedLabelsIn;
 import com.ibm.watson.compare_comply.v1.model.UpdatedLabelsOut;
+import com.ibm.watson.compare_comply.v1.util.BatchManager;
+import com.ibm.watson.compare_comply.v1.util.ClassifyReturnReader;
+import com.ibm.watson.compare_comply.v1.util.DocumentAnalysis;
+import com.ibm.watson.compare_comply.v1.util.DocumentPipeline;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
@@ -1548,6 +1570,359 @@ public class CompareComplyTest extends WatsonServiceUnitTest {
     assertEquals(TOTAL, response.getFeedback().get(0).getFeedbackData().getPagination().getTotal());
   }
 
+  /**
+   * Test that the batch manager creates a batch, follows its progress through list requests until
+   * it completes, including the list requests made for other batches, and fails batches that no
+   * longer exist.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBatchManager() throws Exception {
+    BatchDispatcher dispatcher = new BatchDispatcher();
+    server.setDispatcher(dispatcher);
+    final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+    CreateBatchOptions options =
+        new CreateBatchOptions.Builder()
+            .function(CreateBatchOptions.Function.TABLES)
+            .inputCredentialsFile(new ByteArrayInputStream("{}".getBytes("UTF-8")))
+            .inputBucketLocation(BUCKET_LOCATION)
+            .inputBucketName(BUCKET_NAME)
+            .outputCredentialsFile(new ByteArrayInputStream("{}".getBytes("UTF-8")))
+            .outputBucketLocation(BUCKET_LOCATION)
+            .outputBucketName(BUCKET_NAME)
+            .build();
+
+    try (BatchManager batches =
+        new BatchManager.Builder(service)
+            .pollInterval(20, TimeUnit.MILLISECONDS)
+            .maxPollInterval(50, TimeUnit.MILLISECONDS)
+            .listener(
+                new BatchManager.ProgressListener() {
+                  @Override
+                  public void onProgress(BatchStatus status) {
+                    progress.add(status.getDocumentCounts().getPending());
+                  }
+                })
+            .build()) {
+      SettableFuture<BatchStatus> created = batches.submit(options);
+      while (batches.getPendingCount() == 0 && !created.isDone()) {
+        Thread.sleep(5);
+      }
+      SettableFuture<BatchStatus> missing = batches.watch("missing");
+
+      BatchStatus status = created.get(5, TimeUnit.SECONDS);
+      assertEquals("completed", status.getStatus());
+      assertEquals(Long.valueOf(9), status.getDocumentCounts().getSuccessful());
+      assertEquals(Arrays.asList(10L, 5L, 0L), progress);
+      try {
+        missing.get(5, TimeUnit.SECONDS);
+        fail("Expected the missing batch to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof NotFoundException);
+      }
+      assertEquals(0, batches.getPendingCount());
+    }
+    assertFalse(dispatcher.getBatchOfCreated);
+  }
+
+  /**
+   * Test that a list request applies the final status of a batch that was not due, even when the
+   * polled batch is missing from the list.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBatchManagerAppliesListedStatusOfBatchNotDue() throws Exception {
+    MissingBatchDispatcher dispatcher = new MissingBatchDispatcher();
+    server.setDispatcher(dispatcher);
+
+    try (BatchManager batches =
+        new BatchManager.Builder(service)
+            .pollInterval(100, TimeUnit.MILLISECONDS)
+            .maxPollInterval(5, TimeUnit.SECONDS)
+            .build()) {
+      SettableFuture<BatchStatus> done = batches.watch("done");
+      // Once "done" has made progress it is next due long after the poll of "missing".
+      while (dispatcher.listed.get() < 2) {
+        Thread.sleep(5);
+      }
+      SettableFuture<BatchStatus> missing = batches.watch("missing");
+
+      try {
+        missing.get(5, TimeUnit.SECONDS);
+        fail("Expected the missing batch to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof NotFoundException);
+      }
+      assertEquals("completed", done.get(5, TimeUnit.SECONDS).getStatus());
+      assertEquals(3, dispatcher.listed.get());
+      assertEquals(0, batches.getPendingCount());
+    }
+  }
+
+  /**
+   * Lists batch "done" as it processes one document and then completes, and answers 404 for any
+   * single batch.
+   */
+  private static class MissingBatchDispatcher extends Dispatcher {
+    private static final JsonObject[] STATES = {
+      BatchDispatcher.status("done", "running", 10, 0),
+      BatchDispatcher.status("done", "running", 9, 1),
+      BatchDispatcher.status("done", "completed", 0, 10)
+    };
+
+    private final AtomicInteger listed = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      if (request.getPath().startsWith("/v1/batches?")) {
+        JsonArray batches = new JsonArray();
+        batches.add(STATES[Math.min(listed.getAndIncrement(), STATES.length - 1)]);
+        JsonObject result = new JsonObject();
+        result.add("batches", batches);
+        return jsonResponse(result);
+      }
+      return new MockResponse().setResponseCode(404).setBody("{\"error\":\"Not found\"}");
+    }
+  }
+
+  /**
+   * Creates batch "b1" and answers 404 for any other batch. Each list request reports the next
+   * state of "b1" from a fixed sequence, whichever batches the poller asked for, so the manager sees
+   * every state exactly once.
+   */
+  private static class BatchDispatcher extends Dispatcher {
+    private static final JsonObject[] STATES = {
+      status("running", 10, 0), status("running", 5, 5), status("completed", 0, 9)
+    };
+
+    private final AtomicInteger listed = new AtomicInteger();
+    private volatile boolean created;
+    private volatile boolean getBatchOfCreated;
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String path = request.getPath();
+      if ("POST".equals(request.getMethod())) {
+        created = true;
+        return jsonResponse(status("pending", 10, 0));
+      }
+      if (path.startsWith("/v1/batches?")) {
+        JsonArray batches = new JsonArray();
+        batches.add(status("other", "running", 1, 0));
+        if (created) {
+          batches.add(STATES[Math.min(listed.getAndIncrement(), STATES.length - 1)]);
+        }
+        JsonObject result = new JsonObject();
+        result.add("batches", batches);
+        return jsonResponse(result);
+      }
+      if (path.startsWith("/v1/batches/b1?")) {
+        getBatchOfCreated = true;
+      }
+      return new MockResponse().setResponseCode(404).setBody("{\"error\":\"Not found\"}");
+    }
+
+    private static JsonObject status(String state, long pending, long successful) {
+      return status("b1", state, pending, successful);
+    }
+
+    private static JsonObject status(String id, String state, long pending, long successful) {
+      JsonObject counts = new JsonObject();
+      counts.addProperty("total", 10);
+      counts.addProperty("pending", pending);
+      counts.addProperty("successful", successful);
+      counts.addProperty("failed", 10 - pending - successful);
+      JsonObject status = new JsonObject();
+      status.addProperty("batch_id", id);
+      status.addProperty("status", state);
+      status.add("document_counts", counts);
+      return status;
+    }
+  }
+
+  /**
+   * Test that the document pipeline sends each document of a directory to the three analyses,
+   * retries an analysis that is unavailable and combines the results.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testDocumentPipeline() throws Exception {
+    PipelineDispatcher dispatcher =
+        new PipelineDispatcher(
+            convertToHtmlResponse, classifyElementsResponse, extractTablesResponse);
+    server.setDispatcher(dispatcher);
+    Path directory = Files.createTempDirectory("pipeline");
+    Files.write(directory.resolve("a.pdf"), "%PDF-a".getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("b.pdf"), "%PDF-b".getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("notes.txt"), "notes".getBytes(StandardCharsets.UTF_8));
+    final List<DocumentAnalysis> analyses =
+        Collections.synchronizedList(new ArrayList<DocumentAnalysis>());
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+    DocumentPipeline pipeline =
+        new DocumentPipeline.Builder(service)
+            .maxConcurrentDocuments(2)
+            .retryPolicy(
+                new RetryPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).build())
+            .build();
+    int analyzed =
+        pipeline.analyzeDirectory(
+            directory,
+            "*.pdf",
+            new DocumentPipeline.Callback() {
+              @Override
+              public void onDocument(DocumentAnalysis analysis) {
+                analyses.add(analysis);
+              }
+
+              @Override
+              public void onFailure(Path file, Exception e) {
+                failures.add(e);
+              }
+            });
+
+    assertEquals(2, analyzed);
+    assertTrue(failures.isEmpty());
+    assertEquals(2, analyses.size());
+    for (DocumentAnalysis analysis : analyses) {
+      assertEquals(HTML, analysis.getHtml().getHtml());
+      assertEquals(TITLE, analysis.getElements().getDocument().getTitle());
+      assertEquals(1, analysis.getTables().getTables().size());
+    }
+    // Two documents with three analyses each, and one retry.
+    assertEquals(7, dispatcher.requests.get());
+    assertTrue(dispatcher.bodies.toString().contains("%PDF-a"));
+    assertTrue(dispatcher.bodies.toString().contains("%PDF-b"));
+    assertFalse(dispatcher.bodies.toString().contains("notes"));
+  }
+
+  /**
+   * Test that an exception thrown by the callback of an analyzed document does not report the
+   * document as failed.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testDocumentPipelineCallbackFailure() throws Exception {
+    server.setDispatcher(
+        new PipelineDispatcher(
+            convertToHtmlResponse, classifyElementsResponse, extractTablesResponse));
+    Path directory = Files.createTempDirectory("pipeline");
+    Files.write(directory.resolve("a.pdf"), "%PDF-a".getBytes(StandardCharsets.UTF_8));
+    final AtomicInteger documents = new AtomicInteger();
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+    DocumentPipeline pipeline =
+        new DocumentPipeline.Builder(service)
+            .retryPolicy(
+                new RetryPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).build())
+            .build();
+    int analyzed =
+        pipeline.analyzeDirectory(
+            directory,
+            "*.pdf",
+            new DocumentPipeline.Callback() {
+              @Override
+              public void onDocument(DocumentAnalysis analysis) {
+                documents.incrementAndGet();
+                throw new IllegalStateException("callback failed");
+              }
+
+              @Override
+              public void onFailure(Path file, Exception e) {
+                failures.add(e);
+              }
+            });
+
+    assertEquals(1, analyzed);
+    assertEquals(1, documents.get());
+    assertTrue(failures.isEmpty());
+  }
+
+  /** Answers the analyses with their fixtures. The first table extraction fails with 503. */
+  private static class PipelineDispatcher extends Dispatcher {
+    private final HTMLReturn html;
+    private final ClassifyReturn elements;
+    private final TableReturn tables;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger tableRequests = new AtomicInteger();
+    private final StringBuffer bodies = new StringBuffer();
+
+    PipelineDispatcher(HTMLReturn html, ClassifyReturn elements, TableReturn tables) {
+      this.html = html;
+      this.elements = elements;
+      this.tables = tables;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      requests.incrementAndGet();
+      String body = request.getBody().readUtf8();
+      if (!body.contains("Content-Type: application/pdf")) {
+        return new MockResponse().setResponseCode(400);
+      }
+      bodies.append(body);
+      String path = request.getPath();
+      if (path.startsWith("/v1/html_conversion")) {
+        return jsonResponse(html);
+      } else if (path.startsWith("/v1/element_classification")) {
+        return jsonResponse(elements);
+      } else if (tableRequests.incrementAndGet() == 1) {
+        return new MockResponse().setResponseCode(503).setBody("{\"error\":\"Unavailable\"}");
+      }
+      return jsonResponse(tables);
+    }
+  }
+
+  /**
+   * Test that the classify response reader iterates over each category of a streamed response, and
+   * filters elements by category and nature.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testClassifyReturnReader() throws Exception {
+    server.enqueue(
+        new MockResponse()
+            .setBody(
+                new String(
+                    Files.readAllBytes(new File(RESOURCE + "classify-return.json").toPath()),
+                    StandardCharsets.UTF_8)));
+    ClassifyElementsOptions options =
+        new ClassifyElementsOptions.Builder()
+            .file(new ByteArrayInputStream("%PDF".getBytes(StandardCharsets.UTF_8)))
+            .build();
+
+    InputStream body = service.classifyElementsAsStream(options).execute().getResult();
+
+    try (ClassifyReturnReader reader = ClassifyReturnReader.open(body)) {
+      assertEquals(classifyElementsResponse.getElements(), readAll(reader.elements()));
+      assertEquals(1, readAll(reader.elements(ClassifyReturnReader.withCategory(LABEL))).size());
+      assertEquals(
+          0, readAll(reader.elements(ClassifyReturnReader.withCategory("other"))).size());
+      assertEquals(1, readAll(reader.elements(ClassifyReturnReader.withNature(NATURE))).size());
+      assertEquals(
+          classifyElementsResponse.getTables().get(0).getKeyValuePairs(),
+          readAll(reader.keyValuePairs(null)));
+      assertEquals(classifyElementsResponse.getTables(), readAll(reader.tables()));
+      assertEquals(classifyElementsResponse.getParties(), readAll(reader.parties()));
+    }
+    assertEquals(CLASSIFY_ELEMENTS_PATH, server.takeRequest().getPath());
+  }
+
+  private static <T> List<T> readAll(ClassifyReturnReader.EntryIterator<T> iterator) {
+    List<T> entries = new ArrayList<T>();
+    try (ClassifyReturnReader.EntryIterator<T> entryIterator = iterator) {
+      while (entryIterator.hasNext()) {
+        entries.add(entryIterator.next());
+      }
+    }
+    return entries;
+  }
+
   private void assertBatchStatusResponse(BatchStatus response) {
     assertEquals(BatchStatus.Function.ELEMENT_CLASSIFICATION, response.getFunction());
     assertEquals(BUCKET_LOCATION, response.getInputBucketLocation());
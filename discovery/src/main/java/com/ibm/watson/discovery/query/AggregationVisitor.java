@@ -0,0 +1,87 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Receives the aggregations of a query response one node at a time, so that deep bucket trees can
+ * be walked without binding them into model objects. Pass a visitor to {@link
+ * Aggregations#visit(java.util.List, AggregationVisitor)}.
+ *
+ * <p>Each aggregation is reported as {@link #enterAggregation}, with its type and field, then its
+ * properties and buckets in the order they appear in the response, then {@link #exitAggregation}.
+ * The walker reads ahead to the {@code type} and {@code field} properties before it enters an
+ * aggregation; the service sends them first, and anything that comes before them is buffered. Each
+ * bucket of an aggregation's {@code results} is reported the same way with {@link #enterBucket} and
+ * {@link #exitBucket}, and the sub-aggregations of an aggregation or bucket are reported between
+ * its enter and exit calls, one level deeper. All methods do nothing by default.
+ */
+public abstract class AggregationVisitor {
+
+  /**
+   * Called when an aggregation starts.
+   *
+   * @param depth the nesting level, 0 for the aggregations of the response
+   * @param type the aggregation type, for example {@code term}, or null if it is missing
+   * @param field the field the aggregation applies to, or null for aggregations without one, such
+   *     as {@code filter} or {@code nested}
+   * @return false to skip the aggregation and everything below it
+   */
+  public boolean enterAggregation(int depth, String type, String field) {
+    return true;
+  }
+
+  /**
+   * Called with each property of the current aggregation other than its buckets and
+   * sub-aggregations, for example {@code type}, {@code field}, {@code value} or {@code
+   * matching_results}.
+   *
+   * @param name the JSON property name
+   * @param value the property value
+   */
+  public void aggregationProperty(String name, JsonElement value) {}
+
+  /**
+   * Called when a bucket of the current aggregation's results starts.
+   *
+   * @param depth the nesting level of the aggregation the bucket belongs to
+   * @return false to skip the bucket and everything below it
+   */
+  public boolean enterBucket(int depth) {
+    return true;
+  }
+
+  /**
+   * Called with each property of the current bucket other than its sub-aggregations, for example
+   * {@code key} or {@code matching_results}.
+   *
+   * @param name the JSON property name
+   * @param value the property value
+   */
+  public void bucketProperty(String name, JsonElement value) {}
+
+  /**
+   * Called when a bucket that was entered ends.
+   *
+   * @param depth the nesting level of the aggregation the bucket belongs to
+   */
+  public void exitBucket(int depth) {}
+
+  /**
+   * Called when an aggregation that was entered ends.
+   *
+   * @param depth the nesting level of the aggregation
+   */
+  public void exitAggregation(int depth) {}
+}
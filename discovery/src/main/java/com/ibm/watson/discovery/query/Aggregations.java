@@ -0,0 +1,185 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Walks the aggregations of Discovery query responses with an {@link AggregationVisitor}. */
+public final class Aggregations {
+  private static final String RESULTS = "results";
+  private static final String AGGREGATIONS = "aggregations";
+  private static final String TYPE = "type";
+  private static final String FIELD = "field";
+
+  /** The aggregation types that apply to a field; the others never have one. */
+  private static final Set<String> FIELD_TYPES =
+      new HashSet<String>(
+          Arrays.asList(
+              "term", "histogram", "timeslice", "unique_count", "max", "min", "average", "sum"));
+
+  private Aggregations() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Walks the aggregations returned by {@code QueryResponse.getAggregations()}. Aggregations that
+   * have not been decoded yet are read straight from the raw JSON of the response, without binding
+   * them into model objects.
+   *
+   * @param aggregations the aggregations, may be null
+   * @param visitor the visitor
+   */
+  public static void visit(List<?> aggregations, AggregationVisitor visitor) {
+    if (aggregations == null) {
+      return;
+    }
+    String json =
+        aggregations instanceof LazyAggregationList
+            ? ((LazyAggregationList<?>) aggregations).getRawJson()
+            : GsonSingleton.getGsonWithoutPrettyPrinting().toJson(aggregations);
+    visit(json, visitor);
+  }
+
+  /**
+   * Walks a JSON array of aggregations.
+   *
+   * @param json the JSON array
+   * @param visitor the visitor
+   */
+  public static void visit(String json, AggregationVisitor visitor) {
+    JsonReader reader = new JsonReader(new StringReader(json));
+    try {
+      if (reader.peek() == JsonToken.NULL) {
+        return;
+      }
+      walkAggregations(reader, visitor, 0);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed aggregations", e);
+    }
+  }
+
+  private static void walkAggregations(JsonReader reader, AggregationVisitor visitor, int depth)
+      throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      reader.beginObject();
+      // Properties read before the type and field are known, replayed once the visitor enters.
+      List<String> names = new ArrayList<String>();
+      List<JsonElement> values = new ArrayList<JsonElement>();
+      String type = null;
+      String field = null;
+      Boolean entered = null;
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (entered == null) {
+          JsonElement value = new JsonParser().parse(reader);
+          names.add(name);
+          values.add(value);
+          if (TYPE.equals(name)) {
+            type = asString(value);
+          } else if (FIELD.equals(name)) {
+            field = asString(value);
+          }
+          if (type != null && (field != null || !FIELD_TYPES.contains(type))) {
+            entered = enter(visitor, depth, type, field, names, values);
+          }
+        } else if (entered) {
+          walkProperty(reader, visitor, depth, name);
+        } else {
+          reader.skipValue();
+        }
+      }
+      if (entered == null) {
+        entered = enter(visitor, depth, type, field, names, values);
+      }
+      reader.endObject();
+      if (entered) {
+        visitor.exitAggregation(depth);
+      }
+    }
+    reader.endArray();
+  }
+
+  /** Enters an aggregation and reports the properties read ahead. */
+  private static boolean enter(
+      AggregationVisitor visitor,
+      int depth,
+      String type,
+      String field,
+      List<String> names,
+      List<JsonElement> values)
+      throws IOException {
+    if (!visitor.enterAggregation(depth, type, field)) {
+      return false;
+    }
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      JsonElement value = values.get(i);
+      if (value.isJsonArray() && (RESULTS.equals(name) || AGGREGATIONS.equals(name))) {
+        walkProperty(new JsonReader(new StringReader(value.toString())), visitor, depth, name);
+      } else {
+        visitor.aggregationProperty(name, value);
+      }
+    }
+    return true;
+  }
+
+  private static void walkProperty(
+      JsonReader reader, AggregationVisitor visitor, int depth, String name) throws IOException {
+    if (RESULTS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+      walkBuckets(reader, visitor, depth);
+    } else if (AGGREGATIONS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+      walkAggregations(reader, visitor, depth + 1);
+    } else {
+      visitor.aggregationProperty(name, new JsonParser().parse(reader));
+    }
+  }
+
+  private static String asString(JsonElement value) {
+    return value.isJsonPrimitive() ? value.getAsString() : null;
+  }
+
+  private static void walkBuckets(JsonReader reader, AggregationVisitor visitor, int depth)
+      throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      if (!visitor.enterBucket(depth)) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (AGGREGATIONS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+          walkAggregations(reader, visitor, depth + 1);
+        } else {
+          visitor.bucketProperty(name, new JsonParser().parse(reader));
+        }
+      }
+      reader.endObject();
+      visitor.exitBucket(depth);
+    }
+    reader.endArray();
+  }
+}
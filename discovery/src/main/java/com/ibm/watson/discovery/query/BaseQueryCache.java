@@ -0,0 +1,257 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.ListenableServiceCall;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared implementation of the Discovery v1 and v2 query caches.
+ *
+ * <p>Each cached response is keyed by the collections it involves and the generation each of those
+ * collections was at. Invalidating a collection moves it to a new generation, so its old entries
+ * are no longer returned and age out of the underlying {@link Cache}.
+ */
+public abstract class BaseQueryCache {
+  /** The number of completions returned by the service when the request does not set a count. */
+  protected static final long DEFAULT_COMPLETION_COUNT = 5;
+
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final String COMPLETIONS = "completions";
+
+  private final Cache<String, Object> cache;
+  private final long ttlMillis;
+  private final Map<String, Long> collectionTtls;
+  private final ConcurrentMap<String, AtomicLong> generations =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * Instantiates a new query cache.
+   *
+   * @param cache the cache that stores the responses
+   * @param ttlMillis how long responses stay cached when no collection-specific time is set
+   * @param collectionTtls how long responses stay cached, by collection ID
+   */
+  protected BaseQueryCache(
+      Cache<String, Object> cache, long ttlMillis, Map<String, Long> collectionTtls) {
+    this.cache = cache;
+    this.ttlMillis = ttlMillis;
+    this.collectionTtls = new HashMap<String, Long>(collectionTtls);
+  }
+
+  /** Removes every cached response. */
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  /**
+   * Moves a cache scope, such as a collection, to a new generation.
+   *
+   * @param scope the scope
+   */
+  protected void invalidate(String scope) {
+    generation(scope).incrementAndGet();
+  }
+
+  /**
+   * Returns the key fragment identifying a set of scopes at their current generations.
+   *
+   * @param scopes the scopes
+   * @return the key fragment
+   */
+  protected String scopeKey(Collection<String> scopes) {
+    List<String> sorted = new ArrayList<String>(scopes);
+    Collections.sort(sorted);
+    StringBuilder key = new StringBuilder();
+    for (String scope : sorted) {
+      key.append(scope).append('@').append(generation(scope).get()).append('|');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Returns how long a response involving the given collections stays cached: the shortest time
+   * configured for any of them, or the default time.
+   *
+   * @param collectionIds the collection IDs
+   * @return the time to live in milliseconds
+   */
+  protected long ttlFor(Collection<String> collectionIds) {
+    long ttl = ttlMillis;
+    for (String collectionId : collectionIds) {
+      Long collectionTtl = collectionTtls.get(collectionId);
+      if (collectionTtl != null && (ttl <= 0 || (collectionTtl > 0 && collectionTtl < ttl))) {
+        ttl = collectionTtl;
+      }
+    }
+    return ttl;
+  }
+
+  /**
+   * Returns the response cached under a key.
+   *
+   * @param key the key
+   * @param <T> the type of the response result
+   * @return the cached response, or null
+   */
+  @SuppressWarnings("unchecked")
+  protected <T> Response<T> lookup(String key) {
+    return (Response<T>) cache.get(key);
+  }
+
+  /**
+   * Caches a response.
+   *
+   * @param key the key
+   * @param response the response
+   * @param ttl the time to live in milliseconds
+   */
+  protected void put(String key, Response<?> response, long ttl) {
+    cache.put(key, response, ttl);
+  }
+
+  /**
+   * Wraps a call so that its successful response is cached.
+   *
+   * @param key the key
+   * @param call the call
+   * @param ttl the time to live in milliseconds
+   * @param <T> the type of the response result
+   * @return the wrapped call
+   */
+  protected <T> ServiceCall<T> store(final String key, ServiceCall<T> call, final long ttl) {
+    return new ListenableServiceCall<T>(
+        call,
+        new ListenableServiceCall.ResponseListener<T>() {
+          @Override
+          public void onResponse(Response<T> response) {
+            cache.put(key, response, ttl);
+          }
+        });
+  }
+
+  /**
+   * Wraps a call so that the given scopes are invalidated once it succeeds.
+   *
+   * @param call the call
+   * @param scopes the scopes to invalidate
+   * @param <T> the type of the response result
+   * @return the wrapped call
+   */
+  protected <T> ServiceCall<T> invalidating(ServiceCall<T> call, final String... scopes) {
+    return new ListenableServiceCall<T>(
+        call,
+        new ListenableServiceCall.ResponseListener<T>() {
+          @Override
+          public void onResponse(Response<T> response) {
+            for (String scope : scopes) {
+              invalidate(scope);
+            }
+          }
+        });
+  }
+
+  /**
+   * Derives the completions of a prefix from the completions cached for the longest shorter prefix.
+   *
+   * @param keyPrefix the key fragment shared by the autocompletion requests that only differ in
+   *     their prefix
+   * @param prefix the requested prefix
+   * @param count the number of completions requested
+   * @param type the class of the completions model
+   * @param <T> the type of the completions model
+   * @return the completions of the requested prefix, or null if they cannot be derived
+   */
+  protected <T> T deriveCompletions(String keyPrefix, String prefix, long count, Class<T> type) {
+    for (int length = prefix.length() - 1; length > 0; length--) {
+      Response<T> shorter = lookup(keyPrefix + prefix.substring(0, length));
+      if (shorter != null) {
+        JsonElement cached =
+            GSON.toJsonTree(shorter.getResult()).getAsJsonObject().get(COMPLETIONS);
+        List<String> completions = new ArrayList<String>();
+        if (cached != null) {
+          for (JsonElement completion : cached.getAsJsonArray()) {
+            completions.add(completion.getAsString());
+          }
+        }
+        List<String> narrowed =
+            narrowCompletions(completions, prefix.substring(0, length), prefix, count);
+        if (narrowed == null) {
+          return null;
+        }
+        JsonObject json = new JsonObject();
+        json.add(COMPLETIONS, GSON.toJsonTree(narrowed));
+        return GSON.fromJson(json, type);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Narrows the completions of a shorter prefix down to a longer prefix.
+   *
+   * @param completions the completions cached for the shorter prefix
+   * @param cachedPrefix the shorter prefix
+   * @param prefix the longer prefix
+   * @param count the number of completions requested
+   * @return the completions of the longer prefix, or null if the cached completions may not
+   *     contain every completion of the longer prefix
+   */
+  private static List<String> narrowCompletions(
+      List<String> completions, String cachedPrefix, String prefix, long count) {
+    if (completions == null || completions.size() >= count) {
+      return null;
+    }
+    String lowerCachedPrefix = cachedPrefix.toLowerCase(Locale.ROOT);
+    String lowerPrefix = prefix.toLowerCase(Locale.ROOT);
+    List<String> narrowed = new ArrayList<String>();
+    for (String completion : completions) {
+      String lowerCompletion = completion.toLowerCase(Locale.ROOT);
+      if (!lowerCompletion.startsWith(lowerCachedPrefix)) {
+        return null;
+      }
+      if (lowerCompletion.startsWith(lowerPrefix)) {
+        narrowed.add(completion);
+      }
+    }
+    return narrowed;
+  }
+
+  private AtomicLong generation(String scope) {
+    AtomicLong generation = generations.get(scope);
+    if (generation == null) {
+      AtomicLong created = new AtomicLong();
+      generation = generations.putIfAbsent(scope, created);
+      if (generation == null) {
+        generation = created;
+      }
+    }
+    return generation;
+  }
+}
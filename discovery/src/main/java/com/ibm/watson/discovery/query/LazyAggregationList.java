@@ -0,0 +1,156 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.Gson;
+import java.lang.reflect.Type;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The aggregations of a query response, kept as the raw JSON returned by the service until the
+ * list is first read.
+ *
+ * <p>Binding deep term, histogram or timeslice aggregations into model objects is expensive, and
+ * many callers only read the results of a response. This list decodes its elements on first access
+ * to any of them, and {@link Aggregations#visit(List, AggregationVisitor)} walks the raw JSON
+ * without decoding it at all.
+ *
+ * <p>The list can be modified like the list a response model would otherwise hold. The decoded
+ * elements are copied on the first modification, and from then on the raw JSON is encoded from the
+ * elements.
+ *
+ * @param <T> the type of the aggregation model
+ */
+public final class LazyAggregationList<T> extends AbstractList<T> {
+  private final String json;
+  private final Type listType;
+  private final Gson gson;
+  private volatile List<T> decoded;
+  private boolean modified;
+
+  /**
+   * Instantiates a new lazy aggregation list.
+   *
+   * @param json the JSON array of aggregations
+   * @param listType the type of the decoded list, for example {@code List<QueryAggregation>}
+   * @param gson the Gson instance that decodes the aggregations
+   */
+  public LazyAggregationList(String json, Type listType, Gson gson) {
+    this.json = json;
+    this.listType = listType;
+    this.gson = gson;
+  }
+
+  /**
+   * Returns the raw JSON array of aggregations, as returned by the service, or encoded from the
+   * elements once the list has been modified.
+   *
+   * @return the JSON array
+   */
+  public synchronized String getRawJson() {
+    return modified ? gson.toJson(decoded, listType) : json;
+  }
+
+  /**
+   * Returns whether the aggregations have been decoded into model objects.
+   *
+   * @return true if the aggregations have been decoded
+   */
+  public boolean isDecoded() {
+    return decoded != null;
+  }
+
+  /**
+   * Walks the aggregations from the raw JSON without decoding them.
+   *
+   * @param visitor the visitor
+   */
+  public void accept(AggregationVisitor visitor) {
+    Aggregations.visit(getRawJson(), visitor);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractList#get(int)
+   */
+  @Override
+  public T get(int index) {
+    return decode().get(index);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return decode().size();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractList#set(int, java.lang.Object)
+   */
+  @Override
+  public T set(int index, T element) {
+    return mutable().set(index, element);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractList#add(int, java.lang.Object)
+   */
+  @Override
+  public void add(int index, T element) {
+    mutable().add(index, element);
+    modCount++;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.AbstractList#remove(int)
+   */
+  @Override
+  public T remove(int index) {
+    T removed = mutable().remove(index);
+    modCount++;
+    return removed;
+  }
+
+  /** Returns the elements as a list of its own, copied from the decoded elements the first time. */
+  private synchronized List<T> mutable() {
+    if (!modified) {
+      decoded = new ArrayList<T>(decode());
+      modified = true;
+    }
+    return decoded;
+  }
+
+  private List<T> decode() {
+    List<T> result = decoded;
+    if (result == null) {
+      synchronized (this) {
+        result = decoded;
+        if (result == null) {
+          List<T> list = gson.fromJson(json, listType);
+          result = list != null ? list : Collections.<T>emptyList();
+          decoded = result;
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Reads a list of aggregations into a {@link LazyAggregationList}, copying the JSON tokens of the
+ * response into a compact string instead of decoding them. Used through {@code @JsonAdapter} on
+ * the {@code aggregations} field of the query response models. Lists are written like any other
+ * list, so the serialized form of a response does not depend on whether it was decoded.
+ */
+public final class LazyAggregationsTypeAdapterFactory implements TypeAdapterFactory {
+
+  /*
+   * (non-Javadoc)
+   * @see com.google.gson.TypeAdapterFactory#create(com.google.gson.Gson,
+   * com.google.gson.reflect.TypeToken)
+   */
+  @Override
+  public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type) {
+    if (!List.class.isAssignableFrom(type.getRawType())) {
+      return null;
+    }
+    final TypeAdapter<T> delegate = gson.getAdapter(type);
+    return new TypeAdapter<T>() {
+      @Override
+      public void write(JsonWriter out, T value) throws IOException {
+        delegate.write(out, value);
+      }
+
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      @Override
+      public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          return null;
+        }
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        copy(in, writer);
+        writer.flush();
+        return (T) new LazyAggregationList(json.toString(), type.getType(), gson);
+      }
+    };
+  }
+
+  private static void copy(JsonReader in, JsonWriter out) throws IOException {
+    int depth = 0;
+    do {
+      switch (in.peek()) {
+        case BEGIN_ARRAY:
+          in.beginArray();
+          out.beginArray();
+          depth++;
+          break;
+        case END_ARRAY:
+          in.endArray();
+          out.endArray();
+          depth--;
+          break;
+        case BEGIN_OBJECT:
+          in.beginObject();
+          out.beginObject();
+          depth++;
+          break;
+        case END_OBJECT:
+          in.endObject();
+          out.endObject();
+          depth--;
+          break;
+        case NAME:
+          out.name(in.nextName());
+          break;
+        case STRING:
+          out.value(in.nextString());
+          break;
+        case NUMBER:
+          out.jsonValue(in.nextString());
+          break;
+        case BOOLEAN:
+          out.value(in.nextBoolean());
+          break;
+        case NULL:
+          in.nextNull();
+          out.nullValue();
+          break;
+        default:
+          throw new IOException("Unexpected token " + in.peek());
+      }
+    } while (depth > 0);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.query;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds canonical cache keys from Discovery request options, so that requests which only differ in
+ * property order, insignificant whitespace or the order of collection IDs share a key. Whitespace
+ * inside double-quoted values is significant and kept as it is.
+ */
+public final class QueryKeys {
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+
+  private QueryKeys() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Returns the canonical key of a request options object.
+   *
+   * @param options the request options, for example a {@code QueryOptions}
+   * @param unordered the properties whose values are sets, given either as a JSON array or as a
+   *     comma-separated string
+   * @param ignored the properties that do not affect the response, such as request headers
+   * @return the canonical key
+   */
+  public static String canonicalKey(Object options, List<String> unordered, List<String> ignored) {
+    JsonObject json = GSON.toJsonTree(options).getAsJsonObject();
+    for (String property : ignored) {
+      json.remove(property);
+    }
+    for (String property : unordered) {
+      JsonElement value = json.get(property);
+      if (value != null) {
+        json.add(property, sorted(value));
+      }
+    }
+    StringBuilder key = new StringBuilder();
+    append(key, json);
+    return key.toString();
+  }
+
+  /**
+   * Collapses runs of whitespace to a single space and trims the text, except inside double-quoted
+   * values such as the phrases of a query, where whitespace is significant. A backslash escapes
+   * the character that follows it.
+   *
+   * @param text the text
+   * @return the normalized text, or null if text is null
+   */
+  public static String normalizeWhitespace(String text) {
+    if (text == null) {
+      return null;
+    }
+    StringBuilder normalized = new StringBuilder(text.length());
+    boolean quoted = false;
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (!quoted && isWhitespace(c)) {
+        space = normalized.length() > 0;
+        continue;
+      }
+      if (space) {
+        normalized.append(' ');
+        space = false;
+      }
+      normalized.append(c);
+      if (c == '\\' && i + 1 < text.length()) {
+        normalized.append(text.charAt(++i));
+      } else if (c == '"') {
+        quoted = !quoted;
+      }
+    }
+    return normalized.toString();
+  }
+
+  /** Returns whether a character is whitespace as matched by the regular expression {@code \s}. */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  private static JsonElement sorted(JsonElement value) {
+    List<String> items = new ArrayList<String>();
+    if (value.isJsonArray()) {
+      for (JsonElement item : value.getAsJsonArray()) {
+        items.add(item.isJsonPrimitive() ? item.getAsString().trim() : item.toString());
+      }
+    } else if (value.isJsonPrimitive()) {
+      for (String item : Arrays.asList(value.getAsString().split(","))) {
+        items.add(item.trim());
+      }
+    } else {
+      return value;
+    }
+    Collections.sort(items);
+    JsonArray array = new JsonArray();
+    for (String item : items) {
+      array.add(new JsonPrimitive(item));
+    }
+    return array;
+  }
+
+  private static void append(StringBuilder key, JsonElement element) {
+    if (element.isJsonObject()) {
+      Map<String, JsonElement> members = new TreeMap<String, JsonElement>();
+      for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+        members.put(member.getKey(), member.getValue());
+      }
+      key.append('{');
+      for (Map.Entry<String, JsonElement> member : members.entrySet()) {
+        key.append(GSON.toJson(member.getKey())).append(':');
+        append(key, member.getValue());
+        key.append(',');
+      }
+      key.append('}');
+    } else if (element.isJsonArray()) {
+      key.append('[');
+      for (JsonElement item : element.getAsJsonArray()) {
+        append(key, item);
+        key.append(',');
+      }
+      key.append(']');
+    } else if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+      key.append(GSON.toJson(normalizeWhitespace(element.getAsString())));
+    } else {
+      key.append(element.toString());
+    }
+  }
+}
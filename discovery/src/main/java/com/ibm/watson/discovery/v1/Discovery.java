@@ -21,6 +21,7 @@ import com.ibm.cloud.sdk.core.security.ConfigBasedAuthenticatorFactory;
 import com.ibm.cloud.sdk.core.service.BaseService;
 import com.ibm.cloud.sdk.core.util.RequestUtils;
 import com.ibm.cloud.sdk.core.util.ResponseConverterUtils;
+import com.ibm.watson.common.FileChannelRequestBody;
 import com.ibm.watson.common.SdkCommon;
 import com.ibm.watson.discovery.v1.model.AddDocumentOptions;
 import com.ibm.watson.discovery.v1.model.AddTrainingDataOptions;
@@ -116,6 +117,8 @@ import com.ibm.watson.discovery.v1.model.UpdateCredentialsOptions;
 import com.ibm.watson.discovery.v1.model.UpdateDocumentOptions;
 import com.ibm.watson.discovery.v1.model.UpdateEnvironmentOptions;
 import com.ibm.watson.discovery.v1.model.UpdateTrainingExampleOptions;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Map.Entry;
 import okhttp3.MultipartBody;
@@ -1335,6 +1338,106 @@ public class Discovery extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Add a document, streaming its content from a file.
+   *
+   * <p>Behaves like {@link #addDocument(AddDocumentOptions)}, except that the file is read from a
+   * {@link java.nio.channels.FileChannel} while the request is sent instead of being read into
+   * memory first, so large documents can be uploaded concurrently without exhausting the heap. The
+   * file of the options must not be set; the filename defaults to the name of the file.
+   *
+   * @param addDocumentOptions the {@link AddDocumentOptions} containing the options for the call
+   * @param file the document content
+   * @return a {@link ServiceCall} with a response type of {@link DocumentAccepted}
+   * @throws IOException if the size of the file cannot be read
+   */
+  public ServiceCall<DocumentAccepted> addDocument(AddDocumentOptions addDocumentOptions, Path file)
+      throws IOException {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        addDocumentOptions, "addDocumentOptions cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.isTrue(
+        addDocumentOptions.file() == null, "file must be passed as a path only");
+    String[] pathParameters = {
+      addDocumentOptions.environmentId(), addDocumentOptions.collectionId()
+    };
+    return uploadDocument(
+        "addDocument",
+        pathParameters,
+        file,
+        addDocumentOptions.filename(),
+        addDocumentOptions.fileContentType(),
+        addDocumentOptions.metadata());
+  }
+
+  /**
+   * Update a document, streaming its content from a file.
+   *
+   * <p>Behaves like {@link #updateDocument(UpdateDocumentOptions)}, except that the file is read
+   * from a {@link java.nio.channels.FileChannel} while the request is sent instead of being read
+   * into memory first. The file of the options must not be set; the filename defaults to the name
+   * of the file.
+   *
+   * @param updateDocumentOptions the {@link UpdateDocumentOptions} containing the options for the
+   *     call
+   * @param file the document content
+   * @return a {@link ServiceCall} with a response type of {@link DocumentAccepted}
+   * @throws IOException if the size of the file cannot be read
+   */
+  public ServiceCall<DocumentAccepted> updateDocument(
+      UpdateDocumentOptions updateDocumentOptions, Path file) throws IOException {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        updateDocumentOptions, "updateDocumentOptions cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.isTrue(
+        updateDocumentOptions.file() == null, "file must be passed as a path only");
+    String[] pathParameters = {
+      updateDocumentOptions.environmentId(),
+      updateDocumentOptions.collectionId(),
+      updateDocumentOptions.documentId()
+    };
+    return uploadDocument(
+        "updateDocument",
+        pathParameters,
+        file,
+        updateDocumentOptions.filename(),
+        updateDocumentOptions.fileContentType(),
+        updateDocumentOptions.metadata());
+  }
+
+  private ServiceCall<DocumentAccepted> uploadDocument(
+      String operationId,
+      String[] pathParameters,
+      Path file,
+      String filename,
+      String fileContentType,
+      String metadata)
+      throws IOException {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(file, "file cannot be null");
+    String[] pathSegments = {"v1/environments", "collections", "documents"};
+    RequestBuilder builder =
+        RequestBuilder.post(
+            RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments, pathParameters));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders = SdkCommon.getSdkHeaders("discovery", "v1", operationId);
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    multipartBuilder.addFormDataPart(
+        "file",
+        filename != null ? filename : file.getFileName().toString(),
+        FileChannelRequestBody.create(file, fileContentType));
+    if (metadata != null) {
+      multipartBuilder.addFormDataPart("metadata", metadata);
+    }
+    builder.body(multipartBuilder.build());
+    ResponseConverter<DocumentAccepted> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<DocumentAccepted>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Delete a document.
    *
@@ -0,0 +1,58 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.ingest;
+
+import com.ibm.watson.discovery.v1.model.DocumentAccepted;
+import com.ibm.watson.discovery.v1.model.DocumentStatus;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** An empty implementation of the {@link IngestCallback} interface that logs failures. */
+public class BaseIngestCallback implements IngestCallback {
+  private static final Logger LOG = Logger.getLogger(BaseIngestCallback.class.getName());
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.discovery.v1.ingest.IngestCallback#onSkipped(java.nio.file.Path,
+   * com.ibm.watson.discovery.v1.ingest.IngestManifest.Entry)
+   */
+  @Override
+  public void onSkipped(Path file, IngestManifest.Entry entry) {}
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.discovery.v1.ingest.IngestCallback#onAccepted(java.nio.file.Path,
+   * com.ibm.watson.discovery.v1.model.DocumentAccepted)
+   */
+  @Override
+  public void onAccepted(Path file, DocumentAccepted accepted) {}
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.discovery.v1.ingest.IngestCallback#onProcessed(java.nio.file.Path,
+   * com.ibm.watson.discovery.v1.model.DocumentStatus)
+   */
+  @Override
+  public void onProcessed(Path file, DocumentStatus status) {}
+
+  /*
+   * (non-Javadoc)
+   * @see com.ibm.watson.discovery.v1.ingest.IngestCallback#onFailure(java.nio.file.Path,
+   * java.lang.Exception)
+   */
+  @Override
+  public void onFailure(Path file, Exception e) {
+    LOG.log(Level.SEVERE, "Could not ingest " + file, e);
+  }
+}
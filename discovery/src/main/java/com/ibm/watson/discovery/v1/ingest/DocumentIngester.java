@@ -0,0 +1,615 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.ingest;
+
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.AdaptiveConcurrencyLimiter;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.ServiceCallFuture;
+import com.ibm.watson.common.SettableFuture;
+import com.ibm.watson.common.StatusPoller;
+import com.ibm.watson.discovery.v1.Discovery;
+import com.ibm.watson.discovery.v1.model.AddDocumentOptions;
+import com.ibm.watson.discovery.v1.model.DocumentAccepted;
+import com.ibm.watson.discovery.v1.model.DocumentStatus;
+import com.ibm.watson.discovery.v1.model.GetDocumentStatusOptions;
+import com.ibm.watson.discovery.v1.model.UpdateDocumentOptions;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads many files to a Discovery collection and waits until the service has processed them.
+ *
+ * <p>Files are streamed from disk with {@link Discovery#addDocument(AddDocumentOptions, Path)}, so
+ * memory use does not depend on their size. The number of concurrent uploads adapts to the
+ * service: it grows while uploads succeed and halves whenever the service answers 429 Too Many
+ * Requests, never exceeding {@code maxConcurrency}, which should match the ingestion limit of the
+ * collection's plan. Failed uploads are retried according to a {@link RetryPolicy}.
+ *
+ * <p>The processing status of the accepted documents is polled in batches from one scheduled task.
+ * When a manifest file is set, every state change is recorded in it and a later run over the same
+ * files skips those that were already accepted and have not changed since, resumes polling those
+ * still being processed, and re-uploads the others, keeping their document IDs.
+ *
+ * <pre>
+ * DocumentIngester ingester = new DocumentIngester.Builder(discovery, environmentId, collectionId)
+ *     .manifest(Paths.get("ingest.manifest"))
+ *     .build();
+ * IngestSummary summary = ingester.ingest(Paths.get("corpus"));
+ * </pre>
+ */
+public class DocumentIngester {
+  private static final Set<String> FINISHED =
+      new HashSet<String>(
+          Arrays.asList(
+              DocumentStatus.Status.AVAILABLE,
+              DocumentStatus.Status.AVAILABLE_WITH_NOTICES,
+              DocumentStatus.Status.FAILED));
+
+  private final Discovery discovery;
+  private final String environmentId;
+  private final String collectionId;
+  private final Path manifestFile;
+  private final int initialConcurrency;
+  private final int maxConcurrency;
+  private final RetryPolicy retryPolicy;
+  private final ScheduledExecutorService scheduler;
+  private final long pollIntervalMillis;
+  private final long maxPollIntervalMillis;
+  private final int statusBatchSize;
+  private final boolean waitForProcessing;
+  private final IngestCallback callback;
+
+  /** Builder. */
+  public static class Builder {
+    private Discovery discovery;
+    private String environmentId;
+    private String collectionId;
+    private Path manifestFile;
+    private int initialConcurrency = 2;
+    private int maxConcurrency = 8;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private ScheduledExecutorService scheduler;
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+    private long maxPollIntervalMillis = TimeUnit.SECONDS.toMillis(60);
+    private int statusBatchSize = 20;
+    private boolean waitForProcessing = true;
+    private IngestCallback callback = new BaseIngestCallback();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param discovery the Discovery service
+     * @param environmentId the ID of the environment
+     * @param collectionId the ID of the collection
+     */
+    public Builder(Discovery discovery, String environmentId, String collectionId) {
+      this.discovery = discovery;
+      this.environmentId = environmentId;
+      this.collectionId = collectionId;
+    }
+
+    /**
+     * Builds a DocumentIngester.
+     *
+     * @return the document ingester
+     */
+    public DocumentIngester build() {
+      return new DocumentIngester(this);
+    }
+
+    /**
+     * Set the manifest file that records the state of every file, making the ingestion resumable.
+     *
+     * @param manifestFile the manifest file
+     * @return the DocumentIngester builder
+     */
+    public Builder manifest(Path manifestFile) {
+      this.manifestFile = manifestFile;
+      return this;
+    }
+
+    /**
+     * Set the number of concurrent uploads to start with. Defaults to 2.
+     *
+     * @param initialConcurrency the initial number of concurrent uploads
+     * @return the DocumentIngester builder
+     */
+    public Builder initialConcurrency(int initialConcurrency) {
+      this.initialConcurrency = initialConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent uploads. Defaults to 8.
+     *
+     * @param maxConcurrency the maximum number of concurrent uploads
+     * @return the DocumentIngester builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Set how failed uploads and status requests are retried. Defaults to {@link
+     * RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the DocumentIngester builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Set the scheduler that polls document statuses and delays retries, so that it can be shared
+     * with other work. It is not shut down by the ingester. By default every run uses its own
+     * daemon thread.
+     *
+     * @param scheduler the scheduler
+     * @return the DocumentIngester builder
+     */
+    public Builder scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Set how long to wait before first polling the status of an accepted document. Defaults to
+     * five seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the DocumentIngester builder
+     */
+    public Builder pollInterval(long interval, TimeUnit unit) {
+      this.pollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the longest interval between two polls of a document's status. Defaults to 60 seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the DocumentIngester builder
+     */
+    public Builder maxPollInterval(long interval, TimeUnit unit) {
+      this.maxPollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the number of document statuses requested together on each poll. Defaults to 20.
+     *
+     * @param statusBatchSize the number of statuses per poll
+     * @return the DocumentIngester builder
+     */
+    public Builder statusBatchSize(int statusBatchSize) {
+      this.statusBatchSize = statusBatchSize;
+      return this;
+    }
+
+    /**
+     * Set whether a run waits until the service has processed every accepted document. When
+     * false, a run ends once every file has been accepted. Defaults to true.
+     *
+     * @param waitForProcessing whether to poll the status of accepted documents
+     * @return the DocumentIngester builder
+     */
+    public Builder waitForProcessing(boolean waitForProcessing) {
+      this.waitForProcessing = waitForProcessing;
+      return this;
+    }
+
+    /**
+     * Set the callback notified of the progress of every file. Defaults to a {@link
+     * BaseIngestCallback}, which logs failures.
+     *
+     * @param callback the callback
+     * @return the DocumentIngester builder
+     */
+    public Builder callback(IngestCallback callback) {
+      this.callback = callback;
+      return this;
+    }
+  }
+
+  protected DocumentIngester(Builder builder) {
+    Validator.notNull(builder.discovery, "discovery cannot be null");
+    Validator.notEmpty(builder.environmentId, "environmentId cannot be empty");
+    Validator.notEmpty(builder.collectionId, "collectionId cannot be empty");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be positive");
+    Validator.notNull(builder.callback, "callback cannot be null");
+    discovery = builder.discovery;
+    environmentId = builder.environmentId;
+    collectionId = builder.collectionId;
+    manifestFile = builder.manifestFile;
+    maxConcurrency = builder.maxConcurrency;
+    initialConcurrency = Math.max(1, Math.min(builder.initialConcurrency, maxConcurrency));
+    retryPolicy = builder.retryPolicy;
+    scheduler = builder.scheduler;
+    pollIntervalMillis = builder.pollIntervalMillis;
+    maxPollIntervalMillis = builder.maxPollIntervalMillis;
+    statusBatchSize = builder.statusBatchSize;
+    waitForProcessing = builder.waitForProcessing;
+    callback = builder.callback;
+  }
+
+  /**
+   * Ingests every regular file under a directory, walking it lazily. The manifest is skipped if it
+   * lies within the directory.
+   *
+   * @param directory the directory
+   * @return the summary of the run
+   * @throws IOException if the directory cannot be walked or the manifest cannot be written
+   * @throws InterruptedException if the thread is interrupted; uploads in flight are abandoned
+   */
+  public IngestSummary ingest(Path directory) throws IOException, InterruptedException {
+    final Run run = new Run();
+    try {
+      Files.walkFileTree(
+          directory,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                throws IOException {
+              if (attrs.isRegularFile() && !isManifest(file)) {
+                try {
+                  run.submit(file, attrs);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return FileVisitResult.TERMINATE;
+                }
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      return run.await();
+    } finally {
+      run.close();
+    }
+  }
+
+  /**
+   * Ingests the given files, in iteration order. Paths that are not regular files and the manifest
+   * are ignored.
+   *
+   * @param files the files
+   * @return the summary of the run
+   * @throws IOException if a file's attributes cannot be read or the manifest cannot be written
+   * @throws InterruptedException if the thread is interrupted; uploads in flight are abandoned
+   */
+  public IngestSummary ingest(Iterable<Path> files) throws IOException, InterruptedException {
+    Run run = new Run();
+    try {
+      for (Path file : files) {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attrs.isRegularFile() && !isManifest(file)) {
+          run.submit(file, attrs);
+        }
+      }
+      return run.await();
+    } finally {
+      run.close();
+    }
+  }
+
+  /** Returns whether a file is the manifest or the replacement it is compacted into. */
+  private boolean isManifest(Path file) {
+    if (manifestFile == null) {
+      return false;
+    }
+    Path path = file.toAbsolutePath().normalize();
+    Path manifest = manifestFile.toAbsolutePath().normalize();
+    return path.equals(manifest) || path.equals(IngestManifest.compactFile(manifest));
+  }
+
+  /** The state of one call to {@code ingest}. */
+  private final class Run {
+    private final IngestSummary summary = new IngestSummary();
+    private final AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(initialConcurrency, 1, maxConcurrency);
+    private final Semaphore queued = new Semaphore(maxConcurrency * 2);
+    private final ExecutorService uploads =
+        Executors.newFixedThreadPool(maxConcurrency, new DaemonThreadFactory("document-upload"));
+    private final ScheduledExecutorService timer;
+    private final StatusPoller<String, DocumentStatus> poller;
+    private final IngestManifest manifest;
+    private int pending;
+    private IOException manifestError;
+
+    private Run() throws IOException {
+      manifest = manifestFile != null ? IngestManifest.open(manifestFile) : null;
+      timer =
+          scheduler != null
+              ? scheduler
+              : Executors.newSingleThreadScheduledExecutor(
+                  new DaemonThreadFactory("document-ingester"));
+      poller =
+          waitForProcessing
+              ? new StatusPoller.Builder<String, DocumentStatus>(new DocumentStatusSource())
+                  .scheduler(timer)
+                  .initialInterval(pollIntervalMillis, TimeUnit.MILLISECONDS)
+                  .maxInterval(maxPollIntervalMillis, TimeUnit.MILLISECONDS)
+                  .batchSize(statusBatchSize)
+                  .retryPolicy(retryPolicy)
+                  .build()
+              : null;
+    }
+
+    private void submit(Path file, BasicFileAttributes attrs)
+        throws IOException, InterruptedException {
+      Path path = file.toAbsolutePath().normalize();
+      long size = attrs.size();
+      long modified = attrs.lastModifiedTime().toMillis();
+      IngestManifest.Entry previous = manifest != null ? manifest.get(path.toString()) : null;
+      if (previous != null
+          && previous.getDocumentId() != null
+          && previous.getError() == null
+          && !DocumentStatus.Status.FAILED.equals(previous.getStatus())
+          && previous.isUnchanged(size, modified)) {
+        summary.skipped().incrementAndGet();
+        callback.onSkipped(path, previous);
+        if (poller != null && !FINISHED.contains(previous.getStatus())) {
+          Upload upload = new Upload(path, size, modified, previous.getDocumentId());
+          upload.status = previous.getStatus();
+          started();
+          watch(upload);
+        }
+        return;
+      }
+      queued.acquire();
+      started();
+      uploads.execute(
+          new Upload(path, size, modified, previous != null ? previous.getDocumentId() : null));
+    }
+
+    private synchronized void started() {
+      pending++;
+    }
+
+    private synchronized void finished() {
+      pending--;
+      notifyAll();
+    }
+
+    private IngestSummary await() throws IOException, InterruptedException {
+      synchronized (this) {
+        while (pending > 0) {
+          wait();
+        }
+        if (manifestError != null) {
+          throw manifestError;
+        }
+      }
+      return summary;
+    }
+
+    private void record(Upload upload, String status, String error) {
+      if (manifest == null) {
+        return;
+      }
+      try {
+        manifest.record(
+            new IngestManifest.Entry(
+                upload.path.toString(),
+                upload.size,
+                upload.modified,
+                upload.documentId,
+                status,
+                error));
+      } catch (IOException e) {
+        synchronized (this) {
+          if (manifestError == null) {
+            manifestError = e;
+          }
+        }
+      }
+    }
+
+    private void watch(final Upload upload) {
+      final SettableFuture<DocumentStatus> future = poller.watch(upload.documentId);
+      future.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                DocumentStatus status = future.get();
+                record(upload, status.getStatus(), null);
+                if (DocumentStatus.Status.FAILED.equals(status.getStatus())) {
+                  summary.processingFailed().incrementAndGet();
+                } else {
+                  summary.processed().incrementAndGet();
+                }
+                callback.onProcessed(upload.path, status);
+              } catch (ExecutionException e) {
+                Exception cause =
+                    e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                record(upload, upload.status, String.valueOf(cause.getMessage()));
+                summary.failed().incrementAndGet();
+                callback.onFailure(upload.path, cause);
+              } catch (CancellationException | InterruptedException e) {
+                // The run was closed before the document finished processing.
+              } finally {
+                finished();
+              }
+            }
+          });
+    }
+
+    private void close() throws IOException {
+      if (poller != null) {
+        poller.close();
+      }
+      uploads.shutdownNow();
+      if (timer != scheduler) {
+        timer.shutdownNow();
+      }
+      if (manifest != null) {
+        manifest.close();
+      }
+    }
+
+    /** The upload of one file, retried until it is accepted or the retry policy gives up. */
+    private final class Upload implements Runnable {
+      private final Path path;
+      private final long size;
+      private final long modified;
+      private String documentId;
+      private String status;
+      private int attempts;
+
+      private Upload(Path path, long size, long modified, String documentId) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.documentId = documentId;
+      }
+
+      @Override
+      public void run() {
+        try {
+          limiter.acquire();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        DocumentAccepted accepted;
+        try {
+          accepted = send().execute().getResult();
+          limiter.onSuccess();
+        } catch (IOException e) {
+          limiter.onFailure();
+          fail(e);
+          return;
+        } catch (RuntimeException e) {
+          limiter.onComplete(e);
+          attempts++;
+          if (retryPolicy.shouldRetry(e, attempts)) {
+            retryLater(retryPolicy.delayMillis(e, attempts));
+          } else {
+            fail(e);
+          }
+          return;
+        }
+        documentId = accepted.getDocumentId();
+        status = accepted.getStatus();
+        record(this, status, null);
+        summary.accepted().incrementAndGet();
+        queued.release();
+        callback.onAccepted(path, accepted);
+        if (poller != null) {
+          watch(this);
+        } else {
+          finished();
+        }
+      }
+
+      private ServiceCall<DocumentAccepted> send() throws IOException {
+        if (documentId == null) {
+          return discovery.addDocument(
+              new AddDocumentOptions.Builder(environmentId, collectionId).build(), path);
+        }
+        return discovery.updateDocument(
+            new UpdateDocumentOptions.Builder(environmentId, collectionId, documentId).build(),
+            path);
+      }
+
+      private void retryLater(long delayMillis) {
+        final Upload upload = this;
+        timer.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                uploads.execute(upload);
+              }
+            },
+            delayMillis,
+            TimeUnit.MILLISECONDS);
+      }
+
+      private void fail(Exception e) {
+        record(this, status, String.valueOf(e.getMessage()));
+        summary.failed().incrementAndGet();
+        queued.release();
+        callback.onFailure(path, e);
+        finished();
+      }
+    }
+  }
+
+  /** Fetches the statuses of a batch of documents with concurrent requests. */
+  private final class DocumentStatusSource
+      extends StatusPoller.StatusSource<String, DocumentStatus> {
+    @Override
+    public Map<String, DocumentStatus> fetch(List<String> ids) {
+      Map<String, ServiceCallFuture<DocumentStatus>> calls =
+          new LinkedHashMap<String, ServiceCallFuture<DocumentStatus>>();
+      for (String id : ids) {
+        calls.put(
+            id,
+            ServiceCallFuture.enqueue(
+                discovery.getDocumentStatus(
+                    new GetDocumentStatusOptions.Builder(environmentId, collectionId, id)
+                        .build())));
+      }
+      Map<String, DocumentStatus> statuses = new LinkedHashMap<String, DocumentStatus>();
+      RuntimeException transientError = null;
+      for (Map.Entry<String, ServiceCallFuture<DocumentStatus>> call : calls.entrySet()) {
+        try {
+          statuses.put(call.getKey(), call.getValue().join());
+        } catch (RuntimeException e) {
+          if (RetryPolicy.isRetryable(e)) {
+            transientError = e;
+          } else {
+            fail(call.getKey(), e);
+          }
+        }
+      }
+      if (statuses.isEmpty() && transientError != null) {
+        throw transientError;
+      }
+      return statuses;
+    }
+
+    @Override
+    public boolean isFinished(DocumentStatus status) {
+      return FINISHED.contains(status.getStatus());
+    }
+  }
+}
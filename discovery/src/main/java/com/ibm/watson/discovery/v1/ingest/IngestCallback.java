@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.ingest;
+
+import com.ibm.watson.discovery.v1.model.DocumentAccepted;
+import com.ibm.watson.discovery.v1.model.DocumentStatus;
+import java.nio.file.Path;
+
+/**
+ * Receives the progress of a {@link DocumentIngester} run. Methods are called from the upload and
+ * polling threads, so implementations must be thread-safe.
+ */
+public interface IngestCallback {
+
+  /**
+   * Called when a file is skipped because a previous run already ingested it unchanged.
+   *
+   * @param file the file
+   * @param entry the manifest entry of the previous run
+   */
+  void onSkipped(Path file, IngestManifest.Entry entry);
+
+  /**
+   * Called when the service accepts a file for processing.
+   *
+   * @param file the file
+   * @param accepted the response of the service
+   */
+  void onAccepted(Path file, DocumentAccepted accepted);
+
+  /**
+   * Called when the service finishes processing a document, successfully or not.
+   *
+   * @param file the file
+   * @param status the final status of the document
+   */
+  void onProcessed(Path file, DocumentStatus status);
+
+  /**
+   * Called when a file could not be uploaded after all retries, or its status could not be
+   * retrieved.
+   *
+   * @param file the file
+   * @param e the error
+   */
+  void onFailure(Path file, Exception e);
+}
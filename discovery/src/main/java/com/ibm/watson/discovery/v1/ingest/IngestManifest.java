@@ -0,0 +1,275 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.ingest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The record of a {@link DocumentIngester} run, kept as a file of JSON lines so that an interrupted
+ * or partly failed ingestion can be resumed.
+ *
+ * <p>Every change of a file's state appends a line; when the manifest is opened, the last line of
+ * each file wins. A line cut short by a crash is ignored. Opening a manifest that holds superseded
+ * or broken lines first rewrites it with one line per file, through a replacement file so that a
+ * crash leaves either the old manifest or the compacted one.
+ */
+public final class IngestManifest implements Closeable {
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+
+  /** The state of one ingested file. */
+  public static final class Entry {
+    private String path;
+    private long size;
+    private long modified;
+    @SerializedName("document_id")
+    private String documentId;
+    private String status;
+    private String error;
+
+    Entry(String path, long size, long modified, String documentId, String status, String error) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.documentId = documentId;
+      this.status = status;
+      this.error = error;
+    }
+
+    /**
+     * Gets the absolute path of the file.
+     *
+     * @return the path
+     */
+    public String getPath() {
+      return path;
+    }
+
+    /**
+     * Gets the size of the file when it was uploaded.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Gets the last modification time of the file when it was uploaded.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getModified() {
+      return modified;
+    }
+
+    /**
+     * Gets the ID the service assigned to the document.
+     *
+     * @return the document ID, or null if the document was never accepted
+     */
+    public String getDocumentId() {
+      return documentId;
+    }
+
+    /**
+     * Gets the last known status of the document, one of the {@code DocumentStatus.Status} or
+     * {@code DocumentAccepted.Status} values.
+     *
+     * @return the status, or null if the document was never accepted
+     */
+    public String getStatus() {
+      return status;
+    }
+
+    /**
+     * Gets the error that stopped the last attempt to ingest the file.
+     *
+     * @return the error message, or null if the last attempt did not fail
+     */
+    public String getError() {
+      return error;
+    }
+
+    boolean isUnchanged(long size, long modified) {
+      return this.size == size && this.modified == modified;
+    }
+  }
+
+  private final Map<String, Entry> entries;
+  private final BufferedWriter writer;
+
+  private IngestManifest(Map<String, Entry> entries, BufferedWriter writer) {
+    this.entries = entries;
+    this.writer = writer;
+  }
+
+  /**
+   * Opens a manifest, reading the entries of previous runs and creating the file if it does not
+   * exist.
+   *
+   * @param file the manifest file
+   * @return the manifest
+   * @throws IOException if the file cannot be read or opened for writing
+   */
+  public static IngestManifest open(Path file) throws IOException {
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    int lines = 0;
+    if (Files.exists(file)) {
+      try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines++;
+          Entry entry = parse(line);
+          if (entry != null) {
+            entries.put(entry.getPath(), entry);
+          }
+        }
+      }
+    }
+    boolean compacted = lines > entries.size();
+    if (compacted) {
+      compact(file, entries.values());
+    }
+    BufferedWriter writer =
+        Files.newBufferedWriter(
+            file,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    if (!compacted && !endsWithNewline(file)) {
+      // Terminate a line that may have been cut short, so the next entry starts on its own line.
+      writer.newLine();
+    }
+    return new IngestManifest(entries, writer);
+  }
+
+  /**
+   * Returns the current entry of a file.
+   *
+   * @param path the absolute path of the file
+   * @return the entry, or null if the file has never been ingested
+   */
+  public synchronized Entry get(String path) {
+    return entries.get(path);
+  }
+
+  /**
+   * Returns the current entries of all files, in the order they were first ingested.
+   *
+   * @return the entries by absolute path
+   */
+  public synchronized Map<String, Entry> getEntries() {
+    return Collections.unmodifiableMap(new LinkedHashMap<String, Entry>(entries));
+  }
+
+  /**
+   * Records a new state of a file and flushes it to disk.
+   *
+   * @param entry the entry
+   * @throws IOException if the entry cannot be written
+   */
+  synchronized void record(Entry entry) throws IOException {
+    entries.put(entry.getPath(), entry);
+    writer.write(GSON.toJson(entry));
+    writer.newLine();
+    writer.flush();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    writer.close();
+  }
+
+  private static boolean endsWithNewline(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() == 0) {
+        return true;
+      }
+      ByteBuffer last = ByteBuffer.allocate(1);
+      channel.read(last, channel.size() - 1);
+      return last.get(0) == '\n';
+    }
+  }
+
+  /** Returns the replacement file that a manifest is compacted into. */
+  static Path compactFile(Path file) {
+    return file.resolveSibling(file.getFileName() + ".compact");
+  }
+
+  /** Replaces the file with one that holds only the given entries. */
+  private static void compact(Path file, Collection<Entry> entries) throws IOException {
+    Path compacted = compactFile(file);
+    try {
+      try (FileChannel channel =
+          FileChannel.open(
+              compacted,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        BufferedWriter writer =
+            new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.name()));
+        for (Entry entry : entries) {
+          writer.write(GSON.toJson(entry));
+          writer.newLine();
+        }
+        writer.flush();
+        channel.force(true);
+      }
+      try {
+        Files.move(
+            compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(compacted);
+    }
+  }
+
+  private static Entry parse(String line) {
+    if (line.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      Entry entry = GSON.fromJson(line, Entry.class);
+      return entry != null && entry.getPath() != null ? entry : null;
+    } catch (JsonParseException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.ingest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The counts of a finished {@link DocumentIngester} run. */
+public final class IngestSummary {
+  private final AtomicInteger accepted = new AtomicInteger();
+  private final AtomicInteger skipped = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final AtomicInteger processed = new AtomicInteger();
+  private final AtomicInteger processingFailed = new AtomicInteger();
+
+  IngestSummary() {}
+
+  /**
+   * Gets the number of files accepted by the service during the run.
+   *
+   * @return the number of accepted files
+   */
+  public int getAccepted() {
+    return accepted.get();
+  }
+
+  /**
+   * Gets the number of files skipped because a previous run already ingested them unchanged.
+   *
+   * @return the number of skipped files
+   */
+  public int getSkipped() {
+    return skipped.get();
+  }
+
+  /**
+   * Gets the number of files that could not be uploaded or whose status could not be retrieved.
+   *
+   * @return the number of failed files
+   */
+  public int getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Gets the number of documents the service made available, with or without notices.
+   *
+   * @return the number of processed documents
+   */
+  public int getProcessed() {
+    return processed.get();
+  }
+
+  /**
+   * Gets the number of documents the service accepted but failed to process.
+   *
+   * @return the number of documents with the status {@code failed}
+   */
+  public int getProcessingFailed() {
+    return processingFailed.get();
+  }
+
+  AtomicInteger accepted() {
+    return accepted;
+  }
+
+  AtomicInteger skipped() {
+    return skipped;
+  }
+
+  AtomicInteger failed() {
+    return failed;
+  }
+
+  AtomicInteger processed() {
+    return processed;
+  }
+
+  AtomicInteger processingFailed() {
+    return processingFailed;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "IngestSummary{accepted="
+        + accepted
+        + ", skipped="
+        + skipped
+        + ", failed="
+        + failed
+        + ", processed="
+        + processed
+        + ", processingFailed="
+        + processingFailed
+        + "}";
+  }
+}
@@ -12,8 +12,10 @@
  */
 package com.ibm.watson.discovery.v1.model;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.ibm.cloud.sdk.core.service.model.GenericModel;
+import com.ibm.watson.discovery.query.LazyAggregationsTypeAdapterFactory;
 import java.util.List;
 
 /** Object containing notice query results. */
@@ -23,6 +25,7 @@ public class QueryNoticesResponse extends GenericModel {
   protected Long matchingResults;
 
   protected List<QueryNoticesResult> results;
+  @JsonAdapter(LazyAggregationsTypeAdapterFactory.class)
   protected List<QueryAggregation> aggregations;
   protected List<QueryPassages> passages;
 
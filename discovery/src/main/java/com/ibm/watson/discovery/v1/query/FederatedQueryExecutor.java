@@ -0,0 +1,469 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.query;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.discovery.v1.Discovery;
+import com.ibm.watson.discovery.v1.model.QueryOptions;
+import com.ibm.watson.discovery.v1.model.QueryResponse;
+import com.ibm.watson.discovery.v1.model.QueryResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a query against several collections at once, across environments and service instances,
+ * and merges the results by score on the client.
+ *
+ * <p>{@link Discovery#federatedQuery} can only search the collections of one environment. This
+ * executor sends one {@link Discovery#query} per {@link QueryTarget} concurrently and waits for
+ * each at most its timeout; targets that do not answer in time or fail are reported in the {@link
+ * FederatedQueryResponse} and the results of the others are returned. To cut slow tails, a target
+ * that has not answered after its hedge delay is sent a second, identical request and the first
+ * response wins. The hedge delay is either fixed or, by default, the 95th percentile of the
+ * target's recent latencies.
+ *
+ * <p>Each target is asked for {@code offset + count} results. As every target returns its results
+ * by descending score, a k-way merge over their heads yields the global top results without
+ * sorting all of them. Queries that sort by a field are still merged by score.
+ */
+public class FederatedQueryExecutor {
+  private static final long DEFAULT_COUNT = 10;
+  private static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+  private static final int LATENCY_SAMPLES = 100;
+  private static final int MIN_LATENCY_SAMPLES = 20;
+
+  private static final Comparator<Cursor> BY_SCORE =
+      new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor a, Cursor b) {
+          int byScore = Double.compare(b.score(), a.score());
+          return byScore != 0 ? byScore : (a.index < b.index ? -1 : (a.index == b.index ? 0 : 1));
+        }
+      };
+
+  private final List<QueryTarget> targets;
+  private final Map<QueryTarget, Long> timeoutNanos;
+  private final long defaultTimeoutNanos;
+  private final boolean hedging;
+  private final long hedgeDelayNanos;
+  private final double hedgePercentile;
+  private final ConcurrentMap<QueryTarget, LatencyWindow> latencies =
+      new ConcurrentHashMap<QueryTarget, LatencyWindow>();
+
+  /** Builder. */
+  public static class Builder {
+    private List<QueryTarget> targets = new ArrayList<QueryTarget>();
+    private Map<QueryTarget, Long> timeoutNanos = new LinkedHashMap<QueryTarget, Long>();
+    private long defaultTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+    private boolean hedging = true;
+    private long hedgeDelayNanos;
+    private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    /**
+     * Builds a FederatedQueryExecutor.
+     *
+     * @return the federated query executor
+     */
+    public FederatedQueryExecutor build() {
+      return new FederatedQueryExecutor(this);
+    }
+
+    /**
+     * Adds a target that is given the default timeout.
+     *
+     * @param target the target
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder target(QueryTarget target) {
+      Validator.notNull(target, "target cannot be null");
+      this.targets.add(target);
+      return this;
+    }
+
+    /**
+     * Adds a target with its own timeout.
+     *
+     * @param target the target
+     * @param timeout how long to wait for the target
+     * @param unit the unit of timeout
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder target(QueryTarget target, long timeout, TimeUnit unit) {
+      target(target);
+      this.timeoutNanos.put(target, unit.toNanos(timeout));
+      return this;
+    }
+
+    /**
+     * Adds a target that is given the default timeout.
+     *
+     * @param discovery the Discovery service instance
+     * @param environmentId the ID of the environment
+     * @param collectionId the ID of the collection
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder target(Discovery discovery, String environmentId, String collectionId) {
+      return target(new QueryTarget(discovery, environmentId, collectionId));
+    }
+
+    /**
+     * Set how long to wait for targets that have no timeout of their own. Defaults to ten seconds.
+     *
+     * @param timeout the timeout
+     * @param unit the unit of timeout
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder timeout(long timeout, TimeUnit unit) {
+      this.defaultTimeoutNanos = unit.toNanos(timeout);
+      return this;
+    }
+
+    /**
+     * Set whether slow targets are sent a second request. Defaults to true.
+     *
+     * @param hedging whether to hedge requests
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder hedging(boolean hedging) {
+      this.hedging = hedging;
+      return this;
+    }
+
+    /**
+     * Set a fixed delay after which a target that has not answered is sent a second request. By
+     * default the delay is derived from the target's recent latencies.
+     *
+     * @param delay the hedge delay
+     * @param unit the unit of delay
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder hedgeDelay(long delay, TimeUnit unit) {
+      this.hedgeDelayNanos = unit.toNanos(delay);
+      return this;
+    }
+
+    /**
+     * Set the percentile of a target's recent latencies used as its hedge delay when no fixed
+     * delay is set. Defaults to 0.95. Targets with too few completed queries are not hedged.
+     *
+     * @param hedgePercentile the percentile, between 0 and 1
+     * @return the FederatedQueryExecutor builder
+     */
+    public Builder hedgePercentile(double hedgePercentile) {
+      this.hedgePercentile = hedgePercentile;
+      return this;
+    }
+  }
+
+  protected FederatedQueryExecutor(Builder builder) {
+    Validator.isTrue(!builder.targets.isEmpty(), "at least one target must be added");
+    Validator.isTrue(
+        builder.hedgePercentile > 0 && builder.hedgePercentile <= 1,
+        "hedgePercentile must be between 0 and 1");
+    targets = Collections.unmodifiableList(new ArrayList<QueryTarget>(builder.targets));
+    timeoutNanos = new LinkedHashMap<QueryTarget, Long>(builder.timeoutNanos);
+    defaultTimeoutNanos = builder.defaultTimeoutNanos;
+    hedging = builder.hedging;
+    hedgeDelayNanos = builder.hedgeDelayNanos;
+    hedgePercentile = builder.hedgePercentile;
+  }
+
+  /**
+   * Gets the targets, in the order they were added.
+   *
+   * @return the targets
+   */
+  public List<QueryTarget> getTargets() {
+    return targets;
+  }
+
+  /**
+   * Queries every target and merges their results. The environment and collection of the options
+   * are replaced by those of each target.
+   *
+   * @param queryOptions the {@link QueryOptions} sent to every target
+   * @return the merged results, partial if some targets timed out or failed
+   * @throws CancellationException if the thread is interrupted while waiting; requests in flight
+   *     are cancelled
+   */
+  public FederatedQueryResponse query(QueryOptions queryOptions) {
+    Validator.notNull(queryOptions, "queryOptions cannot be null");
+    long offset = queryOptions.offset() != null ? queryOptions.offset() : 0;
+    long count = queryOptions.count() != null ? queryOptions.count() : DEFAULT_COUNT;
+    long window = Math.min(offset + count, QueryResultPager.MAX_RESULT_WINDOW);
+
+    Object lock = new Object();
+    long start = System.nanoTime();
+    List<Leg> legs = new ArrayList<Leg>(targets.size());
+    synchronized (lock) {
+      for (QueryTarget target : targets) {
+        QueryOptions options =
+            queryOptions
+                .newBuilder()
+                .environmentId(target.getEnvironmentId())
+                .collectionId(target.getCollectionId())
+                .offset(0)
+                .count(window)
+                .build();
+        Leg leg =
+            new Leg(lock, target, options, start + timeoutFor(target), hedgeAt(target, start));
+        legs.add(leg);
+        leg.send();
+      }
+      try {
+        await(lock, legs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Leg leg : legs) {
+          leg.cancel();
+        }
+        throw new CancellationException("Interrupted while waiting for the federated query");
+      }
+    }
+    return merge(legs, offset, count);
+  }
+
+  /** Waits until every leg has completed or timed out, sending hedged requests when due. */
+  private void await(Object lock, List<Leg> legs) throws InterruptedException {
+    while (true) {
+      long now = System.nanoTime();
+      long wakeAt = Long.MAX_VALUE;
+      boolean pending = false;
+      for (Leg leg : legs) {
+        if (leg.done) {
+          continue;
+        }
+        if (now - leg.deadline >= 0) {
+          leg.timedOut = true;
+          leg.done = true;
+          leg.cancel();
+          continue;
+        }
+        if (!leg.hedged && now - leg.hedgeAt >= 0) {
+          leg.hedged = true;
+          leg.send();
+        }
+        pending = true;
+        wakeAt = Math.min(wakeAt, leg.deadline - now);
+        if (!leg.hedged) {
+          wakeAt = Math.min(wakeAt, leg.hedgeAt - now);
+        }
+      }
+      if (!pending) {
+        return;
+      }
+      TimeUnit.NANOSECONDS.timedWait(lock, Math.max(wakeAt, 1));
+    }
+  }
+
+  private FederatedQueryResponse merge(List<Leg> legs, long offset, long count) {
+    Map<QueryTarget, QueryResponse> responses = new LinkedHashMap<QueryTarget, QueryResponse>();
+    List<QueryTarget> timedOut = new ArrayList<QueryTarget>();
+    Map<QueryTarget, Exception> failures = new LinkedHashMap<QueryTarget, Exception>();
+    PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(Math.max(1, legs.size()), BY_SCORE);
+    long matchingResults = 0;
+    for (int i = 0; i < legs.size(); i++) {
+      Leg leg = legs.get(i);
+      synchronized (leg.lock) {
+        if (leg.response != null) {
+          responses.put(leg.target, leg.response);
+          if (leg.response.getMatchingResults() != null) {
+            matchingResults += leg.response.getMatchingResults();
+          }
+          List<QueryResult> results = leg.response.getResults();
+          if (results != null && !results.isEmpty()) {
+            heads.add(new Cursor(i, leg.target, results));
+          }
+        } else if (leg.error != null) {
+          failures.put(leg.target, leg.error);
+        } else {
+          timedOut.add(leg.target);
+        }
+      }
+    }
+    List<FederatedQueryResponse.Result> merged = new ArrayList<FederatedQueryResponse.Result>();
+    long skip = offset;
+    while (!heads.isEmpty() && merged.size() < count) {
+      Cursor head = heads.poll();
+      QueryResult result = head.results.get(head.position++);
+      if (skip > 0) {
+        skip--;
+      } else {
+        merged.add(new FederatedQueryResponse.Result(head.target, result));
+      }
+      if (head.position < head.results.size()) {
+        heads.add(head);
+      }
+    }
+    return new FederatedQueryResponse(merged, matchingResults, responses, timedOut, failures);
+  }
+
+  private long timeoutFor(QueryTarget target) {
+    Long timeout = timeoutNanos.get(target);
+    return timeout != null ? timeout : defaultTimeoutNanos;
+  }
+
+  private long hedgeAt(QueryTarget target, long start) {
+    if (!hedging) {
+      return Long.MAX_VALUE;
+    }
+    if (hedgeDelayNanos > 0) {
+      return start + hedgeDelayNanos;
+    }
+    LatencyWindow window = latencies.get(target);
+    long delay = window != null ? window.percentile(hedgePercentile) : -1;
+    return delay >= 0 ? start + delay : Long.MAX_VALUE;
+  }
+
+  private void recordLatency(QueryTarget target, long nanos) {
+    LatencyWindow window = latencies.get(target);
+    if (window == null) {
+      LatencyWindow created = new LatencyWindow();
+      window = latencies.putIfAbsent(target, created);
+      if (window == null) {
+        window = created;
+      }
+    }
+    window.add(nanos);
+  }
+
+  /** The position of the merge in the results of one target. */
+  private static final class Cursor {
+    private final int index;
+    private final QueryTarget target;
+    private final List<QueryResult> results;
+    private int position;
+
+    private Cursor(int index, QueryTarget target, List<QueryResult> results) {
+      this.index = index;
+      this.target = target;
+      this.results = results;
+    }
+
+    private double score() {
+      QueryResult result = results.get(position);
+      if (result.getResultMetadata() == null || result.getResultMetadata().getScore() == null) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      return result.getResultMetadata().getScore();
+    }
+  }
+
+  /** The request, or requests when hedged, sent to one target. All fields are guarded by lock. */
+  private final class Leg {
+    private final Object lock;
+    private final QueryTarget target;
+    private final QueryOptions options;
+    private final long deadline;
+    private final long hedgeAt;
+    private final List<ServiceCall<QueryResponse>> calls =
+        new ArrayList<ServiceCall<QueryResponse>>();
+    private int outstanding;
+    private boolean hedged;
+    private boolean done;
+    private boolean timedOut;
+    private QueryResponse response;
+    private Exception error;
+
+    private Leg(
+        Object lock, QueryTarget target, QueryOptions options, long deadline, long hedgeAt) {
+      this.lock = lock;
+      this.target = target;
+      this.options = options;
+      this.deadline = deadline;
+      this.hedgeAt = hedgeAt;
+    }
+
+    private void send() {
+      final long sentAt = System.nanoTime();
+      ServiceCall<QueryResponse> call = target.getDiscovery().query(options);
+      calls.add(call);
+      outstanding++;
+      call.enqueue(
+          new ServiceCallback<QueryResponse>() {
+            @Override
+            public void onResponse(Response<QueryResponse> result) {
+              synchronized (lock) {
+                outstanding--;
+                if (done) {
+                  return;
+                }
+                done = true;
+                response = result.getResult();
+                recordLatency(target, System.nanoTime() - sentAt);
+                cancel();
+                lock.notifyAll();
+              }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+              synchronized (lock) {
+                outstanding--;
+                if (done || outstanding > 0) {
+                  return;
+                }
+                done = true;
+                error = e;
+                lock.notifyAll();
+              }
+            }
+          });
+    }
+
+    /** Cancels every request of the leg; cancelling a completed request has no effect. */
+    private void cancel() {
+      for (ServiceCall<QueryResponse> call : calls) {
+        call.cancel();
+      }
+    }
+  }
+
+  /** The most recent latencies of a target. */
+  private static final class LatencyWindow {
+    private final long[] samples = new long[LATENCY_SAMPLES];
+    private int size;
+    private int next;
+
+    private synchronized void add(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      size = Math.min(size + 1, samples.length);
+    }
+
+    /** Returns the given percentile, or -1 if too few latencies were recorded. */
+    private synchronized long percentile(double percentile) {
+      if (size < MIN_LATENCY_SAMPLES) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(samples, size);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile * size) - 1;
+      return sorted[Math.max(0, Math.min(index, size - 1))];
+    }
+  }
+}
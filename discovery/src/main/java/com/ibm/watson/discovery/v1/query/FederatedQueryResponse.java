@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.query;
+
+import com.ibm.watson.discovery.v1.model.QueryResponse;
+import com.ibm.watson.discovery.v1.model.QueryResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The merged results of a {@link FederatedQueryExecutor} query, together with the responses of the
+ * individual targets and the targets that did not answer in time.
+ */
+public final class FederatedQueryResponse {
+
+  /** A result of the merged ranking and the target it came from. */
+  public static final class Result {
+    private final QueryTarget target;
+    private final QueryResult result;
+
+    Result(QueryTarget target, QueryResult result) {
+      this.target = target;
+      this.result = result;
+    }
+
+    /**
+     * Gets the target that returned the result.
+     *
+     * @return the target
+     */
+    public QueryTarget getTarget() {
+      return target;
+    }
+
+    /**
+     * Gets the result.
+     *
+     * @return the result
+     */
+    public QueryResult getResult() {
+      return result;
+    }
+  }
+
+  private final List<Result> results;
+  private final long matchingResults;
+  private final Map<QueryTarget, QueryResponse> responses;
+  private final List<QueryTarget> timedOut;
+  private final Map<QueryTarget, Exception> failures;
+
+  FederatedQueryResponse(
+      List<Result> results,
+      long matchingResults,
+      Map<QueryTarget, QueryResponse> responses,
+      List<QueryTarget> timedOut,
+      Map<QueryTarget, Exception> failures) {
+    this.results = Collections.unmodifiableList(results);
+    this.matchingResults = matchingResults;
+    this.responses = Collections.unmodifiableMap(responses);
+    this.timedOut = Collections.unmodifiableList(timedOut);
+    this.failures = Collections.unmodifiableMap(failures);
+  }
+
+  /**
+   * Gets the results of all answering targets, merged by descending score.
+   *
+   * @return the merged results
+   */
+  public List<Result> getResults() {
+    return results;
+  }
+
+  /**
+   * Gets the sum of the matching results reported by the answering targets.
+   *
+   * @return the number of matching results
+   */
+  public long getMatchingResults() {
+    return matchingResults;
+  }
+
+  /**
+   * Gets the responses of the targets that answered, for example to read their aggregations.
+   *
+   * @return the responses by target, in the order the targets were added
+   */
+  public Map<QueryTarget, QueryResponse> getResponses() {
+    return responses;
+  }
+
+  /**
+   * Gets the targets that did not answer within their timeout.
+   *
+   * @return the targets that timed out
+   */
+  public List<QueryTarget> getTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * Gets the errors of the targets whose requests failed.
+   *
+   * @return the errors by target
+   */
+  public Map<QueryTarget, Exception> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Returns whether some targets are missing from the results because they timed out or failed.
+   *
+   * @return true if the results are partial
+   */
+  public boolean isPartial() {
+    return !timedOut.isEmpty() || !failures.isEmpty();
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.query;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.ServiceCallFuture;
+import com.ibm.watson.discovery.v1.Discovery;
+import com.ibm.watson.discovery.v1.model.QueryOptions;
+import com.ibm.watson.discovery.v1.model.QueryResponse;
+import com.ibm.watson.discovery.v1.model.QueryResult;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over every result of a {@link Discovery} query, not just the first page.
+ *
+ * <p>The first page is requested synchronously to learn the number of matching results. The
+ * remaining offset windows are then requested concurrently, with at most {@code
+ * maxParallelRequests} pages in flight ahead of the consumer. Results are always returned in the
+ * order the service ranked them. Closing the pager cancels any request still in flight, so callers
+ * that stop early should close it (for example with try/finally).
+ *
+ * <pre>
+ * QueryResultPager pager = QueryResultPager.queryAll(discovery, queryOptions);
+ * try {
+ *   while (pager.hasNext()) {
+ *     QueryResult result = pager.next();
+ *   }
+ * } finally {
+ *   pager.close();
+ * }
+ * </pre>
+ */
+public class QueryResultPager implements Iterator<QueryResult>, Closeable {
+
+  /** The maximum value of offset plus count accepted by the query API. (value is 10000) */
+  public static final long MAX_RESULT_WINDOW = 10000;
+
+  private static final long DEFAULT_PAGE_SIZE = 100;
+  private static final int DEFAULT_MAX_PARALLEL_REQUESTS = 4;
+  private static final String ID_SORT_FIELD = "id";
+
+  private final Discovery discovery;
+  private final QueryOptions queryOptions;
+  private final long pageSize;
+  private final int maxParallelRequests;
+  private final long maxResults;
+  private final Deque<ServiceCallFuture<QueryResponse>> inFlight =
+      new ArrayDeque<ServiceCallFuture<QueryResponse>>();
+
+  private boolean started;
+  private boolean closed;
+  private long matchingResults;
+  private long nextOffset;
+  private long endOffset;
+  private Iterator<QueryResult> page = Collections.<QueryResult>emptyList().iterator();
+
+  /** Builder. */
+  public static class Builder {
+    private Discovery discovery;
+    private QueryOptions queryOptions;
+    private long pageSize;
+    private int maxParallelRequests = DEFAULT_MAX_PARALLEL_REQUESTS;
+    private long maxResults = MAX_RESULT_WINDOW;
+    private boolean stableSort = true;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param discovery the Discovery service used to issue the queries
+     * @param queryOptions the query to page through. Its offset, if set, is where paging starts and
+     *     its count, if set, is used as the page size
+     */
+    public Builder(Discovery discovery, QueryOptions queryOptions) {
+      this.discovery = discovery;
+      this.queryOptions = queryOptions;
+      this.pageSize = queryOptions != null && queryOptions.count() != null
+          ? queryOptions.count()
+          : DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Builds a QueryResultPager.
+     *
+     * @return the pager
+     */
+    public QueryResultPager build() {
+      return new QueryResultPager(this);
+    }
+
+    /**
+     * Set the number of results requested per page.
+     *
+     * @param pageSize the page size
+     * @return the QueryResultPager builder
+     */
+    public Builder pageSize(long pageSize) {
+      this.pageSize = pageSize;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of pages requested concurrently.
+     *
+     * @param maxParallelRequests the maximum number of concurrent page requests
+     * @return the QueryResultPager builder
+     */
+    public Builder maxParallelRequests(int maxParallelRequests) {
+      this.maxParallelRequests = maxParallelRequests;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of results to return. Defaults to {@link #MAX_RESULT_WINDOW}.
+     *
+     * @param maxResults the maximum number of results
+     * @return the QueryResultPager builder
+     */
+    public Builder maxResults(long maxResults) {
+      this.maxResults = maxResults;
+      return this;
+    }
+
+    /**
+     * Set whether {@code id} is appended to an explicit {@code sort} as a tie-breaker. Without a
+     * tie-breaker, documents with equal sort values may move between pages that are requested
+     * independently, which can duplicate or drop results. Defaults to true.
+     *
+     * @param stableSort whether to add the tie-breaker
+     * @return the QueryResultPager builder
+     */
+    public Builder stableSort(boolean stableSort) {
+      this.stableSort = stableSort;
+      return this;
+    }
+  }
+
+  protected QueryResultPager(Builder builder) {
+    Validator.notNull(builder.discovery, "discovery cannot be null");
+    Validator.notNull(builder.queryOptions, "queryOptions cannot be null");
+    Validator.isTrue(builder.pageSize > 0, "pageSize must be greater than 0");
+    Validator.isTrue(builder.maxParallelRequests > 0, "maxParallelRequests must be greater than 0");
+    Validator.isTrue(builder.maxResults >= 0, "maxResults cannot be negative");
+    discovery = builder.discovery;
+    pageSize = builder.pageSize;
+    maxParallelRequests = builder.maxParallelRequests;
+    maxResults = builder.maxResults;
+
+    QueryOptions.Builder options = builder.queryOptions.newBuilder();
+    if (builder.stableSort && builder.queryOptions.sort() != null) {
+      options.sort(withTieBreaker(builder.queryOptions.sort()));
+    }
+    queryOptions = options.build();
+    nextOffset = queryOptions.offset() != null ? queryOptions.offset() : 0;
+  }
+
+  /**
+   * Returns a pager over every result of the query, using the default paging settings.
+   *
+   * @param discovery the Discovery service used to issue the queries
+   * @param queryOptions the query to page through
+   * @return the pager
+   */
+  public static QueryResultPager queryAll(Discovery discovery, QueryOptions queryOptions) {
+    return new Builder(discovery, queryOptions).build();
+  }
+
+  private static String withTieBreaker(String sort) {
+    for (String field : sort.split(",")) {
+      String name = field.trim();
+      if (name.startsWith("-") || name.startsWith("+")) {
+        name = name.substring(1);
+      }
+      if (name.equals(ID_SORT_FIELD)) {
+        return sort;
+      }
+    }
+    return sort + "," + ID_SORT_FIELD;
+  }
+
+  /**
+   * Gets the number of matching results reported by the service for the query. The first page is
+   * requested if it has not been yet.
+   *
+   * @return the matchingResults
+   */
+  public long getMatchingResults() {
+    start();
+    return matchingResults;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.Iterator#hasNext()
+   */
+  @Override
+  public boolean hasNext() {
+    start();
+    while (!page.hasNext()) {
+      ServiceCallFuture<QueryResponse> future = inFlight.poll();
+      if (future == null) {
+        return false;
+      }
+      fill();
+      try {
+        page = results(future.join());
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.Iterator#next()
+   */
+  @Override
+  public QueryResult next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page.next();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.util.Iterator#remove()
+   */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("remove");
+  }
+
+  /** Cancels every page request still in flight. */
+  @Override
+  public void close() {
+    closed = true;
+    page = Collections.<QueryResult>emptyList().iterator();
+    ServiceCallFuture<QueryResponse> future;
+    while ((future = inFlight.poll()) != null) {
+      future.cancel(true);
+    }
+  }
+
+  private void start() {
+    if (started || closed) {
+      return;
+    }
+    started = true;
+
+    long firstCount = Math.min(pageSize, Math.min(maxResults, MAX_RESULT_WINDOW - nextOffset));
+    if (firstCount <= 0) {
+      return;
+    }
+    QueryResponse first = discovery.query(window(nextOffset, firstCount)).execute().getResult();
+    matchingResults = first.getMatchingResults() != null ? first.getMatchingResults() : 0;
+    page = results(first);
+
+    endOffset = Math.min(matchingResults, MAX_RESULT_WINDOW);
+    endOffset = Math.min(endOffset, nextOffset + maxResults);
+    nextOffset += firstCount;
+    fill();
+  }
+
+  /** Keeps up to maxParallelRequests pages requested ahead of the consumer. */
+  private void fill() {
+    while (!closed && inFlight.size() < maxParallelRequests && nextOffset < endOffset) {
+      long count = Math.min(pageSize, endOffset - nextOffset);
+      inFlight.add(ServiceCallFuture.enqueue(discovery.query(window(nextOffset, count))));
+      nextOffset += count;
+    }
+  }
+
+  private QueryOptions window(long offset, long count) {
+    QueryOptions.Builder builder = queryOptions.newBuilder().offset(offset).count(count);
+    if (offset != (queryOptions.offset() != null ? queryOptions.offset() : 0)) {
+      // Aggregations describe the whole result set, so only the first page needs to compute them.
+      builder.aggregation(null);
+    }
+    return builder.build();
+  }
+
+  private static Iterator<QueryResult> results(QueryResponse response) {
+    List<QueryResult> results = response != null ? response.getResults() : null;
+    return results != null ? results.iterator() : Collections.<QueryResult>emptyList().iterator();
+  }
+}
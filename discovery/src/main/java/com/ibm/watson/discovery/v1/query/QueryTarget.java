@@ -0,0 +1,108 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v1.query;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.discovery.v1.Discovery;
+
+/**
+ * A collection searched by a {@link FederatedQueryExecutor}: a Discovery service instance, one of
+ * its environments and one of that environment's collections. Targets are equal when they refer to
+ * the same service object, environment and collection.
+ */
+public final class QueryTarget {
+  private final Discovery discovery;
+  private final String environmentId;
+  private final String collectionId;
+
+  /**
+   * Instantiates a new query target.
+   *
+   * @param discovery the Discovery service instance
+   * @param environmentId the ID of the environment
+   * @param collectionId the ID of the collection
+   */
+  public QueryTarget(Discovery discovery, String environmentId, String collectionId) {
+    Validator.notNull(discovery, "discovery cannot be null");
+    Validator.notEmpty(environmentId, "environmentId cannot be empty");
+    Validator.notEmpty(collectionId, "collectionId cannot be empty");
+    this.discovery = discovery;
+    this.environmentId = environmentId;
+    this.collectionId = collectionId;
+  }
+
+  /**
+   * Gets the Discovery service instance.
+   *
+   * @return the Discovery service
+   */
+  public Discovery getDiscovery() {
+    return discovery;
+  }
+
+  /**
+   * Gets the ID of the environment.
+   *
+   * @return the environment ID
+   */
+  public String getEnvironmentId() {
+    return environmentId;
+  }
+
+  /**
+   * Gets the ID of the collection.
+   *
+   * @return the collection ID
+   */
+  public String getCollectionId() {
+    return collectionId;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof QueryTarget)) {
+      return false;
+    }
+    QueryTarget other = (QueryTarget) o;
+    return discovery == other.discovery
+        && environmentId.equals(other.environmentId)
+        && collectionId.equals(other.collectionId);
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    int result = System.identityHashCode(discovery);
+    result = 31 * result + environmentId.hashCode();
+    return 31 * result + collectionId.hashCode();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return discovery.getServiceUrl() + "/" + environmentId + "/" + collectionId;
+  }
+}
@@ -12,8 +12,10 @@
  */
 package com.ibm.watson.discovery.v2.model;
 
+import com.google.gson.annotations.JsonAdapter;
 import com.google.gson.annotations.SerializedName;
 import com.ibm.cloud.sdk.core.service.model.GenericModel;
+import com.ibm.watson.discovery.query.LazyAggregationsTypeAdapterFactory;
 import java.util.List;
 
 /** A response containing the documents and aggregations for the query. */
@@ -23,6 +25,7 @@ public class QueryResponse extends GenericModel {
   protected Long matchingResults;
 
   protected List<QueryResult> results;
+  @JsonAdapter(LazyAggregationsTypeAdapterFactory.class)
   protected List<QueryAggregation> aggregations;
 
   @SerializedName("retrieval_details")
@@ -0,0 +1,289 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.discovery.v2.query;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.CachedServiceCall;
+import com.ibm.watson.common.LruCache;
+import com.ibm.watson.discovery.query.BaseQueryCache;
+import com.ibm.watson.discovery.query.QueryKeys;
+import com.ibm.watson.discovery.v2.Discovery;
+import com.ibm.watson.discovery.v2.model.AddDocumentOptions;
+import com.ibm.watson.discovery.v2.model.Completions;
+import com.ibm.watson.discovery.v2.model.DeleteDocumentOptions;
+import com.ibm.watson.discovery.v2.model.DeleteDocumentResponse;
+import com.ibm.watson.discovery.v2.model.DocumentAccepted;
+import com.ibm.watson.discovery.v2.model.GetAutocompletionOptions;
+import com.ibm.watson.discovery.v2.model.QueryOptions;
+import com.ibm.watson.discovery.v2.model.QueryResponse;
+import com.ibm.watson.discovery.v2.model.UpdateDocumentOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client-side cache in front of the {@link Discovery} query and autocompletion operations.
+ *
+ * <p>Responses are cached under a canonical key built from the request options, so requests that
+ * only differ in whitespace, property order or the order of collection IDs share an entry. Adding,
+ * updating or deleting a document through this class invalidates every cached response that
+ * involves its collection, including requests that search the whole project; use {@link
+ * #invalidateCollection(String, String)} when documents change through other clients.
+ *
+ * <p>An autocompletion request is answered locally when a shorter prefix is cached and its
+ * completions were complete, that is, fewer than the requested count were returned and all of them
+ * start with that shorter prefix.
+ */
+public class QueryCache extends BaseQueryCache {
+  private static final int DEFAULT_MAXIMUM_SIZE = 1000;
+  private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final List<String> UNORDERED_PROPERTIES =
+      Collections.singletonList("collectionIds");
+  private static final List<String> IGNORED_PROPERTIES = Collections.emptyList();
+
+  private final Discovery discovery;
+
+  /** Builder. */
+  public static class Builder {
+    private Discovery discovery;
+    private Cache<String, Object> cache;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private long ttlMillis = DEFAULT_TTL_MILLIS;
+    private Map<String, Long> collectionTtls = new HashMap<String, Long>();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param discovery the Discovery service that answers cache misses
+     */
+    public Builder(Discovery discovery) {
+      this.discovery = discovery;
+    }
+
+    /**
+     * Builds a QueryCache.
+     *
+     * @return the query cache
+     */
+    public QueryCache build() {
+      return new QueryCache(this);
+    }
+
+    /**
+     * Set the cache that stores the responses. Defaults to an {@link LruCache} of {@code
+     * maximumSize} entries.
+     *
+     * @param cache the cache
+     * @return the QueryCache builder
+     */
+    public Builder cache(Cache<String, Object> cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of cached responses of the default cache.
+     *
+     * @param maximumSize the maximum number of cached responses
+     * @return the QueryCache builder
+     */
+    public Builder maximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Set how long responses stay cached when no collection-specific time is set.
+     *
+     * @param ttl the time to live
+     * @param unit the unit of ttl
+     * @return the QueryCache builder
+     */
+    public Builder ttl(long ttl, TimeUnit unit) {
+      this.ttlMillis = unit.toMillis(ttl);
+      return this;
+    }
+
+    /**
+     * Set how long responses involving a collection stay cached. A request over several
+     * collections uses the shortest time of its collections.
+     *
+     * @param collectionId the collection ID
+     * @param ttl the time to live
+     * @param unit the unit of ttl
+     * @return the QueryCache builder
+     */
+    public Builder collectionTtl(String collectionId, long ttl, TimeUnit unit) {
+      this.collectionTtls.put(collectionId, unit.toMillis(ttl));
+      return this;
+    }
+  }
+
+  protected QueryCache(Builder builder) {
+    super(
+        builder.cache != null ? builder.cache : new LruCache<String, Object>(builder.maximumSize),
+        builder.ttlMillis,
+        builder.collectionTtls);
+    Validator.notNull(builder.discovery, "discovery cannot be null");
+    discovery = builder.discovery;
+  }
+
+  /**
+   * Query a project, answering from the cache when possible.
+   *
+   * @param queryOptions the {@link QueryOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link QueryResponse}
+   * @see Discovery#query(QueryOptions)
+   */
+  public ServiceCall<QueryResponse> query(QueryOptions queryOptions) {
+    Validator.notNull(queryOptions, "queryOptions cannot be null");
+    List<String> collectionIds = collectionIds(queryOptions.collectionIds());
+    String key =
+        "query|"
+            + scopeKey(scopes(queryOptions.projectId(), collectionIds))
+            + QueryKeys.canonicalKey(queryOptions, UNORDERED_PROPERTIES, IGNORED_PROPERTIES);
+    Response<QueryResponse> hit = lookup(key);
+    if (hit != null) {
+      return CachedServiceCall.of(hit);
+    }
+    return store(key, discovery.query(queryOptions), ttlFor(collectionIds));
+  }
+
+  /**
+   * Get autocomplete suggestions, answering from the cache when the prefix or a shorter prefix of
+   * it is cached.
+   *
+   * @param getAutocompletionOptions the {@link GetAutocompletionOptions} containing the options for
+   *     the call
+   * @return a {@link ServiceCall} with a response type of {@link Completions}
+   * @see Discovery#getAutocompletion(GetAutocompletionOptions)
+   */
+  public ServiceCall<Completions> getAutocompletion(
+      GetAutocompletionOptions getAutocompletionOptions) {
+    Validator.notNull(getAutocompletionOptions, "getAutocompletionOptions cannot be null");
+    List<String> collectionIds = collectionIds(getAutocompletionOptions.collectionIds());
+    long count =
+        getAutocompletionOptions.count() != null
+            ? getAutocompletionOptions.count()
+            : DEFAULT_COMPLETION_COUNT;
+    String keyPrefix =
+        "autocompletion|"
+            + scopeKey(scopes(getAutocompletionOptions.projectId(), collectionIds))
+            + getAutocompletionOptions.field()
+            + "|"
+            + count
+            + "|";
+    String prefix = getAutocompletionOptions.prefix();
+    long ttl = ttlFor(collectionIds);
+
+    Response<Completions> hit = lookup(keyPrefix + prefix);
+    if (hit != null) {
+      return CachedServiceCall.of(hit);
+    }
+    Completions derived = deriveCompletions(keyPrefix, prefix, count, Completions.class);
+    if (derived != null) {
+      CachedServiceCall<Completions> call = CachedServiceCall.of(derived);
+      put(keyPrefix + prefix, call.execute(), ttl);
+      return call;
+    }
+    return store(keyPrefix + prefix, discovery.getAutocompletion(getAutocompletionOptions), ttl);
+  }
+
+  /**
+   * Add a document and invalidate the cached responses of its collection once it is accepted.
+   *
+   * @param addDocumentOptions the {@link AddDocumentOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link DocumentAccepted}
+   * @see Discovery#addDocument(AddDocumentOptions)
+   */
+  public ServiceCall<DocumentAccepted> addDocument(AddDocumentOptions addDocumentOptions) {
+    Validator.notNull(addDocumentOptions, "addDocumentOptions cannot be null");
+    return invalidating(
+        discovery.addDocument(addDocumentOptions),
+        addDocumentOptions.projectId(),
+        scope(addDocumentOptions.projectId(), addDocumentOptions.collectionId()));
+  }
+
+  /**
+   * Update a document and invalidate the cached responses of its collection once it is accepted.
+   *
+   * @param updateDocumentOptions the {@link UpdateDocumentOptions} containing the options for the
+   *     call
+   * @return a {@link ServiceCall} with a response type of {@link DocumentAccepted}
+   * @see Discovery#updateDocument(UpdateDocumentOptions)
+   */
+  public ServiceCall<DocumentAccepted> updateDocument(UpdateDocumentOptions updateDocumentOptions) {
+    Validator.notNull(updateDocumentOptions, "updateDocumentOptions cannot be null");
+    return invalidating(
+        discovery.updateDocument(updateDocumentOptions),
+        updateDocumentOptions.projectId(),
+        scope(updateDocumentOptions.projectId(), updateDocumentOptions.collectionId()));
+  }
+
+  /**
+   * Delete a document and invalidate the cached responses of its collection once it is deleted.
+   *
+   * @param deleteDocumentOptions the {@link DeleteDocumentOptions} containing the options for the
+   *     call
+   * @return a {@link ServiceCall} with a response type of {@link DeleteDocumentResponse}
+   * @see Discovery#deleteDocument(DeleteDocumentOptions)
+   */
+  public ServiceCall<DeleteDocumentResponse> deleteDocument(
+      DeleteDocumentOptions deleteDocumentOptions) {
+    Validator.notNull(deleteDocumentOptions, "deleteDocumentOptions cannot be null");
+    return invalidating(
+        discovery.deleteDocument(deleteDocumentOptions),
+        deleteDocumentOptions.projectId(),
+        scope(deleteDocumentOptions.projectId(), deleteDocumentOptions.collectionId()));
+  }
+
+  /**
+   * Invalidates every cached response that involves a collection, including requests that search
+   * the whole project. Entries are not removed eagerly; they are no longer returned and age out of
+   * the cache.
+   *
+   * @param projectId the project ID
+   * @param collectionId the collection ID
+   */
+  public void invalidateCollection(String projectId, String collectionId) {
+    invalidate(projectId);
+    invalidate(scope(projectId, collectionId));
+  }
+
+  private static List<String> collectionIds(List<String> collectionIds) {
+    return collectionIds != null ? collectionIds : Collections.<String>emptyList();
+  }
+
+  private static String scope(String projectId, String collectionId) {
+    return projectId + "/" + collectionId;
+  }
+
+  /** A request without collection IDs searches the whole project, so it depends on all of them. */
+  private static List<String> scopes(String projectId, List<String> collectionIds) {
+    List<String> scopes = new ArrayList<String>();
+    if (collectionIds.isEmpty()) {
+      scopes.add(projectId);
+    }
+    for (String collectionId : collectionIds) {
+      scopes.add(scope(projectId, collectionId));
+    }
+    return scopes;
+  }
+}
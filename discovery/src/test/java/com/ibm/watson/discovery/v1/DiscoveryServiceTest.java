@@ -13,9 +13,11 @@
 package com.ibm.watson.discovery.v1;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
@@ -24,9 +26,16 @@ import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
 import com.ibm.cloud.sdk.core.util.GsonSingleton;
 import com.ibm.watson.common.WatsonServiceUnitTest;
+import com.ibm.watson.discovery.query.AggregationVisitor;
+import com.ibm.watson.discovery.query.Aggregations;
+import com.ibm.watson.discovery.query.LazyAggregationList;
+import com.ibm.watson.discovery.v1.ingest.DocumentIngester;
+import com.ibm.watson.discovery.v1.ingest.IngestManifest;
+import com.ibm.watson.discovery.v1.ingest.IngestSummary;
 import com.ibm.watson.discovery.v1.model.AddDocumentOptions;
 import com.ibm.watson.discovery.v1.model.AddTrainingDataOptions;
 import com.ibm.watson.discovery.v1.model.Collection;
+import com.ibm.watson.discovery.v1.model.Completions;
 import com.ibm.watson.discovery.v1.model.Configuration;
 import com.ibm.watson.discovery.v1.model.Conversions;
 import com.ibm.watson.discovery.v1.model.CreateCollectionOptions;
@@ -73,6 +82,7 @@ import com.ibm.watson.discovery.v1.model.FederatedQueryOptions;
 import com.ibm.watson.discovery.v1.model.Gateway;
 import com.ibm.watson.discovery.v1.model.GatewayDelete;
 import com.ibm.watson.discovery.v1.model.GatewayList;
+import com.ibm.watson.discovery.v1.model.GetAutocompletionOptions;
 import com.ibm.watson.discovery.v1.model.GetCollectionOptions;
 import com.ibm.watson.discovery.v1.model.GetConfigurationOptions;
 import com.ibm.watson.discovery.v1.model.GetCredentialsOptions;
@@ -105,6 +115,7 @@ import com.ibm.watson.discovery.v1.model.LogQueryResponse;
 import com.ibm.watson.discovery.v1.model.MetricResponse;
 import com.ibm.watson.discovery.v1.model.MetricTokenResponse;
 import com.ibm.watson.discovery.v1.model.NormalizationOperation;
+import com.ibm.watson.discovery.v1.model.QueryAggregation;
 import com.ibm.watson.discovery.v1.model.QueryLogOptions;
 import com.ibm.watson.discovery.v1.model.QueryNoticesOptions;
 import com.ibm.watson.discovery.v1.model.QueryNoticesResponse;
@@ -117,6 +128,7 @@ import com.ibm.watson.discovery.v1.model.SourceOptionsFolder;
 import com.ibm.watson.discovery.v1.model.SourceOptionsObject;
 import com.ibm.watson.discovery.v1.model.SourceOptionsSiteColl;
 import com.ibm.watson.discovery.v1.model.SourceOptionsWebCrawl;
+import com.ibm.watson.discovery.v1.model.Term;
 import com.ibm.watson.discovery.v1.model.TokenDictRule;
 import com.ibm.watson.discovery.v1.model.TokenDictStatusResponse;
 import com.ibm.watson.discovery.v1.model.TrainingDataSet;
@@ -129,17 +141,29 @@ import com.ibm.watson.discovery.v1.model.UpdateDocumentOptions;
 import com.ibm.watson.discovery.v1.model.UpdateEnvironmentOptions;
 import com.ibm.watson.discovery.v1.model.UpdateTrainingExampleOptions;
 import com.ibm.watson.discovery.v1.query.AggregationType;
+import com.ibm.watson.discovery.v1.query.FederatedQueryExecutor;
+import com.ibm.watson.discovery.v1.query.FederatedQueryResponse;
 import com.ibm.watson.discovery.v1.query.Operator;
+import com.ibm.watson.discovery.v1.query.QueryCache;
+import com.ibm.watson.discovery.v1.query.QueryResultPager;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.After;
@@ -1093,6 +1117,494 @@ public class DiscoveryServiceTest extends WatsonServiceUnitTest {
         GsonSingleton.getGson().toJsonTree(response));
   }
 
+  /**
+   * Query aggregations are kept as raw JSON until they are read.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryAggregationsAreDecodedLazily() throws InterruptedException {
+    String aggregations =
+        "[{\"type\":\"term\",\"field\":\"author\",\"results\":["
+            + "{\"key\":\"Person\",\"matching_results\":10,\"aggregations\":["
+            + "{\"type\":\"term\",\"field\":\"title\",\"results\":["
+            + "{\"key\":\"a\",\"matching_results\":4},{\"key\":\"b\",\"matching_results\":6}]}]},"
+            + "{\"key\":\"Place\",\"matching_results\":3}]}]";
+    server.enqueue(
+        new MockResponse()
+            .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+            .setBody(
+                "{\"matching_results\":13,\"results\":[],\"aggregations\":" + aggregations + "}"));
+    QueryOptions queryOptions =
+        new QueryOptions.Builder(environmentId, collectionId).aggregation("term(author)").build();
+    QueryResponse response = discoveryService.query(queryOptions).execute().getResult();
+    LazyAggregationList<?> lazy = (LazyAggregationList<?>) response.getAggregations();
+    assertFalse(lazy.isDecoded());
+
+    final List<String> keys = new ArrayList<>();
+    final List<String> entered = new ArrayList<>();
+    Aggregations.visit(
+        response.getAggregations(),
+        new AggregationVisitor() {
+          @Override
+          public boolean enterAggregation(int depth, String type, String field) {
+            entered.add(depth + ":" + type + "(" + field + ")");
+            return true;
+          }
+
+          @Override
+          public void bucketProperty(String name, JsonElement value) {
+            if ("key".equals(name)) {
+              keys.add(value.getAsString());
+            }
+          }
+        });
+    assertEquals(Arrays.asList("Person", "a", "b", "Place"), keys);
+    assertEquals(Arrays.asList("0:term(author)", "1:term(title)"), entered);
+    assertFalse(lazy.isDecoded());
+
+    Term term = (Term) response.getAggregations().get(0);
+    assertTrue(lazy.isDecoded());
+    assertEquals(2, term.getResults().size());
+    assertEquals(2, term.getResults().get(0).getAggregations().get(0).getResults().size());
+
+    // The list is modifiable, and the visitor sees the modified list.
+    List<QueryAggregation> list = response.getAggregations();
+    list.remove(0);
+    assertTrue(list.isEmpty());
+    assertEquals("[]", lazy.getRawJson());
+  }
+
+  /**
+   * The aggregation visitor learns the type and field of an aggregation even when they come after
+   * its buckets.
+   */
+  @Test
+  public void aggregationVisitorReadsAheadToTypeAndField() {
+    String aggregations =
+        "[{\"results\":[{\"key\":\"a\",\"matching_results\":1}],\"field\":\"author\","
+            + "\"type\":\"term\"},{\"type\":\"filter\",\"match\":\"x\",\"matching_results\":2}]";
+    final List<String> events = new ArrayList<>();
+    Aggregations.visit(
+        aggregations,
+        new AggregationVisitor() {
+          @Override
+          public boolean enterAggregation(int depth, String type, String field) {
+            events.add("enter " + type + "(" + field + ")");
+            return true;
+          }
+
+          @Override
+          public void aggregationProperty(String name, JsonElement value) {
+            events.add(name);
+          }
+
+          @Override
+          public void bucketProperty(String name, JsonElement value) {
+            events.add("bucket " + name);
+          }
+        });
+    assertEquals(
+        Arrays.asList(
+            "enter term(author)",
+            "bucket key",
+            "bucket matching_results",
+            "field",
+            "type",
+            "enter filter(null)",
+            "type",
+            "match",
+            "matching_results"),
+        events);
+  }
+
+  /**
+   * Query all returns every page in order.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryAllReturnsResultsInOrder() throws InterruptedException {
+    server.setDispatcher(new PagingDispatcher(23));
+    QueryOptions queryOptions =
+        new QueryOptions.Builder(environmentId, collectionId)
+            .naturalLanguageQuery("watson")
+            .aggregation("term(field)")
+            .sort("-date")
+            .build();
+    QueryResultPager pager =
+        new QueryResultPager.Builder(discoveryService, queryOptions)
+            .pageSize(5)
+            .maxParallelRequests(2)
+            .build();
+
+    List<String> ids = new ArrayList<>();
+    try {
+      while (pager.hasNext()) {
+        ids.add(pager.next().getId());
+      }
+    } finally {
+      pager.close();
+    }
+
+    assertEquals(23, pager.getMatchingResults());
+    assertEquals(23, ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals("doc" + i, ids.get(i));
+    }
+    assertEquals(5, server.getRequestCount());
+    JsonObject first =
+        GsonSingleton.getGson()
+            .fromJson(server.takeRequest().getBody().readUtf8(), JsonObject.class);
+    assertEquals("term(field)", first.get("aggregation").getAsString());
+    assertEquals("-date,id", first.get("sort").getAsString());
+    for (int i = 1; i < 5; i++) {
+      JsonObject body =
+          GsonSingleton.getGson()
+              .fromJson(server.takeRequest().getBody().readUtf8(), JsonObject.class);
+      assertTrue(!body.has("aggregation"));
+    }
+  }
+
+  /**
+   * Query all stops at the requested maximum number of results.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryAllHonorsMaxResults() throws InterruptedException {
+    server.setDispatcher(new PagingDispatcher(100));
+    QueryOptions queryOptions = new QueryOptions.Builder(environmentId, collectionId).build();
+    QueryResultPager pager =
+        new QueryResultPager.Builder(discoveryService, queryOptions)
+            .pageSize(10)
+            .maxResults(25)
+            .build();
+
+    int count = 0;
+    while (pager.hasNext()) {
+      assertEquals("doc" + count, pager.next().getId());
+      count++;
+    }
+    pager.close();
+
+    assertEquals(25, count);
+    assertEquals(3, server.getRequestCount());
+  }
+
+  /**
+   * Query cache answers repeated queries locally until the collection changes.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryCacheInvalidatesOnDocumentChange() throws InterruptedException {
+    QueryCache cache = new QueryCache.Builder(discoveryService).build();
+    QueryOptions queryOptions =
+        new QueryOptions.Builder(environmentId, collectionId)
+            .naturalLanguageQuery("how  does watson   work")
+            .build();
+    QueryOptions sameQuery =
+        new QueryOptions.Builder(environmentId, collectionId)
+            .naturalLanguageQuery(" how does watson work ")
+            .xWatsonLoggingOptOut(true)
+            .build();
+
+    server.enqueue(jsonResponse(queryResp));
+    QueryResponse first = cache.query(queryOptions).execute().getResult();
+    QueryResponse second = cache.query(sameQuery).execute().getResult();
+    assertEquals(1, server.getRequestCount());
+    assertEquals(first, second);
+
+    server.enqueue(jsonResponse(createDocResp));
+    AddDocumentOptions addOptions =
+        new AddDocumentOptions.Builder(environmentId, collectionId)
+            .file(new ByteArrayInputStream("{}".getBytes()))
+            .filename("doc.json")
+            .build();
+    cache.addDocument(addOptions).execute();
+
+    server.enqueue(jsonResponse(queryResp));
+    cache.query(queryOptions).execute();
+    assertEquals(3, server.getRequestCount());
+  }
+
+  /**
+   * Query cache keeps whitespace inside quoted phrases when building cache keys.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryCacheKeepsQuotedWhitespace() throws InterruptedException {
+    QueryCache cache = new QueryCache.Builder(discoveryService).build();
+
+    server.enqueue(jsonResponse(queryResp));
+    cache
+        .query(
+            new QueryOptions.Builder(environmentId, collectionId)
+                .query("text:\"a  b\"  ,  year>2000")
+                .build())
+        .execute();
+    cache
+        .query(
+            new QueryOptions.Builder(environmentId, collectionId)
+                .query(" text:\"a  b\" , year>2000")
+                .build())
+        .execute();
+    assertEquals(1, server.getRequestCount());
+
+    server.enqueue(jsonResponse(queryResp));
+    cache
+        .query(
+            new QueryOptions.Builder(environmentId, collectionId)
+                .query("text:\"a b\" , year>2000")
+                .build())
+        .execute();
+    assertEquals(2, server.getRequestCount());
+  }
+
+  /**
+   * Query cache answers a longer autocompletion prefix from a complete shorter prefix.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void queryCacheNarrowsAutocompletion() throws InterruptedException {
+    QueryCache cache = new QueryCache.Builder(discoveryService).build();
+    server.enqueue(
+        new MockResponse()
+            .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+            .setBody("{\"completions\":[\"water\",\"watson\",\"watt\"]}"));
+
+    GetAutocompletionOptions shortPrefix =
+        new GetAutocompletionOptions.Builder(environmentId, collectionId, "wa").count(10).build();
+    Completions shortCompletions = cache.getAutocompletion(shortPrefix).execute().getResult();
+    assertEquals(3, shortCompletions.getCompletions().size());
+
+    GetAutocompletionOptions longPrefix =
+        new GetAutocompletionOptions.Builder(environmentId, collectionId, "wats").count(10).build();
+    Completions completions = cache.getAutocompletion(longPrefix).execute().getResult();
+
+    assertEquals(1, server.getRequestCount());
+    assertEquals(Collections.singletonList("watson"), completions.getCompletions());
+  }
+
+  /**
+   * Ingests a directory, then ingests it again with the same manifest.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void ingestSkipsDocumentsInManifest() throws Exception {
+    server.setDispatcher(new IngestDispatcher());
+    Path corpus = Files.createTempDirectory("corpus");
+    Path manifest = Files.createTempFile("ingest", ".manifest");
+    for (int i = 0; i < 3; i++) {
+      Files.write(corpus.resolve("doc" + i + ".json"), ("{\"n\":" + i + "}").getBytes("UTF-8"));
+    }
+    DocumentIngester ingester =
+        new DocumentIngester.Builder(discoveryService, environmentId, collectionId)
+            .manifest(manifest)
+            .pollInterval(10, TimeUnit.MILLISECONDS)
+            .build();
+
+    IngestSummary first = ingester.ingest(corpus);
+    assertEquals(3, first.getAccepted());
+    assertEquals(3, first.getProcessed());
+    int requests = server.getRequestCount();
+    assertEquals(6, requests);
+
+    IngestSummary second = ingester.ingest(corpus);
+    assertEquals(0, second.getAccepted());
+    assertEquals(3, second.getSkipped());
+    assertEquals(requests, server.getRequestCount());
+  }
+
+  /**
+   * Ingests a directory that holds its own manifest and a leftover compacted manifest.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void ingestSkipsManifestInDirectory() throws Exception {
+    server.setDispatcher(new IngestDispatcher());
+    Path corpus = Files.createTempDirectory("corpus");
+    for (int i = 0; i < 3; i++) {
+      Files.write(corpus.resolve("doc" + i + ".json"), ("{\"n\":" + i + "}").getBytes("UTF-8"));
+    }
+    Files.write(corpus.resolve("ingest.manifest.compact"), "{}".getBytes("UTF-8"));
+    Files.createDirectory(corpus.resolve("sub"));
+    DocumentIngester ingester =
+        new DocumentIngester.Builder(discoveryService, environmentId, collectionId)
+            .manifest(corpus.resolve("sub").resolve("..").resolve("ingest.manifest"))
+            .pollInterval(10, TimeUnit.MILLISECONDS)
+            .build();
+
+    IngestSummary first = ingester.ingest(corpus);
+    assertEquals(3, first.getAccepted());
+    assertEquals(6, server.getRequestCount());
+
+    IngestSummary second = ingester.ingest(corpus);
+    assertEquals(0, second.getAccepted());
+    assertEquals(3, second.getSkipped());
+    assertEquals(6, server.getRequestCount());
+  }
+
+  /**
+   * Opening a manifest rewrites it with only the current entry of each file.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void ingestManifestCompactsOnOpen() throws Exception {
+    server.setDispatcher(new IngestDispatcher());
+    Path corpus = Files.createTempDirectory("corpus");
+    Path manifest = Files.createTempFile("ingest", ".manifest");
+    for (int i = 0; i < 3; i++) {
+      Files.write(corpus.resolve("doc" + i + ".json"), ("{\"n\":" + i + "}").getBytes("UTF-8"));
+    }
+    new DocumentIngester.Builder(discoveryService, environmentId, collectionId)
+        .manifest(manifest)
+        .pollInterval(10, TimeUnit.MILLISECONDS)
+        .build()
+        .ingest(corpus);
+    Files.write(manifest, "{\"path\":".getBytes("UTF-8"), StandardOpenOption.APPEND);
+    assertTrue(Files.readAllLines(manifest, StandardCharsets.UTF_8).size() > 3);
+
+    Map<String, IngestManifest.Entry> entries;
+    try (IngestManifest opened = IngestManifest.open(manifest)) {
+      entries = opened.getEntries();
+    }
+    assertEquals(3, entries.size());
+    assertEquals(3, Files.readAllLines(manifest, StandardCharsets.UTF_8).size());
+    assertFalse(Files.exists(manifest.resolveSibling(manifest.getFileName() + ".compact")));
+    try (IngestManifest reopened = IngestManifest.open(manifest)) {
+      for (IngestManifest.Entry entry : entries.values()) {
+        assertEquals(entry.getStatus(), reopened.get(entry.getPath()).getStatus());
+        assertEquals(entry.getDocumentId(), reopened.get(entry.getPath()).getDocumentId());
+      }
+    }
+    assertEquals(3, Files.readAllLines(manifest, StandardCharsets.UTF_8).size());
+  }
+
+  /**
+   * Federated query merges targets by score, hedges slow requests and reports timeouts.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void federatedExecutorMergesByScore() throws InterruptedException {
+    server.setDispatcher(new ScoredDispatcher());
+    FederatedQueryExecutor executor =
+        new FederatedQueryExecutor.Builder()
+            .target(discoveryService, environmentId, "a")
+            .target(discoveryService, environmentId, "b")
+            .target(discoveryService, environmentId, "hedged")
+            .target(discoveryService, environmentId, "down")
+            .timeout(1, TimeUnit.SECONDS)
+            .hedgeDelay(100, TimeUnit.MILLISECONDS)
+            .build();
+    QueryOptions queryOptions =
+        new QueryOptions.Builder(environmentId, collectionId).query("watson").count(4).build();
+
+    FederatedQueryResponse response = executor.query(queryOptions);
+
+    List<String> ids = new ArrayList<>();
+    for (FederatedQueryResponse.Result result : response.getResults()) {
+      ids.add(result.getResult().getId());
+    }
+    assertEquals(Arrays.asList("a0", "hedged0", "b0", "a1"), ids);
+    assertEquals(Collections.singletonList(executor.getTargets().get(3)), response.getTimedOut());
+    assertTrue(response.isPartial());
+    assertEquals(9, response.getMatchingResults());
+  }
+
+  /** Serves query pages whose results are named after their absolute offset. */
+  private static class PagingDispatcher extends Dispatcher {
+    private final int matchingResults;
+
+    PagingDispatcher(int matchingResults) {
+      this.matchingResults = matchingResults;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      JsonObject body =
+          GsonSingleton.getGson().fromJson(request.getBody().clone().readUtf8(), JsonObject.class);
+      int offset = body.has("offset") ? body.get("offset").getAsInt() : 0;
+      int count = body.get("count").getAsInt();
+      StringBuilder results = new StringBuilder();
+      for (int i = offset; i < Math.min(offset + count, matchingResults); i++) {
+        if (results.length() > 0) {
+          results.append(',');
+        }
+        results.append("{\"id\":\"doc").append(i).append("\"}");
+      }
+      return new MockResponse()
+          .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+          .setBody(
+              "{\"matching_results\":" + matchingResults + ",\"results\":[" + results + "]}");
+    }
+  }
+
+  /**
+   * Answers queries on collection "a" and "b" at once, on "hedged" only from the second request
+   * and on "down" too late.
+   */
+  private static class ScoredDispatcher extends Dispatcher {
+    private final AtomicInteger hedgedRequests = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String collection = request.getPath().replaceAll(".*/collections/([^/]*)/.*", "$1");
+      String results;
+      if ("a".equals(collection)) {
+        results =
+            "{\"id\":\"a0\",\"result_metadata\":{\"score\":0.9}},"
+                + "{\"id\":\"a1\",\"result_metadata\":{\"score\":0.5}},"
+                + "{\"id\":\"a2\",\"result_metadata\":{\"score\":0.1}}";
+      } else if ("b".equals(collection)) {
+        results = "{\"id\":\"b0\",\"result_metadata\":{\"score\":0.7}}";
+      } else {
+        results = "{\"id\":\"" + collection + "0\",\"result_metadata\":{\"score\":0.8}}";
+      }
+      MockResponse response =
+          new MockResponse()
+              .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+              .setBody("{\"matching_results\":3,\"results\":[" + results + "]}");
+      if ("down".equals(collection)
+          || ("hedged".equals(collection) && hedgedRequests.incrementAndGet() == 1)) {
+        response.setBodyDelay(3, TimeUnit.SECONDS);
+      }
+      return response;
+    }
+  }
+
+  /** Accepts every uploaded document and reports it as available. */
+  private static class IngestDispatcher extends Dispatcher {
+    private final AtomicInteger documents = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String body;
+      if (POST.equals(request.getMethod())) {
+        if (!request.getBody().readUtf8().contains("{\"n\":")) {
+          return new MockResponse().setResponseCode(400);
+        }
+        body =
+            "{\"document_id\":\"doc"
+                + documents.incrementAndGet()
+                + "\",\"status\":\"processing\"}";
+      } else {
+        String id = request.getPath().replaceAll(".*/documents/([^?]*).*", "$1");
+        body = "{\"document_id\":\"" + id + "\",\"status\":\"available\"}";
+      }
+      return new MockResponse()
+          .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+          .setBody(body);
+    }
+  }
+
   /**
    * Adds the training data is successful.
    *
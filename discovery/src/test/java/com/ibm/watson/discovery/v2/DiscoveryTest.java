@@ -46,11 +46,13 @@ import com.ibm.watson.discovery.v2.model.TrainingQuery;
 import com.ibm.watson.discovery.v2.model.TrainingQuerySet;
 import com.ibm.watson.discovery.v2.model.UpdateDocumentOptions;
 import com.ibm.watson.discovery.v2.model.UpdateTrainingQueryOptions;
+import com.ibm.watson.discovery.v2.query.QueryCache;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -1161,4 +1163,55 @@ public class DiscoveryTest extends WatsonServiceUnitTest {
     assertEquals(testDate, response.examples().get(0).created());
     assertEquals(testDate, response.examples().get(0).updated());
   }
+
+  /** Test the query cache. */
+  @Test
+  public void testQueryCache() {
+    QueryCache cache = new QueryCache.Builder(service).build();
+    QueryOptions options =
+        new QueryOptions.Builder()
+            .projectId(PROJECT_ID)
+            .collectionIds(Arrays.asList(COLLECTION_ID, "other_collection"))
+            .naturalLanguageQuery("how  does   it work")
+            .query("text:\"a  b\"")
+            .build();
+    QueryOptions sameQuery =
+        new QueryOptions.Builder()
+            .projectId(PROJECT_ID)
+            .collectionIds(Arrays.asList("other_collection", COLLECTION_ID))
+            .naturalLanguageQuery(" how does it work ")
+            .query(" text:\"a  b\" ")
+            .build();
+    QueryOptions otherPhrase =
+        new QueryOptions.Builder()
+            .projectId(PROJECT_ID)
+            .collectionIds(Arrays.asList(COLLECTION_ID, "other_collection"))
+            .naturalLanguageQuery("how does it work")
+            .query("text:\"a b\"")
+            .build();
+
+    server.enqueue(jsonResponse(queryResponse));
+    QueryResponse first = cache.query(options).execute().getResult();
+    QueryResponse second = cache.query(sameQuery).execute().getResult();
+    assertEquals(1, server.getRequestCount());
+    assertEquals(first, second);
+
+    server.enqueue(jsonResponse(queryResponse));
+    cache.query(otherPhrase).execute();
+    assertEquals(2, server.getRequestCount());
+
+    server.enqueue(jsonResponse(documentAccepted));
+    AddDocumentOptions addOptions =
+        new AddDocumentOptions.Builder()
+            .projectId(PROJECT_ID)
+            .collectionId(COLLECTION_ID)
+            .file(testDocument)
+            .filename(FILENAME)
+            .build();
+    cache.addDocument(addOptions).execute();
+
+    server.enqueue(jsonResponse(queryResponse));
+    cache.query(options).execute();
+    assertEquals(4, server.getRequestCount());
+  }
 }
@@ -21,6 +21,7 @@ import com.ibm.cloud.sdk.core.security.ConfigBasedAuthenticatorFactory;
 import com.ibm.cloud.sdk.core.service.BaseService;
 import com.ibm.cloud.sdk.core.util.RequestUtils;
 import com.ibm.cloud.sdk.core.util.ResponseConverterUtils;
+import com.ibm.watson.common.FileChannelRequestBody;
 import com.ibm.watson.common.SdkCommon;
 import com.ibm.watson.language_translator.v3.model.CreateModelOptions;
 import com.ibm.watson.language_translator.v3.model.DeleteDocumentOptions;
@@ -42,7 +43,9 @@ import com.ibm.watson.language_translator.v3.model.TranslateOptions;
 import com.ibm.watson.language_translator.v3.model.TranslationModel;
 import com.ibm.watson.language_translator.v3.model.TranslationModels;
 import com.ibm.watson.language_translator.v3.model.TranslationResult;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Map.Entry;
 import okhttp3.MultipartBody;
@@ -455,6 +458,21 @@ public class LanguageTranslator extends BaseService {
       TranslateDocumentOptions translateDocumentOptions) {
     com.ibm.cloud.sdk.core.util.Validator.notNull(
         translateDocumentOptions, "translateDocumentOptions cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        translateDocumentOptions.file(), "file cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        translateDocumentOptions.filename(), "filename cannot be null");
+    okhttp3.RequestBody fileBody =
+        RequestUtils.inputStreamBody(
+            translateDocumentOptions.file(), translateDocumentOptions.fileContentType());
+    return translateDocument(
+        translateDocumentOptions, translateDocumentOptions.filename(), fileBody);
+  }
+
+  private ServiceCall<DocumentStatus> translateDocument(
+      TranslateDocumentOptions translateDocumentOptions,
+      String filename,
+      okhttp3.RequestBody fileBody) {
     String[] pathSegments = {"v3/documents"};
     RequestBuilder builder =
         RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
@@ -467,10 +485,7 @@ public class LanguageTranslator extends BaseService {
     builder.header("Accept", "application/json");
     MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
     multipartBuilder.setType(MultipartBody.FORM);
-    okhttp3.RequestBody fileBody =
-        RequestUtils.inputStreamBody(
-            translateDocumentOptions.file(), translateDocumentOptions.fileContentType());
-    multipartBuilder.addFormDataPart("file", translateDocumentOptions.filename(), fileBody);
+    multipartBuilder.addFormDataPart("file", filename, fileBody);
     if (translateDocumentOptions.modelId() != null) {
       multipartBuilder.addFormDataPart("model_id", translateDocumentOptions.modelId());
     }
@@ -490,6 +505,37 @@ public class LanguageTranslator extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Translate document, streaming its content from a file.
+   *
+   * <p>Behaves like {@link #translateDocument(TranslateDocumentOptions)}, except that the file is
+   * read from a {@link java.nio.channels.FileChannel} while the request is sent instead of being
+   * read into memory first. The file of the options must not be set; the filename defaults to the
+   * name of the file.
+   *
+   * @param translateDocumentOptions the {@link TranslateDocumentOptions} containing the options for
+   *     the call
+   * @param file the document content
+   * @return a {@link ServiceCall} with a response type of {@link DocumentStatus}
+   * @throws IOException if the size of the file cannot be read
+   */
+  public ServiceCall<DocumentStatus> translateDocument(
+      TranslateDocumentOptions translateDocumentOptions, Path file) throws IOException {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        translateDocumentOptions, "translateDocumentOptions cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.isTrue(
+        translateDocumentOptions.file() == null, "file must be passed as a path only");
+    com.ibm.cloud.sdk.core.util.Validator.notNull(file, "file cannot be null");
+    String filename =
+        translateDocumentOptions.filename() != null
+            ? translateDocumentOptions.filename()
+            : file.getFileName().toString();
+    return translateDocument(
+        translateDocumentOptions,
+        filename,
+        FileChannelRequestBody.create(file, translateDocumentOptions.fileContentType()));
+  }
+
   /**
    * Get document status.
    *
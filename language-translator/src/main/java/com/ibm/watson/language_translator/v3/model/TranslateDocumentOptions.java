@@ -164,8 +164,6 @@ public class TranslateDocumentOptions extends GenericModel {
   }
 
   protected TranslateDocumentOptions(Builder builder) {
-    com.ibm.cloud.sdk.core.util.Validator.notNull(builder.file, "file cannot be null");
-    com.ibm.cloud.sdk.core.util.Validator.notNull(builder.filename, "filename cannot be null");
     file = builder.file;
     filename = builder.filename;
     fileContentType = builder.fileContentType;
@@ -194,6 +192,9 @@ public class TranslateDocumentOptions extends GenericModel {
    *
    * <p>Maximum file size: **20 MB**.
    *
+   * <p>Required, together with the filename, unless the file is passed as a path to {@code
+   * LanguageTranslator.translateDocument(TranslateDocumentOptions, Path)}.
+   *
    * @return the file
    */
   public InputStream file() {
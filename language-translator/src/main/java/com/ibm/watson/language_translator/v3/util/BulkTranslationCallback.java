@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+/**
+ * Receives the translations of a {@link BulkTranslator} run, one segment at a time and in the
+ * order of the input. Methods are never called concurrently, but they are called from the threads
+ * that receive the responses of the service, so they should return quickly.
+ */
+public interface BulkTranslationCallback {
+
+  /**
+   * Called with the translation of a segment.
+   *
+   * @param index the position of the segment in the input, starting at 0
+   * @param text the segment
+   * @param translation the translation
+   */
+  void onTranslation(long index, String text, String translation);
+
+  /**
+   * Called when a segment, or a piece of it, could not be translated after all retries.
+   *
+   * @param index the position of the segment in the input, starting at 0
+   * @param text the segment
+   * @param e the error
+   */
+  void onFailure(long index, String text, Exception e);
+}
@@ -0,0 +1,434 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.BulkRunner;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.language_translator.v3.LanguageTranslator;
+import com.ibm.watson.language_translator.v3.model.TranslateOptions;
+import com.ibm.watson.language_translator.v3.model.Translation;
+import com.ibm.watson.language_translator.v3.model.TranslationResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Translates a large number of segments with as few requests as possible.
+ *
+ * <p>Segments are read lazily and packed into {@link
+ * LanguageTranslator#translate(TranslateOptions)} requests until a request reaches {@code
+ * maxRequestBytes} of text or {@code maxRequestSegments} segments. A segment that does not fit in a
+ * request on its own is split at sentence boundaries, or at word boundaries for very long
+ * sentences, and its translated pieces are joined again. The number of concurrent requests adapts
+ * to the service: it grows while requests succeed and halves whenever the service answers 429 Too
+ * Many Requests. Failed requests are retried according to a {@link RetryPolicy}.
+ *
+ * <p>Translations are passed to a {@link BulkTranslationCallback} in input order as soon as every
+ * earlier segment is done, so a run over an unbounded input holds at most {@code
+ * maxPendingSegments} segments in memory.
+ *
+ * <pre>
+ * BulkTranslator bulk = new BulkTranslator.Builder(translator).modelId("en-es").build();
+ * bulk.translate(lines, new BulkTranslationCallback() { ... });
+ * </pre>
+ */
+public class BulkTranslator {
+  private static final Logger LOG = Logger.getLogger(BulkTranslator.class.getName());
+
+  /** The approximate size of a request body without its text. */
+  private static final int REQUEST_OVERHEAD = 256;
+  /** The approximate size of the JSON quotes and separator around each segment. */
+  private static final int SEGMENT_OVERHEAD = 3;
+
+  private final LanguageTranslator translator;
+  private final String modelId;
+  private final String source;
+  private final String target;
+  private final int maxRequestBytes;
+  private final int maxRequestSegments;
+  private final int maxPendingSegments;
+  private final int initialConcurrency;
+  private final int maxConcurrency;
+  private final RetryPolicy retryPolicy;
+
+  /** Builder. */
+  public static class Builder {
+    private LanguageTranslator translator;
+    private String modelId;
+    private String source;
+    private String target;
+    private int maxRequestBytes = 48 * 1024;
+    private int maxRequestSegments = 1000;
+    private int maxPendingSegments = 10000;
+    private int initialConcurrency = 2;
+    private int maxConcurrency = 8;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param translator the Language Translator service
+     */
+    public Builder(LanguageTranslator translator) {
+      this.translator = translator;
+    }
+
+    /**
+     * Builds a BulkTranslator.
+     *
+     * @return the bulk translator
+     */
+    public BulkTranslator build() {
+      return new BulkTranslator(this);
+    }
+
+    /**
+     * Set the model ID used for every request.
+     *
+     * @param modelId the model ID
+     * @return the BulkTranslator builder
+     */
+    public Builder modelId(String modelId) {
+      this.modelId = modelId;
+      return this;
+    }
+
+    /**
+     * Set the source language used for every request.
+     *
+     * @param source the source language
+     * @return the BulkTranslator builder
+     */
+    public Builder source(String source) {
+      this.source = source;
+      return this;
+    }
+
+    /**
+     * Set the target language used for every request.
+     *
+     * @param target the target language
+     * @return the BulkTranslator builder
+     */
+    public Builder target(String target) {
+      this.target = target;
+      return this;
+    }
+
+    /**
+     * Set the largest amount of text, in UTF-8 bytes, sent in one request. Defaults to 48 KB,
+     * just under the limit of the service.
+     *
+     * @param maxRequestBytes the maximum request size in bytes
+     * @return the BulkTranslator builder
+     */
+    public Builder maxRequestBytes(int maxRequestBytes) {
+      this.maxRequestBytes = maxRequestBytes;
+      return this;
+    }
+
+    /**
+     * Set the largest number of segments sent in one request. Defaults to 1000.
+     *
+     * @param maxRequestSegments the maximum number of segments per request
+     * @return the BulkTranslator builder
+     */
+    public Builder maxRequestSegments(int maxRequestSegments) {
+      this.maxRequestSegments = maxRequestSegments;
+      return this;
+    }
+
+    /**
+     * Set the largest number of segments read but not yet passed to the callback. Reading the
+     * input pauses when it is reached. Defaults to 10000.
+     *
+     * @param maxPendingSegments the maximum number of pending segments
+     * @return the BulkTranslator builder
+     */
+    public Builder maxPendingSegments(int maxPendingSegments) {
+      this.maxPendingSegments = maxPendingSegments;
+      return this;
+    }
+
+    /**
+     * Set the number of concurrent requests to start with. Defaults to 2.
+     *
+     * @param initialConcurrency the initial number of concurrent requests
+     * @return the BulkTranslator builder
+     */
+    public Builder initialConcurrency(int initialConcurrency) {
+      this.initialConcurrency = initialConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent requests. Defaults to 8.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return the BulkTranslator builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the BulkTranslator builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected BulkTranslator(Builder builder) {
+    Validator.notNull(builder.translator, "translator cannot be null");
+    Validator.isTrue(
+        builder.maxRequestBytes > REQUEST_OVERHEAD + SEGMENT_OVERHEAD,
+        "maxRequestBytes must be greater than " + (REQUEST_OVERHEAD + SEGMENT_OVERHEAD));
+    Validator.isTrue(builder.maxRequestSegments > 0, "maxRequestSegments must be positive");
+    Validator.isTrue(builder.maxPendingSegments > 0, "maxPendingSegments must be positive");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    translator = builder.translator;
+    modelId = builder.modelId;
+    source = builder.source;
+    target = builder.target;
+    maxRequestBytes = builder.maxRequestBytes;
+    maxRequestSegments = builder.maxRequestSegments;
+    maxPendingSegments = builder.maxPendingSegments;
+    maxConcurrency = builder.maxConcurrency;
+    initialConcurrency = Math.max(1, Math.min(builder.initialConcurrency, maxConcurrency));
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Translates every segment of an input, returning once every translation has been passed to the
+   * callback.
+   *
+   * @param segments the segments
+   * @param callback the callback that receives the translations
+   * @return the number of segments translated successfully
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public long translate(Iterable<String> segments, BulkTranslationCallback callback)
+      throws InterruptedException {
+    return translate(segments.iterator(), callback);
+  }
+
+  /**
+   * Translates every segment of an input, returning once every translation has been passed to the
+   * callback.
+   *
+   * @param segments the segments, read lazily
+   * @param callback the callback that receives the translations
+   * @return the number of segments translated successfully
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public long translate(Iterator<String> segments, BulkTranslationCallback callback)
+      throws InterruptedException {
+    Validator.notNull(callback, "callback cannot be null");
+    Run run = new Run(callback);
+    try {
+      for (long index = 0; segments.hasNext(); index++) {
+        String text = segments.next();
+        Validator.notNull(text, "segments cannot contain null");
+        run.add(index, text);
+      }
+      return run.await();
+    } finally {
+      run.close();
+    }
+  }
+
+  /** The state of one call to {@code translate}. */
+  private final class Run extends BulkRunner<Batch, TranslationResult> {
+    private final BulkTranslationCallback callback;
+    private final ArrayDeque<Segment> unemitted = new ArrayDeque<Segment>();
+    private Batch batch = new Batch();
+    private long translated;
+
+    private Run(BulkTranslationCallback callback) {
+      super("bulk-translator", initialConcurrency, maxConcurrency, retryPolicy);
+      this.callback = callback;
+    }
+
+    private void add(long index, String text) throws InterruptedException {
+      boolean full;
+      synchronized (this) {
+        full = isFull();
+      }
+      if (full) {
+        // The segments of the packed batch count as pending, so it must be sent to make room.
+        flush();
+      }
+      awaitRoom();
+      int maxPieceBytes = maxRequestBytes - REQUEST_OVERHEAD - SEGMENT_OVERHEAD;
+      Segment segment = new Segment(index, text, TextSplitter.split(text, maxPieceBytes));
+      synchronized (this) {
+        unemitted.add(segment);
+      }
+      for (int position = 0; position < segment.pieces.size(); position++) {
+        int bytes = TextSplitter.utf8Length(segment.pieces.get(position)) + SEGMENT_OVERHEAD;
+        if (!batch.pieces.isEmpty()
+            && (batch.bytes + bytes > maxRequestBytes
+                || batch.pieces.size() >= maxRequestSegments)) {
+          flush();
+        }
+        batch.add(new Piece(segment, position), bytes);
+      }
+    }
+
+    private long await() throws InterruptedException {
+      flush();
+      awaitIdle();
+      synchronized (this) {
+        return translated;
+      }
+    }
+
+    private void flush() throws InterruptedException {
+      if (!batch.pieces.isEmpty()) {
+        submit(batch);
+        batch = new Batch();
+      }
+    }
+
+    @Override
+    protected boolean isFull() {
+      return unemitted.size() >= maxPendingSegments;
+    }
+
+    @Override
+    protected boolean isIdle() {
+      return unemitted.isEmpty();
+    }
+
+    @Override
+    protected ServiceCall<TranslationResult> newCall(Batch sent) {
+      List<String> text = new ArrayList<String>(sent.pieces.size());
+      for (Piece piece : sent.pieces) {
+        text.add(piece.segment.pieces.get(piece.position));
+      }
+      return translator.translate(
+          new TranslateOptions.Builder()
+              .text(text)
+              .modelId(modelId)
+              .source(source)
+              .target(target)
+              .build());
+    }
+
+    @Override
+    protected void complete(Batch completed, TranslationResult result) {
+      List<Translation> translations = result != null ? result.getTranslations() : null;
+      if (translations == null || translations.size() != completed.pieces.size()) {
+        fail(
+            completed,
+            new IllegalStateException(
+                "Expected "
+                    + completed.pieces.size()
+                    + " translations but the service returned "
+                    + (translations != null ? translations.size() : 0)));
+        return;
+      }
+      synchronized (this) {
+        for (int i = 0; i < translations.size(); i++) {
+          Piece piece = completed.pieces.get(i);
+          String translation = translations.get(i).getTranslation();
+          piece.segment.translations[piece.position] = translation != null ? translation : "";
+          piece.segment.remaining--;
+        }
+        emit();
+      }
+    }
+
+    @Override
+    protected synchronized void fail(Batch failed, Exception e) {
+      for (Piece piece : failed.pieces) {
+        if (piece.segment.error == null) {
+          piece.segment.error = e;
+        }
+        piece.segment.remaining--;
+      }
+      emit();
+    }
+
+    /** Passes the segments that are done and follow every earlier segment to the callback. */
+    private void emit() {
+      while (!unemitted.isEmpty() && unemitted.peek().remaining == 0) {
+        Segment segment = unemitted.poll();
+        try {
+          if (segment.error != null) {
+            callback.onFailure(segment.index, segment.text, segment.error);
+          } else {
+            translated++;
+            String translation = TextSplitter.join(segment.pieces, segment.translations);
+            callback.onTranslation(segment.index, segment.text, translation);
+          }
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Bulk translation callback failed", e);
+        }
+      }
+      notifyAll();
+    }
+  }
+
+  /** A segment of the input and the translations of its pieces. */
+  private static final class Segment {
+    private final long index;
+    private final String text;
+    private final List<String> pieces;
+    private final String[] translations;
+    private int remaining;
+    private Exception error;
+
+    private Segment(long index, String text, List<String> pieces) {
+      this.index = index;
+      this.text = text;
+      this.pieces = pieces;
+      this.translations = new String[pieces.size()];
+      this.remaining = pieces.size();
+    }
+  }
+
+  /** A piece of a segment, sent as one element of a request's text. */
+  private static final class Piece {
+    private final Segment segment;
+    private final int position;
+
+    private Piece(Segment segment, int position) {
+      this.segment = segment;
+      this.position = position;
+    }
+  }
+
+  /** The pieces sent together in one request. */
+  private static final class Batch {
+    private final List<Piece> pieces = new ArrayList<Piece>();
+    private int bytes = REQUEST_OVERHEAD;
+
+    private void add(Piece piece, int pieceBytes) {
+      pieces.add(piece);
+      bytes += pieceBytes;
+    }
+  }
+}
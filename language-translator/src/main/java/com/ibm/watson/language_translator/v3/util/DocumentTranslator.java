@@ -0,0 +1,481 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.ListStatusSource;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.SettableFuture;
+import com.ibm.watson.common.StatusPoller;
+import com.ibm.watson.language_translator.v3.LanguageTranslator;
+import com.ibm.watson.language_translator.v3.model.DeleteDocumentOptions;
+import com.ibm.watson.language_translator.v3.model.DocumentList;
+import com.ibm.watson.language_translator.v3.model.DocumentStatus;
+import com.ibm.watson.language_translator.v3.model.GetDocumentStatusOptions;
+import com.ibm.watson.language_translator.v3.model.GetTranslatedDocumentOptions;
+import com.ibm.watson.language_translator.v3.model.ListDocumentsOptions;
+import com.ibm.watson.language_translator.v3.model.TranslateDocumentOptions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Translates documents asynchronously, from a file to a file.
+ *
+ * <p>Each document is streamed from disk with {@link
+ * LanguageTranslator#translateDocument(TranslateDocumentOptions, Path)}. The statuses of all
+ * submitted documents are then polled from one scheduled task with a single {@link
+ * LanguageTranslator#listDocuments()} request per poll, and the interval grows while documents are
+ * still processing. Once a document is available its
+ * translation is streamed to a temporary file next to the destination and moved into place, so
+ * the destination only ever holds a complete translation. Thousands of documents in flight only
+ * need the polling thread and {@code maxConcurrentTransfers} transfer threads.
+ *
+ * <pre>
+ * DocumentTranslator documents =
+ *     new DocumentTranslator.Builder(translator).modelId("en-es").build();
+ * SettableFuture&lt;DocumentStatus&gt; done =
+ *     documents.translate(Paths.get("report.docx"), Paths.get("report-es.docx"));
+ * </pre>
+ */
+public class DocumentTranslator implements Closeable {
+  private static final Logger LOG = Logger.getLogger(DocumentTranslator.class.getName());
+
+  /** The number of documents polled together, all answered by one list request. */
+  private static final int STATUS_BATCH_SIZE = 1000;
+
+  private final LanguageTranslator translator;
+  private final String modelId;
+  private final String source;
+  private final String target;
+  private final String accept;
+  private final boolean deleteAfterDownload;
+  private final RetryPolicy retryPolicy;
+  private final ExecutorService transfers;
+  private final ScheduledExecutorService timer;
+  private final boolean ownsTimer;
+  private final StatusPoller<String, DocumentStatus> poller;
+
+  /** Builder. */
+  public static class Builder {
+    private LanguageTranslator translator;
+    private String modelId;
+    private String source;
+    private String target;
+    private String accept;
+    private boolean deleteAfterDownload;
+    private int maxConcurrentTransfers = 4;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private ScheduledExecutorService scheduler;
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(2);
+    private long maxPollIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param translator the Language Translator service
+     */
+    public Builder(LanguageTranslator translator) {
+      this.translator = translator;
+    }
+
+    /**
+     * Builds a DocumentTranslator.
+     *
+     * @return the document translator
+     */
+    public DocumentTranslator build() {
+      return new DocumentTranslator(this);
+    }
+
+    /**
+     * Set the model used to translate every document.
+     *
+     * @param modelId the model ID
+     * @return the DocumentTranslator builder
+     */
+    public Builder modelId(String modelId) {
+      this.modelId = modelId;
+      return this;
+    }
+
+    /**
+     * Set the language of the source documents. By default the service detects it.
+     *
+     * @param source the source language
+     * @return the DocumentTranslator builder
+     */
+    public Builder source(String source) {
+      this.source = source;
+      return this;
+    }
+
+    /**
+     * Set the language to translate the documents to, when no model ID is set.
+     *
+     * @param target the target language
+     * @return the DocumentTranslator builder
+     */
+    public Builder target(String target) {
+      this.target = target;
+      return this;
+    }
+
+    /**
+     * Set the content type of the translated documents. By default they have the type of the
+     * source documents.
+     *
+     * @param accept the content type
+     * @return the DocumentTranslator builder
+     */
+    public Builder accept(String accept) {
+      this.accept = accept;
+      return this;
+    }
+
+    /**
+     * Set whether documents are deleted from the service once their translation is downloaded.
+     * Defaults to false.
+     *
+     * @param deleteAfterDownload whether to delete downloaded documents
+     * @return the DocumentTranslator builder
+     */
+    public Builder deleteAfterDownload(boolean deleteAfterDownload) {
+      this.deleteAfterDownload = deleteAfterDownload;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent uploads and downloads. Defaults to 4.
+     *
+     * @param maxConcurrentTransfers the maximum number of concurrent transfers
+     * @return the DocumentTranslator builder
+     */
+    public Builder maxConcurrentTransfers(int maxConcurrentTransfers) {
+      this.maxConcurrentTransfers = maxConcurrentTransfers;
+      return this;
+    }
+
+    /**
+     * Set how failed uploads, downloads and status requests are retried. Defaults to {@link
+     * RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the DocumentTranslator builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Set the scheduler that polls document statuses and delays retries, so that it can be shared
+     * with other work. It is not shut down by {@link DocumentTranslator#close()}. By default the
+     * translator uses its own daemon thread.
+     *
+     * @param scheduler the scheduler
+     * @return the DocumentTranslator builder
+     */
+    public Builder scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Set how long to wait before first polling the status of a submitted document. Defaults to
+     * two seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the DocumentTranslator builder
+     */
+    public Builder pollInterval(long interval, TimeUnit unit) {
+      this.pollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set the longest interval between two polls of a document's status. Defaults to 30 seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the DocumentTranslator builder
+     */
+    public Builder maxPollInterval(long interval, TimeUnit unit) {
+      this.maxPollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+  }
+
+  protected DocumentTranslator(Builder builder) {
+    Validator.notNull(builder.translator, "translator cannot be null");
+    Validator.isTrue(
+        builder.modelId != null || builder.target != null, "modelId or target must be set");
+    Validator.isTrue(builder.maxConcurrentTransfers > 0, "maxConcurrentTransfers must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    translator = builder.translator;
+    modelId = builder.modelId;
+    source = builder.source;
+    target = builder.target;
+    accept = builder.accept;
+    deleteAfterDownload = builder.deleteAfterDownload;
+    retryPolicy = builder.retryPolicy;
+    transfers =
+        Executors.newFixedThreadPool(
+            builder.maxConcurrentTransfers, new DaemonThreadFactory("document-transfer"));
+    ownsTimer = builder.scheduler == null;
+    timer =
+        ownsTimer
+            ? Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("document-translator"))
+            : builder.scheduler;
+    poller =
+        new StatusPoller.Builder<String, DocumentStatus>(new DocumentListSource())
+            .scheduler(timer)
+            .initialInterval(builder.pollIntervalMillis, TimeUnit.MILLISECONDS)
+            .maxInterval(builder.maxPollIntervalMillis, TimeUnit.MILLISECONDS)
+            .batchSize(STATUS_BATCH_SIZE)
+            .retryPolicy(retryPolicy)
+            .build();
+  }
+
+  /**
+   * Submits a document for translation.
+   *
+   * <p>The returned future completes with the final status of the document once its translation
+   * has been written to the destination, or once the service reports that the translation failed,
+   * in which case nothing is written. It completes exceptionally if the document cannot be
+   * uploaded, polled or downloaded after all retries.
+   *
+   * @param file the document to translate
+   * @param destination the file to write the translation to; it is replaced if it exists
+   * @return a future that completes with the final status of the document
+   */
+  public SettableFuture<DocumentStatus> translate(Path file, Path destination) {
+    Validator.notNull(file, "file cannot be null");
+    Validator.notNull(destination, "destination cannot be null");
+    Job job = new Job(file, destination);
+    transfers.execute(job.new Upload());
+    return job.future;
+  }
+
+  /**
+   * Returns the number of submitted documents that the service is still translating.
+   *
+   * @return the number of documents being polled
+   */
+  public int getPendingCount() {
+    return poller.getPendingCount();
+  }
+
+  /**
+   * Stops polling and transferring. The futures of documents still being translated are
+   * cancelled; the documents themselves are left on the service.
+   */
+  @Override
+  public void close() {
+    poller.close();
+    transfers.shutdownNow();
+    if (ownsTimer) {
+      timer.shutdownNow();
+    }
+  }
+
+  /** One document from upload to download. */
+  private final class Job {
+    private final Path file;
+    private final Path destination;
+    private final SettableFuture<DocumentStatus> future = new SettableFuture<DocumentStatus>();
+
+    private Job(Path file, Path destination) {
+      this.file = file;
+      this.destination = destination;
+    }
+
+    private void watch(String documentId) {
+      final SettableFuture<DocumentStatus> status = poller.watch(documentId);
+      status.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              DocumentStatus finished;
+              try {
+                finished = status.get();
+              } catch (ExecutionException e) {
+                future.setException(e.getCause());
+                return;
+              } catch (CancellationException | InterruptedException e) {
+                future.cancel(false);
+                return;
+              }
+              if (DocumentStatus.Status.AVAILABLE.equals(finished.getStatus())) {
+                transfers.execute(new Download(finished));
+              } else {
+                future.set(finished);
+              }
+            }
+          });
+    }
+
+    /** A step of the job that is retried according to the retry policy. */
+    private abstract class Transfer implements Runnable {
+      private int attempts;
+
+      abstract void transfer() throws IOException;
+
+      @Override
+      public void run() {
+        if (future.isDone()) {
+          return;
+        }
+        try {
+          transfer();
+        } catch (IOException | RuntimeException e) {
+          attempts++;
+          if (!retryPolicy.shouldRetry(e, attempts)) {
+            future.setException(e);
+            return;
+          }
+          final Transfer retry = this;
+          timer.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  transfers.execute(retry);
+                }
+              },
+              retryPolicy.delayMillis(e, attempts),
+              TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+
+    /** Uploads the document and starts polling its status. */
+    private final class Upload extends Transfer {
+      @Override
+      void transfer() throws IOException {
+        if (!Files.isRegularFile(file)) {
+          future.setException(new IOException(file + " is not a regular file"));
+          return;
+        }
+        TranslateDocumentOptions options =
+            new TranslateDocumentOptions.Builder()
+                .modelId(modelId)
+                .source(source)
+                .target(target)
+                .build();
+        DocumentStatus status = translator.translateDocument(options, file).execute().getResult();
+        watch(status.getDocumentId());
+      }
+    }
+
+    /** Streams the translation of the document to a temporary file and moves it into place. */
+    private final class Download extends Transfer {
+      private final DocumentStatus status;
+
+      private Download(DocumentStatus status) {
+        this.status = status;
+      }
+
+      @Override
+      void transfer() throws IOException {
+        Path directory = destination.toAbsolutePath().getParent();
+        Path partial =
+            Files.createTempFile(directory, destination.getFileName().toString(), ".part");
+        try {
+          try (InputStream translated =
+              translator
+                  .getTranslatedDocument(
+                      new GetTranslatedDocumentOptions.Builder(status.getDocumentId())
+                          .accept(accept)
+                          .build())
+                  .execute()
+                  .getResult()) {
+            Files.copy(translated, partial, StandardCopyOption.REPLACE_EXISTING);
+          }
+          try {
+            Files.move(
+                partial,
+                destination,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+          } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, destination, StandardCopyOption.REPLACE_EXISTING);
+          }
+        } finally {
+          Files.deleteIfExists(partial);
+        }
+        if (deleteAfterDownload) {
+          try {
+            translator
+                .deleteDocument(new DeleteDocumentOptions.Builder(status.getDocumentId()).build())
+                .execute();
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not delete document " + status.getDocumentId(), e);
+          }
+        }
+        future.set(status);
+      }
+    }
+  }
+
+  /**
+   * Fetches the statuses of all polled documents with one list request, falling back to a status
+   * request for documents missing from the list.
+   */
+  private final class DocumentListSource extends ListStatusSource<String, DocumentStatus> {
+    @Override
+    protected List<DocumentStatus> list() {
+      DocumentList list =
+          translator
+              .listDocuments(new ListDocumentsOptions.Builder().build())
+              .execute()
+              .getResult();
+      return list != null ? list.getDocuments() : null;
+    }
+
+    @Override
+    protected String getId(DocumentStatus status) {
+      return status.getDocumentId();
+    }
+
+    @Override
+    protected DocumentStatus get(String id) {
+      return translator
+          .getDocumentStatus(new GetDocumentStatusOptions.Builder(id).build())
+          .execute()
+          .getResult();
+    }
+
+    @Override
+    public boolean isFinished(DocumentStatus status) {
+      return DocumentStatus.Status.AVAILABLE.equals(status.getStatus())
+          || DocumentStatus.Status.FAILED.equals(status.getStatus());
+    }
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.CachedServiceCall;
+import com.ibm.watson.common.ListenableServiceCall;
+import com.ibm.watson.common.LruCache;
+import com.ibm.watson.language_translator.v3.LanguageTranslator;
+import com.ibm.watson.language_translator.v3.model.IdentifiedLanguage;
+import com.ibm.watson.language_translator.v3.model.IdentifiedLanguages;
+import com.ibm.watson.language_translator.v3.model.IdentifyOptions;
+import com.ibm.watson.language_translator.v3.model.TranslateOptions;
+import com.ibm.watson.language_translator.v3.model.TranslationResult;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identifies the language of texts with as few calls to {@link
+ * LanguageTranslator#identify(IdentifyOptions)} as possible.
+ *
+ * <p>Identified languages are cached under a SHA-256 hash of the text, so the cache does not hold
+ * the texts themselves. Texts written mostly in a script used by a single supported language, such
+ * as Hangul, kana or Greek, are identified locally when the guess is at least as confident as
+ * {@code minConfidence}; Han and Cyrillic text is shared by several languages and is only
+ * identified locally with a lower {@code minConfidence}.
+ *
+ * <p>{@link #translate(TranslateOptions)} translates text whose source language is not set in one
+ * round trip: the source is set from the cache or the script when it is known, and otherwise the
+ * service detects it while translating and the detected language is cached for the next request.
+ */
+public class LanguageIdentifier {
+  private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+  private static final double DEFAULT_MIN_CONFIDENCE = 0.9;
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final LanguageTranslator translator;
+  private final Cache<String, IdentifiedLanguages> cache;
+  private final boolean scriptDetection;
+  private final double minConfidence;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong scriptCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Builder. */
+  public static class Builder {
+    private LanguageTranslator translator;
+    private Cache<String, IdentifiedLanguages> cache;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private boolean scriptDetection = true;
+    private double minConfidence = DEFAULT_MIN_CONFIDENCE;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param translator the Language Translator service
+     */
+    public Builder(LanguageTranslator translator) {
+      this.translator = translator;
+    }
+
+    /**
+     * Builds a LanguageIdentifier.
+     *
+     * @return the language identifier
+     */
+    public LanguageIdentifier build() {
+      return new LanguageIdentifier(this);
+    }
+
+    /**
+     * Set the cache that holds identified languages. Defaults to an {@link LruCache} of {@code
+     * maximumSize} entries.
+     *
+     * @param cache the cache
+     * @return the LanguageIdentifier builder
+     */
+    public Builder cache(Cache<String, IdentifiedLanguages> cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of entries of the default cache.
+     *
+     * @param maximumSize the maximum number of entries
+     * @return the LanguageIdentifier builder
+     */
+    public Builder maximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Set whether texts are identified locally from their script. Defaults to true.
+     *
+     * @param scriptDetection whether to identify texts from their script
+     * @return the LanguageIdentifier builder
+     */
+    public Builder scriptDetection(boolean scriptDetection) {
+      this.scriptDetection = scriptDetection;
+      return this;
+    }
+
+    /**
+     * Set the lowest confidence, between 0 and 1, at which a language guessed from the script or
+     * cached from an earlier translation is used instead of asking the service. Defaults to 0.9.
+     *
+     * @param minConfidence the minimum confidence
+     * @return the LanguageIdentifier builder
+     */
+    public Builder minConfidence(double minConfidence) {
+      this.minConfidence = minConfidence;
+      return this;
+    }
+  }
+
+  protected LanguageIdentifier(Builder builder) {
+    Validator.notNull(builder.translator, "translator cannot be null");
+    Validator.isTrue(
+        builder.minConfidence >= 0 && builder.minConfidence <= 1,
+        "minConfidence must be between 0 and 1");
+    translator = builder.translator;
+    cache =
+        builder.cache != null
+            ? builder.cache
+            : new LruCache<String, IdentifiedLanguages>(builder.maximumSize);
+    scriptDetection = builder.scriptDetection;
+    minConfidence = builder.minConfidence;
+  }
+
+  /**
+   * Identify language, answering from the cache or the script of the text when possible. A
+   * language identified from the script is returned alone, with the confidence of the guess.
+   *
+   * @param identifyOptions the {@link IdentifyOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link IdentifiedLanguages}
+   * @see LanguageTranslator#identify(IdentifyOptions)
+   */
+  public ServiceCall<IdentifiedLanguages> identify(IdentifyOptions identifyOptions) {
+    Validator.notNull(identifyOptions, "identifyOptions cannot be null");
+    final String key = hash(identifyOptions.text());
+    IdentifiedLanguages hit = cache.get(key);
+    if (hit != null) {
+      hitCount.incrementAndGet();
+      return CachedServiceCall.of(hit);
+    }
+    ScriptDetector.Guess guess = guess(identifyOptions.text());
+    if (guess != null) {
+      scriptCount.incrementAndGet();
+      IdentifiedLanguages identified = identified(guess.language(), guess.confidence());
+      cache.put(key, identified, 0);
+      return CachedServiceCall.of(identified);
+    }
+    missCount.incrementAndGet();
+    return new ListenableServiceCall<IdentifiedLanguages>(
+        translator.identify(identifyOptions),
+        new ListenableServiceCall.ResponseListener<IdentifiedLanguages>() {
+          @Override
+          public void onResponse(Response<IdentifiedLanguages> response) {
+            cache.put(key, response.getResult(), 0);
+          }
+        });
+  }
+
+  /**
+   * Translate in one round trip. When neither the source language nor a model ID is set, the
+   * source is set from the cache or the script of the text if it is known, and otherwise the
+   * service detects it and the detected language is cached. Text whose source is known to be the
+   * target language is returned untranslated without calling the service.
+   *
+   * @param translateOptions the {@link TranslateOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link TranslationResult}
+   * @see LanguageTranslator#translate(TranslateOptions)
+   */
+  public ServiceCall<TranslationResult> translate(TranslateOptions translateOptions) {
+    Validator.notNull(translateOptions, "translateOptions cannot be null");
+    if (translateOptions.source() != null || translateOptions.modelId() != null) {
+      return translator.translate(translateOptions);
+    }
+    Validator.notNull(translateOptions.target(), "target cannot be null without a model ID");
+    String text = join(translateOptions.text());
+    String key = hash(text);
+    String source = knownLanguage(key, text);
+    if (source != null) {
+      if (source.equals(translateOptions.target())) {
+        return CachedServiceCall.of(untranslated(translateOptions.text(), source));
+      }
+      return translator.translate(translateOptions.newBuilder().source(source).build());
+    }
+    missCount.incrementAndGet();
+    final String translateKey = "translate|" + key;
+    return new ListenableServiceCall<TranslationResult>(
+        translator.translate(translateOptions),
+        new ListenableServiceCall.ResponseListener<TranslationResult>() {
+          @Override
+          public void onResponse(Response<TranslationResult> response) {
+            TranslationResult result = response.getResult();
+            if (result != null
+                && result.getDetectedLanguage() != null
+                && result.getDetectedLanguageConfidence() != null) {
+              cache.put(
+                  translateKey,
+                  identified(result.getDetectedLanguage(), result.getDetectedLanguageConfidence()),
+                  0);
+            }
+          }
+        });
+  }
+
+  /** Removes every cached language. */
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  /**
+   * Returns the number of texts whose language was answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of texts whose language was identified from their script.
+   *
+   * @return the number of texts identified locally from their script
+   */
+  public long getScriptCount() {
+    return scriptCount.get();
+  }
+
+  /**
+   * Returns the number of texts whose language had to be identified by the service.
+   *
+   * @return the number of cache misses
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the most likely language of a text if it is known confidently enough, or null. */
+  private String knownLanguage(String key, String text) {
+    for (String cacheKey : new String[] {key, "translate|" + key}) {
+      IdentifiedLanguages cached = cache.get(cacheKey);
+      List<IdentifiedLanguage> languages = cached != null ? cached.getLanguages() : null;
+      if (languages != null && !languages.isEmpty()) {
+        IdentifiedLanguage top = languages.get(0);
+        if (top.getConfidence() != null && top.getConfidence() >= minConfidence) {
+          hitCount.incrementAndGet();
+          return top.getLanguage();
+        }
+      }
+    }
+    ScriptDetector.Guess guess = guess(text);
+    if (guess != null) {
+      scriptCount.incrementAndGet();
+      return guess.language();
+    }
+    return null;
+  }
+
+  private ScriptDetector.Guess guess(String text) {
+    if (!scriptDetection) {
+      return null;
+    }
+    ScriptDetector.Guess guess = ScriptDetector.guess(text);
+    return guess != null && guess.confidence() >= minConfidence ? guess : null;
+  }
+
+  private static IdentifiedLanguages identified(String language, double confidence) {
+    JsonObject identified = new JsonObject();
+    identified.addProperty("language", language);
+    identified.addProperty("confidence", confidence);
+    JsonArray languages = new JsonArray();
+    languages.add(identified);
+    JsonObject json = new JsonObject();
+    json.add("languages", languages);
+    return GSON.fromJson(json, IdentifiedLanguages.class);
+  }
+
+  private static TranslationResult untranslated(List<String> text, String language) {
+    JsonArray translations = new JsonArray();
+    for (String segment : text) {
+      JsonObject translation = new JsonObject();
+      translation.addProperty("translation", segment);
+      translations.add(translation);
+    }
+    JsonObject json = new JsonObject();
+    json.addProperty("word_count", 0);
+    json.addProperty("character_count", 0);
+    json.addProperty("detected_language", language);
+    json.add("translations", translations);
+    return GSON.fromJson(json, TranslationResult.class);
+  }
+
+  private static String join(List<String> text) {
+    StringBuilder joined = new StringBuilder();
+    for (String segment : text) {
+      if (joined.length() > 0) {
+        joined.append('\n');
+      }
+      joined.append(segment);
+    }
+    return joined.toString();
+  }
+
+  private static String hash(String text) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] bytes = digest.digest(text.getBytes(UTF_8));
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,425 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The on-disk tier of a {@link TranslationMemory}: an append-only log of translations in a
+ * memory-mapped file of fixed capacity.
+ *
+ * <p>The log holds two kinds of records: a translation stored under a key, and the invalidation of
+ * every key that starts with a prefix. Each live translation is indexed in memory by the hash of
+ * its key and the position of its record, 8 bytes per slot of an open-addressing table, so the
+ * index holds no keys and is bounded by the number of records that fit in the file; keys are
+ * compared against the file. The index is rebuilt by replaying the log when the file is opened.
+ *
+ * <p>When the file is full its live translations are copied to a new file, which then atomically
+ * replaces it, so a crash during compaction leaves either the old log or the compacted one. Once
+ * compaction no longer frees enough space new translations are only kept in memory.
+ */
+final class MappedTranslationStore implements Closeable {
+  private static final Logger LOG = Logger.getLogger(MappedTranslationStore.class.getName());
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int MAGIC = 0x544d3031;
+  private static final int HEADER_SIZE = 4;
+  private static final byte ENTRY = 1;
+  private static final byte INVALIDATION = 2;
+  /** The offset of the key in a record: its length and its type come first. */
+  private static final int KEY_OFFSET = 4 + 1;
+  private static final int EMPTY = -1;
+  private static final int REMOVED = -2;
+  private static final int INITIAL_SLOTS = 64;
+
+  private final Path file;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int position = HEADER_SIZE;
+  /** The position of the record in each slot of the index, EMPTY or REMOVED. */
+  private int[] slots = emptySlots(INITIAL_SLOTS);
+  /** The hash of the key in each slot of the index. */
+  private int[] hashes = new int[INITIAL_SLOTS];
+  private int count;
+  private int used;
+
+  private MappedTranslationStore(Path file, FileChannel channel, MappedByteBuffer buffer) {
+    this.file = file;
+    this.channel = channel;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Opens a store, creating the file if it does not exist.
+   *
+   * @param file the file
+   * @param capacity the size of the file in bytes
+   * @return the store
+   * @throws IOException if the file cannot be mapped or is not a translation memory
+   */
+  static MappedTranslationStore open(Path file, int capacity) throws IOException {
+    if (capacity <= HEADER_SIZE + 4) {
+      throw new IllegalArgumentException("capacity is too small");
+    }
+    FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    try {
+      long size = Math.max(channel.size(), capacity);
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(file + " is too large to be a translation memory");
+      }
+      MappedTranslationStore store =
+          new MappedTranslationStore(
+              file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+      store.load();
+      return store;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void load() throws IOException {
+    int magic = buffer.getInt(0);
+    if (magic == 0) {
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(HEADER_SIZE, 0);
+      return;
+    }
+    if (magic != MAGIC) {
+      throw new IOException(file + " is not a translation memory");
+    }
+    try {
+      while (position + 4 <= buffer.capacity()) {
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + 4 + length > buffer.capacity()) {
+          break;
+        }
+        byte type = buffer.get(position + 4);
+        byte[] key = readBytes(position + KEY_OFFSET);
+        if (type == ENTRY) {
+          index(key, new String(key, UTF_8).hashCode(), position);
+        } else if (type == INVALIDATION) {
+          removePrefix(new String(key, UTF_8));
+        }
+        position += 4 + length;
+      }
+    } catch (RuntimeException e) {
+      // A corrupt record ends the log.
+    }
+    if (position + 4 <= buffer.capacity()) {
+      buffer.putInt(position, 0);
+    }
+  }
+
+  /**
+   * Returns the translation stored under a key.
+   *
+   * @param key the key
+   * @return the translation, or null
+   */
+  synchronized String get(String key) {
+    int slot = find(key.getBytes(UTF_8), key.hashCode());
+    return slot >= 0 ? readValue(slots[slot]) : null;
+  }
+
+  /**
+   * Stores a translation. It is dropped if the file is full even after compaction.
+   *
+   * @param key the key
+   * @param value the translation
+   */
+  synchronized void put(String key, String value) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int hash = key.hashCode();
+    int slot = find(keyBytes, hash);
+    if (slot >= 0 && value.equals(readValue(slots[slot]))) {
+      return;
+    }
+    int start = append(ENTRY, keyBytes, value.getBytes(UTF_8));
+    if (start >= 0) {
+      index(keyBytes, hash, start);
+    }
+  }
+
+  /**
+   * Removes every translation whose key starts with a prefix.
+   *
+   * @param prefix the prefix
+   */
+  synchronized void invalidate(String prefix) {
+    if (removePrefix(prefix)) {
+      append(INVALIDATION, prefix.getBytes(UTF_8), null);
+    }
+  }
+
+  /** Removes every translation. */
+  synchronized void clear() {
+    slots = emptySlots(INITIAL_SLOTS);
+    hashes = new int[INITIAL_SLOTS];
+    count = 0;
+    used = 0;
+    position = HEADER_SIZE;
+    buffer.putInt(position, 0);
+  }
+
+  /**
+   * Returns the number of stored translations.
+   *
+   * @return the number of stored translations
+   */
+  synchronized int size() {
+    return count;
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+
+  /** Returns the slot of the live record stored under a key, or -1. */
+  private int find(byte[] key, int hash) {
+    int mask = slots.length - 1;
+    for (int i = spread(hash) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+      if (slots[i] != REMOVED && hashes[i] == hash && keyEquals(slots[i], key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Points the index entry of a key at a record, adding the entry if needed. */
+  private void index(byte[] key, int hash, int start) {
+    int slot = find(key, hash);
+    if (slot >= 0) {
+      slots[slot] = start;
+      return;
+    }
+    if ((used + 1) * 2 > slots.length) {
+      // Grow when live entries fill a quarter of the table; otherwise only drop removed slots.
+      resize((count + 1) * 4 > slots.length ? slots.length * 2 : slots.length);
+    }
+    int mask = slots.length - 1;
+    int i = spread(hash) & mask;
+    while (slots[i] >= 0) {
+      i = (i + 1) & mask;
+    }
+    if (slots[i] == EMPTY) {
+      used++;
+    }
+    slots[i] = start;
+    hashes[i] = hash;
+    count++;
+  }
+
+  private void resize(int length) {
+    int[] oldSlots = slots;
+    int[] oldHashes = hashes;
+    slots = emptySlots(length);
+    hashes = new int[length];
+    int mask = length - 1;
+    for (int j = 0; j < oldSlots.length; j++) {
+      if (oldSlots[j] >= 0) {
+        int i = spread(oldHashes[j]) & mask;
+        while (slots[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        slots[i] = oldSlots[j];
+        hashes[i] = oldHashes[j];
+      }
+    }
+    used = count;
+  }
+
+  private boolean removePrefix(String prefix) {
+    boolean removed = false;
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] >= 0 && readString(slots[i] + KEY_OFFSET).startsWith(prefix)) {
+        slots[i] = REMOVED;
+        count--;
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  /** Appends a record, compacting the file if needed, and returns its position or -1. */
+  private int append(byte type, byte[] key, byte[] value) {
+    int start = write(type, key, value);
+    if (start < 0 && compact()) {
+      start = write(type, key, value);
+    }
+    return start;
+  }
+
+  /** Writes a record at the end of the log and returns its position, or -1 if it does not fit. */
+  private int write(byte type, byte[] key, byte[] value) {
+    int length = 1 + 4 + key.length + (value != null ? 4 + value.length : 0);
+    if ((long) position + 4 + length + 4 > buffer.capacity()) {
+      return -1;
+    }
+    int start = position;
+    int offset = start + 4;
+    buffer.put(offset, type);
+    offset = writeBytes(offset + 1, key);
+    if (value != null) {
+      offset = writeBytes(offset, value);
+    }
+    // The terminator is written before the length, so a record is only visible once complete.
+    buffer.putInt(offset, 0);
+    buffer.putInt(start, length);
+    position = offset;
+    return start;
+  }
+
+  /**
+   * Copies the records of the live translations to a new file and moves it over the log. Returns
+   * false, leaving the log as it was, if the new file cannot be written.
+   */
+  private boolean compact() {
+    Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+    FileChannel target = null;
+    try {
+      target =
+          FileChannel.open(
+              compacted,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      MappedByteBuffer copy = target.map(FileChannel.MapMode.READ_WRITE, 0, buffer.capacity());
+      copy.putInt(0, MAGIC);
+      int[] moved = slots.clone();
+      int end = HEADER_SIZE;
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] >= 0) {
+          int length = 4 + buffer.getInt(slots[i]);
+          ByteBuffer record = buffer.duplicate();
+          record.limit(slots[i] + length);
+          record.position(slots[i]);
+          ByteBuffer destination = copy.duplicate();
+          destination.position(end);
+          destination.put(record);
+          moved[i] = end;
+          end += length;
+        }
+      }
+      copy.putInt(end, 0);
+      copy.force();
+      try {
+        Files.move(
+            compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+      // The new channel and mapping follow the file they were opened on to its new name.
+      FileChannel old = channel;
+      channel = target;
+      buffer = copy;
+      target = null;
+      position = end;
+      slots = moved;
+      resize(slots.length);
+      closeQuietly(old);
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not compact the translation memory " + file, e);
+      return false;
+    } finally {
+      if (target != null) {
+        closeQuietly(target);
+        try {
+          Files.deleteIfExists(compacted);
+        } catch (IOException e) {
+          LOG.log(Level.FINE, "Could not delete " + compacted, e);
+        }
+      }
+    }
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Could not close the translation memory", e);
+    }
+  }
+
+  private boolean keyEquals(int start, byte[] key) {
+    int offset = start + KEY_OFFSET;
+    if (buffer.getInt(offset) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (buffer.get(offset + 4 + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String readValue(int start) {
+    return readString(start + KEY_OFFSET + 4 + buffer.getInt(start + KEY_OFFSET));
+  }
+
+  private int writeBytes(int offset, byte[] bytes) {
+    buffer.putInt(offset, bytes.length);
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset + 4);
+    view.put(bytes);
+    return offset + 4 + bytes.length;
+  }
+
+  private byte[] readBytes(int offset) {
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset + 4);
+    view.get(bytes);
+    return bytes;
+  }
+
+  private String readString(int offset) {
+    return new String(readBytes(offset), UTF_8);
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static int[] emptySlots(int length) {
+    int[] slots = new int[length];
+    Arrays.fill(slots, EMPTY);
+    return slots;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import java.lang.Character.UnicodeScript;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Guesses the language of a text from the Unicode scripts of its letters, for the scripts that are
+ * used by a single language supported by the service.
+ */
+final class ScriptDetector {
+  private static final Map<UnicodeScript, String> LANGUAGES =
+      new EnumMap<UnicodeScript, String>(UnicodeScript.class);
+  private static final Map<UnicodeScript, Double> CONFIDENCES =
+      new EnumMap<UnicodeScript, Double>(UnicodeScript.class);
+
+  /** Letters only found in Ukrainian among the Cyrillic languages supported by the service. */
+  private static final String UKRAINIAN_LETTERS = "ґєіїҐЄІЇ";
+
+  static {
+    script(UnicodeScript.HANGUL, Language.KOREAN, 0.99);
+    script(UnicodeScript.HIRAGANA, Language.JAPANESE, 0.99);
+    script(UnicodeScript.KATAKANA, Language.JAPANESE, 0.99);
+    // Han alone is also written in Japanese, and in traditional as well as simplified Chinese, so
+    // it stays below the identifier's default minimum and such texts go to the service.
+    script(UnicodeScript.HAN, Language.CHINESE, 0.8);
+    script(UnicodeScript.GREEK, Language.GREEK, 0.99);
+    script(UnicodeScript.HEBREW, Language.HEBREW, 0.95);
+    script(UnicodeScript.ARMENIAN, Language.ARMENIAN, 0.99);
+    script(UnicodeScript.GEORGIAN, Language.GEORGIAN, 0.99);
+    script(UnicodeScript.GUJARATI, Language.GUJARATI, 0.99);
+    script(UnicodeScript.GURMUKHI, Language.PANJABI, 0.99);
+    script(UnicodeScript.BENGALI, Language.BENGALI, 0.95);
+    script(UnicodeScript.MALAYALAM, Language.MALAYALAM, 0.99);
+    script(UnicodeScript.TAMIL, Language.TAMIL, 0.99);
+    script(UnicodeScript.TELUGU, Language.TELUGU, 0.99);
+    script(UnicodeScript.KHMER, Language.CENTRAL_KHMER, 0.99);
+    // Cyrillic is shared by Russian, Ukrainian, Bulgarian, Belarusian, Kazakh and others.
+    script(UnicodeScript.CYRILLIC, Language.RUSSIAN, 0.7);
+  }
+
+  /** The language guessed for a text and how confident the guess is. */
+  static final class Guess {
+    private final String language;
+    private final double confidence;
+
+    private Guess(String language, double confidence) {
+      this.language = language;
+      this.confidence = confidence;
+    }
+
+    String language() {
+      return language;
+    }
+
+    double confidence() {
+      return confidence;
+    }
+  }
+
+  private ScriptDetector() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  private static void script(UnicodeScript script, String language, double confidence) {
+    LANGUAGES.put(script, language);
+    CONFIDENCES.put(script, confidence);
+  }
+
+  /**
+   * Guesses the language of a text. The confidence is the confidence of the dominant script times
+   * the share of letters written in it.
+   *
+   * @param text the text
+   * @return the guess, or null if the text has no letters or its dominant script is used by many
+   *     languages, such as Latin or Arabic
+   */
+  static Guess guess(CharSequence text) {
+    Map<UnicodeScript, Integer> counts = new EnumMap<UnicodeScript, Integer>(UnicodeScript.class);
+    int letters = 0;
+    boolean ukrainian = false;
+    for (int i = 0; i < text.length(); ) {
+      int codePoint = Character.codePointAt(text, i);
+      i += Character.charCount(codePoint);
+      if (!Character.isLetter(codePoint)) {
+        continue;
+      }
+      letters++;
+      UnicodeScript script = UnicodeScript.of(codePoint);
+      if (script == UnicodeScript.KATAKANA) {
+        script = UnicodeScript.HIRAGANA;
+      }
+      Integer count = counts.get(script);
+      counts.put(script, count != null ? count + 1 : 1);
+      ukrainian |= UKRAINIAN_LETTERS.indexOf(codePoint) >= 0;
+    }
+    if (letters == 0) {
+      return null;
+    }
+    // Japanese mixes kana with Han, so any kana makes the Han letters Japanese too.
+    Integer kana = counts.get(UnicodeScript.HIRAGANA);
+    Integer han = counts.get(UnicodeScript.HAN);
+    if (kana != null && han != null) {
+      counts.put(UnicodeScript.HIRAGANA, kana + han);
+      counts.remove(UnicodeScript.HAN);
+    }
+    UnicodeScript dominant = null;
+    int dominantCount = 0;
+    for (Map.Entry<UnicodeScript, Integer> count : counts.entrySet()) {
+      if (count.getValue() > dominantCount) {
+        dominant = count.getKey();
+        dominantCount = count.getValue();
+      }
+    }
+    String language = LANGUAGES.get(dominant);
+    if (language == null) {
+      return null;
+    }
+    double confidence = CONFIDENCES.get(dominant);
+    if (dominant == UnicodeScript.CYRILLIC && ukrainian) {
+      language = Language.UKRAINIAN;
+      confidence = 0.85;
+    }
+    return new Guess(language, confidence * dominantCount / letters);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import java.nio.charset.Charset;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/** Splits text that is too large for one request into pieces that can be translated separately. */
+final class TextSplitter {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private TextSplitter() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Returns the size of a text in UTF-8.
+   *
+   * @param text the text
+   * @return the number of bytes
+   */
+  static int utf8Length(String text) {
+    return text.getBytes(UTF_8).length;
+  }
+
+  /**
+   * Splits a text at sentence boundaries into pieces of at most {@code maxBytes} bytes. Sentences
+   * that are still too large are split at word boundaries, and words at character boundaries. The
+   * pieces keep their surrounding whitespace, so concatenating them gives back the text.
+   *
+   * @param text the text
+   * @param maxBytes the maximum size of a piece in UTF-8
+   * @return the pieces
+   */
+  static List<String> split(String text, int maxBytes) {
+    List<String> pieces = new ArrayList<String>();
+    if (utf8Length(text) <= maxBytes) {
+      pieces.add(text);
+      return pieces;
+    }
+    StringBuilder current = new StringBuilder();
+    int currentBytes = 0;
+    for (String sentence : units(text, BreakIterator.getSentenceInstance(Locale.ROOT))) {
+      int sentenceBytes = utf8Length(sentence);
+      if (sentenceBytes > maxBytes) {
+        currentBytes = flush(pieces, current);
+        splitSentence(pieces, sentence, maxBytes);
+      } else {
+        if (currentBytes + sentenceBytes > maxBytes) {
+          currentBytes = flush(pieces, current);
+        }
+        current.append(sentence);
+        currentBytes += sentenceBytes;
+      }
+    }
+    flush(pieces, current);
+    return pieces;
+  }
+
+  /**
+   * Joins the translations of the pieces of a text, keeping the whitespace that followed each
+   * piece in the source when the translation dropped it.
+   *
+   * @param pieces the pieces of the source text
+   * @param translations the translations of the pieces
+   * @return the translation of the text
+   */
+  static String join(List<String> pieces, String[] translations) {
+    if (translations.length == 1) {
+      return translations[0];
+    }
+    StringBuilder joined = new StringBuilder();
+    for (int i = 0; i < translations.length; i++) {
+      String translation = translations[i];
+      joined.append(translation);
+      String piece = pieces.get(i);
+      int end = piece.length();
+      while (end > 0 && Character.isWhitespace(piece.charAt(end - 1))) {
+        end--;
+      }
+      if (end < piece.length()
+          && i < translations.length - 1
+          && (translation.isEmpty()
+              || !Character.isWhitespace(translation.charAt(translation.length() - 1)))) {
+        joined.append(piece.substring(end));
+      }
+    }
+    return joined.toString();
+  }
+
+  private static void splitSentence(List<String> pieces, String sentence, int maxBytes) {
+    StringBuilder current = new StringBuilder();
+    int currentBytes = 0;
+    for (String word : units(sentence, BreakIterator.getWordInstance(Locale.ROOT))) {
+      int wordBytes = utf8Length(word);
+      if (wordBytes <= maxBytes) {
+        if (currentBytes + wordBytes > maxBytes) {
+          currentBytes = flush(pieces, current);
+        }
+        current.append(word);
+        currentBytes += wordBytes;
+        continue;
+      }
+      for (int offset = 0; offset < word.length(); ) {
+        int codePoint = word.codePointAt(offset);
+        String character = new String(Character.toChars(codePoint));
+        int characterBytes = utf8Length(character);
+        if (currentBytes + characterBytes > maxBytes) {
+          currentBytes = flush(pieces, current);
+        }
+        current.append(character);
+        currentBytes += characterBytes;
+        offset += Character.charCount(codePoint);
+      }
+    }
+    flush(pieces, current);
+  }
+
+  private static int flush(List<String> pieces, StringBuilder current) {
+    if (current.length() > 0) {
+      pieces.add(current.toString());
+      current.setLength(0);
+    }
+    return 0;
+  }
+
+  private static List<String> units(String text, BreakIterator iterator) {
+    List<String> units = new ArrayList<String>();
+    iterator.setText(text);
+    int start = iterator.first();
+    for (int end = iterator.next(); end != BreakIterator.DONE; end = iterator.next()) {
+      units.add(text.substring(start, end));
+      start = end;
+    }
+    return units;
+  }
+}
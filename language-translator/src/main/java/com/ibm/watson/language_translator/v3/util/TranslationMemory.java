@@ -0,0 +1,375 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.language_translator.v3.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.CachedServiceCall;
+import com.ibm.watson.common.ListenableServiceCall;
+import com.ibm.watson.common.LruCache;
+import com.ibm.watson.common.MappedServiceCall;
+import com.ibm.watson.language_translator.v3.LanguageTranslator;
+import com.ibm.watson.language_translator.v3.model.CreateModelOptions;
+import com.ibm.watson.language_translator.v3.model.DeleteModelOptions;
+import com.ibm.watson.language_translator.v3.model.DeleteModelResult;
+import com.ibm.watson.language_translator.v3.model.TranslateOptions;
+import com.ibm.watson.language_translator.v3.model.Translation;
+import com.ibm.watson.language_translator.v3.model.TranslationModel;
+import com.ibm.watson.language_translator.v3.model.TranslationResult;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A client-side translation memory in front of {@link
+ * LanguageTranslator#translate(TranslateOptions)}.
+ *
+ * <p>Translations are remembered per segment, that is per element of {@link
+ * TranslateOptions#text()}, under the model ID of the request, or under its source and target
+ * languages when no model ID is set. Segments are compared after Unicode normalization and
+ * whitespace collapsing. A request is answered by looking up each of its segments, sending the
+ * segments that are not remembered in a single request with each distinct segment sent once, and
+ * putting the translations back in the order of the request. The word and character counts of the
+ * result only cover the text that was sent to the service.
+ *
+ * <p>Translations are held in a bounded in-memory cache and, optionally, in a memory-mapped file
+ * that survives restarts. Deleting or creating a custom model through this class forgets the
+ * translations of that model ID; use {@link #invalidateModel(String)} when models change through
+ * other clients.
+ */
+public class TranslationMemory implements Closeable {
+  private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private final LanguageTranslator translator;
+  private final Cache<String, String> cache;
+  private final MappedTranslationStore store;
+  private final ConcurrentMap<String, AtomicLong> generations =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Builder. */
+  public static class Builder {
+    private LanguageTranslator translator;
+    private Cache<String, String> cache;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private MappedTranslationStore store;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param translator the Language Translator service that translates the segments not remembered
+     */
+    public Builder(LanguageTranslator translator) {
+      this.translator = translator;
+    }
+
+    /**
+     * Builds a TranslationMemory.
+     *
+     * @return the translation memory
+     */
+    public TranslationMemory build() {
+      return new TranslationMemory(this);
+    }
+
+    /**
+     * Set the cache that holds translations in memory. Defaults to an {@link LruCache} of {@code
+     * maximumSize} segments.
+     *
+     * @param cache the cache
+     * @return the TranslationMemory builder
+     */
+    public Builder cache(Cache<String, String> cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of segments held in memory by the default cache.
+     *
+     * @param maximumSize the maximum number of segments
+     * @return the TranslationMemory builder
+     */
+    public Builder maximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Keep translations in a memory-mapped file as well, so they survive restarts. The file is
+     * created if it does not exist and is opened immediately. Once it is full and no space can be
+     * reclaimed, new translations are only held in memory.
+     *
+     * @param file the file
+     * @param capacity the size of the file in bytes
+     * @return the TranslationMemory builder
+     * @throws IOException if the file cannot be opened or is not a translation memory
+     */
+    public Builder diskStore(Path file, int capacity) throws IOException {
+      if (store != null) {
+        store.close();
+      }
+      this.store = MappedTranslationStore.open(file, capacity);
+      return this;
+    }
+  }
+
+  protected TranslationMemory(Builder builder) {
+    Validator.notNull(builder.translator, "translator cannot be null");
+    translator = builder.translator;
+    cache =
+        builder.cache != null ? builder.cache : new LruCache<String, String>(builder.maximumSize);
+    store = builder.store;
+  }
+
+  /**
+   * Translate, answering the segments that are remembered locally.
+   *
+   * @param translateOptions the {@link TranslateOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link TranslationResult}
+   * @see LanguageTranslator#translate(TranslateOptions)
+   */
+  public ServiceCall<TranslationResult> translate(TranslateOptions translateOptions) {
+    Validator.notNull(translateOptions, "translateOptions cannot be null");
+    final String scope = scope(translateOptions);
+    final String memoryScope = scope + "@" + generation(scope).get();
+    List<String> text = translateOptions.text();
+    final String[] translations = new String[text.size()];
+    final Map<String, List<Integer>> misses = new LinkedHashMap<String, List<Integer>>();
+    List<String> missText = new ArrayList<String>();
+    for (int i = 0; i < text.size(); i++) {
+      String segment = normalize(text.get(i));
+      String translation = lookup(memoryScope, scope, segment);
+      if (translation != null) {
+        translations[i] = translation;
+        hitCount.incrementAndGet();
+        continue;
+      }
+      missCount.incrementAndGet();
+      List<Integer> positions = misses.get(segment);
+      if (positions == null) {
+        positions = new ArrayList<Integer>();
+        misses.put(segment, positions);
+        missText.add(text.get(i));
+      }
+      positions.add(i);
+    }
+    if (misses.isEmpty()) {
+      return CachedServiceCall.of(result(translations, null));
+    }
+    return new MappedServiceCall<TranslationResult, TranslationResult>(
+        translator.translate(translateOptions.newBuilder().text(missText).build()),
+        new MappedServiceCall.Mapper<TranslationResult, TranslationResult>() {
+          @Override
+          public TranslationResult map(TranslationResult result) {
+            List<Translation> translated = result.getTranslations();
+            if (translated == null || translated.size() != misses.size()) {
+              throw new IllegalStateException(
+                  "Expected " + misses.size() + " translations but the service returned "
+                      + (translated != null ? translated.size() : 0));
+            }
+            int i = 0;
+            for (Map.Entry<String, List<Integer>> miss : misses.entrySet()) {
+              String translation = translated.get(i++).getTranslation();
+              remember(memoryScope, scope, miss.getKey(), translation);
+              for (int position : miss.getValue()) {
+                translations[position] = translation;
+              }
+            }
+            return result(translations, result);
+          }
+        });
+  }
+
+  /**
+   * Create a model and forget any translation remembered under its model ID once it is created.
+   *
+   * @param createModelOptions the {@link CreateModelOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link TranslationModel}
+   * @see LanguageTranslator#createModel(CreateModelOptions)
+   */
+  public ServiceCall<TranslationModel> createModel(CreateModelOptions createModelOptions) {
+    return new ListenableServiceCall<TranslationModel>(
+        translator.createModel(createModelOptions),
+        new ListenableServiceCall.ResponseListener<TranslationModel>() {
+          @Override
+          public void onResponse(Response<TranslationModel> response) {
+            if (response.getResult() != null && response.getResult().getModelId() != null) {
+              invalidateModel(response.getResult().getModelId());
+            }
+          }
+        });
+  }
+
+  /**
+   * Delete a model and forget the translations remembered under its model ID once it is deleted.
+   *
+   * @param deleteModelOptions the {@link DeleteModelOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link DeleteModelResult}
+   * @see LanguageTranslator#deleteModel(DeleteModelOptions)
+   */
+  public ServiceCall<DeleteModelResult> deleteModel(final DeleteModelOptions deleteModelOptions) {
+    Validator.notNull(deleteModelOptions, "deleteModelOptions cannot be null");
+    return new ListenableServiceCall<DeleteModelResult>(
+        translator.deleteModel(deleteModelOptions),
+        new ListenableServiceCall.ResponseListener<DeleteModelResult>() {
+          @Override
+          public void onResponse(Response<DeleteModelResult> response) {
+            invalidateModel(deleteModelOptions.modelId());
+          }
+        });
+  }
+
+  /**
+   * Forgets the translations remembered under a model ID. Requests that set source and target
+   * languages instead of a model ID are not affected.
+   *
+   * @param modelId the model ID
+   */
+  public void invalidateModel(String modelId) {
+    String scope = modelScope(modelId);
+    generation(scope).incrementAndGet();
+    if (store != null) {
+      store.invalidate(scope + "|");
+    }
+  }
+
+  /** Forgets every translation, in memory and on disk. */
+  public void invalidateAll() {
+    cache.clear();
+    if (store != null) {
+      store.clear();
+    }
+  }
+
+  /**
+   * Returns the number of segments answered locally.
+   *
+   * @return the number of segments answered locally
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of segments that were not remembered, including duplicates of a segment
+   * within a request.
+   *
+   * @return the number of segments that were not remembered
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Closes the on-disk tier, if any. Translations are still remembered in memory afterwards.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (store != null) {
+      store.close();
+    }
+  }
+
+  private String lookup(String memoryScope, String scope, String segment) {
+    String translation = cache.get(memoryScope + "|" + segment);
+    if (translation == null && store != null) {
+      translation = store.get(scope + "|" + segment);
+      if (translation != null) {
+        cache.put(memoryScope + "|" + segment, translation, 0);
+      }
+    }
+    return translation;
+  }
+
+  private void remember(String memoryScope, String scope, String segment, String translation) {
+    if (translation == null) {
+      return;
+    }
+    // A model invalidated while the request was in flight moved to a new generation; its
+    // translation must not be written back to the file.
+    if (store != null && memoryScope.equals(scope + "@" + generation(scope).get())) {
+      store.put(scope + "|" + segment, translation);
+    }
+    cache.put(memoryScope + "|" + segment, translation, 0);
+  }
+
+  private static TranslationResult result(String[] translations, TranslationResult sent) {
+    JsonObject json = new JsonObject();
+    json.addProperty("word_count", sent != null ? sent.getWordCount() : Long.valueOf(0));
+    json.addProperty("character_count", sent != null ? sent.getCharacterCount() : Long.valueOf(0));
+    if (sent != null) {
+      json.addProperty("detected_language", sent.getDetectedLanguage());
+      json.addProperty("detected_language_confidence", sent.getDetectedLanguageConfidence());
+    }
+    JsonArray array = new JsonArray();
+    for (String translation : translations) {
+      JsonObject item = new JsonObject();
+      item.addProperty("translation", translation);
+      array.add(item);
+    }
+    json.add("translations", array);
+    return GSON.fromJson(json, TranslationResult.class);
+  }
+
+  private static String scope(TranslateOptions translateOptions) {
+    if (translateOptions.modelId() != null) {
+      return modelScope(translateOptions.modelId());
+    }
+    return "pair:"
+        + (translateOptions.source() != null ? translateOptions.source() : "auto")
+        + "-"
+        + translateOptions.target();
+  }
+
+  private static String modelScope(String modelId) {
+    return "model:" + modelId;
+  }
+
+  private static String normalize(String segment) {
+    String normalized = Normalizer.normalize(segment, Normalizer.Form.NFC);
+    return WHITESPACE.matcher(normalized.trim()).replaceAll(" ");
+  }
+
+  private AtomicLong generation(String scope) {
+    AtomicLong generation = generations.get(scope);
+    if (generation == null) {
+      AtomicLong created = new AtomicLong();
+      generation = generations.putIfAbsent(scope, created);
+      if (generation == null) {
+        generation = created;
+      }
+    }
+    return generation;
+  }
+}
@@ -20,14 +20,18 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.reflect.TypeToken;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
 import com.ibm.cloud.sdk.core.service.exception.BadRequestException;
 import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.watson.common.RetryPolicy;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.language_translator.v3.model.CreateModelOptions;
 import com.ibm.watson.language_translator.v3.model.DeleteDocumentOptions;
+import com.ibm.watson.language_translator.v3.model.DeleteModelOptions;
 import com.ibm.watson.language_translator.v3.model.DocumentList;
 import com.ibm.watson.language_translator.v3.model.DocumentStatus;
 import com.ibm.watson.language_translator.v3.model.GetDocumentStatusOptions;
@@ -44,7 +48,12 @@ import com.ibm.watson.language_translator.v3.model.TranslateOptions;
 import com.ibm.watson.language_translator.v3.model.TranslationModel;
 import com.ibm.watson.language_translator.v3.model.TranslationModels;
 import com.ibm.watson.language_translator.v3.model.TranslationResult;
+import com.ibm.watson.language_translator.v3.util.BulkTranslationCallback;
+import com.ibm.watson.language_translator.v3.util.BulkTranslator;
+import com.ibm.watson.language_translator.v3.util.DocumentTranslator;
 import com.ibm.watson.language_translator.v3.util.Language;
+import com.ibm.watson.language_translator.v3.util.LanguageIdentifier;
+import com.ibm.watson.language_translator.v3.util.TranslationMemory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -52,9 +61,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import okio.Buffer;
@@ -297,6 +311,243 @@ public class LanguageTranslatorTest extends WatsonServiceUnitTest {
         translationResult.getTranslations().get(1).getTranslation());
   }
 
+  /**
+   * Test that the translation memory only sends the segments it does not remember and that the
+   * on-disk tier survives reopening.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testTranslationMemory() throws IOException, InterruptedException {
+    File file = File.createTempFile("translation-memory", ".bin");
+    file.deleteOnExit();
+    TranslationMemory memory =
+        new TranslationMemory.Builder(service).diskStore(file.toPath(), 64 * 1024).build();
+
+    server.enqueue(jsonResponse(singleTranslation));
+    memory
+        .translate(new TranslateOptions.Builder().addText(texts.get(0)).modelId(modelId).build())
+        .execute();
+    server.takeRequest();
+
+    server.enqueue(
+        jsonResponse(
+            ImmutableMap.of(
+                "translations",
+                Collections.singletonList(
+                    ImmutableMap.of("translation", translations.get(texts.get(1)))))));
+    TranslateOptions options =
+        new TranslateOptions.Builder()
+            .addText(texts.get(1))
+            .addText(" " + texts.get(0).replace(" ", "  "))
+            .addText(texts.get(1))
+            .modelId(modelId)
+            .build();
+    TranslationResult second = memory.translate(options).execute().getResult();
+    RecordedRequest request = server.takeRequest();
+
+    assertEquals(
+        GSON.toJson(
+            ImmutableMap.of("text", Collections.singleton(texts.get(1)), "model_id", modelId)),
+        request.getBody().readUtf8());
+    assertEquals(3, second.getTranslations().size());
+    assertEquals(translations.get(texts.get(1)), second.getTranslations().get(0).getTranslation());
+    assertEquals(translations.get(texts.get(0)), second.getTranslations().get(1).getTranslation());
+    assertEquals(translations.get(texts.get(1)), second.getTranslations().get(2).getTranslation());
+    assertEquals(1, memory.getHitCount());
+    assertEquals(3, memory.getMissCount());
+    memory.close();
+
+    TranslationMemory reopened =
+        new TranslationMemory.Builder(service).diskStore(file.toPath(), 64 * 1024).build();
+    TranslationResult cached = reopened.translate(options).execute().getResult();
+    assertEquals(3, cached.getTranslations().size());
+    assertEquals(2, server.getRequestCount());
+
+    server.enqueue(jsonResponse(ImmutableMap.of("status", "OK")));
+    reopened.deleteModel(new DeleteModelOptions.Builder(modelId).build()).execute();
+    server.takeRequest();
+    server.enqueue(jsonResponse(singleTranslation));
+    reopened
+        .translate(new TranslateOptions.Builder().addText(texts.get(0)).modelId(modelId).build())
+        .execute();
+    assertEquals(4, server.getRequestCount());
+    reopened.close();
+  }
+
+  /**
+   * Test that the on-disk tier of the translation memory compacts its file through a replacement
+   * file once it fills up with invalidated translations, and keeps the live ones across reopening.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testTranslationMemoryCompaction() throws IOException, InterruptedException {
+    File file = File.createTempFile("translation-memory", ".bin");
+    file.deleteOnExit();
+    TranslationMemory memory =
+        new TranslationMemory.Builder(service).diskStore(file.toPath(), 512).build();
+    TranslateOptions options =
+        new TranslateOptions.Builder().addText("alpha").addText("beta").modelId(modelId).build();
+    for (int i = 0; i < 20; i++) {
+      server.enqueue(
+          jsonResponse(
+              ImmutableMap.of(
+                  "translations",
+                  Arrays.asList(
+                      ImmutableMap.of("translation", "ALPHA " + i),
+                      ImmutableMap.of("translation", "BETA " + i)))));
+      memory.translate(options).execute();
+      if (i < 19) {
+        memory.invalidateModel(modelId);
+      }
+    }
+    memory.close();
+    assertFalse(new File(file.getPath() + ".compact").exists());
+    assertEquals(512, file.length());
+
+    TranslationMemory reopened =
+        new TranslationMemory.Builder(service).diskStore(file.toPath(), 512).build();
+    TranslationResult cached = reopened.translate(options).execute().getResult();
+    assertEquals("ALPHA 19", cached.getTranslations().get(0).getTranslation());
+    assertEquals("BETA 19", cached.getTranslations().get(1).getTranslation());
+    assertEquals(20, server.getRequestCount());
+    reopened.close();
+  }
+
+  /**
+   * Test that the bulk translator packs segments into requests, splits segments that are too large
+   * at sentence boundaries and passes the translations in input order after retrying a failure.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testBulkTranslator() throws InterruptedException {
+    UppercaseDispatcher dispatcher = new UppercaseDispatcher();
+    server.setDispatcher(dispatcher);
+    BulkTranslator bulk =
+        new BulkTranslator.Builder(service)
+            .modelId(modelId)
+            .maxRequestBytes(300)
+            .maxRequestSegments(2)
+            .retryPolicy(
+                new RetryPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).build())
+            .build();
+    String longText = "One sentence is here. Another one follows it. A third one ends it.";
+    final List<String> results = new ArrayList<String>();
+
+    long translated =
+        bulk.translate(
+            ImmutableList.of("a", longText, "b", "c"),
+            new BulkTranslationCallback() {
+              @Override
+              public void onTranslation(long index, String text, String translation) {
+                results.add(index + ":" + translation);
+              }
+
+              @Override
+              public void onFailure(long index, String text, Exception e) {
+                results.add(index + ":" + e);
+              }
+            });
+
+    assertEquals(4, translated);
+    assertEquals(ImmutableList.of("0:A", "1:" + longText.toUpperCase(), "2:B", "3:C"), results);
+    // Six pieces packed into four requests by size and count, plus one retry.
+    assertEquals(5, server.getRequestCount());
+  }
+
+  /**
+   * Test that the language identifier answers from the script or the cache when it can, that an
+   * ambiguous script falls through to the service and that a language detected while translating
+   * is reused as the source of later requests.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testLanguageIdentifier() throws InterruptedException {
+    LanguageIdentifier identifier = new LanguageIdentifier.Builder(service).build();
+
+    IdentifiedLanguages korean =
+        identifier.identify(new IdentifyOptions.Builder("안녕하세요").build()).execute().getResult();
+    assertEquals(Language.KOREAN, korean.getLanguages().get(0).getLanguage());
+    assertEquals(0, server.getRequestCount());
+
+    server.enqueue(jsonResponse(identifiedLanguages));
+    IdentifyOptions identifyOptions = new IdentifyOptions.Builder(texts.get(0)).build();
+    identifier.identify(identifyOptions).execute();
+    IdentifiedLanguages cached = identifier.identify(identifyOptions).execute().getResult();
+    assertEquals(Language.ENGLISH, cached.getLanguages().get(0).getLanguage());
+    assertEquals(1, server.getRequestCount());
+    server.takeRequest();
+
+    String russian = "Привет, мир";
+    TranslateOptions translateOptions =
+        new TranslateOptions.Builder().addText(russian).target(Language.ENGLISH).build();
+    server.enqueue(
+        jsonResponse(
+            ImmutableMap.of(
+                "translations",
+                Collections.singletonList(ImmutableMap.of("translation", "Hello, world")),
+                "detected_language",
+                Language.RUSSIAN,
+                "detected_language_confidence",
+                0.98)));
+    identifier.translate(translateOptions).execute();
+    assertFalse(server.takeRequest().getBody().readUtf8().contains("\"source\""));
+
+    server.enqueue(jsonResponse(singleTranslation));
+    identifier.translate(translateOptions).execute();
+    assertEquals(
+        GSON.toJson(
+            ImmutableMap.of(
+                "text", Collections.singleton(russian), "source", "ru", "target", "en")),
+        server.takeRequest().getBody().readUtf8());
+    assertEquals(2, identifier.getHitCount());
+    assertEquals(1, identifier.getScriptCount());
+    assertEquals(2, identifier.getMissCount());
+
+    // Han alone could be Chinese or Japanese, so the service decides.
+    server.enqueue(jsonResponse(identifiedLanguages));
+    identifier.identify(new IdentifyOptions.Builder("你好世界").build()).execute();
+    assertEquals(1, identifier.getScriptCount());
+    assertEquals(3, identifier.getMissCount());
+    assertEquals("你好世界", server.takeRequest().getBody().readUtf8());
+  }
+
+  /**
+   * Test that the document translator uploads a file, polls it with list requests and writes the
+   * translated document to the destination.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testDocumentTranslator() throws Exception {
+    server.setDispatcher(new DocumentDispatcher());
+    File destination = File.createTempFile("translated", ".txt");
+    destination.deleteOnExit();
+    DocumentTranslator documents =
+        new DocumentTranslator.Builder(service)
+            .modelId(modelId)
+            .pollInterval(10, TimeUnit.MILLISECONDS)
+            .build();
+    try {
+      DocumentStatus status =
+          documents
+              .translate(
+                  new File(RESOURCE + "document_to_translate.txt").toPath(), destination.toPath())
+              .get(5, TimeUnit.SECONDS);
+
+      assertEquals(DocumentStatus.Status.AVAILABLE, status.getStatus());
+      assertEquals("translated", new String(Files.toByteArray(destination), "UTF-8"));
+      assertEquals(0, documents.getPendingCount());
+    } finally {
+      documents.close();
+    }
+  }
+
   /** Test Translate with an invalid model. */
   @Test(expected = BadRequestException.class)
   public void testTranslateNotSupported() {
@@ -617,4 +868,67 @@ public class LanguageTranslatorTest extends WatsonServiceUnitTest {
     assertEquals(GET, request.getMethod());
     assertNotNull(response);
   }
+
+  /**
+   * Translates every text to upper case without its surrounding whitespace, after failing the
+   * first request with 429 Too Many Requests.
+   */
+  private static class UppercaseDispatcher extends Dispatcher {
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      if (requests.getAndIncrement() == 0) {
+        return new MockResponse().setResponseCode(429).addHeader("Retry-After", "0");
+      }
+      JsonObject body = GSON.fromJson(request.getBody().readUtf8(), JsonObject.class);
+      List<Map<String, String>> translations = new ArrayList<Map<String, String>>();
+      for (JsonElement text : body.getAsJsonArray("text")) {
+        translations.add(
+            ImmutableMap.of("translation", text.getAsString().trim().toUpperCase()));
+      }
+      return new MockResponse()
+          .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+          .setBody(GSON.toJson(ImmutableMap.of("translations", translations)));
+    }
+  }
+
+  /**
+   * Accepts an uploaded document, reports it as processing on the first list request and as
+   * available afterwards, and serves its translation.
+   */
+  private static class DocumentDispatcher extends Dispatcher {
+    private final AtomicInteger lists = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String path = request.getPath().substring(0, request.getPath().indexOf('?'));
+      if (path.equals("/v3/documents") && request.getMethod().equals("POST")) {
+        if (!request.getBody().readUtf8().contains("model_id")) {
+          return new MockResponse().setResponseCode(400);
+        }
+        return json(ImmutableMap.of("document_id", "doc1", "status", "processing"));
+      }
+      if (path.equals("/v3/documents")) {
+        String status = lists.getAndIncrement() == 0 ? "processing" : "available";
+        return json(
+            ImmutableMap.of(
+                "documents",
+                Collections.singletonList(
+                    ImmutableMap.of("document_id", "doc1", "status", status))));
+      }
+      if (path.equals("/v3/documents/doc1/translated_document")) {
+        return new MockResponse()
+            .addHeader(CONTENT_TYPE, HttpMediaType.TEXT_PLAIN)
+            .setBody("translated");
+      }
+      return new MockResponse().setResponseCode(404);
+    }
+
+    private static MockResponse json(Object body) {
+      return new MockResponse()
+          .addHeader(CONTENT_TYPE, HttpMediaType.APPLICATION_JSON)
+          .setBody(GSON.toJson(body));
+    }
+  }
 }
@@ -0,0 +1,324 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_classifier.v1.util;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.SettableFuture;
+import com.ibm.watson.natural_language_classifier.v1.NaturalLanguageClassifier;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassificationCollection;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassifyCollectionOptions;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassifyInput;
+import com.ibm.watson.natural_language_classifier.v1.model.CollectionItem;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces single-phrase classifications from many threads into {@link
+ * NaturalLanguageClassifier#classifyCollection(ClassifyCollectionOptions)} requests.
+ *
+ * <p>The first phrase queued for a classifier opens a batch that is sent once it holds {@code
+ * maxBatchSize} phrases or {@code maxWait} has passed, whichever comes first, so a single caller
+ * waits at most {@code maxWait} longer than with a single {@code classify} request. Each caller
+ * gets a future that completes with the {@link CollectionItem} of its own phrase, or with the error
+ * of the whole request.
+ *
+ * <pre>
+ * BatchingClassifier batching = new BatchingClassifier.Builder(service).build();
+ * CollectionItem item = batching.classify(classifierId, "How hot will it be today?").get();
+ * </pre>
+ */
+public class BatchingClassifier implements Closeable {
+  /** The largest collection accepted by the service. */
+  private static final int MAX_COLLECTION_SIZE = 30;
+
+  private final NaturalLanguageClassifier service;
+  private final int maxBatchSize;
+  private final long maxWaitMillis;
+  private final ScheduledExecutorService timer;
+  private final boolean ownsTimer;
+  private final Map<String, Batch> open = new HashMap<String, Batch>();
+  private final AtomicLong phraseCount = new AtomicLong();
+  private final AtomicLong requestCount = new AtomicLong();
+  private boolean closed;
+
+  /** Builder. */
+  public static class Builder {
+    private NaturalLanguageClassifier service;
+    private int maxBatchSize = MAX_COLLECTION_SIZE;
+    private long maxWaitMillis = 10;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Natural Language Classifier service
+     */
+    public Builder(NaturalLanguageClassifier service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a BatchingClassifier.
+     *
+     * @return the batching classifier
+     */
+    public BatchingClassifier build() {
+      return new BatchingClassifier(this);
+    }
+
+    /**
+     * Set the largest number of phrases sent in one request, at most 30. Defaults to 30.
+     *
+     * @param maxBatchSize the maximum number of phrases per request
+     * @return the BatchingClassifier builder
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * Set how long a batch waits for more phrases before it is sent. Defaults to 10 milliseconds.
+     *
+     * @param maxWait the maximum wait
+     * @param unit the unit of maxWait
+     * @return the BatchingClassifier builder
+     */
+    public Builder maxWait(long maxWait, TimeUnit unit) {
+      this.maxWaitMillis = unit.toMillis(maxWait);
+      return this;
+    }
+
+    /**
+     * Set the scheduler that sends batches once their wait is over, so that it can be shared with
+     * other work. It is not shut down by {@link BatchingClassifier#close()}. By default the
+     * batching classifier uses its own daemon thread.
+     *
+     * @param scheduler the scheduler
+     * @return the BatchingClassifier builder
+     */
+    public Builder scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+  }
+
+  protected BatchingClassifier(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.isTrue(
+        builder.maxBatchSize > 0 && builder.maxBatchSize <= MAX_COLLECTION_SIZE,
+        "maxBatchSize must be between 1 and " + MAX_COLLECTION_SIZE);
+    Validator.isTrue(builder.maxWaitMillis >= 0, "maxWait cannot be negative");
+    service = builder.service;
+    maxBatchSize = builder.maxBatchSize;
+    maxWaitMillis = builder.maxWaitMillis;
+    ownsTimer = builder.scheduler == null;
+    timer =
+        ownsTimer
+            ? Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("batching-classifier"))
+            : builder.scheduler;
+  }
+
+  /**
+   * Queues a phrase for classification.
+   *
+   * @param classifierId the classifier ID
+   * @param text the phrase
+   * @return a future that completes with the classification of the phrase
+   */
+  public SettableFuture<CollectionItem> classify(String classifierId, String text) {
+    Validator.notEmpty(classifierId, "classifierId cannot be empty");
+    Validator.notNull(text, "text cannot be null");
+    SettableFuture<CollectionItem> future = new SettableFuture<CollectionItem>();
+    Batch full = null;
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("The batching classifier is closed");
+      }
+      phraseCount.incrementAndGet();
+      Batch batch = open.get(classifierId);
+      if (batch == null) {
+        batch = new Batch(classifierId);
+        open.put(classifierId, batch);
+        if (maxBatchSize > 1) {
+          batch.schedule();
+        }
+      }
+      batch.add(text, future);
+      if (batch.texts.size() >= maxBatchSize) {
+        open.remove(classifierId);
+        full = batch;
+      }
+    }
+    if (full != null) {
+      full.send();
+    }
+    return future;
+  }
+
+  /** Sends every open batch without waiting for it to fill. */
+  public void flush() {
+    List<Batch> batches;
+    synchronized (this) {
+      batches = new ArrayList<Batch>(open.values());
+      open.clear();
+    }
+    for (Batch batch : batches) {
+      batch.send();
+    }
+  }
+
+  /**
+   * Returns the number of phrases queued for classification.
+   *
+   * @return the number of phrases
+   */
+  public long getPhraseCount() {
+    return phraseCount.get();
+  }
+
+  /**
+   * Returns the number of requests sent to the service.
+   *
+   * @return the number of requests
+   */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Sends the open batches and stops accepting phrases. Requests already sent still complete
+   * their futures.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    flush();
+    if (ownsTimer) {
+      timer.shutdownNow();
+    }
+  }
+
+  /** The phrases queued for one classifier. */
+  private final class Batch {
+    private final String classifierId;
+    private final List<String> texts = new ArrayList<String>();
+    private final List<SettableFuture<CollectionItem>> futures =
+        new ArrayList<SettableFuture<CollectionItem>>();
+    private ScheduledFuture<?> timeout;
+
+    private Batch(String classifierId) {
+      this.classifierId = classifierId;
+    }
+
+    private void add(String text, SettableFuture<CollectionItem> future) {
+      texts.add(text);
+      futures.add(future);
+    }
+
+    private void schedule() {
+      timeout =
+          timer.schedule(
+              new Runnable() {
+                @Override
+                public void run() {
+                  synchronized (BatchingClassifier.this) {
+                    if (open.get(classifierId) != Batch.this) {
+                      return;
+                    }
+                    open.remove(classifierId);
+                  }
+                  send();
+                }
+              },
+              maxWaitMillis,
+              TimeUnit.MILLISECONDS);
+    }
+
+    private void send() {
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      List<ClassifyInput> collection = new ArrayList<ClassifyInput>(texts.size());
+      for (String text : texts) {
+        collection.add(new ClassifyInput.Builder(text).build());
+      }
+      ClassifyCollectionOptions options =
+          new ClassifyCollectionOptions.Builder(classifierId, collection).build();
+      requestCount.incrementAndGet();
+      service
+          .classifyCollection(options)
+          .enqueue(
+              new ServiceCallback<ClassificationCollection>() {
+                @Override
+                public void onResponse(Response<ClassificationCollection> response) {
+                  complete(response.getResult());
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                  for (SettableFuture<CollectionItem> future : futures) {
+                    future.setException(e);
+                  }
+                }
+              });
+    }
+
+    /**
+     * Completes each future with the item of its phrase. The service answers in request order; the
+     * items are matched by text if it did not.
+     */
+    private void complete(ClassificationCollection result) {
+      List<CollectionItem> items =
+          result != null && result.getCollection() != null
+              ? result.getCollection()
+              : new ArrayList<CollectionItem>();
+      boolean ordered = items.size() == texts.size();
+      for (int i = 0; ordered && i < items.size(); i++) {
+        ordered = texts.get(i).equals(items.get(i).getText());
+      }
+      Map<String, CollectionItem> byText = new HashMap<String, CollectionItem>();
+      if (!ordered) {
+        for (CollectionItem item : items) {
+          byText.put(item.getText(), item);
+        }
+      }
+      for (int i = 0; i < texts.size(); i++) {
+        CollectionItem item = ordered ? items.get(i) : byText.get(texts.get(i));
+        if (item != null) {
+          futures.get(i).set(item);
+        } else {
+          futures
+              .get(i)
+              .setException(
+                  new IllegalStateException(
+                      "The service did not classify \"" + texts.get(i) + "\""));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,392 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_classifier.v1.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.CachedServiceCall;
+import com.ibm.watson.common.ListenableServiceCall;
+import com.ibm.watson.common.MappedServiceCall;
+import com.ibm.watson.common.TinyLfuCache;
+import com.ibm.watson.natural_language_classifier.v1.NaturalLanguageClassifier;
+import com.ibm.watson.natural_language_classifier.v1.model.Classification;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassificationCollection;
+import com.ibm.watson.natural_language_classifier.v1.model.Classifier;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassifyCollectionOptions;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassifyInput;
+import com.ibm.watson.natural_language_classifier.v1.model.ClassifyOptions;
+import com.ibm.watson.natural_language_classifier.v1.model.CollectionItem;
+import com.ibm.watson.natural_language_classifier.v1.model.DeleteClassifierOptions;
+import com.ibm.watson.natural_language_classifier.v1.model.GetClassifierOptions;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A client-side cache of classifications in front of {@link
+ * NaturalLanguageClassifier#classify(ClassifyOptions)} and {@link
+ * NaturalLanguageClassifier#classifyCollection(ClassifyCollectionOptions)}.
+ *
+ * <p>Classifications are cached per classifier ID and phrase, with phrases compared after Unicode
+ * normalization and whitespace collapsing, and both operations share the same entries. A collection
+ * request is answered by looking up each of its phrases and sending the phrases that are not cached
+ * in a single request, with each distinct phrase sent once. The default cache evicts with
+ * W-TinyLFU, which keeps the phrases that are requested over and over.
+ *
+ * <p>A classifier's entries are dropped once it is deleted through this class, or when {@link
+ * #getClassifier(GetClassifierOptions)} returns a creation time or status that differs from the
+ * one seen before, which is how a retrained classifier shows up. Use {@link
+ * #invalidateClassifier(String)} when classifiers change through other clients.
+ */
+public class ClassificationCache {
+  private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private final NaturalLanguageClassifier service;
+  private final Cache<String, CollectionItem> cache;
+  private final long ttlMillis;
+  private final ConcurrentMap<String, AtomicLong> generations =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<String, String>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Builder. */
+  public static class Builder {
+    private NaturalLanguageClassifier service;
+    private Cache<String, CollectionItem> cache;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private long ttlMillis;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Natural Language Classifier service that answers cache misses
+     */
+    public Builder(NaturalLanguageClassifier service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a ClassificationCache.
+     *
+     * @return the classification cache
+     */
+    public ClassificationCache build() {
+      return new ClassificationCache(this);
+    }
+
+    /**
+     * Set the cache that holds the classifications. Defaults to a {@link TinyLfuCache} of {@code
+     * maximumSize} phrases.
+     *
+     * @param cache the cache
+     * @return the ClassificationCache builder
+     */
+    public Builder cache(Cache<String, CollectionItem> cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of phrases held by the default cache.
+     *
+     * @param maximumSize the maximum number of phrases
+     * @return the ClassificationCache builder
+     */
+    public Builder maximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Set how long classifications stay cached. By default they stay cached until their classifier
+     * changes or they are evicted.
+     *
+     * @param ttl the time to live
+     * @param unit the unit of ttl
+     * @return the ClassificationCache builder
+     */
+    public Builder ttl(long ttl, TimeUnit unit) {
+      this.ttlMillis = unit.toMillis(ttl);
+      return this;
+    }
+  }
+
+  protected ClassificationCache(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    service = builder.service;
+    cache =
+        builder.cache != null
+            ? builder.cache
+            : new TinyLfuCache<String, CollectionItem>(builder.maximumSize);
+    ttlMillis = builder.ttlMillis;
+  }
+
+  /**
+   * Classify a phrase, answering from the cache when possible.
+   *
+   * @param classifyOptions the {@link ClassifyOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link Classification}
+   * @see NaturalLanguageClassifier#classify(ClassifyOptions)
+   */
+  public ServiceCall<Classification> classify(ClassifyOptions classifyOptions) {
+    Validator.notNull(classifyOptions, "classifyOptions cannot be null");
+    final String classifierId = classifyOptions.classifierId();
+    final String key = key(classifierId, classifyOptions.text());
+    CollectionItem hit = cache.get(key);
+    if (hit != null) {
+      hitCount.incrementAndGet();
+      return CachedServiceCall.of(classification(classifierId, classifyOptions.text(), hit));
+    }
+    missCount.incrementAndGet();
+    return new ListenableServiceCall<Classification>(
+        service.classify(classifyOptions),
+        new ListenableServiceCall.ResponseListener<Classification>() {
+          @Override
+          public void onResponse(Response<Classification> response) {
+            if (response.getResult() != null) {
+              JsonObject json = GSON.toJsonTree(response.getResult()).getAsJsonObject();
+              cache.put(key, GSON.fromJson(json, CollectionItem.class), ttlMillis);
+            }
+          }
+        });
+  }
+
+  /**
+   * Classify multiple phrases, answering the phrases that are cached locally.
+   *
+   * @param classifyCollectionOptions the {@link ClassifyCollectionOptions} containing the options
+   *     for the call
+   * @return a {@link ServiceCall} with a response type of {@link ClassificationCollection}
+   * @see NaturalLanguageClassifier#classifyCollection(ClassifyCollectionOptions)
+   */
+  public ServiceCall<ClassificationCollection> classifyCollection(
+      ClassifyCollectionOptions classifyCollectionOptions) {
+    Validator.notNull(classifyCollectionOptions, "classifyCollectionOptions cannot be null");
+    final String classifierId = classifyCollectionOptions.classifierId();
+    final List<ClassifyInput> collection = classifyCollectionOptions.collection();
+    final CollectionItem[] items = new CollectionItem[collection.size()];
+    final Map<String, List<Integer>> misses = new LinkedHashMap<String, List<Integer>>();
+    final List<ClassifyInput> missInputs = new ArrayList<ClassifyInput>();
+    for (int i = 0; i < collection.size(); i++) {
+      String key = key(classifierId, collection.get(i).text());
+      CollectionItem hit = cache.get(key);
+      if (hit != null) {
+        items[i] = hit;
+        hitCount.incrementAndGet();
+        continue;
+      }
+      missCount.incrementAndGet();
+      List<Integer> positions = misses.get(key);
+      if (positions == null) {
+        positions = new ArrayList<Integer>();
+        misses.put(key, positions);
+        missInputs.add(collection.get(i));
+      }
+      positions.add(i);
+    }
+    if (misses.isEmpty()) {
+      return CachedServiceCall.of(collection(classifierId, collection, items, null));
+    }
+    return new MappedServiceCall<ClassificationCollection, ClassificationCollection>(
+        service.classifyCollection(
+            classifyCollectionOptions.newBuilder().collection(missInputs).build()),
+        new MappedServiceCall.Mapper<ClassificationCollection, ClassificationCollection>() {
+          @Override
+          public ClassificationCollection map(ClassificationCollection result) {
+            // The service answers in request order; the items are matched by text if it did not.
+            List<CollectionItem> classified =
+                result.getCollection() != null
+                    ? result.getCollection()
+                    : new ArrayList<CollectionItem>();
+            boolean ordered = classified.size() == missInputs.size();
+            for (int i = 0; ordered && i < classified.size(); i++) {
+              ordered = missInputs.get(i).text().equals(classified.get(i).getText());
+            }
+            Map<String, CollectionItem> byText = new HashMap<String, CollectionItem>();
+            if (!ordered) {
+              for (CollectionItem item : classified) {
+                byText.put(item.getText(), item);
+              }
+            }
+            int i = 0;
+            for (Map.Entry<String, List<Integer>> miss : misses.entrySet()) {
+              String text = missInputs.get(i).text();
+              CollectionItem item = ordered ? classified.get(i) : byText.get(text);
+              i++;
+              if (item == null) {
+                throw new IllegalStateException("The service did not classify \"" + text + "\"");
+              }
+              cache.put(miss.getKey(), item, ttlMillis);
+              for (int position : miss.getValue()) {
+                items[position] = item;
+              }
+            }
+            return collection(classifierId, collection, items, result);
+          }
+        });
+  }
+
+  /**
+   * Get information about a classifier, dropping its cached classifications if it was created again
+   * or its status changed since it was last seen.
+   *
+   * @param getClassifierOptions the {@link GetClassifierOptions} containing the options for the
+   *     call
+   * @return a {@link ServiceCall} with a response type of {@link Classifier}
+   * @see NaturalLanguageClassifier#getClassifier(GetClassifierOptions)
+   */
+  public ServiceCall<Classifier> getClassifier(GetClassifierOptions getClassifierOptions) {
+    return new ListenableServiceCall<Classifier>(
+        service.getClassifier(getClassifierOptions),
+        new ListenableServiceCall.ResponseListener<Classifier>() {
+          @Override
+          public void onResponse(Response<Classifier> response) {
+            Classifier classifier = response.getResult();
+            if (classifier != null && classifier.getClassifierId() != null) {
+              String version =
+                  (classifier.getCreated() != null ? classifier.getCreated().getTime() : "")
+                      + "|"
+                      + classifier.getStatus();
+              String previous = versions.put(classifier.getClassifierId(), version);
+              if (previous != null && !previous.equals(version)) {
+                invalidateClassifier(classifier.getClassifierId());
+              }
+            }
+          }
+        });
+  }
+
+  /**
+   * Delete a classifier and drop its cached classifications once it is deleted.
+   *
+   * @param deleteClassifierOptions the {@link DeleteClassifierOptions} containing the options for
+   *     the call
+   * @return a {@link ServiceCall} with a response type of Void
+   * @see NaturalLanguageClassifier#deleteClassifier(DeleteClassifierOptions)
+   */
+  public ServiceCall<Void> deleteClassifier(final DeleteClassifierOptions deleteClassifierOptions) {
+    Validator.notNull(deleteClassifierOptions, "deleteClassifierOptions cannot be null");
+    return new ListenableServiceCall<Void>(
+        service.deleteClassifier(deleteClassifierOptions),
+        new ListenableServiceCall.ResponseListener<Void>() {
+          @Override
+          public void onResponse(Response<Void> response) {
+            versions.remove(deleteClassifierOptions.classifierId());
+            invalidateClassifier(deleteClassifierOptions.classifierId());
+          }
+        });
+  }
+
+  /**
+   * Drops the cached classifications of a classifier. Entries are not removed eagerly; they are no
+   * longer returned and age out of the cache.
+   *
+   * @param classifierId the classifier ID
+   */
+  public void invalidateClassifier(String classifierId) {
+    generation(classifierId).incrementAndGet();
+  }
+
+  /** Removes every cached classification. */
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  /**
+   * Returns the number of phrases answered from the cache.
+   *
+   * @return the number of phrases answered from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of phrases that were not cached, including duplicates of a phrase within a
+   * request.
+   *
+   * @return the number of phrases that were not cached
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  private String key(String classifierId, String text) {
+    String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+    return classifierId
+        + "@"
+        + generation(classifierId).get()
+        + "|"
+        + WHITESPACE.matcher(normalized.trim()).replaceAll(" ");
+  }
+
+  private String url(String classifierId) {
+    return service.getServiceUrl() + "/v1/classifiers/" + classifierId;
+  }
+
+  private Classification classification(String classifierId, String text, CollectionItem item) {
+    JsonObject json = GSON.toJsonTree(item).getAsJsonObject();
+    json.addProperty("classifier_id", classifierId);
+    json.addProperty("url", url(classifierId));
+    json.addProperty("text", text);
+    return GSON.fromJson(json, Classification.class);
+  }
+
+  /** Puts the items back in the order of the request, each with the text it was requested with. */
+  private ClassificationCollection collection(
+      String classifierId,
+      List<ClassifyInput> collection,
+      CollectionItem[] items,
+      ClassificationCollection sent) {
+    JsonArray array = new JsonArray();
+    for (int i = 0; i < items.length; i++) {
+      JsonObject item = GSON.toJsonTree(items[i]).getAsJsonObject();
+      item.addProperty("text", collection.get(i).text());
+      array.add(item);
+    }
+    JsonObject json = new JsonObject();
+    json.addProperty("classifier_id", classifierId);
+    json.addProperty("url", sent != null ? sent.getUrl() : url(classifierId));
+    json.add("collection", array);
+    return GSON.fromJson(json, ClassificationCollection.class);
+  }
+
+  private AtomicLong generation(String classifierId) {
+    AtomicLong generation = generations.get(classifierId);
+    if (generation == null) {
+      AtomicLong created = new AtomicLong();
+      generation = generations.putIfAbsent(classifierId, created);
+      if (generation == null) {
+        generation = created;
+      }
+    }
+    return generation;
+  }
+}
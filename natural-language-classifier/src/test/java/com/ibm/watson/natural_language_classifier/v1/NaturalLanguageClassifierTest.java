@@ -13,9 +13,14 @@
 package com.ibm.watson.natural_language_classifier.v1;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.watson.common.SettableFuture;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.natural_language_classifier.v1.model.Classification;
 import com.ibm.watson.natural_language_classifier.v1.model.ClassificationCollection;
@@ -24,13 +29,21 @@ import com.ibm.watson.natural_language_classifier.v1.model.ClassifierList;
 import com.ibm.watson.natural_language_classifier.v1.model.ClassifyCollectionOptions;
 import com.ibm.watson.natural_language_classifier.v1.model.ClassifyInput;
 import com.ibm.watson.natural_language_classifier.v1.model.ClassifyOptions;
+import com.ibm.watson.natural_language_classifier.v1.model.CollectionItem;
 import com.ibm.watson.natural_language_classifier.v1.model.CreateClassifierOptions;
 import com.ibm.watson.natural_language_classifier.v1.model.DeleteClassifierOptions;
 import com.ibm.watson.natural_language_classifier.v1.model.GetClassifierOptions;
+import com.ibm.watson.natural_language_classifier.v1.util.BatchingClassifier;
+import com.ibm.watson.natural_language_classifier.v1.util.ClassificationCache;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
 import org.junit.Test;
@@ -42,6 +55,7 @@ public class NaturalLanguageClassifierTest extends WatsonServiceUnitTest {
   private static final String CLASSIFY_PATH = "/v1/classifiers/%s/classify";
   private static final String CLASSIFY_COLLECTION_PATH = "/v1/classifiers/%s/classify_collection";
   private static final String RESOURCE = "src/test/resources/natural_language_classifier/";
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
 
   private ClassifierList classifiers;
   private Classifier classifier;
@@ -198,6 +212,152 @@ public class NaturalLanguageClassifierTest extends WatsonServiceUnitTest {
     service.deleteClassifier(deleteOptions);
   }
 
+  /**
+   * Test that the batching classifier coalesces phrases into collection requests and completes each
+   * future with the classification of its own phrase.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBatchingClassifier() throws Exception {
+    server.setDispatcher(new ReversingDispatcher());
+    BatchingClassifier batching =
+        new BatchingClassifier.Builder(service)
+            .maxBatchSize(3)
+            .maxWait(1, TimeUnit.MINUTES)
+            .build();
+    List<String> texts = Arrays.asList("one", "two", "three", "four", "five", "six", "seven");
+    List<SettableFuture<CollectionItem>> futures = new ArrayList<SettableFuture<CollectionItem>>();
+    for (String text : texts) {
+      futures.add(batching.classify(classifierId, text));
+    }
+    // The seventh phrase waits for its batch to fill until the classifier is closed.
+    assertFalse(futures.get(6).isDone());
+    batching.close();
+
+    for (int i = 0; i < texts.size(); i++) {
+      CollectionItem item = futures.get(i).get(5, TimeUnit.SECONDS);
+      assertEquals(texts.get(i), item.getText());
+      assertEquals(texts.get(i).toUpperCase(), item.getTopClass());
+    }
+    assertEquals(7, batching.getPhraseCount());
+    assertEquals(3, batching.getRequestCount());
+    assertEquals(3, server.getRequestCount());
+    assertEquals(
+        String.format(CLASSIFY_COLLECTION_PATH, classifierId), server.takeRequest().getPath());
+  }
+
+  /**
+   * Test that the classification cache answers repeated phrases locally, only sends the phrases of
+   * a collection that are not cached, and drops a classifier's entries once it changes.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testClassificationCache() throws InterruptedException {
+    ClassificationCache cache = new ClassificationCache.Builder(service).build();
+    server.enqueue(jsonResponse(classification));
+    ClassifyOptions classifyOptions =
+        new ClassifyOptions.Builder().classifierId(classifierId).text("is it  hot ?").build();
+    cache.classify(classifyOptions).execute();
+    Classification hit =
+        cache
+            .classify(classifyOptions.newBuilder().text(" is it hot ?").build())
+            .execute()
+            .getResult();
+    assertEquals(" is it hot ?", hit.getText());
+    assertEquals(classification.getTopClass(), hit.getTopClass());
+    assertEquals(classifierId, hit.getClassifierId());
+    assertEquals(1, server.getRequestCount());
+
+    JsonObject item = new JsonObject();
+    item.addProperty(TEXT, "is it cold ?");
+    item.addProperty("top_class", "conditions");
+    server.enqueue(jsonResponse(Collections.singletonMap("collection", Arrays.asList(item))));
+    ClassifyCollectionOptions collectionOptions =
+        new ClassifyCollectionOptions.Builder()
+            .classifierId(classifierId)
+            .addClassifyInput(new ClassifyInput.Builder("is it cold ?").build())
+            .addClassifyInput(new ClassifyInput.Builder("is it hot ?").build())
+            .addClassifyInput(new ClassifyInput.Builder("is it cold ?").build())
+            .build();
+    ClassificationCollection collection =
+        cache.classifyCollection(collectionOptions).execute().getResult();
+    server.takeRequest();
+    RecordedRequest request = server.takeRequest();
+    JsonObject sent = GSON.fromJson(request.getBody().readUtf8(), JsonObject.class);
+    assertEquals(1, sent.getAsJsonArray("collection").size());
+    assertEquals(3, collection.getCollection().size());
+    assertEquals("conditions", collection.getCollection().get(0).getTopClass());
+    assertEquals(classification.getTopClass(), collection.getCollection().get(1).getTopClass());
+    assertEquals("conditions", collection.getCollection().get(2).getTopClass());
+    assertEquals(2, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+
+    // A classifier that was seen training and is now available has been retrained.
+    JsonObject trained = new JsonObject();
+    trained.addProperty("classifier_id", classifierId);
+    trained.addProperty("created", "2015-10-17T20:56:29.974Z");
+    trained.addProperty("status", Classifier.Status.TRAINING);
+    server.enqueue(jsonResponse(trained));
+    GetClassifierOptions getOptions =
+        new GetClassifierOptions.Builder().classifierId(classifierId).build();
+    cache.getClassifier(getOptions).execute();
+    cache.classify(classifyOptions).execute();
+    assertEquals(3, server.getRequestCount());
+    trained.addProperty("status", Classifier.Status.AVAILABLE);
+    server.enqueue(jsonResponse(trained));
+    cache.getClassifier(getOptions).execute();
+    server.enqueue(jsonResponse(classification));
+    cache.classify(classifyOptions).execute();
+    assertEquals(5, server.getRequestCount());
+
+    server.enqueue(new MockResponse());
+    cache
+        .deleteClassifier(new DeleteClassifierOptions.Builder().classifierId(classifierId).build())
+        .execute();
+    server.enqueue(jsonResponse(classification));
+    cache.classify(classifyOptions).execute();
+    assertEquals(7, server.getRequestCount());
+  }
+
+  /**
+   * Test that the classification cache matches the items of a collection response to the phrases
+   * by text when the service does not answer in request order.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testClassificationCacheMatchesByText() throws InterruptedException {
+    server.setDispatcher(new ReversingDispatcher());
+    ClassificationCache cache = new ClassificationCache.Builder(service).build();
+    ClassifyCollectionOptions collectionOptions =
+        new ClassifyCollectionOptions.Builder()
+            .classifierId(classifierId)
+            .addClassifyInput(new ClassifyInput.Builder("hot").build())
+            .addClassifyInput(new ClassifyInput.Builder("cold").build())
+            .addClassifyInput(new ClassifyInput.Builder("hot").build())
+            .addClassifyInput(new ClassifyInput.Builder("windy").build())
+            .build();
+
+    ClassificationCollection collection =
+        cache.classifyCollection(collectionOptions).execute().getResult();
+
+    assertEquals(4, collection.getCollection().size());
+    assertEquals("HOT", collection.getCollection().get(0).getTopClass());
+    assertEquals("COLD", collection.getCollection().get(1).getTopClass());
+    assertEquals("HOT", collection.getCollection().get(2).getTopClass());
+    assertEquals("WINDY", collection.getCollection().get(3).getTopClass());
+    Classification hit =
+        cache
+            .classify(
+                new ClassifyOptions.Builder().classifierId(classifierId).text("cold").build())
+            .execute()
+            .getResult();
+    assertEquals("COLD", hit.getTopClass());
+    assertEquals(1, server.getRequestCount());
+  }
+
   // START NEGATIVE TESTS
   /** Test null classifier. */
   @Test(expected = IllegalArgumentException.class)
@@ -238,4 +398,21 @@ public class NaturalLanguageClassifierTest extends WatsonServiceUnitTest {
             .build();
     service.createClassifier(createOptions).execute();
   }
+
+  /** Classifies each phrase as its upper-case form and answers in reverse order. */
+  private static class ReversingDispatcher extends Dispatcher {
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      JsonObject body = GSON.fromJson(request.getBody().readUtf8(), JsonObject.class);
+      List<JsonObject> items = new ArrayList<JsonObject>();
+      for (JsonElement input : body.getAsJsonArray("collection")) {
+        String text = input.getAsJsonObject().get(TEXT).getAsString();
+        JsonObject item = new JsonObject();
+        item.addProperty(TEXT, text);
+        item.addProperty("top_class", text.toUpperCase());
+        items.add(0, item);
+      }
+      return jsonResponse(Collections.singletonMap("collection", items));
+    }
+  }
 }
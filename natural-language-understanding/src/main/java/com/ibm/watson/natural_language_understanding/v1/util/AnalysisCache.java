@@ -0,0 +1,253 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.Cache;
+import com.ibm.watson.common.CachedServiceCall;
+import com.ibm.watson.common.LruCache;
+import com.ibm.watson.common.MappedServiceCall;
+import com.ibm.watson.natural_language_understanding.v1.NaturalLanguageUnderstanding;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalysisResults;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalyzeOptions;
+import com.ibm.watson.natural_language_understanding.v1.model.Features;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A client-side cache of analysis results in front of {@link
+ * NaturalLanguageUnderstanding#analyze(AnalyzeOptions)}.
+ *
+ * <p>Results are cached per feature, under a SHA-256 hash of the document (its text, HTML or URL
+ * and the options that change how it is read, such as {@code xpath} or {@code language}) and the
+ * JSON encoding of the options of that feature. A request whose features are all cached is
+ * answered locally. A request for which only some features are cached sends the missing features
+ * alone and merges their results with the cached ones, so overlapping feature sets requested by
+ * different callers are only analyzed once.
+ *
+ * <p>The usage reported in merged results only covers the features that were sent to the service.
+ * Documents given by URL are cached like any other, so set a {@code ttl} that matches how often
+ * the pages change.
+ */
+public class AnalysisCache {
+  private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+  private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+
+  /** The members of the results that describe the document rather than a feature. */
+  private static final String[] DOCUMENT_MEMBERS = {"language", "retrieved_url", "analyzed_text"};
+
+  private final NaturalLanguageUnderstanding service;
+  private final Cache<String, JsonElement> cache;
+  private final long ttlMillis;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** Builder. */
+  public static class Builder {
+    private NaturalLanguageUnderstanding service;
+    private Cache<String, JsonElement> cache;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private long ttlMillis = DEFAULT_TTL_MILLIS;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Natural Language Understanding service that answers cache misses
+     */
+    public Builder(NaturalLanguageUnderstanding service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds an AnalysisCache.
+     *
+     * @return the analysis cache
+     */
+    public AnalysisCache build() {
+      return new AnalysisCache(this);
+    }
+
+    /**
+     * Set the cache that holds the results. Defaults to an {@link LruCache} of {@code maximumSize}
+     * entries.
+     *
+     * @param cache the cache
+     * @return the AnalysisCache builder
+     */
+    public Builder cache(Cache<String, JsonElement> cache) {
+      this.cache = cache;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of entries of the default cache. Each feature of a document and the
+     * document itself take one entry.
+     *
+     * @param maximumSize the maximum number of entries
+     * @return the AnalysisCache builder
+     */
+    public Builder maximumSize(int maximumSize) {
+      this.maximumSize = maximumSize;
+      return this;
+    }
+
+    /**
+     * Set how long results stay cached. Defaults to 24 hours.
+     *
+     * @param ttl the time to live
+     * @param unit the unit of ttl
+     * @return the AnalysisCache builder
+     */
+    public Builder ttl(long ttl, TimeUnit unit) {
+      this.ttlMillis = unit.toMillis(ttl);
+      return this;
+    }
+  }
+
+  protected AnalysisCache(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    service = builder.service;
+    cache =
+        builder.cache != null
+            ? builder.cache
+            : new LruCache<String, JsonElement>(builder.maximumSize);
+    ttlMillis = builder.ttlMillis;
+  }
+
+  /**
+   * Analyze text, HTML, or a public webpage, answering the features that are cached locally.
+   *
+   * @param analyzeOptions the {@link AnalyzeOptions} containing the options for the call
+   * @return a {@link ServiceCall} with a response type of {@link AnalysisResults}
+   * @see NaturalLanguageUnderstanding#analyze(AnalyzeOptions)
+   */
+  public ServiceCall<AnalysisResults> analyze(AnalyzeOptions analyzeOptions) {
+    Validator.notNull(analyzeOptions, "analyzeOptions cannot be null");
+    final String documentKey = documentKey(analyzeOptions);
+    JsonObject requested = GSON.toJsonTree(analyzeOptions.features()).getAsJsonObject();
+    if (requested.entrySet().isEmpty()) {
+      return service.analyze(analyzeOptions);
+    }
+    final JsonObject merged = new JsonObject();
+    final List<String> missingKeys = new ArrayList<String>();
+    JsonObject missing = new JsonObject();
+
+    JsonElement document = cache.get(documentKey);
+    boolean needsText = Boolean.TRUE.equals(analyzeOptions.returnAnalyzedText());
+    boolean documentCached =
+        document != null
+            && (!needsText || document.getAsJsonObject().has("analyzed_text"));
+    for (Map.Entry<String, JsonElement> feature : requested.entrySet()) {
+      String key = documentKey + "|" + feature.getKey() + "|" + GSON.toJson(feature.getValue());
+      JsonElement hit = documentCached ? cache.get(key) : null;
+      if (hit != null) {
+        hitCount.incrementAndGet();
+        if (!hit.isJsonNull()) {
+          merged.add(feature.getKey(), hit);
+        }
+      } else {
+        missCount.incrementAndGet();
+        missing.add(feature.getKey(), feature.getValue());
+        missingKeys.add(key);
+      }
+    }
+    if (missing.entrySet().isEmpty()) {
+      copyDocument(document.getAsJsonObject(), merged, needsText);
+      return CachedServiceCall.of(GSON.fromJson(merged, AnalysisResults.class));
+    }
+
+    final List<String> missingNames = new ArrayList<String>();
+    for (Map.Entry<String, JsonElement> feature : missing.entrySet()) {
+      missingNames.add(feature.getKey());
+    }
+    final boolean returnText = needsText;
+    AnalyzeOptions sent =
+        analyzeOptions.newBuilder().features(GSON.fromJson(missing, Features.class)).build();
+    return new MappedServiceCall<AnalysisResults, AnalysisResults>(
+        service.analyze(sent),
+        new MappedServiceCall.Mapper<AnalysisResults, AnalysisResults>() {
+          @Override
+          public AnalysisResults map(AnalysisResults results) {
+            JsonObject json = GSON.toJsonTree(results).getAsJsonObject();
+            JsonObject document = new JsonObject();
+            JsonElement previous = cache.get(documentKey);
+            if (previous != null) {
+              copyDocument(previous.getAsJsonObject(), document, true);
+            }
+            copyDocument(json, document, true);
+            cache.put(documentKey, document, ttlMillis);
+            for (int i = 0; i < missingNames.size(); i++) {
+              JsonElement value = json.get(missingNames.get(i));
+              cache.put(missingKeys.get(i), value != null ? value : JsonNull.INSTANCE, ttlMillis);
+              if (value != null) {
+                merged.add(missingNames.get(i), value);
+              }
+            }
+            copyDocument(document, merged, returnText);
+            if (json.has("usage")) {
+              merged.add("usage", json.get("usage"));
+            }
+            return GSON.fromJson(merged, AnalysisResults.class);
+          }
+        });
+  }
+
+  /** Removes every cached result. */
+  public void invalidateAll() {
+    cache.clear();
+  }
+
+  /**
+   * Returns the number of requested features answered from the cache.
+   *
+   * @return the number of features answered from the cache
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of requested features sent to the service.
+   *
+   * @return the number of features sent to the service
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Hashes the document and the options that change how it is read, but not the features. */
+  private static String documentKey(AnalyzeOptions analyzeOptions) {
+    JsonObject document = GSON.toJsonTree(analyzeOptions).getAsJsonObject();
+    document.remove("features");
+    document.remove("returnAnalyzedText");
+    return ContentHash.sha256(GSON.toJson(document));
+  }
+
+  private static void copyDocument(JsonObject from, JsonObject to, boolean withText) {
+    for (String member : DOCUMENT_MEMBERS) {
+      if (from.has(member) && (withText || !member.equals("analyzed_text"))) {
+        to.add(member, from.get(member));
+      }
+    }
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.BulkRunner;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.natural_language_understanding.v1.NaturalLanguageUnderstanding;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalysisResults;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Enriches a large number of documents with {@link NaturalLanguageUnderstanding#analyze(
+ * com.ibm.watson.natural_language_understanding.v1.model.AnalyzeOptions)}, writing the results as
+ * JSON lines.
+ *
+ * <p>Records are read lazily and analyzed concurrently. The number of concurrent requests adapts to
+ * the service: it grows while requests succeed and halves whenever the service answers 429 Too Many
+ * Requests. Failed requests are retried according to a {@link RetryPolicy}. A record whose options
+ * are identical to those of a record still in flight shares its request instead of sending another.
+ *
+ * <p>Each record produces one line as soon as it completes, so lines are not in input order:
+ *
+ * <pre>
+ * {"id":"a1","results":{"language":"en","entities":[...]}}
+ * {"id":"a2","error":{"status":400,"message":"not enough text for language id"}}
+ * </pre>
+ */
+public class BulkEnricher {
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+
+  private final NaturalLanguageUnderstanding service;
+  private final int initialConcurrency;
+  private final int maxConcurrency;
+  private final int maxPendingRequests;
+  private final RetryPolicy retryPolicy;
+
+  /** Builder. */
+  public static class Builder {
+    private NaturalLanguageUnderstanding service;
+    private int initialConcurrency = 4;
+    private int maxConcurrency = 32;
+    private int maxPendingRequests = 1000;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Natural Language Understanding service
+     */
+    public Builder(NaturalLanguageUnderstanding service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a BulkEnricher.
+     *
+     * @return the bulk enricher
+     */
+    public BulkEnricher build() {
+      return new BulkEnricher(this);
+    }
+
+    /**
+     * Set the number of concurrent requests to start with. Defaults to 4.
+     *
+     * @param initialConcurrency the initial number of concurrent requests
+     * @return the BulkEnricher builder
+     */
+    public Builder initialConcurrency(int initialConcurrency) {
+      this.initialConcurrency = initialConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent requests. Defaults to 32.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return the BulkEnricher builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of requests sent or waiting to be retried. Reading the input pauses
+     * when it is reached. Defaults to 1000.
+     *
+     * @param maxPendingRequests the maximum number of pending requests
+     * @return the BulkEnricher builder
+     */
+    public Builder maxPendingRequests(int maxPendingRequests) {
+      this.maxPendingRequests = maxPendingRequests;
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the BulkEnricher builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected BulkEnricher(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be positive");
+    Validator.isTrue(builder.maxPendingRequests > 0, "maxPendingRequests must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    service = builder.service;
+    maxConcurrency = builder.maxConcurrency;
+    initialConcurrency = Math.max(1, Math.min(builder.initialConcurrency, maxConcurrency));
+    maxPendingRequests = builder.maxPendingRequests;
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Enriches every record of an input, returning once the line of every record has been written.
+   * The writer is flushed but not closed.
+   *
+   * @param records the records, read lazily
+   * @param output the writer that receives one JSON line per record
+   * @return the metrics of the run
+   * @throws IOException if writing to the output fails; requests in flight are cancelled
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public EnrichmentMetrics enrich(Iterator<EnrichmentRecord> records, Writer output)
+      throws IOException, InterruptedException {
+    return enrich(records, output, new EnrichmentMetrics());
+  }
+
+  /**
+   * Enriches every record of an input, updating the given metrics as the run progresses.
+   *
+   * @param records the records, read lazily
+   * @param output the writer that receives one JSON line per record
+   * @param metrics the metrics to update, which can be read from another thread
+   * @return the metrics
+   * @throws IOException if writing to the output fails; requests in flight are cancelled
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public EnrichmentMetrics enrich(
+      Iterator<EnrichmentRecord> records, Writer output, EnrichmentMetrics metrics)
+      throws IOException, InterruptedException {
+    Validator.notNull(output, "output cannot be null");
+    Validator.notNull(metrics, "metrics cannot be null");
+    Run run = new Run(output, metrics);
+    metrics.start();
+    try {
+      while (records.hasNext() && !run.isFailed()) {
+        EnrichmentRecord record = records.next();
+        Validator.notNull(record, "records cannot contain null");
+        Validator.notNull(record.getAnalyzeOptions(), "analyzeOptions cannot be null");
+        run.add(record);
+      }
+      run.await();
+      output.flush();
+      return metrics;
+    } finally {
+      metrics.stop();
+      run.close();
+    }
+  }
+
+  /** The state of one call to {@code enrich}. */
+  private final class Run extends BulkRunner<Request, AnalysisResults> {
+    private final Writer output;
+    private final EnrichmentMetrics metrics;
+    private final Map<String, Request> pending = new HashMap<String, Request>();
+    private IOException writeError;
+
+    private Run(Writer output, EnrichmentMetrics metrics) {
+      super("bulk-enricher", initialConcurrency, maxConcurrency, retryPolicy);
+      this.output = output;
+      this.metrics = metrics;
+    }
+
+    private void add(EnrichmentRecord record) throws InterruptedException {
+      metrics.recordRead();
+      String key = ContentHash.sha256(GSON.toJson(record.getAnalyzeOptions()));
+      synchronized (this) {
+        Request identical = pending.get(key);
+        if (identical != null) {
+          identical.ids.add(record.getId());
+          metrics.recordDeduplicated();
+          return;
+        }
+      }
+      awaitRoom();
+      Request request = new Request(key, record);
+      synchronized (this) {
+        pending.put(key, request);
+      }
+      submit(request);
+    }
+
+    private void await() throws IOException, InterruptedException {
+      awaitIdle();
+      synchronized (this) {
+        if (writeError != null) {
+          throw writeError;
+        }
+      }
+    }
+
+    private synchronized boolean isFailed() {
+      return writeError != null;
+    }
+
+    @Override
+    protected boolean isFull() {
+      return pending.size() >= maxPendingRequests;
+    }
+
+    @Override
+    protected boolean isIdle() {
+      return pending.isEmpty();
+    }
+
+    @Override
+    protected ServiceCall<AnalysisResults> newCall(Request request) {
+      return service.analyze(request.record.getAnalyzeOptions());
+    }
+
+    @Override
+    protected void onRequestComplete(long elapsedNanos) {
+      metrics.recordRequest(elapsedNanos, getConcurrencyLimit());
+    }
+
+    @Override
+    protected void onRetry(Request request, Exception e) {
+      metrics.recordRetry();
+    }
+
+    @Override
+    protected void complete(Request request, AnalysisResults result) {
+      write(request, GSON.toJsonTree(result), "results");
+    }
+
+    @Override
+    protected void fail(Request request, Exception e) {
+      JsonObject error = new JsonObject();
+      if (e instanceof ServiceResponseException) {
+        error.addProperty("status", ((ServiceResponseException) e).getStatusCode());
+      }
+      error.addProperty("message", String.valueOf(e.getMessage()));
+      write(request, error, "error");
+    }
+
+    /** Writes the line of every record that shares the request and forgets the request. */
+    private void write(Request request, JsonElement value, String member) {
+      List<String> ids;
+      synchronized (this) {
+        pending.remove(request.key);
+        ids = request.ids;
+      }
+      try {
+        synchronized (output) {
+          for (String id : ids) {
+            JsonObject line = new JsonObject();
+            line.addProperty("id", id);
+            line.add(member, value);
+            output.write(GSON.toJson(line));
+            output.write('\n');
+          }
+        }
+        if (member.equals("error")) {
+          metrics.recordFailed(ids.size());
+        } else {
+          metrics.recordSucceeded(ids.size());
+        }
+      } catch (IOException e) {
+        synchronized (this) {
+          if (writeError == null) {
+            writeError = e;
+          }
+        }
+      }
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  /** A request to the service and the IDs of the records waiting for it. */
+  private static final class Request {
+    private final String key;
+    private final EnrichmentRecord record;
+    private final List<String> ids = new ArrayList<String>();
+
+    private Request(String key, EnrichmentRecord record) {
+      this.key = key;
+      this.record = record;
+      ids.add(record.getId());
+    }
+  }
+}
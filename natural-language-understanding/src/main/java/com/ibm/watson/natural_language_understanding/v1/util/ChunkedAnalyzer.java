@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.ServiceCallFuture;
+import com.ibm.watson.natural_language_understanding.v1.NaturalLanguageUnderstanding;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalysisResults;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalyzeOptions;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Analyzes documents longer than a single {@link
+ * NaturalLanguageUnderstanding#analyze(AnalyzeOptions)} request accepts.
+ *
+ * <p>The text or HTML of the document is split into chunks of at most {@code maxChunkCharacters}
+ * characters, preferably at the end of a paragraph or sentence, or after a block element for HTML.
+ * The chunks are analyzed concurrently and their results are merged: entities and keywords found
+ * in several chunks are combined by adding up their relevance and counts, mention and syntax
+ * locations refer to the whole document, and the document sentiment and emotion are averaged with
+ * the length of each chunk as its weight. Relevance is therefore no longer bounded by 1 in the
+ * merged results.
+ *
+ * <p>For HTML, locations refer to the text extracted from each chunk, joined by line breaks; this
+ * is also the analyzed text returned when {@link AnalyzeOptions#returnAnalyzedText()} is set.
+ * Documents given by URL cannot be split and are rejected.
+ */
+public class ChunkedAnalyzer {
+  private final NaturalLanguageUnderstanding service;
+  private final int maxChunkCharacters;
+  private final int maxConcurrency;
+
+  /** Builder. */
+  public static class Builder {
+    private NaturalLanguageUnderstanding service;
+    private int maxChunkCharacters = 40000;
+    private int maxConcurrency = 4;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Natural Language Understanding service that analyzes the chunks
+     */
+    public Builder(NaturalLanguageUnderstanding service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a ChunkedAnalyzer.
+     *
+     * @return the chunked analyzer
+     */
+    public ChunkedAnalyzer build() {
+      return new ChunkedAnalyzer(this);
+    }
+
+    /**
+     * Set the maximum number of characters of a chunk. Defaults to 40000.
+     *
+     * @param maxChunkCharacters the maximum number of characters of a chunk
+     * @return the ChunkedAnalyzer builder
+     */
+    public Builder maxChunkCharacters(int maxChunkCharacters) {
+      this.maxChunkCharacters = maxChunkCharacters;
+      return this;
+    }
+
+    /**
+     * Set the maximum number of chunks of a document analyzed at the same time. Defaults to 4.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return the ChunkedAnalyzer builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+  }
+
+  protected ChunkedAnalyzer(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.isTrue(builder.maxChunkCharacters > 1, "maxChunkCharacters must be greater than 1");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be greater than 0");
+    service = builder.service;
+    maxChunkCharacters = builder.maxChunkCharacters;
+    maxConcurrency = builder.maxConcurrency;
+  }
+
+  /**
+   * Analyzes a text or HTML document of any length. A document that fits in a single chunk is
+   * analyzed with a single request and its results are returned unchanged.
+   *
+   * <p>{@link AnalyzeOptions#limitTextCharacters()} is applied to plain text before it is split;
+   * it is ignored for HTML.
+   *
+   * @param analyzeOptions the {@link AnalyzeOptions} containing the options for the call
+   * @return the results of the whole document
+   * @throws RuntimeException the error of the first chunk that failed, such as a {@code
+   *     ServiceResponseException}
+   */
+  public AnalysisResults analyze(AnalyzeOptions analyzeOptions) {
+    Validator.notNull(analyzeOptions, "analyzeOptions cannot be null");
+    Validator.isTrue(
+        analyzeOptions.text() != null || analyzeOptions.html() != null,
+        "only text and html documents can be analyzed in chunks");
+    boolean html = analyzeOptions.text() == null;
+    String document = html ? analyzeOptions.html() : analyzeOptions.text();
+    if (!html
+        && analyzeOptions.limitTextCharacters() != null
+        && analyzeOptions.limitTextCharacters() < document.length()) {
+      document = document.substring(0, analyzeOptions.limitTextCharacters().intValue());
+    }
+    if (document.length() <= maxChunkCharacters) {
+      return service.analyze(analyzeOptions).execute().getResult();
+    }
+
+    List<Integer> boundaries =
+        html
+            ? DocumentSplitter.splitHtml(document, maxChunkCharacters)
+            : DocumentSplitter.splitText(document, maxChunkCharacters);
+    List<ServiceCallFuture<AnalysisResults>> futures =
+        new ArrayList<ServiceCallFuture<AnalysisResults>>();
+    try {
+      for (int i = 0; i + 1 < boundaries.size(); i++) {
+        if (i >= maxConcurrency) {
+          futures.get(i - maxConcurrency).join();
+        }
+        String chunk = document.substring(boundaries.get(i), boundaries.get(i + 1));
+        futures.add(
+            ServiceCallFuture.enqueue(service.analyze(chunkOptions(analyzeOptions, chunk))));
+      }
+      ResultMerger merger = new ResultMerger(analyzeOptions.features());
+      StringBuilder analyzedText = new StringBuilder();
+      for (int i = 0; i < futures.size(); i++) {
+        AnalysisResults results = futures.get(i).join();
+        if (html) {
+          // Each chunk is located by the text extracted from the chunks before it.
+          String chunkText = results.getAnalyzedText() != null ? results.getAnalyzedText() : "";
+          if (i > 0) {
+            analyzedText.append('\n');
+          }
+          merger.add(results, analyzedText.length(), chunkText.length());
+          analyzedText.append(chunkText);
+        } else {
+          int start = boundaries.get(i);
+          merger.add(results, start, boundaries.get(i + 1) - start);
+        }
+      }
+      boolean returnAnalyzedText = Boolean.TRUE.equals(analyzeOptions.returnAnalyzedText());
+      return merger.merge(
+          returnAnalyzedText ? (html ? analyzedText.toString() : document) : null);
+    } finally {
+      for (ServiceCallFuture<AnalysisResults> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private static AnalyzeOptions chunkOptions(AnalyzeOptions analyzeOptions, String chunk) {
+    AnalyzeOptions.Builder builder = new AnalyzeOptions.Builder(analyzeOptions.features());
+    if (analyzeOptions.text() != null) {
+      builder.text(chunk);
+      if (analyzeOptions.returnAnalyzedText() != null) {
+        builder.returnAnalyzedText(analyzeOptions.returnAnalyzedText());
+      }
+    } else {
+      // The extracted text is needed to locate the chunk in the document.
+      builder.html(chunk).returnAnalyzedText(true);
+    }
+    return builder
+        .clean(analyzeOptions.clean())
+        .xpath(analyzeOptions.xpath())
+        .fallbackToRaw(analyzeOptions.fallbackToRaw())
+        .language(analyzeOptions.language())
+        .build();
+  }
+}
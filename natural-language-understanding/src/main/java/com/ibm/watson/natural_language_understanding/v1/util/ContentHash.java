@@ -0,0 +1,49 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Hashes request content so that identical documents can be recognized without keeping them. */
+final class ContentHash {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ContentHash() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Returns the SHA-256 hash of a string as lower-case hexadecimal.
+   *
+   * @param content the content
+   * @return the hash
+   */
+  static String sha256(String content) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    byte[] bytes = digest.digest(content.getBytes(UTF_8));
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
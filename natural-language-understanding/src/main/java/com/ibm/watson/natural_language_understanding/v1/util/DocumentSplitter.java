@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a document into chunks of bounded length at the most natural boundary available: the end
+ * of a paragraph, then the end of a sentence, then whitespace. A boundary in the second half of
+ * the allowed length is preferred over a stronger boundary earlier on, so chunks do not get much
+ * smaller than the limit.
+ */
+final class DocumentSplitter {
+  private static final Pattern TEXT_PARAGRAPH = Pattern.compile("\\n\\s*\\n|\\r?\\n");
+  private static final Pattern HTML_BLOCK =
+      Pattern.compile(
+          "(?i)</(?:p|div|li|ul|ol|h[1-6]|tr|table|section|article|blockquote|pre)\\s*>"
+              + "|<br\\s*/?>");
+  private static final Pattern HTML_TAG_END = Pattern.compile(">");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private DocumentSplitter() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Returns the offsets at which plain text is split, starting with 0 and ending with the length of
+   * the text.
+   *
+   * @param text the text
+   * @param maxLength the maximum number of characters of a chunk
+   * @return the chunk boundaries
+   */
+  static List<Integer> splitText(String text, int maxLength) {
+    BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+    sentences.setText(text);
+    return split(text, maxLength, TEXT_PARAGRAPH, sentences);
+  }
+
+  /**
+   * Returns the offsets at which HTML is split, starting with 0 and ending with the length of the
+   * HTML. Chunks end after a block element or line break, or failing that after a tag.
+   *
+   * @param html the HTML
+   * @param maxLength the maximum number of characters of a chunk
+   * @return the chunk boundaries
+   */
+  static List<Integer> splitHtml(String html, int maxLength) {
+    return split(html, maxLength, HTML_BLOCK, null);
+  }
+
+  private static List<Integer> split(
+      String text, int maxLength, Pattern paragraph, BreakIterator sentences) {
+    List<Integer> boundaries = new ArrayList<Integer>();
+    boundaries.add(0);
+    int start = 0;
+    while (start < text.length()) {
+      int end = boundary(text, start, maxLength, paragraph, sentences);
+      boundaries.add(end);
+      start = end;
+    }
+    return boundaries;
+  }
+
+  private static int boundary(
+      String text, int start, int maxLength, Pattern paragraph, BreakIterator sentences) {
+    int limit = Math.min(text.length(), start + maxLength);
+    if (limit == text.length()) {
+      return limit;
+    }
+    int half = start + maxLength / 2;
+    int paragraphEnd = lastMatchEnd(text, paragraph, start, limit);
+    if (paragraphEnd > half) {
+      return paragraphEnd;
+    }
+    int sentenceEnd = sentences != null ? lastSentenceEnd(sentences, start, limit) : -1;
+    if (sentenceEnd > half) {
+      return sentenceEnd;
+    }
+    int fallback = Math.max(paragraphEnd, sentenceEnd);
+    if (sentences == null) {
+      fallback = Math.max(fallback, lastMatchEnd(text, HTML_TAG_END, start, limit));
+    }
+    if (fallback > half) {
+      return fallback;
+    }
+    int whitespaceEnd = lastMatchEnd(text, WHITESPACE, start, limit);
+    if (whitespaceEnd > start) {
+      return Math.max(fallback, whitespaceEnd);
+    }
+    if (fallback > start) {
+      return fallback;
+    }
+    // No boundary at all: cut, but never between the two halves of a surrogate pair.
+    return Character.isLowSurrogate(text.charAt(limit)) ? limit - 1 : limit;
+  }
+
+  private static int lastMatchEnd(String text, Pattern pattern, int start, int limit) {
+    Matcher matcher = pattern.matcher(text).region(start, limit);
+    int end = -1;
+    while (matcher.find()) {
+      if (matcher.end() > start) {
+        end = matcher.end();
+      }
+    }
+    return end;
+  }
+
+  private static int lastSentenceEnd(BreakIterator sentences, int start, int limit) {
+    int end = sentences.preceding(limit + 1);
+    return end > start ? end : -1;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency of a {@link BulkEnricher} run. The counters are updated while the run is
+ * in progress, so an instance passed to {@link BulkEnricher#enrich(java.util.Iterator,
+ * java.io.Writer, EnrichmentMetrics)} can be read from another thread to monitor it.
+ */
+public class EnrichmentMetrics {
+  private final AtomicLong records = new AtomicLong();
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong deduplicated = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong latencyNanos = new AtomicLong();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+  private final AtomicInteger concurrencyLimit = new AtomicInteger();
+  private volatile long startNanos;
+  private volatile long endNanos;
+
+  /**
+   * Returns the number of records read from the input.
+   *
+   * @return the number of records
+   */
+  public long getRecordCount() {
+    return records.get();
+  }
+
+  /**
+   * Returns the number of records whose results were written.
+   *
+   * @return the number of successful records
+   */
+  public long getSucceededCount() {
+    return succeeded.get();
+  }
+
+  /**
+   * Returns the number of records whose error was written.
+   *
+   * @return the number of failed records
+   */
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Returns the number of records answered by the request of an identical record in flight.
+   *
+   * @return the number of deduplicated records
+   */
+  public long getDeduplicatedCount() {
+    return deduplicated.get();
+  }
+
+  /**
+   * Returns the number of requests completed, including retries.
+   *
+   * @return the number of requests
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Returns the number of requests that were retried.
+   *
+   * @return the number of retries
+   */
+  public long getRetryCount() {
+    return retries.get();
+  }
+
+  /**
+   * Returns the mean time between sending a request and receiving its response or error.
+   *
+   * @return the mean latency in milliseconds
+   */
+  public double getMeanLatencyMillis() {
+    long count = requests.get();
+    return count == 0 ? 0 : latencyNanos.get() / (count * 1e6);
+  }
+
+  /**
+   * Returns the longest time between sending a request and receiving its response or error.
+   *
+   * @return the maximum latency in milliseconds
+   */
+  public double getMaxLatencyMillis() {
+    return maxLatencyNanos.get() / 1e6;
+  }
+
+  /**
+   * Returns the number of concurrent requests currently allowed.
+   *
+   * @return the concurrency limit
+   */
+  public int getConcurrencyLimit() {
+    return concurrencyLimit.get();
+  }
+
+  /**
+   * Returns the time since the run started, or the duration of the run once it is over.
+   *
+   * @return the elapsed time in milliseconds
+   */
+  public long getElapsedMillis() {
+    if (startNanos == 0) {
+      return 0;
+    }
+    long end = endNanos != 0 ? endNanos : System.nanoTime();
+    return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+  }
+
+  /**
+   * Returns the number of records completed per second since the run started.
+   *
+   * @return the throughput in records per second
+   */
+  public double getThroughput() {
+    long elapsed = getElapsedMillis();
+    return elapsed == 0 ? 0 : (succeeded.get() + failed.get()) * 1000.0 / elapsed;
+  }
+
+  void start() {
+    startNanos = System.nanoTime();
+  }
+
+  void stop() {
+    endNanos = System.nanoTime();
+  }
+
+  void recordRead() {
+    records.incrementAndGet();
+  }
+
+  void recordDeduplicated() {
+    deduplicated.incrementAndGet();
+  }
+
+  void recordSucceeded(int count) {
+    succeeded.addAndGet(count);
+  }
+
+  void recordFailed(int count) {
+    failed.addAndGet(count);
+  }
+
+  void recordRetry() {
+    retries.incrementAndGet();
+  }
+
+  void recordRequest(long latency, int limit) {
+    requests.incrementAndGet();
+    latencyNanos.addAndGet(latency);
+    long max = maxLatencyNanos.get();
+    while (latency > max && !maxLatencyNanos.compareAndSet(max, latency)) {
+      max = maxLatencyNanos.get();
+    }
+    concurrencyLimit.set(limit);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d records, %d succeeded, %d failed, %d deduplicated, %d requests, %d retries, "
+            + "%.1f records/s, mean latency %.1f ms, max latency %.1f ms",
+        getRecordCount(),
+        getSucceededCount(),
+        getFailedCount(),
+        getDeduplicatedCount(),
+        getRequestCount(),
+        getRetryCount(),
+        getThroughput(),
+        getMeanLatencyMillis(),
+        getMaxLatencyMillis());
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import com.ibm.watson.natural_language_understanding.v1.model.AnalyzeOptions;
+
+/** A document to enrich with a {@link BulkEnricher}, identified by an ID of the caller's choice. */
+public class EnrichmentRecord {
+  private final String id;
+  private final AnalyzeOptions analyzeOptions;
+
+  /**
+   * Instantiates a new record.
+   *
+   * @param id the ID written with the results of the record
+   * @param analyzeOptions the text, HTML or URL of the document and the features to analyze
+   */
+  public EnrichmentRecord(String id, AnalyzeOptions analyzeOptions) {
+    this.id = id;
+    this.analyzeOptions = analyzeOptions;
+  }
+
+  /**
+   * Gets the ID.
+   *
+   * @return the ID
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Gets the analyze options.
+   *
+   * @return the analyze options
+   */
+  public AnalyzeOptions getAnalyzeOptions() {
+    return analyzeOptions;
+  }
+}
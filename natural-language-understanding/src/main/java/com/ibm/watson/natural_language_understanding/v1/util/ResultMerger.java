@@ -0,0 +1,427 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.natural_language_understanding.v1.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.watson.natural_language_understanding.v1.model.AnalysisResults;
+import com.ibm.watson.natural_language_understanding.v1.model.Features;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the {@link AnalysisResults} of the chunks of a document into the results of the whole
+ * document.
+ *
+ * <p>Every {@code location} is moved by the offset of its chunk. Entities and keywords that occur
+ * in several chunks are combined by adding up their relevance, count and mentions, with their
+ * sentiment and emotion averaged by count; concepts and categories keep their highest score. The
+ * document sentiment and emotion are averaged with the length of each chunk as its weight. Each
+ * list is sorted again and cut to the limit set in the requested {@link Features}.
+ */
+final class ResultMerger {
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final String LOCATION = "location";
+  private static final String SENTIMENT = "sentiment";
+  private static final String EMOTION = "emotion";
+  private static final String DOCUMENT = "document";
+  private static final String TARGETS = "targets";
+  private static final String SCORE = "score";
+  private static final String RELEVANCE = "relevance";
+  private static final String TEXT = "text";
+
+  private final JsonObject features;
+  private final List<JsonObject> chunks = new ArrayList<JsonObject>();
+  private final List<Double> weights = new ArrayList<Double>();
+
+  /**
+   * Instantiates a new merger.
+   *
+   * @param features the features requested for the document
+   */
+  ResultMerger(Features features) {
+    this.features =
+        features != null ? GSON.toJsonTree(features).getAsJsonObject() : new JsonObject();
+  }
+
+  /**
+   * Adds the results of a chunk. Chunks must be added in document order.
+   *
+   * @param results the results of the chunk
+   * @param offset the offset of the chunk in the document
+   * @param length the length of the chunk, which is its weight in averages
+   */
+  void add(AnalysisResults results, long offset, long length) {
+    JsonObject json = GSON.toJsonTree(results).getAsJsonObject();
+    rebase(json, offset);
+    chunks.add(json);
+    weights.add((double) Math.max(1, length));
+  }
+
+  /**
+   * Returns the results of the whole document.
+   *
+   * @param analyzedText the analyzed text of the document, or null if it was not requested
+   * @return the merged results
+   */
+  AnalysisResults merge(String analyzedText) {
+    JsonObject merged = new JsonObject();
+    copyFirst(merged, "language");
+    if (analyzedText != null) {
+      merged.addProperty("analyzed_text", analyzedText);
+    }
+    copyFirst(merged, "retrieved_url");
+    mergeUsage(merged);
+    mergeScored(merged, "concepts", RELEVANCE, false, TEXT);
+    mergeScored(merged, "entities", RELEVANCE, true, "type", TEXT);
+    mergeScored(merged, "keywords", RELEVANCE, true, TEXT);
+    mergeScored(merged, "categories", SCORE, false, "label");
+    mergeDocumentScores(merged, EMOTION);
+    mergeDocumentScores(merged, SENTIMENT);
+    copyFirst(merged, "metadata");
+    concatenate(merged, "relations");
+    concatenate(merged, "semantic_roles");
+    mergeSyntax(merged);
+    return GSON.fromJson(merged, AnalysisResults.class);
+  }
+
+  private static void rebase(JsonElement element, long offset) {
+    if (element.isJsonArray()) {
+      for (JsonElement item : element.getAsJsonArray()) {
+        rebase(item, offset);
+      }
+    } else if (element.isJsonObject()) {
+      for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+        JsonElement value = member.getValue();
+        if (member.getKey().equals(LOCATION) && value.isJsonArray()) {
+          JsonArray location = new JsonArray();
+          for (JsonElement position : value.getAsJsonArray()) {
+            location.add(new JsonPrimitive(position.getAsLong() + offset));
+          }
+          member.setValue(location);
+        } else {
+          rebase(value, offset);
+        }
+      }
+    }
+  }
+
+  private void copyFirst(JsonObject merged, String name) {
+    for (JsonObject chunk : chunks) {
+      if (chunk.has(name)) {
+        merged.add(name, chunk.get(name));
+        return;
+      }
+    }
+  }
+
+  private void mergeUsage(JsonObject merged) {
+    JsonObject usage = null;
+    for (JsonObject chunk : chunks) {
+      if (!chunk.has("usage")) {
+        continue;
+      }
+      JsonObject chunkUsage = chunk.getAsJsonObject("usage");
+      if (usage == null) {
+        usage = new JsonObject();
+      }
+      for (Map.Entry<String, JsonElement> member : chunkUsage.entrySet()) {
+        long value = member.getValue().getAsLong();
+        JsonElement total = usage.get(member.getKey());
+        if (member.getKey().equals("features")) {
+          usage.addProperty("features", total != null ? Math.max(total.getAsLong(), value) : value);
+        } else {
+          usage.addProperty(member.getKey(), total != null ? total.getAsLong() + value : value);
+        }
+      }
+    }
+    if (usage != null) {
+      merged.add("usage", usage);
+    }
+  }
+
+  private void concatenate(JsonObject merged, String name) {
+    JsonArray all = null;
+    for (JsonObject chunk : chunks) {
+      if (chunk.has(name)) {
+        if (all == null) {
+          all = new JsonArray();
+        }
+        all.addAll(chunk.getAsJsonArray(name));
+      }
+    }
+    if (all != null) {
+      merged.add(name, all);
+    }
+  }
+
+  private void mergeSyntax(JsonObject merged) {
+    JsonObject syntax = null;
+    for (JsonObject chunk : chunks) {
+      if (!chunk.has("syntax")) {
+        continue;
+      }
+      if (syntax == null) {
+        syntax = new JsonObject();
+      }
+      for (Map.Entry<String, JsonElement> member : chunk.getAsJsonObject("syntax").entrySet()) {
+        if (!syntax.has(member.getKey())) {
+          syntax.add(member.getKey(), new JsonArray());
+        }
+        syntax.getAsJsonArray(member.getKey()).addAll(member.getValue().getAsJsonArray());
+      }
+    }
+    if (syntax != null) {
+      merged.add("syntax", syntax);
+    }
+  }
+
+  /**
+   * Combines the items of a list feature that share the same key fields, sorts them by score and
+   * cuts the list to the requested limit.
+   */
+  private void mergeScored(
+      JsonObject merged, String name, final String scoreField, boolean additive, String... keys) {
+    Map<String, Group> groups = new LinkedHashMap<String, Group>();
+    boolean present = false;
+    for (JsonObject chunk : chunks) {
+      if (!chunk.has(name)) {
+        continue;
+      }
+      present = true;
+      for (JsonElement element : chunk.getAsJsonArray(name)) {
+        JsonObject item = element.getAsJsonObject();
+        StringBuilder key = new StringBuilder();
+        for (String field : keys) {
+          key.append(item.has(field) ? item.get(field).getAsString() : "").append('|');
+        }
+        Group group = groups.get(key.toString());
+        if (group == null) {
+          group = new Group(item);
+          groups.put(key.toString(), group);
+        }
+        group.add(item, scoreField, additive);
+      }
+    }
+    if (!present) {
+      return;
+    }
+    List<JsonObject> items = new ArrayList<JsonObject>();
+    for (Group group : groups.values()) {
+      items.add(group.toJson(scoreField));
+    }
+    Collections.sort(
+        items,
+        new Comparator<JsonObject>() {
+          @Override
+          public int compare(JsonObject a, JsonObject b) {
+            return Double.compare(score(b, scoreField), score(a, scoreField));
+          }
+        });
+    long limit = limit(name);
+    JsonArray array = new JsonArray();
+    for (JsonObject item : items) {
+      if (limit > 0 && array.size() >= limit) {
+        break;
+      }
+      array.add(item);
+    }
+    merged.add(name, array);
+  }
+
+  /** Averages the document and targeted scores of the sentiment or emotion feature. */
+  private void mergeDocumentScores(JsonObject merged, String name) {
+    String scores = name.equals(SENTIMENT) ? null : EMOTION;
+    ScoreAverage document = new ScoreAverage();
+    Map<String, ScoreAverage> targets = new LinkedHashMap<String, ScoreAverage>();
+    boolean present = false;
+    for (int i = 0; i < chunks.size(); i++) {
+      JsonObject result = chunks.get(i).getAsJsonObject(name);
+      if (result == null) {
+        continue;
+      }
+      present = true;
+      double weight = weights.get(i);
+      if (result.has(DOCUMENT)) {
+        document.add(result.getAsJsonObject(DOCUMENT), scores, weight);
+      }
+      if (result.has(TARGETS)) {
+        for (JsonElement element : result.getAsJsonArray(TARGETS)) {
+          JsonObject target = element.getAsJsonObject();
+          String text = target.get(TEXT).getAsString();
+          ScoreAverage average = targets.get(text);
+          if (average == null) {
+            average = new ScoreAverage();
+            targets.put(text, average);
+          }
+          average.add(target, scores, weight);
+        }
+      }
+    }
+    if (!present) {
+      return;
+    }
+    JsonObject result = new JsonObject();
+    if (!document.isEmpty()) {
+      result.add(DOCUMENT, document.toJson(scores));
+    }
+    if (!targets.isEmpty()) {
+      JsonArray array = new JsonArray();
+      for (Map.Entry<String, ScoreAverage> target : targets.entrySet()) {
+        JsonObject json = target.getValue().toJson(scores);
+        json.addProperty(TEXT, target.getKey());
+        array.add(json);
+      }
+      result.add(TARGETS, array);
+    }
+    merged.add(name, result);
+  }
+
+  private long limit(String name) {
+    JsonElement options = features.get(name);
+    if (options != null && options.isJsonObject() && options.getAsJsonObject().has("limit")) {
+      return options.getAsJsonObject().get("limit").getAsLong();
+    }
+    return 0;
+  }
+
+  private static double score(JsonObject item, String field) {
+    return item.has(field) ? item.get(field).getAsDouble() : 0;
+  }
+
+  /** The occurrences of one entity, keyword, concept or category across chunks. */
+  private static final class Group {
+    private final JsonObject first;
+    private double score;
+    private long count;
+    private boolean counted;
+    private Double confidence;
+    private JsonArray mentions;
+    private final ScoreAverage sentiment = new ScoreAverage();
+    private final ScoreAverage emotion = new ScoreAverage();
+
+    Group(JsonObject first) {
+      this.first = first;
+    }
+
+    void add(JsonObject item, String scoreField, boolean additive) {
+      double itemScore = score(item, scoreField);
+      score = additive ? score + itemScore : Math.max(score, itemScore);
+      long itemCount = 1;
+      if (item.has("count")) {
+        itemCount = item.get("count").getAsLong();
+        counted = true;
+      }
+      count += itemCount;
+      if (item.has("confidence")) {
+        double itemConfidence = item.get("confidence").getAsDouble();
+        confidence = confidence == null ? itemConfidence : Math.max(confidence, itemConfidence);
+      }
+      if (item.has("mentions")) {
+        if (mentions == null) {
+          mentions = new JsonArray();
+        }
+        mentions.addAll(item.getAsJsonArray("mentions"));
+      }
+      if (item.has(SENTIMENT)) {
+        sentiment.add(item.getAsJsonObject(SENTIMENT), null, itemCount);
+      }
+      if (item.has(EMOTION)) {
+        emotion.add(item, EMOTION, itemCount);
+      }
+    }
+
+    JsonObject toJson(String scoreField) {
+      JsonObject json = first.deepCopy();
+      json.addProperty(scoreField, score);
+      if (counted) {
+        json.addProperty("count", count);
+      }
+      if (confidence != null) {
+        json.addProperty("confidence", confidence);
+      }
+      if (mentions != null) {
+        json.add("mentions", mentions);
+      }
+      if (!sentiment.isEmpty()) {
+        JsonObject average = sentiment.toJson(null);
+        average.remove("label");
+        json.add(SENTIMENT, average);
+      }
+      if (!emotion.isEmpty()) {
+        json.add(EMOTION, emotion.toJson(EMOTION).getAsJsonObject(EMOTION));
+      }
+      return json;
+    }
+  }
+
+  /**
+   * A weighted average of either a sentiment score, or of the emotion scores held in a member of
+   * the given name.
+   */
+  private static final class ScoreAverage {
+    private final Map<String, double[]> sums = new LinkedHashMap<String, double[]>();
+
+    void add(JsonObject result, String scores, double weight) {
+      if (scores == null) {
+        if (result.has(SCORE)) {
+          add(SCORE, result.get(SCORE).getAsDouble(), weight);
+        }
+        return;
+      }
+      JsonObject emotion = result.getAsJsonObject(scores);
+      if (emotion != null) {
+        for (Map.Entry<String, JsonElement> member : emotion.entrySet()) {
+          add(member.getKey(), member.getValue().getAsDouble(), weight);
+        }
+      }
+    }
+
+    boolean isEmpty() {
+      return sums.isEmpty();
+    }
+
+    JsonObject toJson(String scores) {
+      JsonObject values = new JsonObject();
+      for (Map.Entry<String, double[]> sum : sums.entrySet()) {
+        values.addProperty(sum.getKey(), sum.getValue()[0] / sum.getValue()[1]);
+      }
+      if (scores != null) {
+        JsonObject json = new JsonObject();
+        json.add(scores, values);
+        return json;
+      }
+      double score = values.has(SCORE) ? values.get(SCORE).getAsDouble() : 0;
+      values.addProperty("label", score > 0 ? "positive" : score < 0 ? "negative" : "neutral");
+      return values;
+    }
+
+    private void add(String name, double value, double weight) {
+      double[] sum = sums.get(name);
+      if (sum == null) {
+        sum = new double[2];
+        sums.put(name, sum);
+      }
+      sum[0] += value * weight;
+      sum[1] += weight;
+    }
+  }
+}
@@ -14,8 +14,14 @@ package com.ibm.watson.natural_language_understanding.v1;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.watson.common.RetryPolicy;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.natural_language_understanding.v1.model.AnalysisResults;
 import com.ibm.watson.natural_language_understanding.v1.model.AnalyzeOptions;
@@ -24,6 +30,8 @@ import com.ibm.watson.natural_language_understanding.v1.model.ConceptsOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.DeleteModelOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.EmotionOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.EntitiesOptions;
+import com.ibm.watson.natural_language_understanding.v1.model.EntitiesResult;
+import com.ibm.watson.natural_language_understanding.v1.model.EntityMention;
 import com.ibm.watson.natural_language_understanding.v1.model.Features;
 import com.ibm.watson.natural_language_understanding.v1.model.KeywordsOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.ListModelsResults;
@@ -31,11 +39,24 @@ import com.ibm.watson.natural_language_understanding.v1.model.MetadataOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.RelationsOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.SemanticRolesOptions;
 import com.ibm.watson.natural_language_understanding.v1.model.SentimentOptions;
+import com.ibm.watson.natural_language_understanding.v1.util.AnalysisCache;
+import com.ibm.watson.natural_language_understanding.v1.util.BulkEnricher;
+import com.ibm.watson.natural_language_understanding.v1.util.ChunkedAnalyzer;
+import com.ibm.watson.natural_language_understanding.v1.util.EnrichmentMetrics;
+import com.ibm.watson.natural_language_understanding.v1.util.EnrichmentRecord;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
 import org.junit.Test;
@@ -46,6 +67,7 @@ public class NaturalLanguageUnderstandingTest extends WatsonServiceUnitTest {
   private static final String DELETE_PATH = "/v1/models/foo?version=2019-07-12";
   private static final String ANALYZE_PATH = "/v1/analyze?version=2019-07-12";
   private static final String RESOURCE = "src/test/resources/natural_language_understanding/";
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
 
   private static final String TEXT = "text";
   private static final Long LOCATION = 0L;
@@ -320,6 +342,177 @@ public class NaturalLanguageUnderstandingTest extends WatsonServiceUnitTest {
     assertEquals("DELETE", request.getMethod());
   }
 
+  /**
+   * Test that the chunked analyzer splits a long text at paragraph boundaries and merges the
+   * results of the chunks.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testChunkedAnalyzer() throws InterruptedException {
+    EntityDispatcher dispatcher = new EntityDispatcher();
+    server.setDispatcher(dispatcher);
+    String document =
+        "IBM makes good computers. IBM sells them.\n\n"
+            + "Watson answers questions for IBM.\n\n"
+            + "Nothing to see in this rather long and bad paragraph.";
+    Features features =
+        new Features.Builder()
+            .entities(new EntitiesOptions.Builder().limit(5L).build())
+            .sentiment(new SentimentOptions.Builder().build())
+            .build();
+    ChunkedAnalyzer analyzer =
+        new ChunkedAnalyzer.Builder(service).maxChunkCharacters(60).maxConcurrency(2).build();
+
+    AnalysisResults results =
+        analyzer.analyze(new AnalyzeOptions.Builder(features).text(document).build());
+
+    assertEquals(3, dispatcher.texts.size());
+    for (String chunk : dispatcher.texts) {
+      assertTrue(chunk.length() <= 60);
+    }
+    assertEquals("en", results.getLanguage());
+    assertEquals(Long.valueOf(document.length()), results.getUsage().getTextCharacters());
+    assertEquals(1, results.getEntities().size());
+    EntitiesResult ibm = results.getEntities().get(0);
+    assertEquals(Long.valueOf(3), ibm.getCount());
+    assertEquals(1.0, ibm.getRelevance(), 1e-9);
+    assertEquals(3, ibm.getMentions().size());
+    for (EntityMention mention : ibm.getMentions()) {
+      List<Long> location = mention.getLocation();
+      assertEquals(
+          "IBM", document.substring(location.get(0).intValue(), location.get(1).intValue()));
+    }
+    // The first chunk is positive and the two others are negative.
+    int first = document.indexOf("Watson");
+    double expected = (first - (document.length() - first)) / (double) document.length();
+    assertEquals(expected, results.getSentiment().getDocument().getScore(), 1e-9);
+    assertEquals("negative", results.getSentiment().getDocument().getLabel());
+  }
+
+  /**
+   * Test that the bulk enricher writes one line per record, retries throttled requests, shares
+   * the request of identical records in flight and reports errors per record.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testBulkEnricher() throws Exception {
+    server.setDispatcher(new EnrichmentDispatcher());
+    Features features =
+        new Features.Builder().keywords(new KeywordsOptions.Builder().build()).build();
+    List<EnrichmentRecord> records = new ArrayList<EnrichmentRecord>();
+    for (String text : Arrays.asList("alpha", "slow", "slow", "busy", "bad")) {
+      records.add(
+          new EnrichmentRecord(
+              "id" + records.size(), new AnalyzeOptions.Builder(features).text(text).build()));
+    }
+    BulkEnricher enricher =
+        new BulkEnricher.Builder(service)
+            .retryPolicy(
+                new RetryPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).build())
+            .build();
+    StringWriter output = new StringWriter();
+
+    EnrichmentMetrics metrics = enricher.enrich(records.iterator(), output);
+
+    Map<String, JsonObject> lines = new HashMap<String, JsonObject>();
+    for (String line : output.toString().split("\n")) {
+      JsonObject json = GSON.fromJson(line, JsonObject.class);
+      lines.put(json.get("id").getAsString(), json);
+    }
+    assertEquals(5, lines.size());
+    assertEquals(lines.get("id1").get("results"), lines.get("id2").get("results"));
+    assertEquals(
+        "busy",
+        lines
+            .get("id3")
+            .getAsJsonObject("results")
+            .getAsJsonArray("keywords")
+            .get(0)
+            .getAsJsonObject()
+            .get(TEXT)
+            .getAsString());
+    assertEquals(400, lines.get("id4").getAsJsonObject("error").get("status").getAsInt());
+    assertEquals(5, metrics.getRecordCount());
+    assertEquals(4, metrics.getSucceededCount());
+    assertEquals(1, metrics.getFailedCount());
+    assertEquals(1, metrics.getDeduplicatedCount());
+    assertEquals(1, metrics.getRetryCount());
+    assertEquals(5, metrics.getRequestCount());
+    assertEquals(5, server.getRequestCount());
+  }
+
+  /**
+   * Test that the analysis cache answers cached features locally and only requests the features
+   * that are missing.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testAnalysisCache() throws InterruptedException {
+    AnalysisCache cache = new AnalysisCache.Builder(service).build();
+    String text = "IBM is an American multinational technology company.";
+    EntitiesOptions entities = new EntitiesOptions.Builder().limit(10L).build();
+    KeywordsOptions keywords = new KeywordsOptions.Builder().limit(10L).build();
+    SentimentOptions sentiment = new SentimentOptions.Builder().build();
+
+    JsonObject first = new JsonObject();
+    first.addProperty("language", "en");
+    first.add("entities", GSON.toJsonTree(analyzeResults.getEntities()));
+    first.add("keywords", GSON.toJsonTree(analyzeResults.getKeywords()));
+    server.enqueue(jsonResponse(first));
+    cache
+        .analyze(
+            new AnalyzeOptions.Builder(
+                    new Features.Builder().entities(entities).keywords(keywords).build())
+                .text(text)
+                .build())
+        .execute();
+    server.takeRequest();
+
+    JsonObject second = new JsonObject();
+    second.addProperty("language", "en");
+    second.add("sentiment", GSON.toJsonTree(analyzeResults.getSentiment()));
+    server.enqueue(jsonResponse(second));
+    AnalysisResults partial =
+        cache
+            .analyze(
+                new AnalyzeOptions.Builder(
+                        new Features.Builder().keywords(keywords).sentiment(sentiment).build())
+                    .text(text)
+                    .build())
+            .execute()
+            .getResult();
+    JsonObject sent =
+        GSON.fromJson(server.takeRequest().getBody().readUtf8(), JsonObject.class)
+            .getAsJsonObject("features");
+    assertEquals(1, sent.entrySet().size());
+    assertTrue(sent.has("sentiment"));
+    assertEquals(analyzeResults.getKeywords(), partial.getKeywords());
+    assertEquals(analyzeResults.getSentiment(), partial.getSentiment());
+    assertEquals("en", partial.getLanguage());
+
+    AnalysisResults hit =
+        cache
+            .analyze(
+                new AnalyzeOptions.Builder(
+                        new Features.Builder()
+                            .entities(entities)
+                            .keywords(keywords)
+                            .sentiment(sentiment)
+                            .build())
+                    .text(text)
+                    .build())
+            .execute()
+            .getResult();
+    assertEquals(analyzeResults.getEntities(), hit.getEntities());
+    assertEquals(analyzeResults.getSentiment(), hit.getSentiment());
+    assertEquals(2, server.getRequestCount());
+    assertEquals(4, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
   // START NEGATIVE TESTS
   /** Test delete model with a null model ID. */
   @Test(expected = IllegalArgumentException.class)
@@ -334,4 +527,84 @@ public class NaturalLanguageUnderstandingTest extends WatsonServiceUnitTest {
     NaturalLanguageUnderstanding service2 =
         new NaturalLanguageUnderstanding(null, new NoAuthAuthenticator());
   }
+
+  /**
+   * Finds "IBM" as an entity of relevance 0.5 in each text and scores its sentiment as positive if
+   * it mentions "good" and negative otherwise.
+   */
+  private static class EntityDispatcher extends Dispatcher {
+    private final List<String> texts = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String text =
+          GSON.fromJson(request.getBody().readUtf8(), JsonObject.class).get(TEXT).getAsString();
+      texts.add(text);
+      JsonArray mentions = new JsonArray();
+      for (int i = text.indexOf("IBM"); i >= 0; i = text.indexOf("IBM", i + 1)) {
+        JsonObject mention = new JsonObject();
+        mention.addProperty(TEXT, "IBM");
+        mention.add("location", GSON.toJsonTree(Arrays.asList(i, i + 3)));
+        mentions.add(mention);
+      }
+      JsonArray entities = new JsonArray();
+      if (mentions.size() > 0) {
+        JsonObject entity = new JsonObject();
+        entity.addProperty("type", "Company");
+        entity.addProperty(TEXT, "IBM");
+        entity.addProperty("relevance", 0.5);
+        entity.addProperty("count", mentions.size());
+        entity.add("mentions", mentions);
+        entities.add(entity);
+      }
+      JsonObject document = new JsonObject();
+      document.addProperty("score", text.contains("good") ? 1.0 : -1.0);
+      JsonObject sentiment = new JsonObject();
+      sentiment.add("document", document);
+      JsonObject usage = new JsonObject();
+      usage.addProperty("text_characters", text.length());
+      usage.addProperty("features", 2);
+      JsonObject results = new JsonObject();
+      results.addProperty("language", "en");
+      results.add("usage", usage);
+      results.add("entities", entities);
+      results.add("sentiment", sentiment);
+      return jsonResponse(results);
+    }
+  }
+
+  /**
+   * Returns the text as its only keyword, after a delay for "slow", and fails "bad" with 400 and
+   * the first request for "busy" with 429.
+   */
+  private static class EnrichmentDispatcher extends Dispatcher {
+    private final AtomicInteger busy = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String text =
+          GSON.fromJson(request.getBody().readUtf8(), JsonObject.class).get(TEXT).getAsString();
+      if (text.equals("bad")) {
+        return new MockResponse()
+            .setResponseCode(400)
+            .setBody("{\"error\":\"not enough text for language id\",\"code\":400}");
+      }
+      if (text.equals("busy") && busy.getAndIncrement() == 0) {
+        return new MockResponse().setResponseCode(429).addHeader("Retry-After", "0");
+      }
+      JsonObject keyword = new JsonObject();
+      keyword.addProperty(TEXT, text);
+      keyword.addProperty("relevance", 1.0);
+      JsonArray keywords = new JsonArray();
+      keywords.add(keyword);
+      JsonObject results = new JsonObject();
+      results.addProperty("language", "en");
+      results.add("keywords", keywords);
+      MockResponse response = jsonResponse(results);
+      if (text.equals("slow")) {
+        response.setBodyDelay(200, TimeUnit.MILLISECONDS);
+      }
+      return response;
+    }
+  }
 }
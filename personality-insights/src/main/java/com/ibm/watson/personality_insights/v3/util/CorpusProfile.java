@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.personality_insights.v3.util;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The profile of an author computed by a {@link CorpusProfiler} from one or more profile
+ * requests.
+ *
+ * <p>The scores are the columns of the CSV profiles, such as {@code big5_openness}, averaged over
+ * the requests and weighted by the number of words each request analyzed. When the author's
+ * content fits in one request they are the scores returned by the service.
+ */
+public class CorpusProfile {
+  private final String author;
+  private final int requestCount;
+  private final long wordCount;
+  private final Map<String, Double> scores;
+  private final Map<String, String> attributes;
+
+  CorpusProfile(
+      String author,
+      int requestCount,
+      long wordCount,
+      Map<String, Double> scores,
+      Map<String, String> attributes) {
+    this.author = author;
+    this.requestCount = requestCount;
+    this.wordCount = wordCount;
+    this.scores = Collections.unmodifiableMap(scores);
+    this.attributes = Collections.unmodifiableMap(attributes);
+  }
+
+  /**
+   * Gets the author.
+   *
+   * @return the author
+   */
+  public String getAuthor() {
+    return author;
+  }
+
+  /**
+   * Gets the number of profile requests the author's content was split into.
+   *
+   * @return the number of requests
+   */
+  public int getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Gets the total number of words analyzed, or -1 if the profiles do not report it.
+   *
+   * @return the word count
+   */
+  public long getWordCount() {
+    return wordCount;
+  }
+
+  /**
+   * Gets the numeric columns of the profile, in the order of the CSV columns.
+   *
+   * @return the scores by column name
+   */
+  public Map<String, Double> getScores() {
+    return scores;
+  }
+
+  /**
+   * Gets the columns of the profile that are not numeric, such as {@code processed_language}, as
+   * reported by the first request.
+   *
+   * @return the values by column name
+   */
+  public Map<String, String> getAttributes() {
+    return attributes;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.personality_insights.v3.util;
+
+import com.google.gson.Gson;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.personality_insights.v3.PersonalityInsights;
+import com.ibm.watson.personality_insights.v3.model.Content;
+import com.ibm.watson.personality_insights.v3.model.ContentItem;
+import com.ibm.watson.personality_insights.v3.model.ProfileOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Profiles authors whose content is too large for one Personality Insights request.
+ *
+ * <p>An author's {@link ContentItem}s are read from an iterator and packed into {@link Content}
+ * requests of at most {@code maxRequestBytes} of JSON, so only one request worth of content is held
+ * in memory per author. Each request asks for a CSV profile with {@link
+ * PersonalityInsights#profileAsCsv}, which is decoded record by record from the response stream.
+ * The profiles of an author's requests are combined into one {@link CorpusProfile} by averaging
+ * every score, weighted by the number of words each request analyzed. Several authors are profiled
+ * concurrently by {@link #profileAll}.
+ *
+ * <p>The service needs far less text than it accepts to produce a stable profile, so for authors
+ * with very large histories a single request is usually enough; splitting only changes the result
+ * when the author's writing differs between requests.
+ */
+public class CorpusProfiler {
+  /** The largest request the service accepts. (value is 20 MB) */
+  public static final int MAX_REQUEST_BYTES = 20 * 1024 * 1024;
+
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+  private static final String WORD_COUNT = "word_count";
+
+  /** The bytes of the request body around the content items: {"contentItems":[]}. */
+  private static final int ENVELOPE_BYTES = 19;
+
+  private final PersonalityInsights service;
+  private final int maxRequestBytes;
+  private final int maxConcurrentAuthors;
+  private final String contentLanguage;
+  private final String acceptLanguage;
+  private final Boolean rawScores;
+  private final Boolean consumptionPreferences;
+  private final RetryPolicy retryPolicy;
+
+  /** Receives the outcome of each author profiled by {@link #profileAll}. */
+  public interface Callback {
+
+    /**
+     * Called with the profile of an author, on one of the profiler's threads.
+     *
+     * @param profile the profile
+     */
+    void onProfile(CorpusProfile profile);
+
+    /**
+     * Called when an author cannot be profiled, on one of the profiler's threads.
+     *
+     * @param author the author
+     * @param e the failure
+     */
+    void onFailure(String author, Exception e);
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private PersonalityInsights service;
+    private int maxRequestBytes = 1024 * 1024;
+    private int maxConcurrentAuthors = 4;
+    private String contentLanguage;
+    private String acceptLanguage;
+    private Boolean rawScores;
+    private Boolean consumptionPreferences;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Personality Insights service
+     */
+    public Builder(PersonalityInsights service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a CorpusProfiler.
+     *
+     * @return the corpus profiler
+     */
+    public CorpusProfiler build() {
+      return new CorpusProfiler(this);
+    }
+
+    /**
+     * Set the largest JSON body of one profile request. A content item larger than this is sent
+     * in a request of its own. Defaults to 1 MB; the service accepts up to {@link
+     * #MAX_REQUEST_BYTES}.
+     *
+     * @param maxRequestBytes the maximum request size in bytes
+     * @return the CorpusProfiler builder
+     */
+    public Builder maxRequestBytes(int maxRequestBytes) {
+      this.maxRequestBytes = maxRequestBytes;
+      return this;
+    }
+
+    /**
+     * Set the largest number of authors profiled at the same time by {@link
+     * CorpusProfiler#profileAll}. Defaults to 4.
+     *
+     * @param maxConcurrentAuthors the maximum number of concurrent authors
+     * @return the CorpusProfiler builder
+     */
+    public Builder maxConcurrentAuthors(int maxConcurrentAuthors) {
+      this.maxConcurrentAuthors = maxConcurrentAuthors;
+      return this;
+    }
+
+    /**
+     * Set the language of the content. By default the service uses the language of each content
+     * item.
+     *
+     * @param contentLanguage the content language
+     * @return the CorpusProfiler builder
+     */
+    public Builder contentLanguage(String contentLanguage) {
+      this.contentLanguage = contentLanguage;
+      return this;
+    }
+
+    /**
+     * Set the language of the column names of the profile.
+     *
+     * @param acceptLanguage the accept language
+     * @return the CorpusProfiler builder
+     */
+    public Builder acceptLanguage(String acceptLanguage) {
+      this.acceptLanguage = acceptLanguage;
+      return this;
+    }
+
+    /**
+     * Set whether raw scores are returned in addition to percentiles.
+     *
+     * @param rawScores whether to return raw scores
+     * @return the CorpusProfiler builder
+     */
+    public Builder rawScores(Boolean rawScores) {
+      this.rawScores = rawScores;
+      return this;
+    }
+
+    /**
+     * Set whether consumption preferences are returned.
+     *
+     * @param consumptionPreferences whether to return consumption preferences
+     * @return the CorpusProfiler builder
+     */
+    public Builder consumptionPreferences(Boolean consumptionPreferences) {
+      this.consumptionPreferences = consumptionPreferences;
+      return this;
+    }
+
+    /**
+     * Set how failed profile requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the CorpusProfiler builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected CorpusProfiler(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.isTrue(
+        builder.maxRequestBytes > ENVELOPE_BYTES && builder.maxRequestBytes <= MAX_REQUEST_BYTES,
+        "maxRequestBytes must be positive and at most " + MAX_REQUEST_BYTES);
+    Validator.isTrue(builder.maxConcurrentAuthors > 0, "maxConcurrentAuthors must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    service = builder.service;
+    maxRequestBytes = builder.maxRequestBytes;
+    maxConcurrentAuthors = builder.maxConcurrentAuthors;
+    contentLanguage = builder.contentLanguage;
+    acceptLanguage = builder.acceptLanguage;
+    rawScores = builder.rawScores;
+    consumptionPreferences = builder.consumptionPreferences;
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Profiles one author.
+   *
+   * @param author the author, used to label the profile
+   * @param items the author's content items; items without content are skipped
+   * @return the profile
+   * @throws IOException if a profile cannot be read
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   * @throws IllegalArgumentException if the author has no content
+   */
+  public CorpusProfile profile(String author, Iterator<ContentItem> items)
+      throws IOException, InterruptedException {
+    Validator.notNull(items, "items cannot be null");
+    Aggregate aggregate = new Aggregate();
+    List<ContentItem> request = new ArrayList<ContentItem>();
+    int requestBytes = ENVELOPE_BYTES;
+    while (items.hasNext()) {
+      ContentItem item = items.next();
+      if (item == null || item.content() == null || item.content().isEmpty()) {
+        continue;
+      }
+      int itemBytes = GSON.toJson(item).getBytes(StandardCharsets.UTF_8).length;
+      int separator = request.isEmpty() ? 0 : 1;
+      if (!request.isEmpty() && requestBytes + separator + itemBytes > maxRequestBytes) {
+        aggregate.add(profile(request), requestBytes);
+        request.clear();
+        requestBytes = ENVELOPE_BYTES;
+        separator = 0;
+      }
+      request.add(item);
+      requestBytes += separator + itemBytes;
+    }
+    if (!request.isEmpty()) {
+      aggregate.add(profile(request), requestBytes);
+    }
+    if (aggregate.requests == 0) {
+      throw new IllegalArgumentException("No content to profile for " + author);
+    }
+    return aggregate.toProfile(author);
+  }
+
+  /**
+   * Profiles many authors, with at most {@code maxConcurrentAuthors} of them in flight. The content
+   * of each author is only read when the author is profiled.
+   *
+   * @param corpora the content items of each author
+   * @param callback the callback that receives the outcome of each author
+   * @return the number of authors profiled successfully
+   * @throws InterruptedException if the thread is interrupted while waiting for authors
+   */
+  public int profileAll(
+      Map<String, ? extends Iterable<ContentItem>> corpora, final Callback callback)
+      throws InterruptedException {
+    Validator.notNull(corpora, "corpora cannot be null");
+    Validator.notNull(callback, "callback cannot be null");
+    final Semaphore permits = new Semaphore(maxConcurrentAuthors);
+    final AtomicInteger profiled = new AtomicInteger();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            maxConcurrentAuthors, new DaemonThreadFactory("corpus-profiler"));
+    try {
+      for (final Map.Entry<String, ? extends Iterable<ContentItem>> corpus : corpora.entrySet()) {
+        permits.acquire();
+        workers.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                String author = corpus.getKey();
+                try {
+                  CorpusProfile profile = profile(author, corpus.getValue().iterator());
+                  profiled.incrementAndGet();
+                  callback.onProfile(profile);
+                } catch (IOException | RuntimeException e) {
+                  callback.onFailure(author, e);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  callback.onFailure(author, e);
+                } finally {
+                  permits.release();
+                }
+              }
+            });
+      }
+      permits.acquire(maxConcurrentAuthors);
+    } finally {
+      workers.shutdownNow();
+    }
+    return profiled.get();
+  }
+
+  /** Requests the CSV profile of one batch of content items and decodes its first row. */
+  private Map<String, String> profile(List<ContentItem> items)
+      throws IOException, InterruptedException {
+    ProfileOptions options =
+        new ProfileOptions.Builder()
+            .content(new Content.Builder(new ArrayList<ContentItem>(items)).build())
+            .contentLanguage(contentLanguage)
+            .acceptLanguage(acceptLanguage)
+            .rawScores(rawScores)
+            .consumptionPreferences(consumptionPreferences)
+            .csvHeaders(true)
+            .build();
+    int attempts = 0;
+    while (true) {
+      try {
+        return readCsvProfile(service.profileAsCsv(options).execute().getResult());
+      } catch (IOException | RuntimeException e) {
+        attempts++;
+        if (!retryPolicy.shouldRetry(e, attempts)) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(e, attempts));
+      }
+    }
+  }
+
+  private static Map<String, String> readCsvProfile(InputStream body) throws IOException {
+    try (CsvReader reader = new CsvReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+      List<String> header = reader.readRecord();
+      List<String> values = reader.readRecord();
+      if (header == null || values == null) {
+        throw new IOException("The CSV profile has no header or no values");
+      }
+      Map<String, String> row = new LinkedHashMap<String, String>();
+      for (int i = 0; i < header.size() && i < values.size(); i++) {
+        row.put(header.get(i), values.get(i));
+      }
+      return row;
+    }
+  }
+
+  /** Combines the profiles of an author's requests. */
+  private static final class Aggregate {
+    private final Map<String, Double> weightedSums = new LinkedHashMap<String, Double>();
+    private final Map<String, Double> weights = new LinkedHashMap<String, Double>();
+    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    private int requests;
+    private long wordCount = -1;
+
+    private void add(Map<String, String> row, int requestBytes) {
+      requests++;
+      Double words = number(row.get(WORD_COUNT));
+      if (words != null) {
+        wordCount = Math.max(wordCount, 0) + words.longValue();
+      }
+      // Without a word count, the size of the request approximates the amount of text.
+      double weight = words != null && words > 0 ? words : requestBytes;
+      for (Map.Entry<String, String> column : row.entrySet()) {
+        if (WORD_COUNT.equals(column.getKey())) {
+          continue;
+        }
+        Double value = number(column.getValue());
+        if (value == null) {
+          if (!attributes.containsKey(column.getKey()) && !column.getValue().isEmpty()) {
+            attributes.put(column.getKey(), column.getValue());
+          }
+          continue;
+        }
+        Double sum = weightedSums.get(column.getKey());
+        Double total = weights.get(column.getKey());
+        weightedSums.put(column.getKey(), (sum != null ? sum : 0) + value * weight);
+        weights.put(column.getKey(), (total != null ? total : 0) + weight);
+      }
+    }
+
+    private CorpusProfile toProfile(String author) {
+      Map<String, Double> scores = new LinkedHashMap<String, Double>();
+      for (Map.Entry<String, Double> sum : weightedSums.entrySet()) {
+        scores.put(sum.getKey(), sum.getValue() / weights.get(sum.getKey()));
+      }
+      return new CorpusProfile(author, requests, wordCount, scores, attributes);
+    }
+
+    private static Double number(String value) {
+      if (value == null || value.isEmpty()) {
+        return null;
+      }
+      try {
+        return Double.valueOf(value);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.personality_insights.v3.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma-separated values as defined by RFC 4180 one record at a time, so that only the
+ * current record is held in memory. Fields may be quoted, and quoted fields may contain commas,
+ * line breaks and doubled quotes.
+ */
+final class CsvReader implements Closeable {
+  private static final int END = -1;
+
+  private final BufferedReader reader;
+
+  CsvReader(Reader reader) {
+    this.reader =
+        reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return the fields of the record, or null at the end of the input
+   * @throws IOException if the input cannot be read, or ends inside a quoted field
+   */
+  List<String> readRecord() throws IOException {
+    int c = reader.read();
+    while (c == '\r' || c == '\n') {
+      c = reader.read();
+    }
+    if (c == END) {
+      return null;
+    }
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == END) {
+          throw new IOException("Unterminated quoted field");
+        }
+        if (c == '"') {
+          reader.mark(1);
+          if (reader.read() == '"') {
+            field.append('"');
+          } else {
+            reader.reset();
+            quoted = false;
+          }
+        } else {
+          field.append((char) c);
+        }
+      } else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else if (c == '\r' || c == '\n' || c == END) {
+        fields.add(field.toString());
+        return fields;
+      } else {
+        field.append((char) c);
+      }
+      c = reader.read();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
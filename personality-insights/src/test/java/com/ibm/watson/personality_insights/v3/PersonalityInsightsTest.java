@@ -15,18 +15,30 @@ package com.ibm.watson.personality_insights.v3;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.http.HttpHeaders;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.personality_insights.v3.model.Content;
 import com.ibm.watson.personality_insights.v3.model.ContentItem;
 import com.ibm.watson.personality_insights.v3.model.Profile;
 import com.ibm.watson.personality_insights.v3.model.ProfileOptions;
+import com.ibm.watson.personality_insights.v3.util.CorpusProfile;
+import com.ibm.watson.personality_insights.v3.util.CorpusProfiler;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.Before;
 import org.junit.Test;
@@ -216,4 +228,81 @@ public class PersonalityInsightsTest extends WatsonServiceUnitTest {
     assertEquals(newOptions.contentLanguage(), ProfileOptions.ContentLanguage.ES);
     assertEquals(newOptions.acceptLanguage(), ProfileOptions.AcceptLanguage.EN);
   }
+
+  /**
+   * Answers every CSV profile request with scores derived from the number of content items it
+   * contains: an openness of a tenth and a word count of a hundred per item.
+   */
+  private static class CsvProfileDispatcher extends Dispatcher {
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      JsonObject body =
+          GsonSingleton.getGson().fromJson(request.getBody().readUtf8(), JsonObject.class);
+      int items = body.getAsJsonArray("contentItems").size();
+      return new MockResponse()
+          .addHeader(HttpHeaders.CONTENT_TYPE, HttpMediaType.TEXT_CSV)
+          .setBody(
+              "big5_openness,word_count,processed_language\r\n"
+                  + (items / 10.0)
+                  + ","
+                  + (items * 100)
+                  + ",\"en\"\r\n");
+    }
+  }
+
+  /**
+   * Test profiling authors whose content is split over several requests.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testCorpusProfiler() throws Exception {
+    server.setDispatcher(new CsvProfileDispatcher());
+    List<ContentItem> items = new ArrayList<ContentItem>();
+    for (int i = 0; i < 5; i++) {
+      items.add(new ContentItem.Builder("post-" + i).build());
+    }
+    items.add(new ContentItem.Builder("").id("empty").build());
+    int itemBytes =
+        GsonSingleton.getGsonWithoutPrettyPrinting().toJson(items.get(0)).getBytes("UTF-8").length;
+
+    // Two items fit in a request, so five items take three requests.
+    CorpusProfiler profiler =
+        new CorpusProfiler.Builder(service).maxRequestBytes(2 * itemBytes + 30).build();
+    CorpusProfile corpusProfile = profiler.profile("author", items.iterator());
+    assertEquals("author", corpusProfile.getAuthor());
+    assertEquals(3, corpusProfile.getRequestCount());
+    assertEquals(500, corpusProfile.getWordCount());
+    assertEquals(0.18, corpusProfile.getScores().get("big5_openness"), 1e-9);
+    assertEquals("en", corpusProfile.getAttributes().get("processed_language"));
+    assertEquals(3, server.getRequestCount());
+
+    Map<String, List<ContentItem>> corpora = new LinkedHashMap<String, List<ContentItem>>();
+    corpora.put("first", items);
+    corpora.put("second", items.subList(0, 1));
+    corpora.put("silent", Collections.<ContentItem>emptyList());
+    final Map<String, CorpusProfile> profiles =
+        Collections.synchronizedMap(new LinkedHashMap<String, CorpusProfile>());
+    final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    int profiled =
+        profiler.profileAll(
+            corpora,
+            new CorpusProfiler.Callback() {
+              @Override
+              public void onProfile(CorpusProfile profile) {
+                profiles.put(profile.getAuthor(), profile);
+              }
+
+              @Override
+              public void onFailure(String author, Exception e) {
+                assertTrue(e instanceof IllegalArgumentException);
+                failures.add(author);
+              }
+            });
+    assertEquals(2, profiled);
+    assertEquals(3, profiles.get("first").getRequestCount());
+    assertEquals(0.1, profiles.get("second").getScores().get("big5_openness"), 1e-9);
+    assertEquals(100, profiles.get("second").getWordCount());
+    assertEquals(Collections.singletonList("silent"), failures);
+  }
 }
@@ -0,0 +1,317 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.speech_to_text.v1.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.speech_to_text.v1.model.RegisterCallbackOptions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okio.ByteString;
+
+/**
+ * A local HTTP endpoint for the callback notifications of asynchronous recognition jobs.
+ *
+ * <p>The receiver answers the challenge the service sends when the URL is registered with {@link
+ * SpeechToText#registerCallback}, and passes the ID and event of every job notification to a
+ * {@link NotificationListener}. When a user secret is set, requests whose {@code
+ * X-Callback-Signature} header is not the HMAC-SHA1 signature of their content are rejected.
+ *
+ * <p>The receiver serves plain HTTP on the bind address; the callback URL is the address the
+ * service uses to reach it, which may be a proxy or a tunnel that terminates TLS.
+ */
+public class CallbackReceiver implements Closeable {
+  private static final Logger LOG = Logger.getLogger(CallbackReceiver.class.getName());
+
+  private static final String SIGNATURE_HEADER = "X-Callback-Signature";
+  private static final String CHALLENGE_PARAMETER = "challenge_string";
+  private static final int MAX_NOTIFICATION_BYTES = 64 * 1024;
+
+  private final String callbackUrl;
+  private final String userSecret;
+  private final InetSocketAddress bindAddress;
+  private final String path;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  /** Receives the job notifications of a {@link CallbackReceiver}. */
+  public interface NotificationListener {
+
+    /**
+     * Called on one of the receiver's threads for every authenticated notification, after the
+     * service has been answered.
+     *
+     * @param jobId the job ID
+     * @param event the event, one of {@code CreateJobOptions.Events}
+     * @param userToken the user token of the job, or null
+     */
+    void onNotification(String jobId, String event, String userToken);
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private String callbackUrl;
+    private String userSecret;
+    private InetSocketAddress bindAddress;
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param callbackUrl the URL the service sends notifications to
+     */
+    public Builder(String callbackUrl) {
+      this.callbackUrl = callbackUrl;
+    }
+
+    /**
+     * Builds a CallbackReceiver. The receiver does not listen until it is started.
+     *
+     * @return the callback receiver
+     */
+    public CallbackReceiver build() {
+      return new CallbackReceiver(this);
+    }
+
+    /**
+     * Set the secret the service signs its requests with. By default requests are not
+     * authenticated.
+     *
+     * @param userSecret the user secret
+     * @return the CallbackReceiver builder
+     */
+    public Builder userSecret(String userSecret) {
+      this.userSecret = userSecret;
+      return this;
+    }
+
+    /**
+     * Set the local address to listen on. Defaults to the port of the callback URL on all
+     * interfaces.
+     *
+     * @param bindAddress the bind address
+     * @return the CallbackReceiver builder
+     */
+    public Builder bindAddress(InetSocketAddress bindAddress) {
+      this.bindAddress = bindAddress;
+      return this;
+    }
+  }
+
+  protected CallbackReceiver(Builder builder) {
+    Validator.notEmpty(builder.callbackUrl, "callbackUrl cannot be empty");
+    URI uri = URI.create(builder.callbackUrl);
+    Validator.isTrue(
+        "http".equals(uri.getScheme()) || "https".equals(uri.getScheme()),
+        "callbackUrl must be an http or https URL");
+    callbackUrl = builder.callbackUrl;
+    userSecret = builder.userSecret;
+    if (builder.bindAddress != null) {
+      bindAddress = builder.bindAddress;
+    } else {
+      int port = uri.getPort() != -1 ? uri.getPort() : ("https".equals(uri.getScheme()) ? 443 : 80);
+      bindAddress = new InetSocketAddress(port);
+    }
+    path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+  }
+
+  /**
+   * Returns the URL the service sends notifications to.
+   *
+   * @return the callback URL
+   */
+  public String getCallbackUrl() {
+    return callbackUrl;
+  }
+
+  /**
+   * Returns the options that register the callback URL with the service.
+   *
+   * @return the {@link RegisterCallbackOptions}
+   */
+  public RegisterCallbackOptions registerCallbackOptions() {
+    return new RegisterCallbackOptions.Builder(callbackUrl).userSecret(userSecret).build();
+  }
+
+  /**
+   * Starts listening. The receiver must be started before the callback URL is registered, since
+   * the service verifies the URL by sending it a challenge.
+   *
+   * @param listener the listener that receives the notifications
+   * @throws IOException if the bind address cannot be used
+   */
+  public synchronized void start(final NotificationListener listener) throws IOException {
+    Validator.notNull(listener, "listener cannot be null");
+    Validator.isTrue(server == null, "the receiver is already started");
+    server = HttpServer.create(bindAddress, 0);
+    executor = Executors.newCachedThreadPool(new DaemonThreadFactory("speech-callbacks"));
+    server.setExecutor(executor);
+    server.createContext(
+        path,
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            try {
+              CallbackReceiver.this.handle(exchange, listener);
+            } finally {
+              exchange.close();
+            }
+          }
+        });
+    server.start();
+  }
+
+  /**
+   * Returns the local address the receiver listens on, which tells the port when the bind address
+   * uses an ephemeral port.
+   *
+   * @return the local address, or null if the receiver is not started
+   */
+  public synchronized InetSocketAddress getLocalAddress() {
+    return server != null ? server.getAddress() : null;
+  }
+
+  /** Stops listening. */
+  @Override
+  public synchronized void close() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange, NotificationListener listener) throws IOException {
+    String method = exchange.getRequestMethod();
+    if ("GET".equals(method)) {
+      String challenge = queryParameter(exchange.getRequestURI(), CHALLENGE_PARAMETER);
+      if (challenge == null) {
+        respond(exchange, 400, null);
+      } else if (!isSigned(exchange, challenge.getBytes(StandardCharsets.UTF_8))) {
+        respond(exchange, 401, null);
+      } else {
+        respond(exchange, 200, challenge);
+      }
+      return;
+    }
+    if (!"POST".equals(method)) {
+      respond(exchange, 405, null);
+      return;
+    }
+    byte[] body = readBody(exchange.getRequestBody());
+    if (body == null) {
+      respond(exchange, 413, null);
+      return;
+    }
+    if (!isSigned(exchange, body)) {
+      respond(exchange, 401, null);
+      return;
+    }
+    JsonObject notification;
+    try {
+      JsonElement json = new JsonParser().parse(new String(body, StandardCharsets.UTF_8));
+      notification = json.isJsonObject() ? json.getAsJsonObject() : null;
+    } catch (JsonParseException e) {
+      notification = null;
+    }
+    String jobId = notification != null ? string(notification, "id") : null;
+    String event = notification != null ? string(notification, "event") : null;
+    if (jobId == null || event == null) {
+      respond(exchange, 400, null);
+      return;
+    }
+    respond(exchange, 200, null);
+    try {
+      listener.onNotification(jobId, event, string(notification, "user_token"));
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Notification listener failed", e);
+    }
+  }
+
+  private static String string(JsonObject json, String name) {
+    JsonElement value = json.get(name);
+    return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+  }
+
+  private boolean isSigned(HttpExchange exchange, byte[] content) {
+    if (userSecret == null) {
+      return true;
+    }
+    String signature = exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER);
+    if (signature == null) {
+      return false;
+    }
+    String expected = ByteString.of(content).hmacSha1(ByteString.encodeUtf8(userSecret)).base64();
+    return MessageDigest.isEqual(
+        expected.getBytes(StandardCharsets.UTF_8), signature.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] body = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    exchange.getResponseHeaders().set("Content-Type", "text/plain");
+    exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+    if (body.length > 0) {
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+  }
+
+  /** Reads a notification, or returns null if it is larger than any notification should be. */
+  private static byte[] readBody(InputStream in) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      body.write(buffer, 0, read);
+      if (body.size() > MAX_NOTIFICATION_BYTES) {
+        return null;
+      }
+    }
+    return body.toByteArray();
+  }
+
+  private static String queryParameter(URI uri, String name) throws IOException {
+    String query = uri.getRawQuery();
+    if (query == null) {
+      return null;
+    }
+    for (String parameter : query.split("&")) {
+      int equals = parameter.indexOf('=');
+      String key = equals >= 0 ? parameter.substring(0, equals) : parameter;
+      if (name.equals(URLDecoder.decode(key, "UTF-8"))) {
+        return equals >= 0 ? URLDecoder.decode(parameter.substring(equals + 1), "UTF-8") : "";
+      }
+    }
+    return null;
+  }
+}
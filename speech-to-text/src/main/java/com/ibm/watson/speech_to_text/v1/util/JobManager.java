@@ -0,0 +1,665 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.speech_to_text.v1.util;
+
+import com.ibm.cloud.sdk.core.http.Response;
+import com.ibm.cloud.sdk.core.http.ServiceCallback;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.ListStatusSource;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.common.SettableFuture;
+import com.ibm.watson.common.StatusPoller;
+import com.ibm.watson.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.speech_to_text.v1.model.CheckJobOptions;
+import com.ibm.watson.speech_to_text.v1.model.CreateJobOptions;
+import com.ibm.watson.speech_to_text.v1.model.DeleteJobOptions;
+import com.ibm.watson.speech_to_text.v1.model.RecognitionJob;
+import com.ibm.watson.speech_to_text.v1.model.RecognitionJobs;
+import com.ibm.watson.speech_to_text.v1.model.SpeechRecognitionResults;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs asynchronous recognition jobs from submission to cleanup.
+ *
+ * <p>At most {@code maxConcurrentJobs} jobs are outstanding at a time; {@link #submit} blocks while
+ * the limit is reached. The statuses of all outstanding jobs are refreshed from one scheduled task
+ * with a single {@link SpeechToText#checkJobs()} request per poll interval, which reports the
+ * latest {@value #MAX_OUTSTANDING_JOBS} jobs, so the limit cannot be higher. Once a job completes,
+ * its results are fetched with {@link SpeechToText#checkJob}, passed to the {@link ResultSink} one
+ * {@link SpeechRecognitionResults} at a time, and the job is deleted from the service.
+ *
+ * <p>With a {@link CallbackReceiver}, the manager starts the receiver and registers its URL with
+ * {@link SpeechToText#registerCallback}. If the service can reach it, jobs are created with the
+ * callback URL and are not polled until {@code callbackTimeout} passes without a notification, in
+ * case a notification is lost; otherwise the manager falls back to polling.
+ *
+ * <pre>
+ * JobManager jobs = new JobManager.Builder(speechToText, sink).maxConcurrentJobs(20).build();
+ * for (File audio : backlog) {
+ *   jobs.submit(JobManager.forFile(audio, template));
+ * }
+ * </pre>
+ */
+public class JobManager implements Closeable {
+  private static final Logger LOG = Logger.getLogger(JobManager.class.getName());
+
+  /** The number of jobs reported by {@link SpeechToText#checkJobs()}. (value is 100) */
+  public static final int MAX_OUTSTANDING_JOBS = 100;
+
+  /** The callback events the manager needs; results are fetched separately. */
+  private static final String CALLBACK_EVENTS =
+      CreateJobOptions.Events.RECOGNITIONS_COMPLETED
+          + ","
+          + CreateJobOptions.Events.RECOGNITIONS_FAILED;
+
+  /** The number of notifications remembered for jobs whose creation has not returned yet. */
+  private static final int MAX_EARLY_NOTIFICATIONS = 1000;
+
+  private final SpeechToText service;
+  private final ResultSink sink;
+  private final int maxConcurrentJobs;
+  private final RetryPolicy retryPolicy;
+  private final boolean deleteJobs;
+  private final long callbackTimeoutMillis;
+  private final boolean ownsScheduler;
+  private final ScheduledExecutorService scheduler;
+  private final Semaphore permits;
+  private final StatusPoller<String, RecognitionJob> poller;
+  private final CallbackReceiver receiver;
+  private final Map<String, SettableFuture<RecognitionJob>> awaitingCallback =
+      new HashMap<String, SettableFuture<RecognitionJob>>();
+  private final Set<String> earlyNotifications =
+      Collections.newSetFromMap(
+          new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+              return size() > MAX_EARLY_NOTIFICATIONS;
+            }
+          });
+
+  /** Receives the results of completed jobs. */
+  public interface ResultSink {
+
+    /**
+     * Called for each element of the results of a completed job, in order, on a background thread.
+     *
+     * @param job the job, whose status is {@code completed}
+     * @param results the results
+     * @throws IOException if the results cannot be stored; the job is then kept on the service
+     */
+    void onResults(RecognitionJob job, SpeechRecognitionResults results) throws IOException;
+
+    /**
+     * Called after the last results of a job, before the job is deleted.
+     *
+     * @param job the job
+     * @throws IOException if the results cannot be stored; the job is then kept on the service
+     */
+    void onCompleted(RecognitionJob job) throws IOException;
+  }
+
+  /** Creates the options of a job, so that it can be submitted again if the service is busy. */
+  public interface JobRequest {
+
+    /**
+     * Returns new options for the job, with an audio stream positioned at its start.
+     *
+     * @return the {@link CreateJobOptions}
+     * @throws IOException if the audio cannot be opened
+     */
+    CreateJobOptions newOptions() throws IOException;
+  }
+
+  /** Builder. */
+  public static class Builder {
+    private SpeechToText service;
+    private ResultSink sink;
+    private int maxConcurrentJobs = 10;
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+    private ScheduledExecutorService scheduler;
+    private boolean deleteJobs = true;
+    private CallbackReceiver callbackReceiver;
+    private long callbackTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Speech to Text service
+     * @param sink the sink that receives the results of completed jobs
+     */
+    public Builder(SpeechToText service, ResultSink sink) {
+      this.service = service;
+      this.sink = sink;
+    }
+
+    /**
+     * Builds a JobManager. If a callback receiver is set, it is started and its URL is registered
+     * with the service.
+     *
+     * @return the job manager
+     */
+    public JobManager build() {
+      return new JobManager(this);
+    }
+
+    /**
+     * Set the largest number of jobs outstanding at the same time. Defaults to 10, and cannot be
+     * more than {@link #MAX_OUTSTANDING_JOBS}.
+     *
+     * @param maxConcurrentJobs the maximum number of outstanding jobs
+     * @return the JobManager builder
+     */
+    public Builder maxConcurrentJobs(int maxConcurrentJobs) {
+      this.maxConcurrentJobs = maxConcurrentJobs;
+      return this;
+    }
+
+    /**
+     * Set the interval between two status requests. Defaults to 10 seconds.
+     *
+     * @param interval the interval
+     * @param unit the unit of interval
+     * @return the JobManager builder
+     */
+    public Builder pollInterval(long interval, TimeUnit unit) {
+      this.pollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Creating a job is only retried when the service rejects
+     * it as overloaded and the job was submitted as a {@link JobRequest}. Defaults to {@link
+     * RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the JobManager builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    /**
+     * Set the scheduler that polls job statuses and delays retries, so that it can be shared with
+     * other work. It is not shut down by {@link JobManager#close()}. By default the manager uses
+     * its own daemon thread.
+     *
+     * @param scheduler the scheduler
+     * @return the JobManager builder
+     */
+    public Builder scheduler(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Set whether finished jobs are deleted from the service once their results are stored.
+     * Defaults to true.
+     *
+     * @param deleteJobs whether to delete finished jobs
+     * @return the JobManager builder
+     */
+    public Builder deleteJobs(boolean deleteJobs) {
+      this.deleteJobs = deleteJobs;
+      return this;
+    }
+
+    /**
+     * Set the receiver of callback notifications, which replaces polling when the service can
+     * reach it. By default jobs are polled.
+     *
+     * @param callbackReceiver the callback receiver, not started yet
+     * @return the JobManager builder
+     */
+    public Builder callbackReceiver(CallbackReceiver callbackReceiver) {
+      this.callbackReceiver = callbackReceiver;
+      return this;
+    }
+
+    /**
+     * Set how long a job created with the callback URL waits for its notification. After that the
+     * manager checks the job and polls it until it finishes, so that a lost notification does not
+     * hold its slot forever. Defaults to 5 minutes.
+     *
+     * @param timeout the timeout
+     * @param unit the unit of timeout
+     * @return the JobManager builder
+     */
+    public Builder callbackTimeout(long timeout, TimeUnit unit) {
+      this.callbackTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+  }
+
+  protected JobManager(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.notNull(builder.sink, "sink cannot be null");
+    Validator.isTrue(
+        builder.maxConcurrentJobs > 0 && builder.maxConcurrentJobs <= MAX_OUTSTANDING_JOBS,
+        "maxConcurrentJobs must be positive and at most " + MAX_OUTSTANDING_JOBS);
+    Validator.isTrue(builder.pollIntervalMillis > 0, "pollInterval must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    Validator.isTrue(builder.callbackTimeoutMillis > 0, "callbackTimeout must be positive");
+    service = builder.service;
+    sink = builder.sink;
+    maxConcurrentJobs = builder.maxConcurrentJobs;
+    retryPolicy = builder.retryPolicy;
+    deleteJobs = builder.deleteJobs;
+    callbackTimeoutMillis = builder.callbackTimeoutMillis;
+    permits = new Semaphore(maxConcurrentJobs);
+    ownsScheduler = builder.scheduler == null;
+    scheduler =
+        ownsScheduler
+            ? Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("speech-jobs"))
+            : builder.scheduler;
+    // Every job is polled at the same fixed interval, so one tick makes at most one request.
+    poller =
+        new StatusPoller.Builder<String, RecognitionJob>(new JobListSource())
+            .scheduler(scheduler)
+            .initialInterval(builder.pollIntervalMillis, TimeUnit.MILLISECONDS)
+            .maxInterval(builder.pollIntervalMillis, TimeUnit.MILLISECONDS)
+            .backoffMultiplier(1)
+            .batchSize(MAX_OUTSTANDING_JOBS)
+            .retryPolicy(retryPolicy)
+            .build();
+    receiver = builder.callbackReceiver != null ? register(builder.callbackReceiver) : null;
+  }
+
+  /**
+   * Returns a request that opens an audio file each time the job is created.
+   *
+   * @param audio the audio file
+   * @param template the options of the job; its audio is replaced
+   * @return the job request
+   */
+  public static JobRequest forFile(final File audio, final CreateJobOptions template) {
+    Validator.notNull(audio, "audio cannot be null");
+    Validator.notNull(template, "template cannot be null");
+    return new JobRequest() {
+      @Override
+      public CreateJobOptions newOptions() throws IOException {
+        return template.newBuilder().audio(new FileInputStream(audio)).build();
+      }
+    };
+  }
+
+  /**
+   * Creates a job and tracks it until its results are stored. The audio stream of the options is
+   * read once, so the job is not created again if the service is busy; use {@link
+   * #submit(JobRequest)} to allow that.
+   *
+   * @param createJobOptions the {@link CreateJobOptions} containing the options for the call
+   * @return a future that completes with the finished job
+   * @throws InterruptedException if the thread is interrupted while waiting for a free slot
+   * @see #submit(JobRequest)
+   */
+  public SettableFuture<RecognitionJob> submit(final CreateJobOptions createJobOptions)
+      throws InterruptedException {
+    Validator.notNull(createJobOptions, "createJobOptions cannot be null");
+    return submit(
+        new JobRequest() {
+          @Override
+          public CreateJobOptions newOptions() {
+            return createJobOptions;
+          }
+        },
+        false);
+  }
+
+  /**
+   * Creates a job and tracks it until its results are stored.
+   *
+   * <p>This method blocks while {@code maxConcurrentJobs} jobs are outstanding, and while the audio
+   * is uploaded. The returned future completes with the finished job once its results have been
+   * passed to the sink and it has been deleted. A job that failed on the service completes the
+   * future with its {@code failed} status; the future completes exceptionally if the job cannot be
+   * created or tracked, or if the sink fails.
+   *
+   * @param request the request that creates the options of the job
+   * @return a future that completes with the finished job
+   * @throws InterruptedException if the thread is interrupted while waiting for a free slot
+   */
+  public SettableFuture<RecognitionJob> submit(JobRequest request) throws InterruptedException {
+    Validator.notNull(request, "request cannot be null");
+    return submit(request, true);
+  }
+
+  private SettableFuture<RecognitionJob> submit(JobRequest request, boolean repeatable)
+      throws InterruptedException {
+    permits.acquire();
+    final SettableFuture<RecognitionJob> future = new SettableFuture<RecognitionJob>();
+    // The job is tracked through a future of its own, so that its slot is free again before the
+    // returned future completes and a caller waiting on it can submit the next job right away.
+    final SettableFuture<RecognitionJob> tracked = new SettableFuture<RecognitionJob>();
+    tracked.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            permits.release();
+            try {
+              future.set(tracked.get());
+            } catch (ExecutionException e) {
+              future.setException(e.getCause());
+            } catch (CancellationException | InterruptedException e) {
+              future.cancel(false);
+            }
+          }
+        });
+    future.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            tracked.cancel(false);
+          }
+        });
+    try {
+      track(create(request, repeatable).getId(), tracked);
+    } catch (IOException | RuntimeException e) {
+      tracked.setException(e);
+    }
+    return future;
+  }
+
+  /**
+   * Returns the number of submitted jobs whose results have not been stored yet.
+   *
+   * @return the number of outstanding jobs
+   */
+  public int getPendingCount() {
+    return maxConcurrentJobs - permits.availablePermits();
+  }
+
+  /**
+   * Returns whether jobs are tracked through callback notifications rather than polling.
+   *
+   * @return true if the callback URL was registered
+   */
+  public boolean isUsingCallbacks() {
+    return receiver != null;
+  }
+
+  /**
+   * Stops tracking jobs and stops the callback receiver. The futures of outstanding jobs are
+   * cancelled; the jobs themselves keep running on the service.
+   */
+  @Override
+  public void close() {
+    poller.close();
+    List<SettableFuture<RecognitionJob>> pending;
+    synchronized (awaitingCallback) {
+      pending = new ArrayList<SettableFuture<RecognitionJob>>(awaitingCallback.values());
+      awaitingCallback.clear();
+    }
+    for (SettableFuture<RecognitionJob> future : pending) {
+      future.cancel(false);
+    }
+    if (receiver != null) {
+      receiver.close();
+    }
+    if (ownsScheduler) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns whether a job has finished.
+   *
+   * @param job the job
+   * @return true if the job completed or failed
+   */
+  public static boolean isFinished(RecognitionJob job) {
+    return RecognitionJob.Status.COMPLETED.equals(job.getStatus())
+        || RecognitionJob.Status.FAILED.equals(job.getStatus());
+  }
+
+  private CallbackReceiver register(CallbackReceiver callbackReceiver) {
+    try {
+      callbackReceiver.start(new NotificationDispatcher());
+      service.registerCallback(callbackReceiver.registerCallbackOptions()).execute();
+      return callbackReceiver;
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Callback URL cannot be used, polling jobs instead", e);
+      callbackReceiver.close();
+      return null;
+    }
+  }
+
+  private RecognitionJob create(JobRequest request, boolean repeatable)
+      throws IOException, InterruptedException {
+    int attempts = 0;
+    while (true) {
+      CreateJobOptions options = request.newOptions();
+      Validator.notNull(options, "the job request returned no options");
+      if (receiver != null && options.callbackUrl() == null) {
+        options =
+            options
+                .newBuilder()
+                .callbackUrl(receiver.getCallbackUrl())
+                .events(CALLBACK_EVENTS)
+                .build();
+      }
+      try {
+        return service.createJob(options).execute().getResult();
+      } catch (RuntimeException e) {
+        attempts++;
+        // Only a rejection by a busy service is known not to have created the job.
+        if (!repeatable || !RetryPolicy.isOverload(e) || !retryPolicy.shouldRetry(e, attempts)) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(e, attempts));
+      }
+    }
+  }
+
+  /** Waits for a created job to finish, through its callback notification or by polling it. */
+  private void track(String jobId, SettableFuture<RecognitionJob> future) {
+    if (receiver != null) {
+      synchronized (awaitingCallback) {
+        if (!earlyNotifications.remove(jobId)) {
+          awaitingCallback.put(jobId, future);
+          expireCallback(jobId, future);
+          return;
+        }
+      }
+      fetch(jobId, future, 0);
+      return;
+    }
+    poll(jobId, future);
+  }
+
+  /** Checks a job whose notification has not arrived within the callback timeout. */
+  private void expireCallback(final String jobId, final SettableFuture<RecognitionJob> future) {
+    scheduler.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronized (awaitingCallback) {
+              if (awaitingCallback.get(jobId) != future) {
+                return;
+              }
+              awaitingCallback.remove(jobId);
+            }
+            LOG.fine("No notification for job " + jobId + ", polling it instead");
+            fetch(jobId, future, 0);
+          }
+        },
+        callbackTimeoutMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(final String jobId, final SettableFuture<RecognitionJob> future) {
+    final SettableFuture<RecognitionJob> watched = poller.watch(jobId);
+    watched.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              RecognitionJob job = watched.get();
+              if (RecognitionJob.Status.COMPLETED.equals(job.getStatus())
+                  && job.getResults() == null) {
+                fetch(jobId, future, 0);
+              } else {
+                finish(job, future);
+              }
+            } catch (ExecutionException e) {
+              future.setException(e.getCause());
+            } catch (CancellationException | InterruptedException e) {
+              future.cancel(false);
+            }
+          }
+        });
+  }
+
+  /** Fetches a finished job with its results. */
+  private void fetch(
+      final String jobId, final SettableFuture<RecognitionJob> future, final int failures) {
+    service
+        .checkJob(new CheckJobOptions.Builder(jobId).build())
+        .enqueue(
+            new ServiceCallback<RecognitionJob>() {
+              @Override
+              public void onResponse(Response<RecognitionJob> response) {
+                RecognitionJob job = response.getResult();
+                if (isFinished(job)) {
+                  finish(job, future);
+                } else {
+                  poll(jobId, future);
+                }
+              }
+
+              @Override
+              public void onFailure(Exception e) {
+                final int attempts = failures + 1;
+                if (!retryPolicy.shouldRetry(e, attempts)) {
+                  future.setException(e);
+                  return;
+                }
+                scheduler.schedule(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        fetch(jobId, future, attempts);
+                      }
+                    },
+                    retryPolicy.delayMillis(e, attempts),
+                    TimeUnit.MILLISECONDS);
+              }
+            });
+  }
+
+  /** Passes the results of a finished job to the sink, then deletes the job. */
+  private void finish(final RecognitionJob job, final SettableFuture<RecognitionJob> future) {
+    if (RecognitionJob.Status.COMPLETED.equals(job.getStatus())) {
+      try {
+        if (job.getResults() != null) {
+          for (SpeechRecognitionResults results : job.getResults()) {
+            sink.onResults(job, results);
+          }
+        }
+        sink.onCompleted(job);
+      } catch (IOException | RuntimeException e) {
+        future.setException(e);
+        return;
+      }
+    }
+    if (!deleteJobs) {
+      future.set(job);
+      return;
+    }
+    service
+        .deleteJob(new DeleteJobOptions.Builder(job.getId()).build())
+        .enqueue(
+            new ServiceCallback<Void>() {
+              @Override
+              public void onResponse(Response<Void> response) {
+                future.set(job);
+              }
+
+              @Override
+              public void onFailure(Exception e) {
+                // The results are stored; the service deletes the job when its time to live ends.
+                LOG.log(Level.WARNING, "Job " + job.getId() + " cannot be deleted", e);
+                future.set(job);
+              }
+            });
+  }
+
+  /** Fetches the jobs named by completion and failure notifications. */
+  private final class NotificationDispatcher implements CallbackReceiver.NotificationListener {
+    @Override
+    public void onNotification(String jobId, String event, String userToken) {
+      if (!CreateJobOptions.Events.RECOGNITIONS_COMPLETED.equals(event)
+          && !CreateJobOptions.Events.RECOGNITIONS_COMPLETED_WITH_RESULTS.equals(event)
+          && !CreateJobOptions.Events.RECOGNITIONS_FAILED.equals(event)) {
+        return;
+      }
+      SettableFuture<RecognitionJob> future;
+      synchronized (awaitingCallback) {
+        future = awaitingCallback.remove(jobId);
+        if (future == null) {
+          // The job may finish before its creation request returns.
+          earlyNotifications.add(jobId);
+          return;
+        }
+      }
+      fetch(jobId, future, 0);
+    }
+  }
+
+  /**
+   * Fetches the statuses of all polled jobs with one request, falling back to a status request for
+   * jobs missing from it, for example because other clients created more recent jobs.
+   */
+  private final class JobListSource extends ListStatusSource<String, RecognitionJob> {
+    @Override
+    protected List<RecognitionJob> list() {
+      RecognitionJobs list = service.checkJobs().execute().getResult();
+      return list != null ? list.getRecognitions() : null;
+    }
+
+    @Override
+    protected String getId(RecognitionJob job) {
+      return job.getId();
+    }
+
+    @Override
+    protected RecognitionJob get(String id) {
+      return service.checkJob(new CheckJobOptions.Builder(id).build()).execute().getResult();
+    }
+
+    @Override
+    public boolean isFinished(RecognitionJob job) {
+      return JobManager.isFinished(job);
+    }
+  }
+}
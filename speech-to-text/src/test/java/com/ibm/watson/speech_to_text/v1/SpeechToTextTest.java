@@ -19,12 +19,14 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
 import com.ibm.cloud.sdk.core.util.GsonSingleton;
 import com.ibm.cloud.sdk.core.util.RequestUtils;
+import com.ibm.watson.common.SettableFuture;
 import com.ibm.watson.common.TestUtils;
 import com.ibm.watson.common.WatsonServiceUnitTest;
 import com.ibm.watson.speech_to_text.v1.model.AcousticModel;
@@ -86,8 +88,11 @@ import com.ibm.watson.speech_to_text.v1.model.UpgradeAcousticModelOptions;
 import com.ibm.watson.speech_to_text.v1.model.UpgradeLanguageModelOptions;
 import com.ibm.watson.speech_to_text.v1.model.Word;
 import com.ibm.watson.speech_to_text.v1.model.Words;
+import com.ibm.watson.speech_to_text.v1.util.CallbackReceiver;
+import com.ibm.watson.speech_to_text.v1.util.JobManager;
 import com.ibm.watson.speech_to_text.v1.util.MediaTypeUtils;
 import com.ibm.watson.speech_to_text.v1.websocket.RecognizeCallback;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -95,18 +100,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.WebSocket;
 import okhttp3.internal.ws.WebSocketRecorder;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import okio.ByteString;
@@ -1847,8 +1865,272 @@ public class SpeechToTextTest extends WatsonServiceUnitTest {
     assertEquals(DELETE, request.getMethod());
   }
 
+  /**
+   * Test running jobs by polling them with one check jobs request per interval.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testJobManagerPolling() throws Exception {
+    JobDispatcher dispatcher = new JobDispatcher(recognitionResults, null);
+    server.setDispatcher(dispatcher);
+    RecordingSink sink = new RecordingSink();
+
+    JobManager jobs =
+        new JobManager.Builder(service, sink)
+            .maxConcurrentJobs(2)
+            .pollInterval(20, TimeUnit.MILLISECONDS)
+            .build();
+    List<SettableFuture<RecognitionJob>> futures = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      futures.add(jobs.submit(newJobOptions()));
+    }
+    for (SettableFuture<RecognitionJob> future : futures) {
+      assertEquals(RecognitionJob.Status.COMPLETED, future.get(10, TimeUnit.SECONDS).getStatus());
+    }
+    jobs.close();
+
+    assertFalse(jobs.isUsingCallbacks());
+    assertEquals(5, sink.results.size());
+    assertEquals(recognitionResults, sink.results.get(0));
+    assertEquals(5, sink.completed.size());
+    assertEquals(5, dispatcher.deleted.get());
+    assertTrue(dispatcher.maxOutstanding.get() <= 2);
+    assertTrue(dispatcher.checkJobsRequests.get() > 0);
+  }
+
+  /**
+   * Test running jobs through callback notifications instead of polling.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testJobManagerCallbacks() throws Exception {
+    String secret = "secret";
+    CallbackReceiver receiver = newCallbackReceiver(secret);
+    JobDispatcher dispatcher = new JobDispatcher(recognitionResults, secret);
+    server.setDispatcher(dispatcher);
+    RecordingSink sink = new RecordingSink();
+
+    JobManager jobs =
+        new JobManager.Builder(service, sink)
+            .maxConcurrentJobs(2)
+            .pollInterval(20, TimeUnit.MILLISECONDS)
+            .callbackReceiver(receiver)
+            .build();
+    assertTrue(jobs.isUsingCallbacks());
+    List<SettableFuture<RecognitionJob>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(jobs.submit(newJobOptions()));
+    }
+    for (SettableFuture<RecognitionJob> future : futures) {
+      assertEquals(RecognitionJob.Status.COMPLETED, future.get(10, TimeUnit.SECONDS).getStatus());
+    }
+    jobs.close();
+
+    assertEquals(3, sink.completed.size());
+    assertEquals(3, dispatcher.deleted.get());
+    assertEquals(0, dispatcher.checkJobsRequests.get());
+    assertTrue(dispatcher.maxOutstanding.get() <= 2);
+  }
+
+  /**
+   * Test that jobs created with a callback URL are checked once the callback timeout passes
+   * without a notification.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testJobManagerCallbackTimeout() throws Exception {
+    String secret = "secret";
+    CallbackReceiver receiver = newCallbackReceiver(secret);
+    JobDispatcher dispatcher = new JobDispatcher(recognitionResults, secret);
+    dispatcher.notificationsLost = true;
+    server.setDispatcher(dispatcher);
+    RecordingSink sink = new RecordingSink();
+
+    JobManager jobs =
+        new JobManager.Builder(service, sink)
+            .maxConcurrentJobs(2)
+            .pollInterval(20, TimeUnit.MILLISECONDS)
+            .callbackReceiver(receiver)
+            .callbackTimeout(50, TimeUnit.MILLISECONDS)
+            .build();
+    assertTrue(jobs.isUsingCallbacks());
+    List<SettableFuture<RecognitionJob>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(jobs.submit(newJobOptions()));
+    }
+    for (SettableFuture<RecognitionJob> future : futures) {
+      assertEquals(RecognitionJob.Status.COMPLETED, future.get(10, TimeUnit.SECONDS).getStatus());
+    }
+    assertEquals(0, jobs.getPendingCount());
+    jobs.close();
+
+    assertEquals(3, sink.completed.size());
+    assertEquals(3, dispatcher.deleted.get());
+  }
+
+  private static CallbackReceiver newCallbackReceiver(String secret) throws IOException {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    return new CallbackReceiver.Builder("http://localhost:" + port + "/stt/results")
+        .bindAddress(new InetSocketAddress("localhost", port))
+        .userSecret(secret)
+        .build();
+  }
+
+  private static CreateJobOptions newJobOptions() {
+    return new CreateJobOptions.Builder()
+        .audio(new ByteArrayInputStream(new byte[] {1, 2, 3}))
+        .contentType(HttpMediaType.AUDIO_WAV)
+        .build();
+  }
+
   // --- HELPERS ---
 
+  /** Collects the results passed to a {@link JobManager.ResultSink}. */
+  private static class RecordingSink implements JobManager.ResultSink {
+    private final List<SpeechRecognitionResults> results =
+        Collections.synchronizedList(new ArrayList<SpeechRecognitionResults>());
+    private final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void onResults(RecognitionJob job, SpeechRecognitionResults results) {
+      this.results.add(results);
+    }
+
+    @Override
+    public void onCompleted(RecognitionJob job) {
+      completed.add(job.getId());
+    }
+  }
+
+  /**
+   * Simulates the asynchronous recognition interface: jobs complete as soon as they are created.
+   * With a secret, it verifies callback URLs with a signed challenge and sends signed completion
+   * notifications to jobs created with a callback URL, unless notifications are lost.
+   */
+  private static class JobDispatcher extends Dispatcher {
+    private final SpeechRecognitionResults results;
+    private final String secret;
+    private final OkHttpClient client = new OkHttpClient();
+    private final Set<String> jobs = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+    private final AtomicInteger checkJobsRequests = new AtomicInteger();
+    private volatile boolean notificationsLost;
+
+    JobDispatcher(SpeechRecognitionResults results, String secret) {
+      this.results = results;
+      this.secret = secret;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      HttpUrl url = request.getRequestUrl();
+      String path = url.encodedPath();
+      try {
+        if (path.equals("/v1/register_callback")) {
+          return registerCallback(url.queryParameter("callback_url"));
+        }
+        if (path.equals(PATH_RECOGNITIONS) && "POST".equals(request.getMethod())) {
+          String id = "job-" + created.incrementAndGet();
+          jobs.add(id);
+          maxOutstanding.set(Math.max(maxOutstanding.get(), jobs.size()));
+          if (url.queryParameter("callback_url") != null && !notificationsLost) {
+            sendNotification(url.queryParameter("callback_url"), id);
+          }
+          return jsonResponse(job(id, RecognitionJob.Status.WAITING, false));
+        }
+        if (path.equals(PATH_RECOGNITIONS)) {
+          checkJobsRequests.incrementAndGet();
+          JsonArray recognitions = new JsonArray();
+          for (String id : new ArrayList<>(jobs)) {
+            recognitions.add(job(id, RecognitionJob.Status.COMPLETED, false));
+          }
+          JsonObject list = new JsonObject();
+          list.add("recognitions", recognitions);
+          return jsonResponse(list);
+        }
+        String id = path.substring(PATH_RECOGNITIONS.length() + 1);
+        if (!jobs.contains(id)) {
+          return new MockResponse().setResponseCode(404);
+        }
+        if ("DELETE".equals(request.getMethod())) {
+          jobs.remove(id);
+          deleted.incrementAndGet();
+          return new MockResponse().setResponseCode(204);
+        }
+        return jsonResponse(job(id, RecognitionJob.Status.COMPLETED, true));
+      } catch (IOException e) {
+        return new MockResponse().setResponseCode(500);
+      }
+    }
+
+    private JsonObject job(String id, String status, boolean withResults) {
+      JsonObject job = new JsonObject();
+      job.addProperty("id", id);
+      job.addProperty("status", status);
+      if (withResults) {
+        JsonArray array = new JsonArray();
+        array.add(GSON.toJsonTree(results));
+        job.add("results", array);
+      }
+      return job;
+    }
+
+    private MockResponse registerCallback(String callbackUrl) throws IOException {
+      String challenge = "challenge-" + System.nanoTime();
+      Request verification =
+          new Request.Builder()
+              .url(callbackUrl + "?challenge_string=" + challenge)
+              .header("X-Callback-Signature", sign(challenge))
+              .build();
+      try (okhttp3.Response response = client.newCall(verification).execute()) {
+        if (!response.isSuccessful() || !challenge.equals(response.body().string())) {
+          return new MockResponse().setResponseCode(400);
+        }
+      }
+      JsonObject status = new JsonObject();
+      status.addProperty("status", RegisterStatus.Status.CREATED);
+      status.addProperty("url", callbackUrl);
+      return jsonResponse(status);
+    }
+
+    private void sendNotification(final String callbackUrl, final String id) {
+      JsonObject notification = new JsonObject();
+      notification.addProperty("id", id);
+      notification.addProperty("event", CreateJobOptions.Events.RECOGNITIONS_COMPLETED);
+      String body = notification.toString();
+      final Request post =
+          new Request.Builder()
+              .url(callbackUrl)
+              .header("X-Callback-Signature", sign(body))
+              .post(RequestBody.create(MediaType.parse(HttpMediaType.APPLICATION_JSON), body))
+              .build();
+      Runnable send =
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                client.newCall(post).execute().close();
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            }
+          };
+      new Thread(send).start();
+    }
+
+    private String sign(String content) {
+      return ByteString.encodeUtf8(content).hmacSha1(ByteString.encodeUtf8(secret)).base64();
+    }
+  }
+
   private static class TestRecognizeCallback implements RecognizeCallback {
 
     private final BlockingQueue<SpeechRecognitionResults> speechResults =
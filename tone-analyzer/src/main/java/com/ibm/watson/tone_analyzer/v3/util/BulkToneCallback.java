@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.tone_analyzer.v3.util;
+
+import com.ibm.watson.tone_analyzer.v3.model.SentenceAnalysis;
+import com.ibm.watson.tone_analyzer.v3.model.UtteranceAnalysis;
+import java.util.List;
+
+/**
+ * Receives the results of a {@link BulkToneScorer} run, one record at a time and in the order the
+ * responses arrive. Only the method matching the {@link BulkToneScorer.Mode} of the scorer is
+ * called for successful records. Methods are never called concurrently, but they are called from
+ * the threads that receive the responses of the service, so they should return quickly.
+ */
+public interface BulkToneCallback {
+
+  /**
+   * Called with the analysis of a record scored as a chat utterance.
+   *
+   * @param index the position of the record in the input, starting at 0
+   * @param text the record
+   * @param analysis the analysis of the utterance
+   */
+  void onUtterance(long index, String text, UtteranceAnalysis analysis);
+
+  /**
+   * Called with the analyses of the sentences of a record scored as part of a document.
+   *
+   * @param index the position of the record in the input, starting at 0
+   * @param text the record
+   * @param sentences the analyses of the sentences of the record, with offsets relative to the
+   *     record
+   */
+  void onSentences(long index, String text, List<SentenceAnalysis> sentences);
+
+  /**
+   * Called when a record could not be scored after all retries.
+   *
+   * @param index the position of the record in the input, starting at 0
+   * @param text the record
+   * @param e the error
+   */
+  void onFailure(long index, String text, Exception e);
+}
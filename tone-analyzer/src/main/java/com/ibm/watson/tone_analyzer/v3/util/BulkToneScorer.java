@@ -0,0 +1,638 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.tone_analyzer.v3.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.BulkRunner;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.tone_analyzer.v3.ToneAnalyzer;
+import com.ibm.watson.tone_analyzer.v3.model.SentenceAnalysis;
+import com.ibm.watson.tone_analyzer.v3.model.ToneAnalysis;
+import com.ibm.watson.tone_analyzer.v3.model.ToneChatOptions;
+import com.ibm.watson.tone_analyzer.v3.model.ToneOptions;
+import com.ibm.watson.tone_analyzer.v3.model.Utterance;
+import com.ibm.watson.tone_analyzer.v3.model.UtteranceAnalyses;
+import com.ibm.watson.tone_analyzer.v3.model.UtteranceAnalysis;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Scores the tone of a large number of short records, such as support tickets, with as few
+ * requests as possible.
+ *
+ * <p>In {@link Mode#CHAT} mode, records are packed as utterances into {@link
+ * ToneAnalyzer#toneChat(ToneChatOptions)} requests of at most {@code maxBatchSize} utterances. In
+ * {@link Mode#DOCUMENT} mode, records are packed one per line into plain-text {@link
+ * ToneAnalyzer#tone(ToneOptions)} requests of at most {@code maxSentences} sentences, the number of
+ * sentences the service scores individually; line breaks inside a record are replaced by spaces
+ * and a period is added to a record that does not end a sentence, so that no sentence spans two
+ * records. The sentence analyses are then mapped back to their records by offset, with offsets
+ * and text taken from the original record. Records the service leaves out because it segmented a
+ * request into more sentences than it scores are sent again.
+ *
+ * <p>Requests are sent concurrently. The number of concurrent requests grows while requests
+ * succeed and halves whenever the service answers 429 Too Many Requests, and failed requests are
+ * retried according to a {@link RetryPolicy}. Results are passed to a {@link BulkToneCallback} as
+ * soon as their request completes, so they do not arrive in input order.
+ */
+public class BulkToneScorer {
+  private static final Logger LOG = Logger.getLogger(BulkToneScorer.class.getName());
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final Pattern LINE_BREAKS = Pattern.compile("[\\r\\n]+");
+  private static final Pattern SENTENCE_END = Pattern.compile(".*[.!?。！？]['\"’”)]*$");
+
+  /** The approximate size of a request body without its records. */
+  private static final int REQUEST_OVERHEAD = 256;
+  /** The approximate size of the JSON around each utterance. */
+  private static final int UTTERANCE_OVERHEAD = 16;
+
+  /** How records are sent to the service. */
+  public enum Mode {
+    /** As utterances of {@code toneChat} requests; one analysis per record. */
+    CHAT,
+    /** As lines of {@code tone} requests; one analysis per sentence of each record. */
+    DOCUMENT
+  }
+
+  private final ToneAnalyzer service;
+  private final Mode mode;
+  private final int maxBatchSize;
+  private final int maxSentences;
+  private final int maxRequestBytes;
+  private final int maxPendingRecords;
+  private final String contentLanguage;
+  private final String acceptLanguage;
+  private final List<String> tones;
+  private final int initialConcurrency;
+  private final int maxConcurrency;
+  private final RetryPolicy retryPolicy;
+
+  /** Builder. */
+  public static class Builder {
+    private ToneAnalyzer service;
+    private Mode mode = Mode.CHAT;
+    private int maxBatchSize = 50;
+    private int maxSentences = 100;
+    private int maxRequestBytes = 128 * 1024;
+    private int maxPendingRecords = 10000;
+    private String contentLanguage;
+    private String acceptLanguage;
+    private List<String> tones;
+    private int initialConcurrency = 2;
+    private int maxConcurrency = 8;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Tone Analyzer service
+     */
+    public Builder(ToneAnalyzer service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a BulkToneScorer.
+     *
+     * @return the bulk tone scorer
+     */
+    public BulkToneScorer build() {
+      return new BulkToneScorer(this);
+    }
+
+    /**
+     * Set how records are sent to the service. Defaults to {@link Mode#CHAT}.
+     *
+     * @param mode the mode
+     * @return the BulkToneScorer builder
+     */
+    public Builder mode(Mode mode) {
+      this.mode = mode;
+      return this;
+    }
+
+    /**
+     * Set the largest number of records sent in one request. Defaults to 50, the number of
+     * utterances the service analyzes in a {@code toneChat} request.
+     *
+     * @param maxBatchSize the maximum number of records per request
+     * @return the BulkToneScorer builder
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * Set the largest number of sentences sent in one {@link Mode#DOCUMENT} request. Defaults to
+     * 100, the number of sentences the service scores individually.
+     *
+     * @param maxSentences the maximum number of sentences per request
+     * @return the BulkToneScorer builder
+     */
+    public Builder maxSentences(int maxSentences) {
+      this.maxSentences = maxSentences;
+      return this;
+    }
+
+    /**
+     * Set the largest request body, in UTF-8 bytes. Defaults to 128 KB, the limit of the service.
+     *
+     * @param maxRequestBytes the maximum request size in bytes
+     * @return the BulkToneScorer builder
+     */
+    public Builder maxRequestBytes(int maxRequestBytes) {
+      this.maxRequestBytes = maxRequestBytes;
+      return this;
+    }
+
+    /**
+     * Set the largest number of records read but not yet passed to the callback. Reading the
+     * input pauses when it is reached. Defaults to 10000.
+     *
+     * @param maxPendingRecords the maximum number of pending records
+     * @return the BulkToneScorer builder
+     */
+    public Builder maxPendingRecords(int maxPendingRecords) {
+      this.maxPendingRecords = maxPendingRecords;
+      return this;
+    }
+
+    /**
+     * Set the language of the records.
+     *
+     * @param contentLanguage the content language
+     * @return the BulkToneScorer builder
+     */
+    public Builder contentLanguage(String contentLanguage) {
+      this.contentLanguage = contentLanguage;
+      return this;
+    }
+
+    /**
+     * Set the language of the tone names in the results.
+     *
+     * @param acceptLanguage the accept language
+     * @return the BulkToneScorer builder
+     */
+    public Builder acceptLanguage(String acceptLanguage) {
+      this.acceptLanguage = acceptLanguage;
+      return this;
+    }
+
+    /**
+     * Set the tones returned in {@link Mode#DOCUMENT} mode.
+     *
+     * @param tones the tones, see {@link ToneOptions.Tone}
+     * @return the BulkToneScorer builder
+     */
+    public Builder tones(List<String> tones) {
+      this.tones = tones;
+      return this;
+    }
+
+    /**
+     * Set the number of concurrent requests to start with. Defaults to 2.
+     *
+     * @param initialConcurrency the initial number of concurrent requests
+     * @return the BulkToneScorer builder
+     */
+    public Builder initialConcurrency(int initialConcurrency) {
+      this.initialConcurrency = initialConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent requests. Defaults to 8.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return the BulkToneScorer builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the BulkToneScorer builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected BulkToneScorer(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.notNull(builder.mode, "mode cannot be null");
+    Validator.isTrue(builder.maxBatchSize > 0, "maxBatchSize must be positive");
+    Validator.isTrue(builder.maxSentences > 0, "maxSentences must be positive");
+    Validator.isTrue(
+        builder.maxRequestBytes > REQUEST_OVERHEAD,
+        "maxRequestBytes must be greater than " + REQUEST_OVERHEAD);
+    Validator.isTrue(builder.maxPendingRecords > 0, "maxPendingRecords must be positive");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    service = builder.service;
+    mode = builder.mode;
+    maxBatchSize = builder.maxBatchSize;
+    maxSentences = builder.maxSentences;
+    maxRequestBytes = builder.maxRequestBytes;
+    maxPendingRecords = builder.maxPendingRecords;
+    contentLanguage = builder.contentLanguage;
+    acceptLanguage = builder.acceptLanguage;
+    tones = builder.tones;
+    maxConcurrency = builder.maxConcurrency;
+    initialConcurrency = Math.max(1, Math.min(builder.initialConcurrency, maxConcurrency));
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Scores every record of an input, returning once every result has been passed to the callback.
+   *
+   * @param records the records
+   * @param callback the callback that receives the results
+   * @return the number of records scored successfully
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public long score(Iterable<String> records, BulkToneCallback callback)
+      throws InterruptedException {
+    return score(records.iterator(), callback);
+  }
+
+  /**
+   * Scores every record of an input, returning once every result has been passed to the callback.
+   *
+   * @param records the records, read lazily
+   * @param callback the callback that receives the results
+   * @return the number of records scored successfully
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public long score(Iterator<String> records, BulkToneCallback callback)
+      throws InterruptedException {
+    Validator.notNull(callback, "callback cannot be null");
+    Run run = new Run(callback);
+    try {
+      for (long index = 0; records.hasNext(); index++) {
+        String text = records.next();
+        Validator.notNull(text, "records cannot contain null");
+        run.add(new Record(index, text));
+      }
+      return run.await();
+    } finally {
+      run.close();
+    }
+  }
+
+  /** The state of one call to {@code score}. */
+  private final class Run extends BulkRunner<Batch, Object> {
+    private final BulkToneCallback callback;
+    private final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+    private Batch batch = new Batch();
+    private long pending;
+    private long scored;
+
+    private Run(BulkToneCallback callback) {
+      super("bulk-tone-scorer", initialConcurrency, maxConcurrency, retryPolicy);
+      this.callback = callback;
+    }
+
+    private void add(Record record) throws InterruptedException {
+      boolean full;
+      synchronized (this) {
+        full = isFull();
+      }
+      if (full) {
+        // The records of the packed batch count as pending, so it must be sent to make room.
+        flush();
+      }
+      awaitRoom();
+      int bytes;
+      int sentenceCount = 0;
+      if (mode == Mode.CHAT) {
+        bytes = utf8Length(record.text) + UTTERANCE_OVERHEAD;
+      } else {
+        record.line = line(record.text);
+        bytes = utf8Length(record.line) + 1;
+        sentenceCount = countSentences(record.line);
+      }
+      if (!batch.records.isEmpty()
+          && (batch.records.size() >= maxBatchSize
+              || batch.bytes + bytes > maxRequestBytes - REQUEST_OVERHEAD
+              || batch.sentences + sentenceCount > maxSentences)) {
+        flush();
+      }
+      batch.records.add(record);
+      batch.bytes += bytes;
+      batch.sentences += sentenceCount;
+      synchronized (this) {
+        pending++;
+      }
+    }
+
+    private long await() throws InterruptedException {
+      flush();
+      awaitIdle();
+      synchronized (this) {
+        return scored;
+      }
+    }
+
+    private void flush() throws InterruptedException {
+      if (!batch.records.isEmpty()) {
+        submit(batch);
+        batch = new Batch();
+      }
+    }
+
+    @Override
+    protected boolean isFull() {
+      return pending >= maxPendingRecords;
+    }
+
+    @Override
+    protected boolean isIdle() {
+      return pending == 0;
+    }
+
+    @Override
+    protected ServiceCall<?> newCall(Batch sent) {
+      if (mode == Mode.CHAT) {
+        List<Utterance> utterances = new ArrayList<Utterance>(sent.records.size());
+        for (Record record : sent.records) {
+          utterances.add(new Utterance.Builder().text(record.text).build());
+        }
+        return service.toneChat(
+            new ToneChatOptions.Builder()
+                .utterances(utterances)
+                .contentLanguage(contentLanguage)
+                .acceptLanguage(acceptLanguage)
+                .build());
+      }
+      StringBuilder body = new StringBuilder();
+      for (Record record : sent.records) {
+        record.offset = body.length();
+        body.append(record.line).append('\n');
+      }
+      return service.tone(
+          new ToneOptions.Builder()
+              .text(body.toString())
+              .sentences(true)
+              .tones(tones)
+              .contentLanguage(contentLanguage)
+              .acceptLanguage(acceptLanguage)
+              .build());
+    }
+
+    @Override
+    protected void complete(Batch completed, Object result) {
+      // The mode decides which call newCall made, and so the type of the result.
+      if (mode == Mode.CHAT) {
+        completeChat(completed, (UtteranceAnalyses) result);
+      } else {
+        completeDocument(completed, (ToneAnalysis) result);
+      }
+    }
+
+    @Override
+    protected synchronized void fail(Batch failed, Exception e) {
+      for (Record record : failed.records) {
+        deliver(record, null, null, e);
+      }
+    }
+
+    /** Maps the utterance analyses back to the records by utterance ID. */
+    private synchronized void completeChat(Batch completed, UtteranceAnalyses result) {
+      UtteranceAnalysis[] analyses = new UtteranceAnalysis[completed.records.size()];
+      if (result != null && result.getUtterancesTone() != null) {
+        for (UtteranceAnalysis analysis : result.getUtterancesTone()) {
+          Long id = analysis.getUtteranceId();
+          if (id != null && id >= 0 && id < analyses.length) {
+            analyses[id.intValue()] = analysis;
+          }
+        }
+      }
+      for (int i = 0; i < analyses.length; i++) {
+        Record record = completed.records.get(i);
+        if (analyses[i] != null) {
+          deliver(record, analyses[i], null, null);
+        } else {
+          deliver(record, null, null, new IllegalStateException("No analysis of utterance " + i));
+        }
+      }
+    }
+
+    /**
+     * Maps the sentence analyses back to the records by offset. The service scores only the first
+     * 100 sentences of a document, so when it segments a request into more sentences than
+     * expected, the records it left out are sent again on their own request.
+     */
+    private synchronized void completeDocument(Batch completed, ToneAnalysis result) {
+      List<List<SentenceAnalysis>> perRecord = new ArrayList<List<SentenceAnalysis>>();
+      for (int i = 0; i < completed.records.size(); i++) {
+        perRecord.add(new ArrayList<SentenceAnalysis>());
+      }
+      List<SentenceAnalysis> sentencesTone = result != null ? result.getSentencesTone() : null;
+      if (sentencesTone != null) {
+        for (SentenceAnalysis sentence : sentencesTone) {
+          int from = sentence.getInputFrom() != null ? sentence.getInputFrom().intValue() : 0;
+          int i = completed.records.size() - 1;
+          while (i > 0 && completed.records.get(i).offset > from) {
+            i--;
+          }
+          perRecord.get(i).add(rebase(sentence, completed.records.get(i)));
+        }
+      } else if (result != null
+          && result.getDocumentTone() != null
+          && completed.records.size() == 1) {
+        // The service only scores sentences separately when there are several of them.
+        Record record = completed.records.get(0);
+        JsonObject sentence = GSON.toJsonTree(result.getDocumentTone()).getAsJsonObject();
+        sentence.remove("warning");
+        sentence.addProperty("sentence_id", 0);
+        sentence.addProperty("input_from", 0);
+        sentence.addProperty("input_to", record.line.length());
+        perRecord.get(0).add(rebase(GSON.fromJson(sentence, SentenceAnalysis.class), record));
+      }
+      Batch missed = new Batch();
+      for (int i = 0; i < perRecord.size(); i++) {
+        Record record = completed.records.get(i);
+        if (perRecord.get(i).isEmpty() && !record.line.isEmpty()) {
+          missed.records.add(record);
+        } else {
+          deliver(record, null, perRecord.get(i), null);
+        }
+      }
+      if (missed.records.isEmpty()) {
+        return;
+      }
+      if (missed.records.size() < completed.records.size()) {
+        resubmit(missed);
+      } else if (missed.records.size() > 1) {
+        for (Record record : missed.records) {
+          Batch alone = new Batch();
+          alone.records.add(record);
+          resubmit(alone);
+        }
+      } else {
+        deliver(
+            missed.records.get(0),
+            null,
+            null,
+            new IllegalStateException("No sentence analysis of the record"));
+      }
+    }
+
+    /** Passes the result of a record to the callback. Called with the lock of the run held. */
+    private void deliver(
+        Record record,
+        UtteranceAnalysis utterance,
+        List<SentenceAnalysis> sentenceAnalyses,
+        Exception error) {
+      try {
+        if (error != null) {
+          callback.onFailure(record.index, record.text, error);
+        } else if (utterance != null) {
+          scored++;
+          callback.onUtterance(record.index, record.text, utterance);
+        } else {
+          scored++;
+          callback.onSentences(record.index, record.text, sentenceAnalyses);
+        }
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Bulk tone callback failed", e);
+      }
+      pending--;
+      notifyAll();
+    }
+
+    private int countSentences(String line) {
+      sentences.setText(line);
+      int count = 0;
+      while (sentences.next() != BreakIterator.DONE) {
+        count++;
+      }
+      return Math.max(1, count);
+    }
+  }
+
+  /** Turns a record into a single line that ends a sentence. */
+  private static String line(String text) {
+    String line = LINE_BREAKS.matcher(text.trim()).replaceAll(" ");
+    return line.isEmpty() || SENTENCE_END.matcher(line).matches() ? line : line + ".";
+  }
+
+  /**
+   * Turns the offsets of a sentence in a request into offsets in the text of its record, whose
+   * line was sent at {@code record.offset}, and replaces the text of the sentence with that part
+   * of the record.
+   */
+  private static SentenceAnalysis rebase(SentenceAnalysis sentence, Record record) {
+    JsonObject json = GSON.toJsonTree(sentence).getAsJsonObject();
+    int from = textOffset(record.text, member(json, "input_from", 0) - record.offset);
+    int to = textOffset(record.text, member(json, "input_to", 0) - record.offset);
+    to = Math.max(from, to);
+    json.addProperty("input_from", from);
+    json.addProperty("input_to", to);
+    json.addProperty("text", record.text.substring(from, to));
+    return GSON.fromJson(json, SentenceAnalysis.class);
+  }
+
+  private static int member(JsonObject json, String member, int defaultValue) {
+    JsonElement value = json.get(member);
+    return value != null && !value.isJsonNull() ? value.getAsInt() : defaultValue;
+  }
+
+  /**
+   * Maps an offset in the line of a record back to an offset in its text, undoing {@link
+   * #line(String)}: the line starts at the first character that {@link String#trim()} keeps, each
+   * run of line breaks became one space, and an added period maps to the end of the text.
+   */
+  private static int textOffset(String text, int lineOffset) {
+    int start = 0;
+    int end = text.length();
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    int i = start;
+    for (int position = 0; position < lineOffset && i < end; position++) {
+      if (isLineBreak(text.charAt(i))) {
+        while (i < end && isLineBreak(text.charAt(i))) {
+          i++;
+        }
+      } else {
+        i++;
+      }
+    }
+    return i;
+  }
+
+  private static boolean isLineBreak(char c) {
+    return c == '\r' || c == '\n';
+  }
+
+  private static int utf8Length(String text) {
+    int length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /** A record of the input. */
+  private static final class Record {
+    private final long index;
+    private final String text;
+    private String line;
+    private int offset;
+
+    private Record(long index, String text) {
+      this.index = index;
+      this.text = text;
+    }
+  }
+
+  /** The records sent in one request. */
+  private static final class Batch {
+    private final List<Record> records = new ArrayList<Record>();
+    private int bytes;
+    private int sentences;
+  }
+}
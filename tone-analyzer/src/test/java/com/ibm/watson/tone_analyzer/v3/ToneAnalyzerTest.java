@@ -13,21 +13,33 @@
 package com.ibm.watson.tone_analyzer.v3;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.http.HttpHeaders;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
 import com.ibm.cloud.sdk.core.util.RequestUtils;
 import com.ibm.watson.common.WatsonServiceUnitTest;
+import com.ibm.watson.tone_analyzer.v3.model.SentenceAnalysis;
 import com.ibm.watson.tone_analyzer.v3.model.ToneAnalysis;
 import com.ibm.watson.tone_analyzer.v3.model.ToneChatOptions;
 import com.ibm.watson.tone_analyzer.v3.model.ToneOptions;
 import com.ibm.watson.tone_analyzer.v3.model.Utterance;
 import com.ibm.watson.tone_analyzer.v3.model.UtteranceAnalyses;
+import com.ibm.watson.tone_analyzer.v3.model.UtteranceAnalysis;
+import com.ibm.watson.tone_analyzer.v3.util.BulkToneCallback;
+import com.ibm.watson.tone_analyzer.v3.util.BulkToneScorer;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
@@ -41,6 +53,7 @@ public class ToneAnalyzerTest extends WatsonServiceUnitTest {
   private static final String CHAT_FIXTURE = "src/test/resources/tone_analyzer/tone_chat.json";
   private static final String TONE_PATH = "/v3/tone";
   private static final String CHAT_TONE_PATH = "/v3/tone_chat";
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
 
   /** The service. */
   private ToneAnalyzer service;
@@ -199,4 +212,214 @@ public class ToneAnalyzerTest extends WatsonServiceUnitTest {
     assertEquals(serviceResponse, mockResponse);
     assertEquals(HttpMediaType.APPLICATION_JSON, request.getHeader(HttpHeaders.ACCEPT));
   }
+
+  /**
+   * Test the bulk tone scorer in chat mode: records are packed into toneChat requests and each
+   * utterance analysis is mapped back to its record.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testBulkToneScorerChat() throws InterruptedException {
+    ToneDispatcher dispatcher = new ToneDispatcher();
+    server.setDispatcher(dispatcher);
+    List<String> records = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      records.add("ticket " + i);
+    }
+    final UtteranceAnalysis[] analyses = new UtteranceAnalysis[records.size()];
+    BulkToneScorer scorer = new BulkToneScorer.Builder(service).maxBatchSize(50).build();
+
+    long scored =
+        scorer.score(
+            records,
+            new BulkToneCallback() {
+              @Override
+              public void onUtterance(long index, String text, UtteranceAnalysis analysis) {
+                analyses[(int) index] = analysis;
+              }
+
+              @Override
+              public void onSentences(long index, String text, List<SentenceAnalysis> sentences) {
+                throw new AssertionError("sentences in chat mode");
+              }
+
+              @Override
+              public void onFailure(long index, String text, Exception e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    assertEquals(120, scored);
+    assertEquals(3, dispatcher.requests.get());
+    for (int i = 0; i < records.size(); i++) {
+      assertNotNull(analyses[i]);
+      assertEquals(records.get(i), analyses[i].getUtteranceText());
+    }
+  }
+
+  /**
+   * Test the bulk tone scorer in document mode: records are packed one per line into tone requests
+   * and the sentence analyses are mapped back to their records with offsets into the original text.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testBulkToneScorerDocument() throws InterruptedException {
+    ToneDispatcher dispatcher = new ToneDispatcher();
+    server.setDispatcher(dispatcher);
+    List<String> records = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      records.add("Record\n" + i);
+    }
+    final List<List<SentenceAnalysis>> results = new ArrayList<>();
+    for (int i = 0; i < records.size(); i++) {
+      results.add(null);
+    }
+    BulkToneScorer scorer =
+        new BulkToneScorer.Builder(service)
+            .mode(BulkToneScorer.Mode.DOCUMENT)
+            .maxSentences(2)
+            .build();
+
+    long scored =
+        scorer.score(
+            records,
+            new BulkToneCallback() {
+              @Override
+              public void onUtterance(long index, String text, UtteranceAnalysis analysis) {
+                throw new AssertionError("utterance in document mode");
+              }
+
+              @Override
+              public void onSentences(long index, String text, List<SentenceAnalysis> sentences) {
+                results.set((int) index, sentences);
+              }
+
+              @Override
+              public void onFailure(long index, String text, Exception e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    assertEquals(5, scored);
+    assertEquals(3, dispatcher.requests.get());
+    for (int i = 0; i < records.size(); i++) {
+      List<SentenceAnalysis> sentences = results.get(i);
+      assertEquals(1, sentences.size());
+      assertEquals(records.get(i), sentences.get(0).getText());
+      assertEquals(0L, (long) sentences.get(0).getInputFrom());
+      assertEquals(records.get(i).length(), (long) sentences.get(0).getInputTo());
+    }
+  }
+
+  /**
+   * Test that the records the service leaves out of a document, because it segmented the request
+   * into more sentences than it scores, are sent again instead of being reported without analyses.
+   *
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testBulkToneScorerDocumentSentenceLimit() throws InterruptedException {
+    ToneDispatcher dispatcher = new ToneDispatcher();
+    dispatcher.maxSentences = 3;
+    server.setDispatcher(dispatcher);
+    final List<String> records = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      records.add("  Ticket " + i + "\r\nstill open!");
+    }
+    final List<List<SentenceAnalysis>> results = new ArrayList<>();
+    for (int i = 0; i < records.size(); i++) {
+      results.add(null);
+    }
+    BulkToneScorer scorer =
+        new BulkToneScorer.Builder(service)
+            .mode(BulkToneScorer.Mode.DOCUMENT)
+            .maxSentences(5)
+            .build();
+
+    long scored =
+        scorer.score(
+            records,
+            new BulkToneCallback() {
+              @Override
+              public void onUtterance(long index, String text, UtteranceAnalysis analysis) {
+                throw new AssertionError("utterance in document mode");
+              }
+
+              @Override
+              public void onSentences(long index, String text, List<SentenceAnalysis> sentences) {
+                results.set((int) index, sentences);
+              }
+
+              @Override
+              public void onFailure(long index, String text, Exception e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    assertEquals(5, scored);
+    assertEquals(2, dispatcher.requests.get());
+    for (int i = 0; i < records.size(); i++) {
+      List<SentenceAnalysis> sentences = results.get(i);
+      assertEquals(1, sentences.size());
+      assertEquals("Ticket " + i + "\r\nstill open!", sentences.get(0).getText());
+      assertEquals(2L, (long) sentences.get(0).getInputFrom());
+      assertEquals(records.get(i).length(), (long) sentences.get(0).getInputTo());
+    }
+  }
+
+  /**
+   * Answers toneChat requests with one analysis per utterance and tone requests with one sentence
+   * per line, leaving out the sentences of single-line documents and those past {@code
+   * maxSentences} as the service does.
+   */
+  private static class ToneDispatcher extends Dispatcher {
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int maxSentences = 100;
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      requests.incrementAndGet();
+      String body = request.getBody().readUtf8();
+      if (request.getPath().startsWith(CHAT_TONE_PATH)) {
+        JsonArray utterances =
+            GSON.fromJson(body, JsonObject.class).getAsJsonArray("utterances");
+        JsonArray analyses = new JsonArray();
+        for (int i = 0; i < utterances.size(); i++) {
+          JsonObject analysis = new JsonObject();
+          analysis.addProperty("utterance_id", i);
+          analysis.addProperty(
+              "utterance_text",
+              utterances.get(i).getAsJsonObject().get("text").getAsString());
+          analysis.add("tones", new JsonArray());
+          analyses.add(analysis);
+        }
+        JsonObject result = new JsonObject();
+        result.add("utterances_tone", analyses);
+        return jsonResponse(result);
+      }
+      JsonObject result = new JsonObject();
+      JsonObject document = new JsonObject();
+      document.add("tones", new JsonArray());
+      result.add("document_tone", document);
+      String[] lines = body.split("\\n");
+      if (lines.length > 1) {
+        JsonArray sentences = new JsonArray();
+        int offset = 0;
+        for (int i = 0; i < Math.min(lines.length, maxSentences); i++) {
+          JsonObject sentence = new JsonObject();
+          sentence.addProperty("sentence_id", i);
+          sentence.addProperty("text", lines[i]);
+          sentence.addProperty("input_from", offset);
+          sentence.addProperty("input_to", offset + lines[i].length());
+          sentence.add("tones", new JsonArray());
+          sentences.add(sentence);
+          offset += lines[i].length() + 1;
+        }
+        result.add("sentences_tone", sentences);
+      }
+      return jsonResponse(result);
+    }
+  }
 }
@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.visual_recognition.v4.model.Location;
+import com.ibm.watson.visual_recognition.v4.model.TrainingDataObject;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** An image file with the objects to train on, as read from an annotation manifest. */
+public class AnnotatedImage {
+  private final String filename;
+  private final List<TrainingDataObject> objects;
+
+  /**
+   * Instantiates a new annotated image.
+   *
+   * @param filename the path of the image file, relative to the image directory
+   * @param objects the objects in the image
+   */
+  public AnnotatedImage(String filename, List<TrainingDataObject> objects) {
+    Validator.notNull(filename, "filename cannot be null");
+    this.filename = filename;
+    this.objects =
+        objects != null
+            ? Collections.unmodifiableList(new ArrayList<TrainingDataObject>(objects))
+            : Collections.<TrainingDataObject>emptyList();
+  }
+
+  /**
+   * Gets the path of the image file, relative to the image directory.
+   *
+   * @return the filename
+   */
+  public String getFilename() {
+    return filename;
+  }
+
+  /**
+   * Gets the objects in the image.
+   *
+   * @return the objects
+   */
+  public List<TrainingDataObject> getObjects() {
+    return objects;
+  }
+
+  /**
+   * Reads a COCO-style object detection manifest: the {@code images}, {@code annotations} and
+   * {@code categories} arrays, with bounding boxes given as {@code [x, y, width, height]} in
+   * pixels. Images without annotations are included with no objects.
+   *
+   * @param manifest the manifest file
+   * @return the annotated images, in manifest order
+   * @throws IOException if the manifest cannot be read
+   */
+  public static List<AnnotatedImage> readCocoManifest(Path manifest) throws IOException {
+    JsonObject coco;
+    try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+      coco = new JsonParser().parse(reader).getAsJsonObject();
+    }
+    Map<Long, String> categories = new HashMap<Long, String>();
+    for (JsonElement category : array(coco, "categories")) {
+      JsonObject json = category.getAsJsonObject();
+      categories.put(json.get("id").getAsLong(), json.get("name").getAsString());
+    }
+    Map<Long, String> filenames = new LinkedHashMap<Long, String>();
+    Map<Long, List<TrainingDataObject>> objects = new HashMap<Long, List<TrainingDataObject>>();
+    for (JsonElement image : array(coco, "images")) {
+      JsonObject json = image.getAsJsonObject();
+      long id = json.get("id").getAsLong();
+      filenames.put(id, json.get("file_name").getAsString());
+      objects.put(id, new ArrayList<TrainingDataObject>());
+    }
+    for (JsonElement annotation : array(coco, "annotations")) {
+      JsonObject json = annotation.getAsJsonObject();
+      List<TrainingDataObject> imageObjects = objects.get(json.get("image_id").getAsLong());
+      String name = categories.get(json.get("category_id").getAsLong());
+      JsonArray bbox = json.getAsJsonArray("bbox");
+      if (imageObjects == null || name == null || bbox == null || bbox.size() != 4) {
+        continue;
+      }
+      Location location =
+          new Location.Builder()
+              .left(Math.round(bbox.get(0).getAsDouble()))
+              .top(Math.round(bbox.get(1).getAsDouble()))
+              .width(Math.round(bbox.get(2).getAsDouble()))
+              .height(Math.round(bbox.get(3).getAsDouble()))
+              .build();
+      imageObjects.add(new TrainingDataObject.Builder().object(name).location(location).build());
+    }
+    List<AnnotatedImage> images = new ArrayList<AnnotatedImage>(filenames.size());
+    for (Map.Entry<Long, String> entry : filenames.entrySet()) {
+      images.add(new AnnotatedImage(entry.getValue(), objects.get(entry.getKey())));
+    }
+    return images;
+  }
+
+  private static JsonArray array(JsonObject json, String member) {
+    JsonElement value = json.get(member);
+    return value != null && value.isJsonArray() ? value.getAsJsonArray() : new JsonArray();
+  }
+}
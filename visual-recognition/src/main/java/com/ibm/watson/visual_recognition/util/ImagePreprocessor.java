@@ -0,0 +1,479 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.ibm.cloud.sdk.core.service.model.FileWithMetadata;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.visual_recognition.v3.model.ClassifyOptions;
+import com.ibm.watson.visual_recognition.v4.model.AnalyzeOptions;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Shrinks images before they are uploaded to Visual Recognition.
+ *
+ * <p>Each image is downscaled so that its longer side is at most {@code maxDimension} pixels and
+ * re-encoded as a JPEG image of the given quality, which typically turns a multi-megabyte camera
+ * photo into a file of a few hundred kilobytes without affecting classification. Re-encoding drops
+ * EXIF and other metadata, such as the location where a photo was taken; the EXIF orientation is
+ * applied to the pixels first, so the image stays upright. Images that ImageIO cannot decode are
+ * uploaded unchanged, as are small images without metadata that re-encoding would not shrink.
+ *
+ * <p>Images are processed in parallel on a pool of {@code threads} threads, which is shut down by
+ * {@link #close()}. Only {@code javax.imageio} and {@code java.awt} are used.
+ */
+public class ImagePreprocessor implements Closeable {
+  private static final String JPEG = "image/jpeg";
+
+  private final int maxDimension;
+  private final float quality;
+  private final ExecutorService executor;
+
+  /** Builder. */
+  public static class Builder {
+    private int maxDimension = 1024;
+    private float quality = 0.85f;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Builds an ImagePreprocessor.
+     *
+     * @return the image preprocessor
+     */
+    public ImagePreprocessor build() {
+      return new ImagePreprocessor(this);
+    }
+
+    /**
+     * Set the largest width or height of a processed image, in pixels. Defaults to 1024.
+     *
+     * @param maxDimension the maximum dimension
+     * @return the ImagePreprocessor builder
+     */
+    public Builder maxDimension(int maxDimension) {
+      this.maxDimension = maxDimension;
+      return this;
+    }
+
+    /**
+     * Set the JPEG quality of the processed images, between 0 and 1. Defaults to 0.85.
+     *
+     * @param quality the JPEG quality
+     * @return the ImagePreprocessor builder
+     */
+    public Builder quality(float quality) {
+      this.quality = quality;
+      return this;
+    }
+
+    /**
+     * Set the number of images processed in parallel. Defaults to the number of processors.
+     *
+     * @param threads the number of threads
+     * @return the ImagePreprocessor builder
+     */
+    public Builder threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+  }
+
+  protected ImagePreprocessor(Builder builder) {
+    Validator.isTrue(builder.maxDimension > 0, "maxDimension must be positive");
+    Validator.isTrue(
+        builder.quality > 0 && builder.quality <= 1,
+        "quality must be greater than 0 and at most 1");
+    Validator.isTrue(builder.threads > 0, "threads must be positive");
+    maxDimension = builder.maxDimension;
+    quality = builder.quality;
+    executor =
+        Executors.newFixedThreadPool(
+            builder.threads, new DaemonThreadFactory("image-preprocessor"));
+  }
+
+  /**
+   * Processes the images of a v4 analyze request. Image URLs are left to the service.
+   *
+   * @param analyzeOptions the options of the request
+   * @return a copy of the options with processed images
+   * @throws IOException if an image cannot be read
+   */
+  public AnalyzeOptions preprocess(AnalyzeOptions analyzeOptions) throws IOException {
+    Validator.notNull(analyzeOptions, "analyzeOptions cannot be null");
+    if (analyzeOptions.imagesFile() == null) {
+      return analyzeOptions;
+    }
+    return analyzeOptions.newBuilder().imagesFile(processAll(analyzeOptions.imagesFile())).build();
+  }
+
+  /**
+   * Processes the image, or every image of the zip file, of a v3 classify request.
+   *
+   * <p>Images of a zip file that are re-encoded get the extension {@code .jpg}. Entry names stay
+   * unique: when the new name is already used by another entry, a counter is added before the
+   * extension, so {@code a.png} next to {@code a.jpg} becomes {@code a-2.jpg}. Other entries keep
+   * their names.
+   *
+   * @param classifyOptions the options of the request
+   * @return a copy of the options with processed images
+   * @throws IOException if an image cannot be read
+   */
+  public ClassifyOptions preprocess(ClassifyOptions classifyOptions) throws IOException {
+    Validator.notNull(classifyOptions, "classifyOptions cannot be null");
+    if (classifyOptions.imagesFile() == null) {
+      return classifyOptions;
+    }
+    byte[] data = Streams.readAll(classifyOptions.imagesFile());
+    if (isZip(data)) {
+      return classifyOptions
+          .newBuilder()
+          .imagesFile(new ByteArrayInputStream(processZip(data)))
+          .build();
+    }
+    byte[] processed = process(data);
+    if (processed == data) {
+      return classifyOptions.newBuilder().imagesFile(new ByteArrayInputStream(data)).build();
+    }
+    return classifyOptions
+        .newBuilder()
+        .imagesFile(new ByteArrayInputStream(processed))
+        .imagesFilename(jpegName(classifyOptions.imagesFilename()))
+        .imagesFileContentType(JPEG)
+        .build();
+  }
+
+  /**
+   * Processes images in parallel.
+   *
+   * @param images the images
+   * @return the processed images, in the same order
+   * @throws IOException if an image cannot be read
+   */
+  public List<FileWithMetadata> processAll(List<FileWithMetadata> images) throws IOException {
+    List<Callable<FileWithMetadata>> tasks = new ArrayList<Callable<FileWithMetadata>>();
+    for (final FileWithMetadata image : images) {
+      tasks.add(
+          new Callable<FileWithMetadata>() {
+            @Override
+            public FileWithMetadata call() throws IOException {
+              return process(image);
+            }
+          });
+    }
+    return invokeAll(tasks);
+  }
+
+  /**
+   * Processes one image on the calling thread.
+   *
+   * @param image the image
+   * @return the processed image
+   * @throws IOException if the image cannot be read
+   */
+  public FileWithMetadata process(FileWithMetadata image) throws IOException {
+    byte[] data = Streams.readAll(image.data());
+    byte[] processed = process(data);
+    FileWithMetadata.Builder builder = image.newBuilder().data(new ByteArrayInputStream(processed));
+    if (processed != data) {
+      builder.filename(jpegName(image.filename())).contentType(JPEG);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Processes one encoded image on the calling thread.
+   *
+   * @param image the encoded image
+   * @return the processed JPEG image, or the given array if the image is left unchanged
+   * @throws IOException if the image cannot be read
+   */
+  public byte[] process(byte[] image) throws IOException {
+    boolean jpeg = JpegMetadata.isJpeg(image);
+    int orientation = jpeg ? JpegMetadata.orientation(image) : JpegMetadata.NORMAL;
+    BufferedImage decoded = decode(image);
+    if (decoded == null) {
+      return image;
+    }
+    boolean fits = Math.max(decoded.getWidth(), decoded.getHeight()) <= maxDimension;
+    BufferedImage upright = JpegMetadata.applyOrientation(toRgb(decoded), orientation);
+    byte[] encoded = encode(downscale(upright));
+    if (fits
+        && jpeg
+        && orientation == JpegMetadata.NORMAL
+        && !JpegMetadata.hasMetadata(image)
+        && encoded.length >= image.length) {
+      return image;
+    }
+    return encoded;
+  }
+
+  /** Shuts down the thread pool. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Decodes an image, letting the decoder skip pixels when the image is much larger than needed.
+   * Returns null if no ImageIO decoder supports the image.
+   */
+  private BufferedImage decode(byte[] image) throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(image));
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        int largest = Math.max(reader.getWidth(0), reader.getHeight(0));
+        ImageReadParam param = reader.getDefaultReadParam();
+        // Subsampling is fast but aliases, so keep twice the target size for the final resize.
+        int subsampling = Math.max(1, largest / (2 * maxDimension));
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } catch (IIOException e) {
+        // For example a CMYK JPEG image, which ImageIO does not support.
+        return null;
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  /** Halves the image until it is less than twice the target size, then resizes it bilinearly. */
+  private BufferedImage downscale(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int largest = Math.max(width, height);
+    if (largest <= maxDimension) {
+      return image;
+    }
+    double scale = (double) maxDimension / largest;
+    int targetWidth = Math.max(1, (int) Math.round(width * scale));
+    int targetHeight = Math.max(1, (int) Math.round(height * scale));
+    BufferedImage current = image;
+    while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+      width /= 2;
+      height /= 2;
+      current = resize(current, width, height);
+    }
+    return width == targetWidth && height == targetHeight
+        ? current
+        : resize(current, targetWidth, targetHeight);
+  }
+
+  private byte[] encode(BufferedImage image) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageOutputStream output = ImageIO.createImageOutputStream(bytes);
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      writer.setOutput(output);
+      // Without metadata, the writer only emits a JFIF header.
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+      output.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  /** Processes the entries of a zip file in parallel and stores them in a new zip file. */
+  private byte[] processZip(byte[] zip) throws IOException {
+    final List<String> names = new ArrayList<String>();
+    List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+    try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry()) {
+        if (entry.isDirectory()) {
+          continue;
+        }
+        final byte[] data = Streams.readAll(input);
+        names.add(entry.getName());
+        tasks.add(
+            new Callable<byte[]>() {
+              @Override
+              public byte[] call() throws IOException {
+                return process(data);
+              }
+            });
+      }
+    }
+    List<byte[]> processed = invokeAll(tasks);
+    List<String> entryNames = entryNames(names, processed);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream output = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < names.size(); i++) {
+        byte[] data = processed.get(i);
+        // Encoded images do not compress further, so they are stored.
+        ZipEntry entry = new ZipEntry(entryNames.get(i));
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        output.putNextEntry(entry);
+        output.write(data);
+        output.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Names the entries of a processed zip file. Entries that keep their name claim it first, then
+   * re-encoded images and duplicates get the first free name with a counter before the extension.
+   */
+  private static List<String> entryNames(List<String> names, List<byte[]> processed) {
+    Set<String> taken = new HashSet<String>();
+    String[] preferred = new String[names.size()];
+    String[] result = new String[names.size()];
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i);
+      preferred[i] = JpegMetadata.isJpeg(processed.get(i)) ? jpegName(name) : name;
+      if (preferred[i].equals(name) && taken.add(name)) {
+        result[i] = name;
+      }
+    }
+    for (int i = 0; i < result.length; i++) {
+      if (result[i] != null) {
+        continue;
+      }
+      String name = preferred[i];
+      int dot = name.lastIndexOf('.');
+      String base = dot > name.lastIndexOf('/') ? name.substring(0, dot) : name;
+      String extension = name.substring(base.length());
+      for (int counter = 2; !taken.add(name); counter++) {
+        name = base + "-" + counter + extension;
+      }
+      result[i] = name;
+    }
+    return Arrays.asList(result);
+  }
+
+  /** Runs tasks on the pool and returns their results in order. */
+  private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    try {
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(task));
+      }
+      List<T> results = new ArrayList<T>(futures.size());
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while processing images");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /** Draws an image on an opaque RGB image, painting transparent areas white. */
+  private static BufferedImage toRgb(BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+      return image;
+    }
+    BufferedImage rgb =
+        new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = rgb.createGraphics();
+    try {
+      graphics.drawImage(image, 0, 0, Color.WHITE, null);
+    } finally {
+      graphics.dispose();
+    }
+    return rgb;
+  }
+
+  private static BufferedImage resize(BufferedImage image, int width, int height) {
+    BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = resized.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+    return resized;
+  }
+
+  private static boolean isZip(byte[] data) {
+    return data.length > 3 && data[0] == 'P' && data[1] == 'K' && data[2] == 3 && data[3] == 4;
+  }
+
+  /** Replaces the extension of a file name with .jpg. */
+  private static String jpegName(String filename) {
+    if (filename == null) {
+      return null;
+    }
+    int dot = filename.lastIndexOf('.');
+    int slash = filename.lastIndexOf('/');
+    String base = dot > slash ? filename.substring(0, dot) : filename;
+    String extension = dot > slash ? filename.substring(dot).toLowerCase(Locale.ROOT) : "";
+    return ".jpg".equals(extension) || ".jpeg".equals(extension) ? filename : base + ".jpg";
+  }
+}
@@ -0,0 +1,586 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.visual_recognition.v3.VisualRecognition;
+import com.ibm.watson.visual_recognition.v3.model.ClassifiedImages;
+import com.ibm.watson.visual_recognition.v3.model.Classifier;
+import com.ibm.watson.visual_recognition.v3.model.ClassifyOptions;
+import com.ibm.watson.visual_recognition.v3.model.GetClassifierOptions;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Packs images into zip files while they are uploaded, for the Visual Recognition v3 operations
+ * that take zip files of images.
+ *
+ * <p>A zip file is a {@link RequestBody} that writes its entries straight into the multipart
+ * request as it is sent, so image files are read from disk into the request and no zip file is
+ * held in memory; it is sent with the {@link RequestBody} overloads of {@link VisualRecognition}.
+ * JPEG, PNG and GIF images are already compressed, so they are stored rather than deflated; their
+ * checksum, which a stored entry needs up front, is computed by a first read of the file. A file
+ * that cannot be read, or changes size, fails the request. Images given as streams have to be read
+ * into memory to be sized, so the images of one zip file are held in memory until it is sent.
+ *
+ * <p>When the images exceed the limits of one zip file, they are split across several zip files
+ * and sent in several requests. The defaults are the limits of {@code classify}; for training, use
+ * {@link #MAX_TRAINING_IMAGES}, {@link #MAX_TRAINING_BYTES} and {@link
+ * #MAX_TRAINING_REQUEST_BYTES}. A training set that needs several requests creates the classifier
+ * with the first zip file of each class and adds the others by updating it once it is ready.
+ */
+public class ImageZipPacker {
+  /** The largest number of images in a zip file for {@code classify}. */
+  public static final int MAX_CLASSIFY_IMAGES = 20;
+  /** The largest zip file for {@code classify}, in bytes. */
+  public static final long MAX_CLASSIFY_BYTES = 20L * 1024 * 1024;
+  /** The largest number of images in a zip file of training examples. */
+  public static final int MAX_TRAINING_IMAGES = 10000;
+  /** The largest zip file of training examples, in bytes. */
+  public static final long MAX_TRAINING_BYTES = 100L * 1024 * 1024;
+  /** The largest training request, in bytes. */
+  public static final long MAX_TRAINING_REQUEST_BYTES = 256L * 1024 * 1024;
+
+  private static final Gson GSON = GsonSingleton.getGson();
+  private static final String ZIP = "application/zip";
+  private static final int CHUNK_SIZE = 64 * 1024;
+  /** The size of the end of central directory record. */
+  private static final int END_OVERHEAD = 22;
+
+  private final int maxImages;
+  private final long maxBytes;
+  private final long maxRequestBytes;
+  private final long pollIntervalMillis;
+
+  /** Builder. */
+  public static class Builder {
+    private int maxImages = MAX_CLASSIFY_IMAGES;
+    private long maxBytes = MAX_CLASSIFY_BYTES;
+    private long maxRequestBytes = MAX_TRAINING_REQUEST_BYTES;
+    private long pollIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Builds an ImageZipPacker.
+     *
+     * @return the image zip packer
+     */
+    public ImageZipPacker build() {
+      return new ImageZipPacker(this);
+    }
+
+    /**
+     * Set the largest number of images in a zip file. Defaults to {@link #MAX_CLASSIFY_IMAGES}.
+     *
+     * @param maxImages the maximum number of images per zip file
+     * @return the ImageZipPacker builder
+     */
+    public Builder maxImages(int maxImages) {
+      this.maxImages = maxImages;
+      return this;
+    }
+
+    /**
+     * Set the largest zip file, in bytes. Defaults to {@link #MAX_CLASSIFY_BYTES}. An image that
+     * is larger on its own is sent alone.
+     *
+     * @param maxBytes the maximum size of a zip file
+     * @return the ImageZipPacker builder
+     */
+    public Builder maxBytes(long maxBytes) {
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /**
+     * Set the largest total size of the zip files of one training request. Defaults to {@link
+     * #MAX_TRAINING_REQUEST_BYTES}.
+     *
+     * @param maxRequestBytes the maximum size of a training request
+     * @return the ImageZipPacker builder
+     */
+    public Builder maxRequestBytes(long maxRequestBytes) {
+      this.maxRequestBytes = maxRequestBytes;
+      return this;
+    }
+
+    /**
+     * Set how often the status of a classifier is checked while waiting for it to be ready for
+     * more training examples. Defaults to 30 seconds.
+     *
+     * @param pollInterval the poll interval
+     * @param unit the unit of pollInterval
+     * @return the ImageZipPacker builder
+     */
+    public Builder pollInterval(long pollInterval, TimeUnit unit) {
+      this.pollIntervalMillis = unit.toMillis(pollInterval);
+      return this;
+    }
+  }
+
+  protected ImageZipPacker(Builder builder) {
+    Validator.isTrue(builder.maxImages > 0, "maxImages must be positive");
+    Validator.isTrue(builder.maxBytes > 0, "maxBytes must be positive");
+    Validator.isTrue(builder.maxRequestBytes > 0, "maxRequestBytes must be positive");
+    Validator.isTrue(builder.pollIntervalMillis >= 0, "pollInterval cannot be negative");
+    maxImages = builder.maxImages;
+    maxBytes = builder.maxBytes;
+    maxRequestBytes = builder.maxRequestBytes;
+    pollIntervalMillis = builder.pollIntervalMillis;
+  }
+
+  /**
+   * Packs image files into as many zip files as the limits require. Only the sizes of the files
+   * are read until a zip file is written.
+   *
+   * @param images the image files
+   * @return the zip files, produced lazily
+   */
+  public Iterator<RequestBody> packFiles(Iterable<Path> images) {
+    return new Parts(new PathSource(images.iterator()));
+  }
+
+  /**
+   * Packs images given as streams into as many zip files as the limits require. Each stream is
+   * read to the end and closed when the zip file that contains it is produced, and its entry is
+   * named after the detected image type.
+   *
+   * @param images the image streams
+   * @return the zip files, produced lazily
+   */
+  public Iterator<RequestBody> packStreams(Iterable<InputStream> images) {
+    return new Parts(new StreamSource(images.iterator()));
+  }
+
+  /**
+   * Classifies images with one {@code classify} request per zip file and merges the results.
+   *
+   * @param service the Visual Recognition service
+   * @param classifyOptions the options of the requests, without images or URL
+   * @param zipFiles the zip files, as returned by {@link #packFiles} or {@link #packStreams}
+   * @return the classified images of every request
+   */
+  public ClassifiedImages classify(
+      VisualRecognition service,
+      ClassifyOptions classifyOptions,
+      Iterator<? extends RequestBody> zipFiles) {
+    Validator.notNull(service, "service cannot be null");
+    Validator.notNull(classifyOptions, "classifyOptions cannot be null");
+    JsonObject merged = new JsonObject();
+    JsonArray images = new JsonArray();
+    JsonArray warnings = new JsonArray();
+    long imagesProcessed = 0;
+    long customClasses = 0;
+    while (zipFiles.hasNext()) {
+      ClassifiedImages classified =
+          service.classify(classifyOptions, zipFiles.next()).execute().getResult();
+      JsonObject result = GSON.toJsonTree(classified).getAsJsonObject();
+      addAll(images, result.get("images"));
+      addAll(warnings, result.get("warnings"));
+      JsonElement processed = result.get("images_processed");
+      imagesProcessed += processed != null ? processed.getAsLong() : 0;
+      JsonElement custom = result.get("custom_classes");
+      customClasses = Math.max(customClasses, custom != null ? custom.getAsLong() : 0);
+    }
+    merged.addProperty("custom_classes", customClasses);
+    merged.addProperty("images_processed", imagesProcessed);
+    merged.add("images", images);
+    if (warnings.size() > 0) {
+      merged.add("warnings", warnings);
+    }
+    return GSON.fromJson(merged, ClassifiedImages.class);
+  }
+
+  /**
+   * Creates a classifier from image files. When the examples need more than one request, the
+   * classifier is created with the first zip file of each class and updated with the others, each
+   * update waiting for the classifier to finish training.
+   *
+   * @param service the Visual Recognition service
+   * @param name the name of the classifier
+   * @param positiveExamples the positive examples, by class name
+   * @param negativeExamples the negative examples, or null
+   * @return the classifier, as returned by the last request
+   * @throws InterruptedException if the thread is interrupted while waiting for the classifier
+   */
+  public Classifier createClassifier(
+      VisualRecognition service,
+      String name,
+      Map<String, ? extends Iterable<Path>> positiveExamples,
+      Iterable<Path> negativeExamples)
+      throws InterruptedException {
+    Validator.notNull(service, "service cannot be null");
+    Validator.notNull(name, "name cannot be null");
+    Validator.isTrue(
+        positiveExamples != null && !positiveExamples.isEmpty(),
+        "positiveExamples cannot be empty");
+    Map<String, Parts> positives = new LinkedHashMap<String, Parts>();
+    for (Map.Entry<String, ? extends Iterable<Path>> entry : positiveExamples.entrySet()) {
+      positives.put(entry.getKey(), new Parts(new PathSource(entry.getValue().iterator())));
+    }
+    Parts negatives =
+        negativeExamples != null ? new Parts(new PathSource(negativeExamples.iterator())) : null;
+
+    long budget = requestBudget(positives, negatives);
+    Classifier classifier =
+        service
+            .createClassifier(
+                name, positiveBodies(positives, budget), negativeBody(negatives, budget))
+            .execute()
+            .getResult();
+
+    while (true) {
+      budget = requestBudget(positives, negatives);
+      if (budget == 0) {
+        return classifier;
+      }
+      awaitReady(service, classifier.getClassifierId());
+      classifier =
+          service
+              .updateClassifier(
+                  classifier.getClassifierId(),
+                  positiveBodies(positives, budget),
+                  negativeBody(negatives, budget))
+              .execute()
+              .getResult();
+    }
+  }
+
+  /** Takes the next zip file of each class that still has positive examples. */
+  private static Map<String, RequestBody> positiveBodies(
+      Map<String, Parts> positives, long budget) {
+    Map<String, RequestBody> bodies = new LinkedHashMap<String, RequestBody>();
+    for (Map.Entry<String, Parts> entry : positives.entrySet()) {
+      if (entry.getValue().hasNext()) {
+        bodies.put(entry.getKey(), entry.getValue().next(budget));
+      }
+    }
+    return bodies;
+  }
+
+  private static RequestBody negativeBody(Parts negatives, long budget) {
+    return negatives != null && negatives.hasNext() ? negatives.next(budget) : null;
+  }
+
+  /**
+   * Returns the largest size of each zip file of the next training request, sharing the request
+   * limit between the classes that still have examples, or 0 when no examples are left.
+   */
+  private long requestBudget(Map<String, Parts> positives, Parts negatives) {
+    int parts = negatives != null && negatives.hasNext() ? 1 : 0;
+    for (Parts part : positives.values()) {
+      parts += part.hasNext() ? 1 : 0;
+    }
+    return parts == 0 ? 0 : Math.max(1, Math.min(maxBytes, maxRequestBytes / parts));
+  }
+
+  private void awaitReady(VisualRecognition service, String classifierId)
+      throws InterruptedException {
+    GetClassifierOptions options = new GetClassifierOptions.Builder(classifierId).build();
+    while (true) {
+      String status = service.getClassifier(options).execute().getResult().getStatus();
+      if (Classifier.Status.READY.equals(status)) {
+        return;
+      } else if (Classifier.Status.FAILED.equals(status)) {
+        throw new IllegalStateException("Training of classifier " + classifierId + " failed");
+      }
+      TimeUnit.MILLISECONDS.sleep(pollIntervalMillis);
+    }
+  }
+
+  private static void addAll(JsonArray target, JsonElement source) {
+    if (source != null && source.isJsonArray()) {
+      target.addAll(source.getAsJsonArray());
+    }
+  }
+
+  /** Returns whether an image format is compressed, by file extension. */
+  private static boolean isCompressed(String name) {
+    String lower = name.toLowerCase(Locale.ROOT);
+    return lower.endsWith(".jpg")
+        || lower.endsWith(".jpeg")
+        || lower.endsWith(".png")
+        || lower.endsWith(".gif");
+  }
+
+  /** An image waiting to be added to a zip file. */
+  private abstract static class Image {
+    private final String name;
+    private final long size;
+
+    private Image(String name, long size) {
+      this.name = name;
+      this.size = size;
+    }
+
+    /** Returns the CRC-32 checksum of the image, which a stored entry needs before its data. */
+    abstract long crc() throws IOException;
+
+    abstract InputStream open() throws IOException;
+  }
+
+  /** Yields the images of a zip file one at a time, allowing a look at the next one. */
+  private abstract static class Source {
+    private Image peeked;
+
+    /** Returns whether images are left, without reading anything. */
+    abstract boolean hasMore();
+
+    abstract Image read() throws IOException;
+
+    final boolean hasNext() {
+      return peeked != null || hasMore();
+    }
+
+    final Image peek() throws IOException {
+      if (peeked == null && hasMore()) {
+        peeked = read();
+      }
+      return peeked;
+    }
+
+    final Image take() throws IOException {
+      Image image = peek();
+      peeked = null;
+      return image;
+    }
+  }
+
+  private static final class PathSource extends Source {
+    private final Iterator<Path> paths;
+
+    private PathSource(Iterator<Path> paths) {
+      this.paths = paths;
+    }
+
+    @Override
+    boolean hasMore() {
+      return paths.hasNext();
+    }
+
+    @Override
+    Image read() throws IOException {
+      final Path path = paths.next();
+      return new Image(path.getFileName().toString(), Files.size(path)) {
+        @Override
+        long crc() throws IOException {
+          CRC32 crc = new CRC32();
+          byte[] buffer = new byte[CHUNK_SIZE];
+          try (InputStream input = Files.newInputStream(path)) {
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+              crc.update(buffer, 0, read);
+            }
+          }
+          return crc.getValue();
+        }
+
+        @Override
+        InputStream open() throws IOException {
+          return Files.newInputStream(path);
+        }
+      };
+    }
+  }
+
+  private static final class StreamSource extends Source {
+    private final Iterator<InputStream> streams;
+    private int count;
+
+    private StreamSource(Iterator<InputStream> streams) {
+      this.streams = streams;
+    }
+
+    @Override
+    boolean hasMore() {
+      return streams.hasNext();
+    }
+
+    @Override
+    Image read() throws IOException {
+      final byte[] data;
+      try (InputStream input = streams.next()) {
+        data = Streams.readAll(input);
+      }
+      count++;
+      return new Image("image-" + count + extension(data), data.length) {
+        @Override
+        long crc() {
+          CRC32 crc = new CRC32();
+          crc.update(data);
+          return crc.getValue();
+        }
+
+        @Override
+        InputStream open() {
+          return new ByteArrayInputStream(data);
+        }
+      };
+    }
+
+    private static String extension(byte[] data) {
+      if (JpegMetadata.isJpeg(data)) {
+        return ".jpg";
+      } else if (data.length > 3 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N') {
+        return ".png";
+      } else if (data.length > 3 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+        return ".gif";
+      } else if (data.length > 3 && data[0] == 'R' && data[1] == 'I' && data[2] == 'F') {
+        return ".webp";
+      } else if (data.length > 3 && (data[0] == 'I' || data[0] == 'M') && data[1] == data[0]) {
+        return ".tiff";
+      }
+      return "";
+    }
+  }
+
+  /** The zip files of a source, in order. */
+  private final class Parts implements Iterator<RequestBody> {
+    private final Source source;
+
+    private Parts(Source source) {
+      this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return source.hasNext();
+    }
+
+    @Override
+    public RequestBody next() {
+      return next(maxBytes);
+    }
+
+    /** Takes the images of the next zip file from the source, up to the given size. */
+    private RequestBody next(long limit) {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      List<Image> images = new ArrayList<Image>();
+      long bytes = END_OVERHEAD;
+      try {
+        for (Image next = source.peek(); next != null; next = source.peek()) {
+          long size = entrySize(next);
+          if (!images.isEmpty() && (images.size() >= maxImages || bytes + size > limit)) {
+            break;
+          }
+          images.add(source.take());
+          bytes += size;
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException("The images could not be read", e);
+      }
+      return new ZipBody(images);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Returns an upper bound of the bytes an image adds to a zip file. */
+  private static long entrySize(Image image) {
+    // The local and central directory headers with the name in UTF-8, and a data descriptor.
+    long headers = 30 + 46 + 16 + 2L * 3 * image.name.length();
+    long data = isCompressed(image.name) ? image.size : image.size + image.size / 1000 + 64;
+    return headers + data;
+  }
+
+  /**
+   * A zip file that is written straight into the request: each image is passed through a {@link
+   * ZipOutputStream} into the sink of the request as it is read. The images are read again every
+   * time the body is written, so the body can be sent again when the HTTP client retries the
+   * request. A failure to read an image fails the request.
+   */
+  private static final class ZipBody extends RequestBody {
+    private static final MediaType ZIP_TYPE = MediaType.parse(ZIP);
+
+    private final List<Image> images;
+
+    private ZipBody(List<Image> images) {
+      this.images = images;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see okhttp3.RequestBody#contentType()
+     */
+    @Override
+    public MediaType contentType() {
+      return ZIP_TYPE;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see okhttp3.RequestBody#writeTo(okio.BufferedSink)
+     */
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      // The sink belongs to the multipart request, so the zip stream is finished but not closed.
+      ZipOutputStream zip = new ZipOutputStream(sink.outputStream());
+      Set<String> names = new HashSet<String>();
+      byte[] chunk = new byte[CHUNK_SIZE];
+      for (Image image : images) {
+        ZipEntry entry = new ZipEntry(uniqueName(names, image.name));
+        if (isCompressed(image.name)) {
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(image.size);
+          entry.setCompressedSize(image.size);
+          entry.setCrc(image.crc());
+        }
+        zip.putNextEntry(entry);
+        try (InputStream input = image.open()) {
+          for (int read = input.read(chunk); read != -1; read = input.read(chunk)) {
+            zip.write(chunk, 0, read);
+          }
+        }
+        zip.closeEntry();
+      }
+      zip.finish();
+      zip.flush();
+    }
+
+    private static String uniqueName(Set<String> names, String name) {
+      String unique = name;
+      int dot = name.lastIndexOf('.');
+      for (int i = 2; !names.add(unique); i++) {
+        unique = dot > 0 ? name.substring(0, dot) + "-" + i + name.substring(dot) : name + "-" + i;
+      }
+      return unique;
+    }
+  }
+}
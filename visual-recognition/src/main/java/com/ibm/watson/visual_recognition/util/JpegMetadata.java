@@ -0,0 +1,185 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+
+/** Reads the metadata segments of a JPEG image and applies its EXIF orientation. */
+final class JpegMetadata {
+  /** The orientation of an image that is stored upright. */
+  static final int NORMAL = 1;
+
+  private static final int ORIENTATION_TAG = 0x0112;
+
+  private JpegMetadata() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Returns whether an image is a JPEG image.
+   *
+   * @param image the encoded image
+   * @return true if the image starts with a JPEG start-of-image marker
+   */
+  static boolean isJpeg(byte[] image) {
+    return image.length > 3 && (image[0] & 0xFF) == 0xFF && (image[1] & 0xFF) == 0xD8;
+  }
+
+  /**
+   * Returns whether a JPEG image carries application segments other than a JFIF header, such as
+   * EXIF, XMP or ICC profile data.
+   *
+   * @param jpeg the encoded image
+   * @return true if the image has metadata that re-encoding would strip
+   */
+  static boolean hasMetadata(byte[] jpeg) {
+    for (int pos = segmentAt(jpeg, 2); pos >= 0; pos = nextSegment(jpeg, pos)) {
+      int marker = jpeg[pos + 1] & 0xFF;
+      if (marker > 0xE0 && marker <= 0xEF) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the EXIF orientation of a JPEG image, from 1 to 8.
+   *
+   * @param jpeg the encoded image
+   * @return the orientation, or {@link #NORMAL} if the image has none
+   */
+  static int orientation(byte[] jpeg) {
+    for (int pos = segmentAt(jpeg, 2); pos >= 0; pos = nextSegment(jpeg, pos)) {
+      if ((jpeg[pos + 1] & 0xFF) == 0xE1) {
+        int start = pos + 4;
+        int end = Math.min(jpeg.length, pos + 2 + readShort(jpeg, pos + 2, false));
+        if (end - start > 14
+            && jpeg[start] == 'E'
+            && jpeg[start + 1] == 'x'
+            && jpeg[start + 2] == 'i'
+            && jpeg[start + 3] == 'f') {
+          int orientation = readOrientation(jpeg, start + 6, end);
+          if (orientation >= 1 && orientation <= 8) {
+            return orientation;
+          }
+        }
+      }
+    }
+    return NORMAL;
+  }
+
+  /**
+   * Transforms the pixels of an image so that it appears upright without its EXIF orientation.
+   *
+   * @param image the decoded image, of a predefined image type
+   * @param orientation the EXIF orientation
+   * @return the upright image
+   */
+  static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    AffineTransform transform = new AffineTransform();
+    switch (orientation) {
+      case 2: // mirrored horizontally
+        transform.translate(width, 0);
+        transform.scale(-1, 1);
+        break;
+      case 3: // rotated 180 degrees
+        transform.translate(width, height);
+        transform.rotate(Math.PI);
+        break;
+      case 4: // mirrored vertically
+        transform.translate(0, height);
+        transform.scale(1, -1);
+        break;
+      case 5: // mirrored along the top-left to bottom-right diagonal
+        transform.rotate(Math.PI / 2);
+        transform.scale(1, -1);
+        break;
+      case 6: // rotated 90 degrees clockwise
+        transform.translate(height, 0);
+        transform.rotate(Math.PI / 2);
+        break;
+      case 7: // mirrored along the top-right to bottom-left diagonal
+        transform.translate(height, width);
+        transform.rotate(Math.PI / 2);
+        transform.scale(-1, 1);
+        break;
+      case 8: // rotated 90 degrees counterclockwise
+        transform.translate(0, width);
+        transform.rotate(-Math.PI / 2);
+        break;
+      default:
+        return image;
+    }
+    boolean swap = orientation >= 5;
+    BufferedImage rotated =
+        new BufferedImage(swap ? height : width, swap ? width : height, image.getType());
+    return new AffineTransformOp(transform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR)
+        .filter(image, rotated);
+  }
+
+  /** Reads the orientation entry of the first IFD of a TIFF structure. */
+  private static int readOrientation(byte[] data, int tiff, int end) {
+    boolean littleEndian = data[tiff] == 'I' && data[tiff + 1] == 'I';
+    if (!littleEndian && !(data[tiff] == 'M' && data[tiff + 1] == 'M')) {
+      return NORMAL;
+    }
+    long ifd = tiff + readInt(data, tiff + 4, littleEndian);
+    if (ifd < tiff || ifd + 2 > end) {
+      return NORMAL;
+    }
+    int entries = readShort(data, (int) ifd, littleEndian);
+    for (int i = 0; i < entries; i++) {
+      int entry = (int) ifd + 2 + 12 * i;
+      if (entry + 12 > end) {
+        break;
+      }
+      if (readShort(data, entry, littleEndian) == ORIENTATION_TAG) {
+        return readShort(data, entry + 8, littleEndian);
+      }
+    }
+    return NORMAL;
+  }
+
+  /** Returns the position of the segment that follows the segment at a position, or -1. */
+  private static int nextSegment(byte[] jpeg, int pos) {
+    return segmentAt(jpeg, pos + 2 + readShort(jpeg, pos + 2, false));
+  }
+
+  /**
+   * Returns a position if a segment with a length starts there, or -1 when the compressed image
+   * data, the end of the image or malformed data is reached.
+   */
+  private static int segmentAt(byte[] jpeg, int pos) {
+    if (pos + 4 > jpeg.length || (jpeg[pos] & 0xFF) != 0xFF) {
+      return -1;
+    }
+    int marker = jpeg[pos + 1] & 0xFF;
+    return marker == 0xDA || marker == 0xD9 ? -1 : pos;
+  }
+
+  private static int readShort(byte[] data, int pos, boolean littleEndian) {
+    int first = data[pos] & 0xFF;
+    int second = data[pos + 1] & 0xFF;
+    return littleEndian ? (second << 8) | first : (first << 8) | second;
+  }
+
+  private static long readInt(byte[] data, int pos, boolean littleEndian) {
+    long high = readShort(data, littleEndian ? pos + 2 : pos, littleEndian);
+    long low = readShort(data, littleEndian ? pos : pos + 2, littleEndian);
+    return (high << 16) | low;
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.FileDownloader;
+import com.ibm.watson.visual_recognition.v3.model.GetCoreMlModelOptions;
+import com.ibm.watson.visual_recognition.v4.model.GetJpegImageOptions;
+import com.ibm.watson.visual_recognition.v4.model.GetModelFileOptions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Downloads Visual Recognition model files and images straight to disk with a {@link
+ * FileDownloader}, so that large models never pass through the heap and interrupted downloads
+ * resume where they stopped.
+ */
+public final class ModelDownloads {
+
+  private ModelDownloads() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Download a model file of a collection.
+   *
+   * @param service the Visual Recognition v4 service
+   * @param getModelFileOptions the {@link GetModelFileOptions} containing the options for the call
+   * @param destination the destination file
+   * @param downloader the downloader, which sets the resume, retry and verification behavior
+   * @return the destination file
+   * @throws IOException if the file cannot be written, or fails the size or checksum check
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   * @see com.ibm.watson.visual_recognition.v4.VisualRecognition#getModelFile(GetModelFileOptions)
+   */
+  public static Path getModelFile(
+      final com.ibm.watson.visual_recognition.v4.VisualRecognition service,
+      final GetModelFileOptions getModelFileOptions,
+      Path destination,
+      FileDownloader downloader)
+      throws IOException, InterruptedException {
+    Validator.notNull(service, "service cannot be null");
+    Validator.notNull(getModelFileOptions, "getModelFileOptions cannot be null");
+    return downloader.download(
+        new FileDownloader.Request() {
+          @Override
+          public ServiceCall<InputStream> newCall() {
+            return service.getModelFile(getModelFileOptions);
+          }
+        },
+        destination);
+  }
+
+  /**
+   * Download the JPEG representation of an image in a collection.
+   *
+   * @param service the Visual Recognition v4 service
+   * @param getJpegImageOptions the {@link GetJpegImageOptions} containing the options for the call
+   * @param destination the destination file
+   * @param downloader the downloader, which sets the resume, retry and verification behavior
+   * @return the destination file
+   * @throws IOException if the file cannot be written, or fails the size or checksum check
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   * @see com.ibm.watson.visual_recognition.v4.VisualRecognition#getJpegImage(GetJpegImageOptions)
+   */
+  public static Path getJpegImage(
+      final com.ibm.watson.visual_recognition.v4.VisualRecognition service,
+      final GetJpegImageOptions getJpegImageOptions,
+      Path destination,
+      FileDownloader downloader)
+      throws IOException, InterruptedException {
+    Validator.notNull(service, "service cannot be null");
+    Validator.notNull(getJpegImageOptions, "getJpegImageOptions cannot be null");
+    return downloader.download(
+        new FileDownloader.Request() {
+          @Override
+          public ServiceCall<InputStream> newCall() {
+            return service.getJpegImage(getJpegImageOptions);
+          }
+        },
+        destination);
+  }
+
+  /**
+   * Download the Core ML model file of a classifier.
+   *
+   * @param service the Visual Recognition v3 service
+   * @param getCoreMlModelOptions the {@link GetCoreMlModelOptions} containing the options for the
+   *     call
+   * @param destination the destination file
+   * @param downloader the downloader, which sets the resume, retry and verification behavior
+   * @return the destination file
+   * @throws IOException if the file cannot be written, or fails the size or checksum check
+   * @throws InterruptedException if the thread is interrupted while waiting to retry
+   * @see com.ibm.watson.visual_recognition.v3.VisualRecognition#getCoreMlModel(
+   *     GetCoreMlModelOptions)
+   */
+  public static Path getCoreMlModel(
+      final com.ibm.watson.visual_recognition.v3.VisualRecognition service,
+      final GetCoreMlModelOptions getCoreMlModelOptions,
+      Path destination,
+      FileDownloader downloader)
+      throws IOException, InterruptedException {
+    Validator.notNull(service, "service cannot be null");
+    Validator.notNull(getCoreMlModelOptions, "getCoreMlModelOptions cannot be null");
+    return downloader.download(
+        new FileDownloader.Request() {
+          @Override
+          public ServiceCall<InputStream> newCall() {
+            return service.getCoreMlModel(getCoreMlModelOptions);
+          }
+        },
+        destination);
+  }
+}
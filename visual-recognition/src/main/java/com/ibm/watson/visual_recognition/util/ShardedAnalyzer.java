@@ -0,0 +1,408 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.ibm.cloud.sdk.core.http.ServiceCall;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.cloud.sdk.core.service.model.FileWithMetadata;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.BulkRunner;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.visual_recognition.v4.VisualRecognition;
+import com.ibm.watson.visual_recognition.v4.model.AnalyzeOptions;
+import com.ibm.watson.visual_recognition.v4.model.AnalyzeResponse;
+import com.ibm.watson.visual_recognition.v4.model.Error;
+import com.ibm.watson.visual_recognition.v4.model.Image;
+import com.ibm.watson.visual_recognition.v4.model.ImageSource;
+import com.ibm.watson.visual_recognition.v4.model.Warning;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analyzes a large set of images with many concurrent {@link VisualRecognition#analyze} requests
+ * instead of a single one.
+ *
+ * <p>The images of an {@link AnalyzeOptions} are split into shards of at most {@code
+ * maxShardImages} images and {@code maxShardBytes} bytes, which are analyzed concurrently. The
+ * number of concurrent requests grows while requests succeed and halves whenever the service
+ * answers 429 Too Many Requests. A shard that fails is retried on its own according to a {@link
+ * RetryPolicy}; if it still fails, each of its images is reported with an {@link Error} instead of
+ * failing the whole analysis.
+ *
+ * <p>The merged response lists the images in input order: first the image files, then the image
+ * URLs. Each image file is read into memory when its shard is formed, so that the shard can be
+ * sent again; the number of concurrent requests bounds how many shards are held at a time.
+ */
+public class ShardedAnalyzer {
+  private static final Gson GSON = GsonSingleton.getGson();
+
+  private final VisualRecognition service;
+  private final int maxShardImages;
+  private final long maxShardBytes;
+  private final int initialConcurrency;
+  private final int maxConcurrency;
+  private final RetryPolicy retryPolicy;
+
+  /** Builder. */
+  public static class Builder {
+    private VisualRecognition service;
+    private int maxShardImages = 20;
+    private long maxShardBytes = 10L * 1024 * 1024;
+    private int initialConcurrency = 2;
+    private int maxConcurrency = 8;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Visual Recognition v4 service
+     */
+    public Builder(VisualRecognition service) {
+      this.service = service;
+    }
+
+    /**
+     * Builds a ShardedAnalyzer.
+     *
+     * @return the sharded analyzer
+     */
+    public ShardedAnalyzer build() {
+      return new ShardedAnalyzer(this);
+    }
+
+    /**
+     * Set the largest number of images analyzed by one request. Defaults to 20.
+     *
+     * @param maxShardImages the maximum number of images per request
+     * @return the ShardedAnalyzer builder
+     */
+    public Builder maxShardImages(int maxShardImages) {
+      this.maxShardImages = maxShardImages;
+      return this;
+    }
+
+    /**
+     * Set the largest total size of the image files of one request, in bytes. Defaults to 10 MB.
+     * An image file that is larger on its own is sent alone.
+     *
+     * @param maxShardBytes the maximum size of the image files per request
+     * @return the ShardedAnalyzer builder
+     */
+    public Builder maxShardBytes(long maxShardBytes) {
+      this.maxShardBytes = maxShardBytes;
+      return this;
+    }
+
+    /**
+     * Set the number of concurrent requests to start with. Defaults to 2.
+     *
+     * @param initialConcurrency the initial number of concurrent requests
+     * @return the ShardedAnalyzer builder
+     */
+    public Builder initialConcurrency(int initialConcurrency) {
+      this.initialConcurrency = initialConcurrency;
+      return this;
+    }
+
+    /**
+     * Set the largest number of concurrent requests. Defaults to 8.
+     *
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @return the ShardedAnalyzer builder
+     */
+    public Builder maxConcurrency(int maxConcurrency) {
+      this.maxConcurrency = maxConcurrency;
+      return this;
+    }
+
+    /**
+     * Set how failed shards are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the ShardedAnalyzer builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected ShardedAnalyzer(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.isTrue(builder.maxShardImages > 0, "maxShardImages must be positive");
+    Validator.isTrue(builder.maxShardBytes > 0, "maxShardBytes must be positive");
+    Validator.isTrue(builder.maxConcurrency > 0, "maxConcurrency must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    service = builder.service;
+    maxShardImages = builder.maxShardImages;
+    maxShardBytes = builder.maxShardBytes;
+    maxConcurrency = builder.maxConcurrency;
+    initialConcurrency = Math.max(1, Math.min(builder.initialConcurrency, maxConcurrency));
+    retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Analyzes the images of a request in concurrent shards.
+   *
+   * @param analyzeOptions the options of the request
+   * @return the merged response, with the images in input order
+   * @throws IOException if an image file cannot be read
+   * @throws InterruptedException if the thread is interrupted; requests in flight are cancelled
+   */
+  public AnalyzeResponse analyze(AnalyzeOptions analyzeOptions)
+      throws IOException, InterruptedException {
+    Validator.notNull(analyzeOptions, "analyzeOptions cannot be null");
+    List<FileWithMetadata> files =
+        analyzeOptions.imagesFile() != null
+            ? analyzeOptions.imagesFile()
+            : Collections.<FileWithMetadata>emptyList();
+    List<String> urls =
+        analyzeOptions.imageUrl() != null
+            ? analyzeOptions.imageUrl()
+            : Collections.<String>emptyList();
+    Run run = new Run(analyzeOptions, files.size() + urls.size());
+    try {
+      Shard shard = new Shard();
+      int index = 0;
+      for (FileWithMetadata file : files) {
+        byte[] data;
+        try (InputStream input = file.data()) {
+          data = Streams.readAll(input);
+        }
+        shard = run.add(shard, new Item(index++, file, data, null));
+      }
+      for (String url : urls) {
+        shard = run.add(shard, new Item(index++, null, null, url));
+      }
+      if (!shard.items.isEmpty()) {
+        run.send(shard);
+      }
+      return run.await();
+    } finally {
+      run.close();
+    }
+  }
+
+  /** The state of one call to {@code analyze}. */
+  private final class Run extends BulkRunner<Shard, AnalyzeResponse> {
+    private final AnalyzeOptions options;
+    private final List<List<Image>> images;
+    private final Set<Warning> warnings = new LinkedHashSet<Warning>();
+    private final Set<String> traces = new LinkedHashSet<String>();
+    private int pending;
+
+    private Run(AnalyzeOptions options, int size) {
+      super("sharded-analyzer", initialConcurrency, maxConcurrency, retryPolicy);
+      this.options = options;
+      images = new ArrayList<List<Image>>(Collections.<List<Image>>nCopies(size, null));
+    }
+
+    /** Adds an image to the current shard, sending the shard first if the image does not fit. */
+    private Shard add(Shard shard, Item item) throws InterruptedException {
+      sendRetries();
+      long size = item.data != null ? item.data.length : 0;
+      Shard current = shard;
+      if (!current.items.isEmpty()
+          && (current.items.size() >= maxShardImages || current.bytes + size > maxShardBytes)) {
+        send(current);
+        current = new Shard();
+      }
+      current.items.add(item);
+      current.bytes += size;
+      return current;
+    }
+
+    private AnalyzeResponse await() throws InterruptedException {
+      awaitIdle();
+      synchronized (this) {
+        return merge();
+      }
+    }
+
+    private void send(Shard shard) throws InterruptedException {
+      synchronized (this) {
+        pending++;
+      }
+      submit(shard);
+    }
+
+    @Override
+    protected boolean isIdle() {
+      return pending == 0;
+    }
+
+    @Override
+    protected ServiceCall<AnalyzeResponse> newCall(Shard shard) {
+      List<FileWithMetadata> files = new ArrayList<FileWithMetadata>();
+      List<String> urls = new ArrayList<String>();
+      for (Item item : shard.items) {
+        if (item.url != null) {
+          urls.add(item.url);
+        } else {
+          files.add(item.file.newBuilder().data(new ByteArrayInputStream(item.data)).build());
+        }
+      }
+      return service.analyze(
+          options
+              .newBuilder()
+              .imagesFile(files.isEmpty() ? null : files)
+              .imageUrl(urls.isEmpty() ? null : urls)
+              .build());
+    }
+
+    /**
+     * Assigns the images of a response to the items of its shard by file name or URL, in order, or
+     * by position when the response does not identify them. All images extracted from an archive
+     * belong to the archive.
+     */
+    @Override
+    protected synchronized void complete(Shard shard, AnalyzeResponse result) {
+      Map<String, ArrayDeque<Item>> byKey = new HashMap<String, ArrayDeque<Item>>();
+      for (Item item : shard.items) {
+        String key = item.url != null ? "url|" + item.url : "file|" + item.file.filename();
+        ArrayDeque<Item> queue = byKey.get(key);
+        if (queue == null) {
+          queue = new ArrayDeque<Item>();
+          byKey.put(key, queue);
+        }
+        queue.add(item);
+        images.set(item.index, new ArrayList<Image>());
+      }
+      List<Image> received =
+          result != null && result.getImages() != null
+              ? result.getImages()
+              : Collections.<Image>emptyList();
+      int position = 0;
+      for (Image image : received) {
+        Item item = null;
+        ImageSource source = image.getSource();
+        if (source != null && source.getArchiveFilename() != null) {
+          ArrayDeque<Item> queue = byKey.get("file|" + source.getArchiveFilename());
+          item = queue != null ? queue.peek() : null;
+        } else if (source != null) {
+          ArrayDeque<Item> queue =
+              byKey.get(
+                  ImageSource.Type.URL.equals(source.getType())
+                      ? "url|" + source.getSourceUrl()
+                      : "file|" + source.getFilename());
+          item = queue != null ? queue.poll() : null;
+        }
+        if (item == null) {
+          item = shard.items.get(Math.min(position, shard.items.size() - 1));
+        }
+        images.get(item.index).add(image);
+        position++;
+      }
+      if (result != null) {
+        if (result.getWarnings() != null) {
+          warnings.addAll(result.getWarnings());
+        }
+        if (result.getTrace() != null) {
+          traces.add(result.getTrace());
+        }
+      }
+      pending--;
+      notifyAll();
+    }
+
+    /** Reports each image of a shard that failed with the error of the request. */
+    @Override
+    protected synchronized void fail(Shard shard, Exception e) {
+      String code = Error.Code.SERVER_ERROR;
+      if (e instanceof ServiceResponseException
+          && ((ServiceResponseException) e).getStatusCode() < 500
+          && ((ServiceResponseException) e).getStatusCode() != 429) {
+        code = Error.Code.INVALID_FIELD;
+      }
+      for (Item item : shard.items) {
+        JsonObject source = new JsonObject();
+        if (item.url != null) {
+          source.addProperty("type", ImageSource.Type.URL);
+          source.addProperty("source_url", item.url);
+        } else {
+          source.addProperty("type", ImageSource.Type.FILE);
+          source.addProperty("filename", item.file.filename());
+        }
+        JsonObject error = new JsonObject();
+        error.addProperty("code", code);
+        error.addProperty("message", e.getMessage());
+        JsonArray errors = new JsonArray();
+        errors.add(error);
+        JsonObject image = new JsonObject();
+        image.add("source", source);
+        image.add("errors", errors);
+        images.set(item.index, Collections.singletonList(GSON.fromJson(image, Image.class)));
+      }
+      pending--;
+      notifyAll();
+    }
+
+    private AnalyzeResponse merge() {
+      JsonArray merged = new JsonArray();
+      for (List<Image> list : images) {
+        if (list != null) {
+          for (Image image : list) {
+            merged.add(GSON.toJsonTree(image));
+          }
+        }
+      }
+      JsonObject response = new JsonObject();
+      response.add("images", merged);
+      if (!warnings.isEmpty()) {
+        response.add("warnings", GSON.toJsonTree(new ArrayList<Warning>(warnings)));
+      }
+      if (!traces.isEmpty()) {
+        StringBuilder trace = new StringBuilder();
+        for (String id : traces) {
+          trace.append(trace.length() > 0 ? "," : "").append(id);
+        }
+        response.addProperty("trace", trace.toString());
+      }
+      return GSON.fromJson(response, AnalyzeResponse.class);
+    }
+  }
+
+  /** An image of the request, with its position in the input. */
+  private static final class Item {
+    private final int index;
+    private final FileWithMetadata file;
+    private final byte[] data;
+    private final String url;
+
+    private Item(int index, FileWithMetadata file, byte[] data, String url) {
+      this.index = index;
+      this.file = file;
+      this.data = data;
+      this.url = url;
+    }
+  }
+
+  /** The images analyzed by one request. */
+  private static final class Shard {
+    private final List<Item> items = new ArrayList<Item>();
+    private long bytes;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Reads image streams into memory. */
+final class Streams {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private Streams() {
+    // This is a utility class - no instantiation allowed.
+  }
+
+  /**
+   * Reads a stream to the end, leaving it open.
+   *
+   * @param input the stream
+   * @return the bytes of the stream
+   * @throws IOException if the stream cannot be read
+   */
+  static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,615 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.cloud.sdk.core.service.model.FileWithMetadata;
+import com.ibm.cloud.sdk.core.util.GsonSingleton;
+import com.ibm.cloud.sdk.core.util.Validator;
+import com.ibm.watson.common.DaemonThreadFactory;
+import com.ibm.watson.common.RetryPolicy;
+import com.ibm.watson.visual_recognition.v4.VisualRecognition;
+import com.ibm.watson.visual_recognition.v4.model.AddImageTrainingDataOptions;
+import com.ibm.watson.visual_recognition.v4.model.AddImagesOptions;
+import com.ibm.watson.visual_recognition.v4.model.ImageDetails;
+import com.ibm.watson.visual_recognition.v4.model.ImageDetailsList;
+import com.ibm.watson.visual_recognition.v4.model.ImageSummary;
+import com.ibm.watson.visual_recognition.v4.model.ImageSummaryList;
+import com.ibm.watson.visual_recognition.v4.model.ListImagesOptions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads object detection training data into a Visual Recognition v4 collection.
+ *
+ * <p>The images of an annotation manifest, such as a COCO-style file read by {@link
+ * AnnotatedImage#readCocoManifest(Path)}, are uploaded with {@code addImages} in batches of at
+ * most {@code maxBatchImages} images and {@code maxBatchBytes} bytes, several batches at a time.
+ * Once a batch is uploaded, the objects of each of its images are added with a single {@code
+ * addImageTrainingData} call per image. Failed requests are retried according to a {@link
+ * RetryPolicy}, except that a batch is only uploaded again when the failure shows that the service
+ * did not process it, since uploading it twice would add its images twice.
+ *
+ * <p>When a checkpoint file is set, the ID of every uploaded image and whether its training data
+ * was added are saved to it as the load progresses, so that loading the same manifest again after
+ * a failure only does what is left. An image is considered present when the checkpoint names an
+ * image ID that appears in a snapshot of {@code listImages}; the snapshot is taken once and kept
+ * up to date by the loader, and can be refreshed with {@link #refreshSnapshot()} when other
+ * clients change the collection.
+ */
+public class TrainingDataLoader implements Closeable {
+  private static final Logger LOG = Logger.getLogger(TrainingDataLoader.class.getName());
+  private static final Gson GSON = GsonSingleton.getGsonWithoutPrettyPrinting();
+
+  private final VisualRecognition service;
+  private final String collectionId;
+  private final Path checkpoint;
+  private final int maxBatchImages;
+  private final long maxBatchBytes;
+  private final RetryPolicy retryPolicy;
+  private final ExecutorService executor;
+  private Set<String> snapshot;
+
+  /** Builder. */
+  public static class Builder {
+    private VisualRecognition service;
+    private String collectionId;
+    private Path checkpoint;
+    private int maxBatchImages = 20;
+    private long maxBatchBytes = 10L * 1024 * 1024;
+    private int concurrency = 4;
+    private RetryPolicy retryPolicy = RetryPolicy.defaults();
+
+    /**
+     * Instantiates a new builder with required properties.
+     *
+     * @param service the Visual Recognition v4 service
+     * @param collectionId the ID of the collection to load
+     */
+    public Builder(VisualRecognition service, String collectionId) {
+      this.service = service;
+      this.collectionId = collectionId;
+    }
+
+    /**
+     * Builds a TrainingDataLoader.
+     *
+     * @return the training data loader
+     */
+    public TrainingDataLoader build() {
+      return new TrainingDataLoader(this);
+    }
+
+    /**
+     * Set the file that records the progress of the load. Defaults to none, in which case every
+     * image is uploaded.
+     *
+     * @param checkpoint the checkpoint file
+     * @return the TrainingDataLoader builder
+     */
+    public Builder checkpoint(Path checkpoint) {
+      this.checkpoint = checkpoint;
+      return this;
+    }
+
+    /**
+     * Set the largest number of images uploaded by one request. Defaults to 20.
+     *
+     * @param maxBatchImages the maximum number of images per request
+     * @return the TrainingDataLoader builder
+     */
+    public Builder maxBatchImages(int maxBatchImages) {
+      this.maxBatchImages = maxBatchImages;
+      return this;
+    }
+
+    /**
+     * Set the largest total size of the images uploaded by one request, in bytes. Defaults to 10
+     * MB. An image that is larger on its own is uploaded alone.
+     *
+     * @param maxBatchBytes the maximum size of the images per request
+     * @return the TrainingDataLoader builder
+     */
+    public Builder maxBatchBytes(long maxBatchBytes) {
+      this.maxBatchBytes = maxBatchBytes;
+      return this;
+    }
+
+    /**
+     * Set the number of batches loaded at the same time. Defaults to 4.
+     *
+     * @param concurrency the number of concurrent batches
+     * @return the TrainingDataLoader builder
+     */
+    public Builder concurrency(int concurrency) {
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * Set how failed requests are retried. Defaults to {@link RetryPolicy#defaults()}.
+     *
+     * @param retryPolicy the retry policy
+     * @return the TrainingDataLoader builder
+     */
+    public Builder retryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+  }
+
+  protected TrainingDataLoader(Builder builder) {
+    Validator.notNull(builder.service, "service cannot be null");
+    Validator.notNull(builder.collectionId, "collectionId cannot be null");
+    Validator.isTrue(builder.maxBatchImages > 0, "maxBatchImages must be positive");
+    Validator.isTrue(builder.maxBatchBytes > 0, "maxBatchBytes must be positive");
+    Validator.isTrue(builder.concurrency > 0, "concurrency must be positive");
+    Validator.notNull(builder.retryPolicy, "retryPolicy cannot be null");
+    service = builder.service;
+    collectionId = builder.collectionId;
+    checkpoint = builder.checkpoint;
+    maxBatchImages = builder.maxBatchImages;
+    maxBatchBytes = builder.maxBatchBytes;
+    retryPolicy = builder.retryPolicy;
+    executor =
+        Executors.newFixedThreadPool(
+            builder.concurrency, new DaemonThreadFactory("training-data-loader"));
+  }
+
+  /**
+   * Loads the images of a COCO-style manifest.
+   *
+   * @param directory the directory the image filenames are relative to
+   * @param manifest the manifest file
+   * @return what was done with each image
+   * @throws IOException if the manifest or the checkpoint cannot be read or written
+   * @throws InterruptedException if the thread is interrupted; batches in progress are cancelled
+   */
+  public TrainingLoadReport loadCoco(Path directory, Path manifest)
+      throws IOException, InterruptedException {
+    return load(directory, AnnotatedImage.readCocoManifest(manifest));
+  }
+
+  /**
+   * Loads annotated images. Images that fail are reported rather than stopping the load.
+   *
+   * @param directory the directory the image filenames are relative to
+   * @param images the annotated images
+   * @return what was done with each image
+   * @throws IOException if the checkpoint cannot be read or written
+   * @throws InterruptedException if the thread is interrupted; batches in progress are cancelled
+   */
+  public TrainingLoadReport load(Path directory, List<AnnotatedImage> images)
+      throws IOException, InterruptedException {
+    Validator.notNull(directory, "directory cannot be null");
+    Validator.notNull(images, "images cannot be null");
+    TrainingLoadReport report = new TrainingLoadReport();
+    Progress progress = Progress.read(checkpoint);
+    Set<String> present = snapshot();
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    Batch batch = new Batch();
+    for (AnnotatedImage image : images) {
+      Progress.Entry entry = progress.get(image.getFilename());
+      if (entry != null && present.contains(entry.imageId)) {
+        if (entry.trained) {
+          report.onSkipped();
+        } else {
+          futures.add(executor.submit(new Train(image, entry.imageId, progress, report)));
+        }
+        continue;
+      }
+      Path file = directory.resolve(image.getFilename());
+      long size;
+      try {
+        size = Files.size(file);
+      } catch (IOException e) {
+        report.onFailure(image.getFilename(), "Cannot read " + file + ": " + e);
+        continue;
+      }
+      if (!batch.images.isEmpty()
+          && (batch.images.size() >= maxBatchImages || batch.bytes + size > maxBatchBytes)) {
+        futures.add(executor.submit(new Upload(directory, batch, progress, report)));
+        batch = new Batch();
+      }
+      batch.images.add(image);
+      batch.bytes += size;
+    }
+    if (!batch.images.isEmpty()) {
+      futures.add(executor.submit(new Upload(directory, batch, progress, report)));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      saveProgress(progress);
+      throw e;
+    } catch (ExecutionException e) {
+      // Tasks report their failures; anything else is a bug.
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+    progress.save(checkpoint);
+    return report;
+  }
+
+  /** Takes a new snapshot of the images of the collection on the next load. */
+  public synchronized void refreshSnapshot() {
+    snapshot = null;
+  }
+
+  /** Shuts down the threads of the loader. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /** Returns the IDs of the images in the collection, listing them on first use. */
+  private synchronized Set<String> snapshot() {
+    if (snapshot == null) {
+      Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+      ImageSummaryList list =
+          service
+              .listImages(new ListImagesOptions.Builder(collectionId).build())
+              .execute()
+              .getResult();
+      if (list != null && list.getImages() != null) {
+        for (ImageSummary image : list.getImages()) {
+          ids.add(image.getImageId());
+        }
+      }
+      snapshot = ids;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Runs a request, retrying it according to the retry policy. A request that is not idempotent is
+   * only sent again when the failure shows that the service did not process it.
+   */
+  private <T> T withRetries(Callable<T> request, boolean idempotent) throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return request.call();
+      } catch (RuntimeException e) {
+        if ((!idempotent && !isUnprocessed(e)) || !retryPolicy.shouldRetry(e, attempt)) {
+          throw e;
+        }
+        TimeUnit.MILLISECONDS.sleep(retryPolicy.delayMillis(e, attempt));
+      }
+    }
+  }
+
+  /**
+   * Returns whether a failure shows that the service did not process the request: the connection
+   * could not be made, or the service answered 429 Too Many Requests or 503 Service Unavailable.
+   */
+  private static boolean isUnprocessed(Throwable e) {
+    if (RetryPolicy.isOverload(e)) {
+      return true;
+    }
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ConnectException || cause instanceof UnknownHostException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Uploads a batch of images, then adds the training data of each of them. */
+  private final class Upload implements Runnable {
+    private final Path directory;
+    private final Batch batch;
+    private final Progress progress;
+    private final TrainingLoadReport report;
+
+    private Upload(Path directory, Batch batch, Progress progress, TrainingLoadReport report) {
+      this.directory = directory;
+      this.batch = batch;
+      this.progress = progress;
+      this.report = report;
+    }
+
+    @Override
+    public void run() {
+      ImageDetailsList result;
+      try {
+        result =
+            withRetries(
+                new Callable<ImageDetailsList>() {
+                  @Override
+                  public ImageDetailsList call() throws IOException {
+                    return upload();
+                  }
+                },
+                false);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        for (AnnotatedImage image : batch.images) {
+          report.onFailure(image.getFilename(), String.valueOf(e.getMessage()));
+        }
+        return;
+      }
+      Map<String, ArrayDeque<AnnotatedImage>> byName = batch.byName();
+      List<ImageDetails> details =
+          result.getImages() != null ? result.getImages() : Collections.<ImageDetails>emptyList();
+      for (ImageDetails detail : details) {
+        String name = detail.getSource() != null ? detail.getSource().getFilename() : null;
+        ArrayDeque<AnnotatedImage> matching = byName.get(name);
+        AnnotatedImage image = matching != null ? matching.poll() : null;
+        if (image == null) {
+          continue;
+        }
+        if (detail.getImageId() == null
+            || (detail.getErrors() != null && !detail.getErrors().isEmpty())) {
+          String message =
+              detail.getErrors() != null && !detail.getErrors().isEmpty()
+                  ? detail.getErrors().get(0).getMessage()
+                  : "No image ID returned";
+          report.onFailure(image.getFilename(), message);
+          continue;
+        }
+        report.onUploaded();
+        snapshot().add(detail.getImageId());
+        progress.put(image.getFilename(), detail.getImageId(), image.getObjects().isEmpty());
+        saveProgress(progress);
+        if (image.getObjects().isEmpty()) {
+          continue;
+        }
+        new Train(image, detail.getImageId(), progress, report).run();
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+      }
+      for (ArrayDeque<AnnotatedImage> missing : byName.values()) {
+        for (AnnotatedImage image : missing) {
+          report.onFailure(image.getFilename(), "Not in the addImages response");
+        }
+      }
+    }
+
+    private ImageDetailsList upload() throws IOException {
+      List<InputStream> opened = new ArrayList<InputStream>();
+      try {
+        AddImagesOptions.Builder options = new AddImagesOptions.Builder(collectionId);
+        for (AnnotatedImage image : batch.images) {
+          Path file = directory.resolve(image.getFilename());
+          InputStream data = Files.newInputStream(file);
+          opened.add(data);
+          options.addImagesFile(
+              new FileWithMetadata.Builder()
+                  .data(data)
+                  .filename(file.getFileName().toString())
+                  .build());
+        }
+        return service.addImages(options.build()).execute().getResult();
+      } finally {
+        for (InputStream data : opened) {
+          data.close();
+        }
+      }
+    }
+  }
+
+  /** Adds the objects of an uploaded image as its training data. */
+  private final class Train implements Runnable {
+    private final AnnotatedImage image;
+    private final String imageId;
+    private final Progress progress;
+    private final TrainingLoadReport report;
+
+    private Train(
+        AnnotatedImage image, String imageId, Progress progress, TrainingLoadReport report) {
+      this.image = image;
+      this.imageId = imageId;
+      this.progress = progress;
+      this.report = report;
+    }
+
+    @Override
+    public void run() {
+      try {
+        withRetries(
+            new Callable<Object>() {
+              @Override
+              public Object call() {
+                return service
+                    .addImageTrainingData(
+                        new AddImageTrainingDataOptions.Builder(collectionId, imageId)
+                            .objects(image.getObjects())
+                            .build())
+                    .execute()
+                    .getResult();
+              }
+            },
+            true);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        report.onFailure(image.getFilename(), String.valueOf(e.getMessage()));
+        return;
+      }
+      report.onTrained();
+      progress.put(image.getFilename(), imageId, true);
+      saveProgress(progress);
+    }
+  }
+
+  private void saveProgress(Progress progress) {
+    try {
+      progress.saveIfDue(checkpoint);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Could not save the checkpoint " + checkpoint, e);
+    }
+  }
+
+  /** The images uploaded by one request. */
+  private static final class Batch {
+    private final List<AnnotatedImage> images = new ArrayList<AnnotatedImage>();
+    private long bytes;
+
+    /** Returns the images by the filename the service reports, in order. */
+    private Map<String, ArrayDeque<AnnotatedImage>> byName() {
+      Map<String, ArrayDeque<AnnotatedImage>> byName =
+          new LinkedHashMap<String, ArrayDeque<AnnotatedImage>>();
+      for (AnnotatedImage image : images) {
+        String name = image.getFilename();
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        ArrayDeque<AnnotatedImage> queue = byName.get(name);
+        if (queue == null) {
+          queue = new ArrayDeque<AnnotatedImage>();
+          byName.put(name, queue);
+        }
+        queue.add(image);
+      }
+      return byName;
+    }
+  }
+
+  /**
+   * The image IDs and training state of the images loaded so far, saved as JSON by writing a
+   * temporary file and renaming it over the checkpoint. Saving rewrites the whole file, so it
+   * happens at most once a second while loading and once at the end.
+   */
+  private static final class Progress {
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+
+    private final JsonObject images;
+    private final Object saveLock = new Object();
+    private long lastSaveMillis;
+
+    private Progress(JsonObject images) {
+      this.images = images;
+    }
+
+    private static Progress read(Path checkpoint) throws IOException {
+      if (checkpoint == null || !Files.exists(checkpoint)) {
+        return new Progress(new JsonObject());
+      }
+      try (Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+        JsonElement json = new JsonParser().parse(reader);
+        JsonElement images = json.isJsonObject() ? json.getAsJsonObject().get("images") : null;
+        return new Progress(
+            images != null && images.isJsonObject() ? images.getAsJsonObject() : new JsonObject());
+      }
+    }
+
+    private synchronized Entry get(String filename) {
+      JsonElement entry = images.get(filename);
+      if (entry == null || !entry.isJsonObject()) {
+        return null;
+      }
+      JsonObject json = entry.getAsJsonObject();
+      JsonElement trained = json.get("trained");
+      return new Entry(
+          json.get("image_id").getAsString(), trained != null && trained.getAsBoolean());
+    }
+
+    private synchronized void put(String filename, String imageId, boolean trained) {
+      JsonObject entry = new JsonObject();
+      entry.addProperty("image_id", imageId);
+      entry.addProperty("trained", trained);
+      images.add(filename, entry);
+    }
+
+    /** Saves the progress unless it was saved less than a second ago. */
+    private void saveIfDue(Path checkpoint) throws IOException {
+      synchronized (saveLock) {
+        if (System.currentTimeMillis() - lastSaveMillis >= SAVE_INTERVAL_MILLIS) {
+          save(checkpoint);
+        }
+      }
+    }
+
+    private void save(Path checkpoint) throws IOException {
+      if (checkpoint == null) {
+        return;
+      }
+      synchronized (saveLock) {
+        String json;
+        synchronized (this) {
+          JsonObject root = new JsonObject();
+          root.add("images", images);
+          json = GSON.toJson(root);
+        }
+        Path directory = checkpoint.toAbsolutePath().getParent();
+        Path partial =
+            Files.createTempFile(directory, checkpoint.getFileName().toString(), ".part");
+        try {
+          try (Writer writer = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            writer.write(json);
+          }
+          try {
+            Files.move(
+                partial,
+                checkpoint,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+          } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+          }
+        } finally {
+          Files.deleteIfExists(partial);
+        }
+        lastSaveMillis = System.currentTimeMillis();
+      }
+    }
+
+    /** The saved state of one image. */
+    private static final class Entry {
+      private final String imageId;
+      private final boolean trained;
+
+      private Entry(String imageId, boolean trained) {
+        this.imageId = imageId;
+        this.trained = trained;
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2020.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.visual_recognition.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Counts what a {@link TrainingDataLoader} did with the images of a manifest. */
+public class TrainingLoadReport {
+  private final AtomicInteger uploaded = new AtomicInteger();
+  private final AtomicInteger skipped = new AtomicInteger();
+  private final AtomicInteger trained = new AtomicInteger();
+  private final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+  void onUploaded() {
+    uploaded.incrementAndGet();
+  }
+
+  void onSkipped() {
+    skipped.incrementAndGet();
+  }
+
+  void onTrained() {
+    trained.incrementAndGet();
+  }
+
+  synchronized void onFailure(String filename, String message) {
+    failures.put(filename, message);
+  }
+
+  /**
+   * Gets the number of images uploaded.
+   *
+   * @return the number of uploaded images
+   */
+  public int getUploadedCount() {
+    return uploaded.get();
+  }
+
+  /**
+   * Gets the number of images that were already in the collection with their training data.
+   *
+   * @return the number of skipped images
+   */
+  public int getSkippedCount() {
+    return skipped.get();
+  }
+
+  /**
+   * Gets the number of images whose training data was added.
+   *
+   * @return the number of trained images
+   */
+  public int getTrainedCount() {
+    return trained.get();
+  }
+
+  /**
+   * Gets the images that could not be uploaded or trained, with the reason. Loading the same
+   * manifest again retries them.
+   *
+   * @return the error messages by image filename
+   */
+  public synchronized Map<String, String> getFailures() {
+    return Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+  }
+
+  @Override
+  public String toString() {
+    return "uploaded="
+        + getUploadedCount()
+        + ", skipped="
+        + getSkippedCount()
+        + ", trained="
+        + getTrainedCount()
+        + ", failed="
+        + getFailures().size();
+  }
+}
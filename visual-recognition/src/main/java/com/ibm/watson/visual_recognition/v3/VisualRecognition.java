@@ -125,46 +125,34 @@ public class VisualRecognition extends BaseService {
             || (classifyOptions.owners() != null)
             || (classifyOptions.classifierIds() != null),
         "At least one of imagesFile, url, threshold, owners, or classifierIds must be supplied.");
-    String[] pathSegments = {"v3/classify"};
-    RequestBuilder builder =
-        RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
-    builder.query("version", versionDate);
-    Map<String, String> sdkHeaders =
-        SdkCommon.getSdkHeaders("watson_vision_combined", "v3", "classify");
-    for (Entry<String, String> header : sdkHeaders.entrySet()) {
-      builder.header(header.getKey(), header.getValue());
-    }
-    builder.header("Accept", "application/json");
-    if (classifyOptions.acceptLanguage() != null) {
-      builder.header("Accept-Language", classifyOptions.acceptLanguage());
-    }
-    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
-    multipartBuilder.setType(MultipartBody.FORM);
+    okhttp3.RequestBody imagesFileBody = null;
     if (classifyOptions.imagesFile() != null) {
-      okhttp3.RequestBody imagesFileBody =
+      imagesFileBody =
           RequestUtils.inputStreamBody(
               classifyOptions.imagesFile(), classifyOptions.imagesFileContentType());
-      multipartBuilder.addFormDataPart(
-          "images_file", classifyOptions.imagesFilename(), imagesFileBody);
     }
-    if (classifyOptions.url() != null) {
-      multipartBuilder.addFormDataPart("url", classifyOptions.url());
-    }
-    if (classifyOptions.threshold() != null) {
-      multipartBuilder.addFormDataPart("threshold", String.valueOf(classifyOptions.threshold()));
-    }
-    if (classifyOptions.owners() != null) {
-      multipartBuilder.addFormDataPart("owners", RequestUtils.join(classifyOptions.owners(), ","));
-    }
-    if (classifyOptions.classifierIds() != null) {
-      multipartBuilder.addFormDataPart(
-          "classifier_ids", RequestUtils.join(classifyOptions.classifierIds(), ","));
-    }
-    builder.body(multipartBuilder.build());
-    ResponseConverter<ClassifiedImages> responseConverter =
-        ResponseConverterUtils.getValue(
-            new com.google.gson.reflect.TypeToken<ClassifiedImages>() {}.getType());
-    return createServiceCall(builder.build(), responseConverter);
+    return classify(classifyOptions, imagesFileBody, classifyOptions.imagesFilename());
+  }
+
+  /**
+   * Classify images, sending the images file from a request body.
+   *
+   * <p>Behaves like {@link #classify(ClassifyOptions)}, except that the images file is written by
+   * the given body while the request is sent, so a large zip file never has to be held in memory.
+   * The images file of the options is ignored; its filename defaults to {@code images.zip}.
+   *
+   * @param classifyOptions the {@link ClassifyOptions} containing the other options for the call
+   * @param imagesFile the body that writes the images file
+   * @return a {@link ServiceCall} with a response type of {@link ClassifiedImages}
+   */
+  public ServiceCall<ClassifiedImages> classify(
+      ClassifyOptions classifyOptions, okhttp3.RequestBody imagesFile) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(
+        classifyOptions, "classifyOptions cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.notNull(imagesFile, "imagesFile cannot be null");
+    String imagesFilename =
+        classifyOptions.imagesFilename() != null ? classifyOptions.imagesFilename() : "images.zip";
+    return classify(classifyOptions, imagesFile, imagesFilename);
   }
 
   /**
@@ -241,6 +229,48 @@ public class VisualRecognition extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Create a classifier, sending the example files from request bodies.
+   *
+   * <p>Behaves like {@link #createClassifier(CreateClassifierOptions)}, except that each zip file
+   * of examples is written by its body while the request is sent, so large training sets never
+   * have to be held in memory.
+   *
+   * @param name the name of the new classifier
+   * @param positiveExamples the bodies that write the zip files of positive examples, by class
+   *     name
+   * @param negativeExamples the body that writes the zip file of negative examples, or null
+   * @return a {@link ServiceCall} with a response type of {@link Classifier}
+   */
+  public ServiceCall<Classifier> createClassifier(
+      String name,
+      Map<String, okhttp3.RequestBody> positiveExamples,
+      okhttp3.RequestBody negativeExamples) {
+    com.ibm.cloud.sdk.core.util.Validator.notNull(name, "name cannot be null");
+    com.ibm.cloud.sdk.core.util.Validator.isTrue(
+        positiveExamples != null && !positiveExamples.isEmpty(),
+        "positiveExamples cannot be null or empty");
+    String[] pathSegments = {"v3/classifiers"};
+    RequestBuilder builder =
+        RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders =
+        SdkCommon.getSdkHeaders("watson_vision_combined", "v3", "createClassifier");
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    multipartBuilder.addFormDataPart("name", name);
+    addExamples(multipartBuilder, positiveExamples, negativeExamples);
+    builder.body(multipartBuilder.build());
+    ResponseConverter<Classifier> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<Classifier>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Retrieve a list of classifiers.
    *
@@ -383,6 +413,49 @@ public class VisualRecognition extends BaseService {
     return createServiceCall(builder.build(), responseConverter);
   }
 
+  /**
+   * Update a classifier, sending the example files from request bodies.
+   *
+   * <p>Behaves like {@link #updateClassifier(UpdateClassifierOptions)}, except that each zip file
+   * of examples is written by its body while the request is sent, so large training sets never
+   * have to be held in memory.
+   *
+   * @param classifierId the ID of the classifier
+   * @param positiveExamples the bodies that write the zip files of positive examples, by class
+   *     name, or null
+   * @param negativeExamples the body that writes the zip file of negative examples, or null
+   * @return a {@link ServiceCall} with a response type of {@link Classifier}
+   */
+  public ServiceCall<Classifier> updateClassifier(
+      String classifierId,
+      Map<String, okhttp3.RequestBody> positiveExamples,
+      okhttp3.RequestBody negativeExamples) {
+    com.ibm.cloud.sdk.core.util.Validator.notEmpty(classifierId, "classifierId cannot be empty");
+    com.ibm.cloud.sdk.core.util.Validator.isTrue(
+        (positiveExamples != null && !positiveExamples.isEmpty()) || (negativeExamples != null),
+        "At least one of positiveExamples or negativeExamples must be supplied.");
+    String[] pathSegments = {"v3/classifiers"};
+    String[] pathParameters = {classifierId};
+    RequestBuilder builder =
+        RequestBuilder.post(
+            RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments, pathParameters));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders =
+        SdkCommon.getSdkHeaders("watson_vision_combined", "v3", "updateClassifier");
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    addExamples(multipartBuilder, positiveExamples, negativeExamples);
+    builder.body(multipartBuilder.build());
+    ResponseConverter<Classifier> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<Classifier>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
   /**
    * Delete a classifier.
    *
@@ -472,4 +545,60 @@ public class VisualRecognition extends BaseService {
     ResponseConverter<Void> responseConverter = ResponseConverterUtils.getVoid();
     return createServiceCall(builder.build(), responseConverter);
   }
+
+  private ServiceCall<ClassifiedImages> classify(
+      ClassifyOptions classifyOptions, okhttp3.RequestBody imagesFileBody, String imagesFilename) {
+    String[] pathSegments = {"v3/classify"};
+    RequestBuilder builder =
+        RequestBuilder.post(RequestBuilder.constructHttpUrl(getServiceUrl(), pathSegments));
+    builder.query("version", versionDate);
+    Map<String, String> sdkHeaders =
+        SdkCommon.getSdkHeaders("watson_vision_combined", "v3", "classify");
+    for (Entry<String, String> header : sdkHeaders.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    builder.header("Accept", "application/json");
+    if (classifyOptions.acceptLanguage() != null) {
+      builder.header("Accept-Language", classifyOptions.acceptLanguage());
+    }
+    MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
+    multipartBuilder.setType(MultipartBody.FORM);
+    if (imagesFileBody != null) {
+      multipartBuilder.addFormDataPart("images_file", imagesFilename, imagesFileBody);
+    }
+    if (classifyOptions.url() != null) {
+      multipartBuilder.addFormDataPart("url", classifyOptions.url());
+    }
+    if (classifyOptions.threshold() != null) {
+      multipartBuilder.addFormDataPart("threshold", String.valueOf(classifyOptions.threshold()));
+    }
+    if (classifyOptions.owners() != null) {
+      multipartBuilder.addFormDataPart("owners", RequestUtils.join(classifyOptions.owners(), ","));
+    }
+    if (classifyOptions.classifierIds() != null) {
+      multipartBuilder.addFormDataPart(
+          "classifier_ids", RequestUtils.join(classifyOptions.classifierIds(), ","));
+    }
+    builder.body(multipartBuilder.build());
+    ResponseConverter<ClassifiedImages> responseConverter =
+        ResponseConverterUtils.getValue(
+            new com.google.gson.reflect.TypeToken<ClassifiedImages>() {}.getType());
+    return createServiceCall(builder.build(), responseConverter);
+  }
+
+  /** Adds zip files of examples written by request bodies to a training request. */
+  private static void addExamples(
+      MultipartBody.Builder multipartBuilder,
+      Map<String, okhttp3.RequestBody> positiveExamples,
+      okhttp3.RequestBody negativeExamples) {
+    if (positiveExamples != null) {
+      for (Map.Entry<String, okhttp3.RequestBody> entry : positiveExamples.entrySet()) {
+        String partName = String.format("%s_positive_examples", entry.getKey());
+        multipartBuilder.addFormDataPart(partName, entry.getKey() + ".zip", entry.getValue());
+      }
+    }
+    if (negativeExamples != null) {
+      multipartBuilder.addFormDataPart("negative_examples", "negative.zip", negativeExamples);
+    }
+  }
 }
@@ -14,13 +14,16 @@ package com.ibm.watson.visual_recognition.v3;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.http.HttpMediaType;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
 import com.ibm.watson.common.WatsonServiceUnitTest;
+import com.ibm.watson.visual_recognition.util.ImageZipPacker;
 import com.ibm.watson.visual_recognition.v3.model.ClassifiedImages;
 import com.ibm.watson.visual_recognition.v3.model.Classifier;
 import com.ibm.watson.visual_recognition.v3.model.ClassifyOptions;
@@ -35,9 +38,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import okhttp3.RequestBody;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import okio.Buffer;
@@ -350,4 +359,92 @@ public class VisualRecognitionTest extends WatsonServiceUnitTest {
 
     assertEquals(deleteOptions.customerId(), customerId);
   }
+
+  /**
+   * Test that the image zip packer splits images into zip files by count and size, stores JPEG
+   * images, and merges the results of one classify request per zip file.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   * @throws InterruptedException the interrupted exception
+   */
+  @Test
+  public void testImageZipPacker() throws IOException, InterruptedException {
+    File directory = Files.createTempDir();
+    List<Path> images = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      byte[] data = new byte[1000];
+      Arrays.fill(data, (byte) i);
+      data[0] = (byte) 0xFF;
+      data[1] = (byte) 0xD8;
+      File image = new File(directory, "image" + i + ".jpg");
+      Files.write(data, image);
+      images.add(image.toPath());
+    }
+    ImageZipPacker packer = new ImageZipPacker.Builder().maxImages(2).build();
+
+    List<Integer> counts = new ArrayList<>();
+    Iterator<RequestBody> zipFiles = packer.packFiles(images);
+    while (zipFiles.hasNext()) {
+      int count = 0;
+      Buffer buffer = new Buffer();
+      zipFiles.next().writeTo(buffer);
+      try (ZipInputStream zip = new ZipInputStream(buffer.inputStream())) {
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+          int index = 2 * counts.size() + count;
+          assertEquals(ZipEntry.STORED, entry.getMethod());
+          assertEquals("image" + index + ".jpg", entry.getName());
+          byte[] data = ByteStreams.toByteArray(zip);
+          assertEquals(1000, data.length);
+          assertEquals(index, data[999]);
+          count++;
+        }
+      }
+      counts.add(count);
+    }
+    assertEquals(Arrays.asList(2, 2, 1), counts);
+
+    // 1000-byte images with their headers do not fit two to a 2000-byte zip file.
+    packer = new ImageZipPacker.Builder().maxBytes(2000).build();
+    ClassifiedImages mockResponse = loadFixture(FIXTURE_CLASSIFICATION, ClassifiedImages.class);
+    for (int i = 0; i < 5; i++) {
+      server.enqueue(jsonResponse(mockResponse));
+    }
+    ClassifiedImages result =
+        packer.classify(service, new ClassifyOptions.Builder().build(), packer.packFiles(images));
+
+    assertEquals(5, server.getRequestCount());
+    assertEquals(5 * mockResponse.getImagesProcessed(), (long) result.getImagesProcessed());
+    assertEquals(5 * mockResponse.getImages().size(), result.getImages().size());
+    RecordedRequest request = server.takeRequest();
+    assertTrue(request.getPath().startsWith(PATH_CLASSIFY));
+    assertTrue(request.getBody().readUtf8().contains("filename=\"images.zip\""));
+  }
+
+  /**
+   * Test that an image that cannot be read while a zip file is sent fails the request instead of
+   * uploading a truncated zip file.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Test
+  public void testImageZipPackerReadFailure() throws IOException {
+    File directory = Files.createTempDir();
+    List<Path> images = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      File image = new File(directory, "image" + i + ".png");
+      Files.write(new byte[1000], image);
+      images.add(image.toPath());
+    }
+    ImageZipPacker packer = new ImageZipPacker.Builder().build();
+    RequestBody zipFile = packer.packFiles(images).next();
+    assertTrue(images.get(1).toFile().delete());
+
+    server.enqueue(jsonResponse(loadFixture(FIXTURE_CLASSIFICATION, ClassifiedImages.class)));
+    try {
+      service.classify(new ClassifyOptions.Builder().build(), zipFile).execute();
+      fail("The request should fail when an image cannot be read");
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
 }
@@ -12,15 +12,30 @@
  */
 package com.ibm.watson.visual_recognition.v4;
 
+import static junit.framework.TestCase.assertFalse;
 import static junit.framework.TestCase.assertNotNull;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.ibm.cloud.sdk.core.security.Authenticator;
 import com.ibm.cloud.sdk.core.security.NoAuthAuthenticator;
 import com.ibm.cloud.sdk.core.service.model.FileWithMetadata;
+import com.ibm.watson.common.FileDownloader;
+import com.ibm.watson.common.RetryPolicy;
 import com.ibm.watson.common.WatsonServiceUnitTest;
+import com.ibm.watson.visual_recognition.util.AnnotatedImage;
+import com.ibm.watson.visual_recognition.util.ImagePreprocessor;
+import com.ibm.watson.visual_recognition.util.ModelDownloads;
+import com.ibm.watson.visual_recognition.util.ShardedAnalyzer;
+import com.ibm.watson.visual_recognition.util.TrainingDataLoader;
+import com.ibm.watson.visual_recognition.util.TrainingLoadReport;
+import com.ibm.watson.visual_recognition.v3.model.ClassifyOptions;
 import com.ibm.watson.visual_recognition.v4.model.AddImageTrainingDataOptions;
 import com.ibm.watson.visual_recognition.v4.model.AddImagesOptions;
 import com.ibm.watson.visual_recognition.v4.model.AnalyzeOptions;
@@ -35,6 +50,7 @@ import com.ibm.watson.visual_recognition.v4.model.DeleteUserDataOptions;
 import com.ibm.watson.visual_recognition.v4.model.GetCollectionOptions;
 import com.ibm.watson.visual_recognition.v4.model.GetImageDetailsOptions;
 import com.ibm.watson.visual_recognition.v4.model.GetJpegImageOptions;
+import com.ibm.watson.visual_recognition.v4.model.GetModelFileOptions;
 import com.ibm.watson.visual_recognition.v4.model.GetObjectMetadataOptions;
 import com.ibm.watson.visual_recognition.v4.model.GetTrainingUsageOptions;
 import com.ibm.watson.visual_recognition.v4.model.ImageDetails;
@@ -55,15 +71,35 @@ import com.ibm.watson.visual_recognition.v4.model.TrainingStatus;
 import com.ibm.watson.visual_recognition.v4.model.UpdateCollectionOptions;
 import com.ibm.watson.visual_recognition.v4.model.UpdateObjectMetadata;
 import com.ibm.watson.visual_recognition.v4.model.UpdateObjectMetadataOptions;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.RecordedRequest;
 import okio.Buffer;
@@ -925,4 +961,474 @@ public class VisualRecognitionTest extends WatsonServiceUnitTest {
 
     assertEquals("DELETE", request.getMethod());
   }
+
+  /**
+   * Test that the image preprocessor downscales images, applies the EXIF orientation and strips the
+   * metadata.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Test
+  public void testImagePreprocessor() throws IOException {
+    BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.RED);
+    graphics.fillRect(0, 0, 200, 200);
+    graphics.setColor(Color.BLUE);
+    graphics.fillRect(200, 0, 200, 200);
+    graphics.dispose();
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpeg", encoded);
+    byte[] jpeg = encoded.toByteArray();
+    // An EXIF segment with orientation 6: the camera was rotated 90 degrees clockwise.
+    byte[] exif = {
+      (byte) 0xFF, (byte) 0xE1, 0, 34, 'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 0x2A, 0, 0, 0, 8, 0,
+      1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0
+    };
+    ByteArrayOutputStream photo = new ByteArrayOutputStream();
+    photo.write(jpeg, 0, 2);
+    photo.write(exif);
+    photo.write(jpeg, 2, jpeg.length - 2);
+    byte[] giraffe = Files.toByteArray(new File(RESOURCE + "giraffe_to_classify.jpg"));
+
+    AnalyzeOptions options =
+        new AnalyzeOptions.Builder()
+            .addCollectionIds(COLLECTION_ID)
+            .addFeatures(AnalyzeOptions.Features.OBJECTS)
+            .addImagesFile(
+                new FileWithMetadata.Builder()
+                    .data(new ByteArrayInputStream(photo.toByteArray()))
+                    .filename("photo.jpg")
+                    .build())
+            .addImagesFile(
+                new FileWithMetadata.Builder()
+                    .data(new ByteArrayInputStream(giraffe))
+                    .filename("giraffe.jpg")
+                    .build())
+            .build();
+    AnalyzeOptions processed;
+    try (ImagePreprocessor preprocessor =
+        new ImagePreprocessor.Builder().maxDimension(100).threads(2).build()) {
+      processed = preprocessor.preprocess(options);
+    }
+
+    byte[] upright = ByteStreams.toByteArray(processed.imagesFile().get(0).data());
+    BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(upright));
+    assertEquals(50, decoded.getWidth());
+    assertEquals(100, decoded.getHeight());
+    assertTrue(new Color(decoded.getRGB(25, 20)).getRed() > 200);
+    assertTrue(new Color(decoded.getRGB(25, 80)).getBlue() > 200);
+    assertTrue(!new String(upright, "ISO-8859-1").contains("Exif"));
+
+    byte[] smaller = ByteStreams.toByteArray(processed.imagesFile().get(1).data());
+    decoded = ImageIO.read(new ByteArrayInputStream(smaller));
+    assertEquals(100, Math.max(decoded.getWidth(), decoded.getHeight()));
+    assertTrue(smaller.length < giraffe.length);
+    assertEquals("giraffe.jpg", processed.imagesFile().get(1).filename());
+  }
+
+  /**
+   * Test that the image preprocessor keeps the entry names of a zip file unique when re-encoded
+   * images are renamed.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Test
+  public void testImagePreprocessorZipNames() throws IOException {
+    BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", png);
+    byte[] giraffe = Files.toByteArray(new File(RESOURCE + "giraffe_to_classify.jpg"));
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    try (ZipOutputStream output = new ZipOutputStream(zip)) {
+      String[] names = {"a.png", "a.jpg", "a-2.jpg", "notes.txt"};
+      byte[][] contents = {png.toByteArray(), giraffe, giraffe, {1, 2, 3}};
+      for (int i = 0; i < names.length; i++) {
+        output.putNextEntry(new ZipEntry(names[i]));
+        output.write(contents[i]);
+        output.closeEntry();
+      }
+    }
+    ClassifyOptions options =
+        new ClassifyOptions.Builder()
+            .imagesFile(new ByteArrayInputStream(zip.toByteArray()))
+            .imagesFilename("images.zip")
+            .build();
+
+    ClassifyOptions processed;
+    try (ImagePreprocessor preprocessor =
+        new ImagePreprocessor.Builder().maxDimension(100).threads(2).build()) {
+      processed = preprocessor.preprocess(options);
+    }
+
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream input = new ZipInputStream(processed.imagesFile())) {
+      for (ZipEntry entry = input.getNextEntry(); entry != null; entry = input.getNextEntry()) {
+        names.add(entry.getName());
+      }
+    }
+    assertEquals(Arrays.asList("a-3.jpg", "a.jpg", "a-2.jpg", "notes.txt"), names);
+  }
+
+  /**
+   * Test that the sharded analyzer merges the shards in input order, retries only the shard that
+   * failed, and reports the images of a shard that cannot be analyzed as errors.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testShardedAnalyzer() throws Exception {
+    ShardDispatcher dispatcher = new ShardDispatcher();
+    server.setDispatcher(dispatcher);
+    String[] names = {"a0.jpg", "a1.jpg", "a2.jpg", "a3.jpg", "bad.jpg", "a5.jpg"};
+    AnalyzeOptions.Builder builder =
+        new AnalyzeOptions.Builder()
+            .addCollectionIds(COLLECTION_ID)
+            .addFeatures(AnalyzeOptions.Features.OBJECTS);
+    for (String name : names) {
+      builder.addImagesFile(
+          new FileWithMetadata.Builder()
+              .data(new ByteArrayInputStream(name.getBytes("UTF-8")))
+              .filename(name)
+              .build());
+    }
+    ShardedAnalyzer analyzer =
+        new ShardedAnalyzer.Builder(service)
+            .maxShardImages(2)
+            .retryPolicy(
+                new RetryPolicy.Builder().initialDelay(10, TimeUnit.MILLISECONDS).build())
+            .build();
+
+    AnalyzeResponse response = analyzer.analyze(builder.build());
+
+    assertEquals(names.length, response.getImages().size());
+    for (int i = 0; i < names.length; i++) {
+      assertEquals(names[i], response.getImages().get(i).getSource().getFilename());
+    }
+    assertEquals(null, response.getImages().get(3).getErrors());
+    assertEquals(1, response.getImages().get(4).getErrors().size());
+    assertEquals(1, response.getImages().get(5).getErrors().size());
+    // Three shards, and one retry of the shard that was unavailable.
+    assertEquals(4, dispatcher.requests.get());
+  }
+
+  /**
+   * Answers analyze requests with the image files in reverse order. The first request with a3.jpg
+   * fails with 503 and requests with bad.jpg fail with 400.
+   */
+  private static class ShardDispatcher extends Dispatcher {
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]+)\"");
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger unavailable = new AtomicInteger();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      requests.incrementAndGet();
+      List<String> filenames = new ArrayList<>();
+      Matcher matcher = FILENAME.matcher(request.getBody().readUtf8());
+      while (matcher.find()) {
+        filenames.add(0, matcher.group(1));
+      }
+      if (filenames.contains("bad.jpg")) {
+        return new MockResponse().setResponseCode(400).setBody("{\"error\":\"bad image\"}");
+      }
+      if (filenames.contains("a3.jpg") && unavailable.getAndIncrement() == 0) {
+        return new MockResponse().setResponseCode(503).setBody("{\"error\":\"unavailable\"}");
+      }
+      JsonArray images = new JsonArray();
+      for (String filename : filenames) {
+        JsonObject source = new JsonObject();
+        source.addProperty("type", "file");
+        source.addProperty("filename", filename);
+        JsonObject image = new JsonObject();
+        image.add("source", source);
+        images.add(image);
+      }
+      JsonObject result = new JsonObject();
+      result.add("images", images);
+      return jsonResponse(result);
+    }
+  }
+
+  /**
+   * Test that the training data loader uploads the images of a COCO manifest in batches, adds
+   * their objects, and resumes from its checkpoint without uploading images again.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testTrainingDataLoader() throws Exception {
+    TrainingDispatcher dispatcher = new TrainingDispatcher();
+    server.setDispatcher(dispatcher);
+    Path directory = Files.createTempDir().toPath();
+    for (String name : new String[] {"a.jpg", "b.jpg", "c.jpg"}) {
+      Files.write(name.getBytes(StandardCharsets.UTF_8), directory.resolve(name).toFile());
+    }
+    String manifest =
+        "{\"categories\": [{\"id\": 1, \"name\": \"giraffe\"}],"
+            + " \"images\": [{\"id\": 1, \"file_name\": \"a.jpg\"},"
+            + " {\"id\": 2, \"file_name\": \"b.jpg\"}, {\"id\": 3, \"file_name\": \"c.jpg\"}],"
+            + " \"annotations\": [{\"image_id\": 1, \"category_id\": 1, \"bbox\": [1, 2, 3, 4]},"
+            + " {\"image_id\": 2, \"category_id\": 1, \"bbox\": [5, 6, 7, 8]}]}";
+    Path manifestFile = directory.resolve("manifest.json");
+    Files.write(manifest.getBytes(StandardCharsets.UTF_8), manifestFile.toFile());
+    Path checkpoint = directory.resolve("checkpoint.json");
+
+    TrainingLoadReport report;
+    try (TrainingDataLoader loader =
+        new TrainingDataLoader.Builder(service, COLLECTION_ID)
+            .checkpoint(checkpoint)
+            .maxBatchImages(2)
+            .build()) {
+      report = loader.loadCoco(directory, manifestFile);
+    }
+    assertEquals(3, report.getUploadedCount());
+    assertEquals(1, report.getTrainedCount());
+    assertEquals(Collections.singleton("b.jpg"), report.getFailures().keySet());
+    assertEquals(2, dispatcher.uploads.get());
+
+    try (TrainingDataLoader loader =
+        new TrainingDataLoader.Builder(service, COLLECTION_ID).checkpoint(checkpoint).build()) {
+      report = loader.loadCoco(directory, manifestFile);
+    }
+    assertEquals(0, report.getUploadedCount());
+    assertEquals(2, report.getSkippedCount());
+    assertEquals(1, report.getTrainedCount());
+    assertTrue(report.getFailures().isEmpty());
+    assertEquals(2, dispatcher.uploads.get());
+    assertEquals(
+        "{\"objects\":[{\"object\":\"giraffe\",\"location\":"
+            + "{\"top\":6,\"left\":5,\"width\":7,\"height\":8}}]}",
+        dispatcher.trainingData);
+  }
+
+  /**
+   * Test that the training data loader only uploads a batch again when the failure shows that the
+   * service did not process it, so that no image is added twice.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testTrainingDataLoaderUploadRetries() throws Exception {
+    Path directory = Files.createTempDir().toPath();
+    List<AnnotatedImage> images = new ArrayList<>();
+    for (String name : new String[] {"a.jpg", "c.jpg"}) {
+      Files.write(name.getBytes(StandardCharsets.UTF_8), directory.resolve(name).toFile());
+      images.add(new AnnotatedImage(name, Collections.<TrainingDataObject>emptyList()));
+    }
+    RetryPolicy retryPolicy =
+        new RetryPolicy.Builder().initialDelay(1, TimeUnit.MILLISECONDS).build();
+
+    TrainingDispatcher dispatcher = new TrainingDispatcher();
+    dispatcher.firstUploadStatus = 429;
+    server.setDispatcher(dispatcher);
+    TrainingLoadReport report;
+    try (TrainingDataLoader loader =
+        new TrainingDataLoader.Builder(service, COLLECTION_ID).retryPolicy(retryPolicy).build()) {
+      report = loader.load(directory, images);
+    }
+    assertEquals(2, report.getUploadedCount());
+    assertEquals(2, dispatcher.uploads.get());
+
+    dispatcher = new TrainingDispatcher();
+    dispatcher.firstUploadStatus = 500;
+    server.setDispatcher(dispatcher);
+    try (TrainingDataLoader loader =
+        new TrainingDataLoader.Builder(service, COLLECTION_ID).retryPolicy(retryPolicy).build()) {
+      report = loader.load(directory, images);
+    }
+    assertEquals(0, report.getUploadedCount());
+    assertEquals(2, report.getFailures().size());
+    assertEquals(1, dispatcher.uploads.get());
+  }
+
+  /**
+   * Answers the image operations of a collection, naming each uploaded image after its file. The
+   * first training request for b.jpg fails with 400, and the first upload fails with {@code
+   * firstUploadStatus} if it is set.
+   */
+  private static class TrainingDispatcher extends Dispatcher {
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]+)\"");
+    private final Set<String> imageIds =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private volatile int firstUploadStatus;
+    private volatile String trainingData;
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String path = request.getPath();
+      JsonArray images = new JsonArray();
+      if (path.contains("/training_data")) {
+        if (path.contains("image-b.jpg") && rejected.getAndIncrement() == 0) {
+          return new MockResponse().setResponseCode(400).setBody("{\"error\":\"rejected\"}");
+        }
+        trainingData = request.getBody().readUtf8();
+        return jsonResponse(new JsonObject());
+      } else if ("GET".equals(request.getMethod())) {
+        for (String imageId : imageIds) {
+          JsonObject image = new JsonObject();
+          image.addProperty("image_id", imageId);
+          images.add(image);
+        }
+      } else {
+        if (uploads.incrementAndGet() == 1 && firstUploadStatus != 0) {
+          return new MockResponse()
+              .setResponseCode(firstUploadStatus)
+              .setBody("{\"error\":\"upload failed\"}");
+        }
+        Matcher matcher = FILENAME.matcher(request.getBody().readUtf8());
+        while (matcher.find()) {
+          JsonObject source = new JsonObject();
+          source.addProperty("type", "file");
+          source.addProperty("filename", matcher.group(1));
+          JsonObject image = new JsonObject();
+          image.addProperty("image_id", "image-" + matcher.group(1));
+          image.add("source", source);
+          images.add(image);
+          imageIds.add("image-" + matcher.group(1));
+        }
+      }
+      JsonObject result = new JsonObject();
+      result.add("images", images);
+      return jsonResponse(result);
+    }
+  }
+
+  /**
+   * Test that a model file download resumes an existing partial file with a range request guarded
+   * by its validator, verifies its checksum and leaves no partial file behind, and that a checksum
+   * mismatch fails.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testModelDownloads() throws Exception {
+    byte[] model = newModel();
+    RangeDispatcher dispatcher = new RangeDispatcher(model);
+    server.setDispatcher(dispatcher);
+    Path destination = Files.createTempDir().toPath().resolve("model.tflite");
+    Path partial = FileDownloader.partialFile(destination);
+    Path validator = FileDownloader.validatorFile(partial);
+    Files.write(Arrays.copyOf(model, 40000), partial.toFile());
+    Files.write(RangeDispatcher.ETAG.getBytes("UTF-8"), validator.toFile());
+    GetModelFileOptions options =
+        new GetModelFileOptions.Builder(COLLECTION_ID, "objects", "tflite").build();
+
+    ModelDownloads.getModelFile(
+        service,
+        options,
+        destination,
+        new FileDownloader.Builder()
+            .blockSize(4096)
+            .checksum("SHA-256", Hashing.sha256().hashBytes(model).toString())
+            .build());
+    assertEquals(Collections.singletonList("bytes=40000-"), dispatcher.ranges);
+    assertEquals(RangeDispatcher.ETAG, dispatcher.ifRange);
+    assertTrue(Arrays.equals(model, Files.toByteArray(destination.toFile())));
+    assertFalse(partial.toFile().exists());
+    assertFalse(validator.toFile().exists());
+
+    dispatcher.ranges.clear();
+    try {
+      ModelDownloads.getModelFile(
+          service,
+          options,
+          destination,
+          new FileDownloader.Builder().checksum("SHA-256", "00").build());
+      fail("Expected a checksum mismatch");
+    } catch (IOException e) {
+      assertEquals(Collections.singletonList((String) null), dispatcher.ranges);
+      assertFalse(partial.toFile().exists());
+    }
+  }
+
+  /**
+   * Test that a model file download starts over when the file changed since the partial file was
+   * written, when the range is not satisfiable and when the partial file has no validator.
+   *
+   * @throws Exception the exception
+   */
+  @Test
+  public void testModelDownloadRestarts() throws Exception {
+    byte[] model = newModel();
+    RangeDispatcher dispatcher = new RangeDispatcher(model);
+    server.setDispatcher(dispatcher);
+    Path destination = Files.createTempDir().toPath().resolve("model.tflite");
+    Path partial = FileDownloader.partialFile(destination);
+    Path validator = FileDownloader.validatorFile(partial);
+    GetModelFileOptions options =
+        new GetModelFileOptions.Builder(COLLECTION_ID, "objects", "tflite").build();
+    FileDownloader downloader = new FileDownloader.Builder().blockSize(4096).build();
+
+    // The file changed: the service ignores the range and sends the whole body.
+    Files.write(new byte[40000], partial.toFile());
+    Files.write("\"v1\"".getBytes("UTF-8"), validator.toFile());
+    ModelDownloads.getModelFile(service, options, destination, downloader);
+    assertEquals(Collections.singletonList("bytes=40000-"), dispatcher.ranges);
+    assertEquals("\"v1\"", dispatcher.ifRange);
+    assertTrue(Arrays.equals(model, Files.toByteArray(destination.toFile())));
+    assertFalse(partial.toFile().exists());
+    assertFalse(validator.toFile().exists());
+
+    // The partial file is longer than the body, whose size is not known in advance.
+    dispatcher.ranges.clear();
+    Files.write(Arrays.copyOf(model, model.length + 10), partial.toFile());
+    Files.write(RangeDispatcher.ETAG.getBytes("UTF-8"), validator.toFile());
+    ModelDownloads.getModelFile(service, options, destination, downloader);
+    assertEquals(Arrays.asList("bytes=" + (model.length + 10) + "-", null), dispatcher.ranges);
+    assertTrue(Arrays.equals(model, Files.toByteArray(destination.toFile())));
+    assertFalse(partial.toFile().exists());
+
+    // Without a validator the partial file cannot be trusted.
+    dispatcher.ranges.clear();
+    Files.write(new byte[40000], partial.toFile());
+    ModelDownloads.getModelFile(service, options, destination, downloader);
+    assertEquals(Collections.singletonList((String) null), dispatcher.ranges);
+    assertTrue(Arrays.equals(model, Files.toByteArray(destination.toFile())));
+  }
+
+  private static byte[] newModel() {
+    byte[] model = new byte[100000];
+    for (int i = 0; i < model.length; i++) {
+      model[i] = (byte) (i * 31);
+    }
+    return model;
+  }
+
+  /**
+   * Serves a body with an entity tag. Byte ranges that start at an offset are honored when their
+   * {@code If-Range} matches the tag, and are not satisfiable when they start past the body.
+   */
+  private static class RangeDispatcher extends Dispatcher {
+    private static final String ETAG = "\"v2\"";
+    private final byte[] body;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String ifRange;
+
+    RangeDispatcher(byte[] body) {
+      this.body = body;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+      String range = request.getHeader("Range");
+      ranges.add(range);
+      ifRange = request.getHeader("If-Range");
+      if (range == null || !ETAG.equals(ifRange)) {
+        return new MockResponse().addHeader("ETag", ETAG).setBody(new Buffer().write(body));
+      }
+      int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+      if (offset >= body.length) {
+        return new MockResponse().setResponseCode(416).setBody("{\"error\":\"Invalid range\"}");
+      }
+      String contentRange = "bytes " + offset + "-" + (body.length - 1) + "/" + body.length;
+      return new MockResponse()
+          .setResponseCode(206)
+          .addHeader("ETag", ETAG)
+          .addHeader("Content-Range", contentRange)
+          .setBody(new Buffer().write(body, offset, body.length - offset));
+    }
+  }
 }